@@ -39,12 +39,14 @@ import com.microsoft.appcenter.utils.context.UserIdContext;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Analytics service.
@@ -80,7 +82,7 @@ public class Analytics extends AbstractAppCenterService {
      * Shared instance.
      */
     @SuppressLint("StaticFieldLeak")
-    private static Analytics sInstance;
+    private static volatile Analytics sInstance;
 
     /**
      * Transmission interval minimum value.
@@ -94,6 +96,19 @@ public class Analytics extends AbstractAppCenterService {
     @VisibleForTesting
     static final int MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS = 24 * 60 * 60;
 
+    /**
+     * Maximum event buffer capacity.
+     */
+    @VisibleForTesting
+    static final int MAXIMUM_EVENT_BUFFER_CAPACITY = 1 << 16;
+
+    /**
+     * Storage quota of analytics logs as a fraction of the maximum storage size,
+     * so that a flood of events cannot evict all the logs of other services.
+     */
+    @VisibleForTesting
+    static final float STORAGE_QUOTA = 0.5f;
+
     /**
      * Log factories managed by this service.
      */
@@ -156,6 +171,61 @@ public class Analytics extends AbstractAppCenterService {
      */
     private boolean mAutoPageTrackingEnabled = false;
 
+    /**
+     * Buffer capturing events without locking, null to post each event separately.
+     */
+    private volatile EventBuffer mEventBuffer;
+
+    /**
+     * Capacity of the event buffer to build when the service starts, 0 for no event buffer.
+     */
+    private int mEventBufferCapacity;
+
+    /**
+     * Overflow policy of the event buffer to build when the service starts.
+     */
+    @OverflowPolicy
+    private int mEventBufferOverflowPolicy;
+
+    /**
+     * True while a command to drain the event buffer is posted.
+     */
+    private final AtomicBoolean mEventBufferDrainScheduled = new AtomicBoolean();
+
+    /**
+     * Enqueues events captured in the event buffer.
+     */
+    private final EventBuffer.Listener mEventBufferListener = new EventBuffer.Listener() {
+
+        @Override
+        public void onEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+            queueEvent(name, properties, transmissionTarget, flags, userId, new Date(timestamp));
+        }
+    };
+
+    /**
+     * Drains the event buffer in the background.
+     */
+    private final Runnable mDrainEventBufferRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            drainEventBuffer(mEventBufferListener);
+        }
+    };
+
+    /**
+     * Discards the event buffer content when Analytics or App Center is disabled.
+     */
+    private final Runnable mDiscardEventBufferRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            AppCenterLog.info(LOG_TAG, "Analytics service disabled, discarding buffered events.");
+            drainEventBuffer(null);
+        }
+    };
+
     /**
      * Init.
      */
@@ -175,11 +245,19 @@ public class Analytics extends AbstractAppCenterService {
      * @return shared instance.
      */
     @SuppressWarnings({"WeakerAccess", "RedundantSuppression"})
-    public static synchronized Analytics getInstance() {
-        if (sInstance == null) {
-            sInstance = new Analytics();
+    public static Analytics getInstance() {
+
+        /* Avoid locking on every call, this is used by trackEvent. */
+        Analytics instance = sInstance;
+        if (instance == null) {
+            synchronized (Analytics.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = sInstance = new Analytics();
+                }
+            }
         }
-        return sInstance;
+        return instance;
     }
 
     @VisibleForTesting
@@ -220,6 +298,35 @@ public class Analytics extends AbstractAppCenterService {
         return getInstance().setInstanceTransmissionInterval(seconds);
     }
 
+    /**
+     * Capture events in a bounded buffer drained in batches in background, instead of scheduling
+     * a background command for each event. Tracking events from many threads then does not
+     * contend on a lock. Should be called before the service is started, events are buffered
+     * once the service is started.
+     * <p>
+     * Events are timestamped when tracked. Events tracked while other Analytics commands
+     * are pending in background might be processed before those commands.
+     *
+     * @param capacity       maximum number of events waiting to be processed in background,
+     *                       rounded up to a power of 2, up to 65536.
+     * @param overflowPolicy what to do when tracking an event while the buffer is full.
+     * @return <code>true</code> if the buffer is set, <code>false</code> otherwise.
+     */
+    public static boolean setEventBuffer(int capacity, @OverflowPolicy int overflowPolicy) {
+        return getInstance().setInstanceEventBuffer(capacity, overflowPolicy);
+    }
+
+    /**
+     * Get the number of events dropped because the event buffer was full.
+     *
+     * @return number of dropped events since the process started, 0 if no event buffer is set.
+     * @see #setEventBuffer(int, int)
+     */
+    public static long getDroppedEventCount() {
+        EventBuffer eventBuffer = getInstance().mEventBuffer;
+        return eventBuffer == null ? 0 : eventBuffer.getDroppedEventCount();
+    }
+
     /**
      * Pauses log transmission. This API cannot be used if the service is disabled.
      * Transmission is resumed:
@@ -626,6 +733,11 @@ public class Analytics extends AbstractAppCenterService {
         return mTransmissionInterval;
     }
 
+    @Override
+    protected float getStorageQuota() {
+        return STORAGE_QUOTA;
+    }
+
     /**
      * On an activity being resumed, start a new session if needed
      * and track current page automatically if that mode is enabled.
@@ -699,7 +811,7 @@ public class Analytics extends AbstractAppCenterService {
 
         /* If we enabled the service. */
         if (enabled) {
-            mChannel.addGroup(ANALYTICS_CRITICAL_GROUP, getTriggerCount(), Constants.DEFAULT_TRIGGER_INTERVAL, getTriggerMaxParallelRequests(), null, getChannelListener());
+            mChannel.addGroup(ANALYTICS_CRITICAL_GROUP, getTriggerCount(), Constants.DEFAULT_TRIGGER_INTERVAL, getTriggerMaxParallelRequests(), 0, null, getChannelListener());
 
             /* Check if service started at application level and enable corresponding features. */
             startAppLevelFeatures();
@@ -801,38 +913,111 @@ public class Analytics extends AbstractAppCenterService {
      * @param transmissionTarget optional target.
      * @param flags              optional flags.
      */
-    private synchronized void trackEventAsync(final String name, final List<TypedProperty> properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags) {
-        final String userId = UserIdContext.getInstance().getUserId();
+    private void trackEventAsync(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags) {
+        String userId = UserIdContext.getInstance().getUserId();
+        EventBuffer eventBuffer = mEventBuffer;
+        if (eventBuffer == null) {
+            postEvent(name, properties, transmissionTarget, flags, userId);
+        } else if (eventBuffer.add(name, properties, transmissionTarget, flags, userId, System.currentTimeMillis())) {
+            scheduleEventBufferDrain();
+        } else {
+            AppCenterLog.debug(LOG_TAG, "Event buffer is full, the event is discarded.");
+        }
+    }
+
+    /**
+     * Post a command to enqueue an event.
+     */
+    private synchronized void postEvent(final String name, final List<TypedProperty> properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags, final String userId) {
         post(new Runnable() {
 
             @Override
             public void run() {
-                AnalyticsTransmissionTarget aTransmissionTarget = (transmissionTarget == null) ? mDefaultTransmissionTarget : transmissionTarget;
-                EventLog eventLog = new EventLog();
-                if (aTransmissionTarget != null) {
-                    if (aTransmissionTarget.isEnabled()) {
-                        eventLog.addTransmissionTarget(aTransmissionTarget.getTransmissionTargetToken());
-                        eventLog.setTag(aTransmissionTarget);
-                        if (aTransmissionTarget == mDefaultTransmissionTarget) {
-                            eventLog.setUserId(userId);
-                        }
-                    } else {
-                        AppCenterLog.error(LOG_TAG, "This transmission target is disabled.");
-                        return;
-                    }
-                } else if (!mStartedFromApp) {
-                    AppCenterLog.error(LOG_TAG, "Cannot track event using Analytics.trackEvent if not started from app, please start from the application or use Analytics.getTransmissionTarget.");
-                    return;
+                queueEvent(name, properties, transmissionTarget, flags, userId, null);
+            }
+        });
+    }
+
+    /**
+     * Enqueue event log now.
+     *
+     * @param timestamp event time, null to use the current time.
+     */
+    @WorkerThread
+    private void queueEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, Date timestamp) {
+        AnalyticsTransmissionTarget aTransmissionTarget = (transmissionTarget == null) ? mDefaultTransmissionTarget : transmissionTarget;
+        EventLog eventLog = new EventLog();
+        if (aTransmissionTarget != null) {
+            if (aTransmissionTarget.isEnabled()) {
+                eventLog.addTransmissionTarget(aTransmissionTarget.getTransmissionTargetToken());
+                eventLog.setTag(aTransmissionTarget);
+                if (aTransmissionTarget == mDefaultTransmissionTarget) {
+                    eventLog.setUserId(userId);
                 }
-                eventLog.setId(UUID.randomUUID());
-                eventLog.setName(name);
-                eventLog.setTypedProperties(properties);
+            } else {
+                AppCenterLog.error(LOG_TAG, "This transmission target is disabled.");
+                return;
+            }
+        } else if (!mStartedFromApp) {
+            AppCenterLog.error(LOG_TAG, "Cannot track event using Analytics.trackEvent if not started from app, please start from the application or use Analytics.getTransmissionTarget.");
+            return;
+        }
+        eventLog.setId(UUID.randomUUID());
+        eventLog.setName(name);
+        eventLog.setTypedProperties(properties);
+        eventLog.setTimestamp(timestamp);
+
+        /* Filter and validate flags. For now we support only persistence. */
+        int filteredFlags = Flags.getPersistenceFlag(flags, true);
+        mChannel.enqueue(eventLog, filteredFlags == Flags.CRITICAL ? ANALYTICS_CRITICAL_GROUP : ANALYTICS_GROUP, filteredFlags);
+    }
 
-                /* Filter and validate flags. For now we support only persistence. */
-                int filteredFlags = Flags.getPersistenceFlag(flags, true);
-                mChannel.enqueue(eventLog, filteredFlags == Flags.CRITICAL ? ANALYTICS_CRITICAL_GROUP : ANALYTICS_GROUP, filteredFlags);
+    /**
+     * Post a command to drain the event buffer unless one is already pending.
+     */
+    private void scheduleEventBufferDrain() {
+        if (mEventBufferDrainScheduled.compareAndSet(false, true)) {
+            if (!post(mDrainEventBufferRunnable, mDiscardEventBufferRunnable, mDiscardEventBufferRunnable)) {
+                drainEventBuffer(null);
             }
-        });
+        }
+    }
+
+    /**
+     * Drain a batch of events from the buffer, and schedule the next batch if more events are waiting.
+     *
+     * @param listener listener to enqueue events, null to discard them.
+     */
+    private void drainEventBuffer(EventBuffer.Listener listener) {
+
+        /* Reset the flag first so that events added while draining schedule a new drain if missed. */
+        mEventBufferDrainScheduled.set(false);
+        EventBuffer eventBuffer = mEventBuffer;
+        eventBuffer.drain(listener, eventBuffer.getCapacity());
+        if (!eventBuffer.isEmpty()) {
+            scheduleEventBufferDrain();
+        }
+    }
+
+    /**
+     * Implements {@link #setEventBuffer(int, int)}.
+     */
+    private synchronized boolean setInstanceEventBuffer(int capacity, @OverflowPolicy int overflowPolicy) {
+        if (mChannel != null) {
+            AppCenterLog.error(LOG_TAG, "Event buffer should be set before the service is started.");
+            return false;
+        }
+        if (capacity <= 0 || capacity > MAXIMUM_EVENT_BUFFER_CAPACITY) {
+            AppCenterLog.error(LOG_TAG, "Event buffer capacity should be between 1 and " + MAXIMUM_EVENT_BUFFER_CAPACITY + ".");
+            return false;
+        }
+        if (overflowPolicy != OverflowPolicy.DROP_OLDEST && overflowPolicy != OverflowPolicy.DROP_NEWEST && overflowPolicy != OverflowPolicy.BLOCK) {
+            AppCenterLog.error(LOG_TAG, "Invalid event buffer overflow policy: " + overflowPolicy);
+            return false;
+        }
+        mEventBufferCapacity = capacity;
+        mEventBufferOverflowPolicy = overflowPolicy;
+        return true;
     }
 
     /**
@@ -893,6 +1078,11 @@ public class Analytics extends AbstractAppCenterService {
     public synchronized void onStarted(@NonNull Context context, @NonNull Channel channel, String appSecret, String transmissionTargetToken, boolean startedFromApp) {
         mContext = context;
         mStartedFromApp = startedFromApp;
+
+        /* This runs on the App Center looper thread, which drains the buffer: it must not wait for room itself. */
+        if (mEventBufferCapacity > 0 && mEventBuffer == null) {
+            mEventBuffer = new EventBuffer(mEventBufferCapacity, mEventBufferOverflowPolicy, Thread.currentThread());
+        }
         super.onStarted(context, channel, appSecret, transmissionTargetToken, startedFromApp);
         setDefaultTransmissionTarget(transmissionTargetToken);
     }
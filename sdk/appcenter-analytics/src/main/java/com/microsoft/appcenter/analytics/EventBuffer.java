@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics;
+
+import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer capturing events from any thread without locking,
+ * drained in batches by the App Center background thread.
+ * <p>
+ * Each slot has a sequence number telling whether it is free for the producer of a given position
+ * or holds the event for the consumer of a given position. Producers and the consumer claim positions
+ * with compare and set, so dropping the oldest event from a producer thread is also safe.
+ * Event fields are kept in arrays so that tracking an event allocates nothing.
+ */
+class EventBuffer {
+
+    /**
+     * Time to wait in nanoseconds before checking again for room with {@link OverflowPolicy#BLOCK}.
+     */
+    private static final long BLOCK_PARK_TIME = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Receives drained events.
+     */
+    interface Listener {
+
+        /**
+         * Called for each drained event, in order.
+         *
+         * @param name               event name.
+         * @param properties         event properties.
+         * @param transmissionTarget transmission target or null for the default target.
+         * @param flags              event flags.
+         * @param userId             user identifier when the event was tracked.
+         * @param timestamp          time in milliseconds when the event was tracked.
+         */
+        void onEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp);
+    }
+
+    /**
+     * Mask to get a slot index from a position, capacity is a power of 2.
+     */
+    private final int mMask;
+
+    /**
+     * Overflow policy.
+     */
+    private final int mOverflowPolicy;
+
+    /**
+     * Sequence number of each slot.
+     */
+    private final AtomicLongArray mSequences;
+
+    /**
+     * Event name of each slot.
+     */
+    private final String[] mNames;
+
+    /**
+     * Event properties of each slot.
+     */
+    private final List<TypedProperty>[] mProperties;
+
+    /**
+     * Transmission target of each slot.
+     */
+    private final AnalyticsTransmissionTarget[] mTransmissionTargets;
+
+    /**
+     * Event flags of each slot.
+     */
+    private final int[] mFlags;
+
+    /**
+     * User identifier of each slot.
+     */
+    private final String[] mUserIds;
+
+    /**
+     * Event time of each slot.
+     */
+    private final long[] mTimestamps;
+
+    /**
+     * Next position to write.
+     */
+    private final AtomicLong mProducerPosition = new AtomicLong();
+
+    /**
+     * Next position to read.
+     */
+    private final AtomicLong mConsumerPosition = new AtomicLong();
+
+    /**
+     * Number of events dropped because the buffer was full.
+     */
+    private final AtomicLong mDroppedEventCount = new AtomicLong();
+
+    /**
+     * Thread draining events, producers on that thread cannot wait for room.
+     */
+    private final Thread mConsumerThread;
+
+    /**
+     * Init.
+     *
+     * @param capacity       minimum number of events, rounded up to a power of 2.
+     * @param overflowPolicy overflow policy.
+     * @param consumerThread thread that drains events.
+     */
+    @SuppressWarnings("unchecked")
+    EventBuffer(int capacity, @OverflowPolicy int overflowPolicy, Thread consumerThread) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mMask = size - 1;
+        mOverflowPolicy = overflowPolicy;
+        mConsumerThread = consumerThread;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mNames = new String[size];
+        mProperties = new List[size];
+        mTransmissionTargets = new AnalyticsTransmissionTarget[size];
+        mFlags = new int[size];
+        mUserIds = new String[size];
+        mTimestamps = new long[size];
+    }
+
+    /**
+     * @return number of slots.
+     */
+    int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return number of events dropped because the buffer was full.
+     */
+    long getDroppedEventCount() {
+        return mDroppedEventCount.get();
+    }
+
+    /**
+     * @return true if there is no event to drain.
+     */
+    boolean isEmpty() {
+        long position = mConsumerPosition.get();
+        return mSequences.get((int) position & mMask) != position + 1;
+    }
+
+    /**
+     * Add an event, applying the overflow policy if the buffer is full.
+     *
+     * @return true if added, false if the event was dropped.
+     */
+    boolean add(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+        while (!offer(name, properties, transmissionTarget, flags, userId, timestamp)) {
+            if (mOverflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                if (poll(null)) {
+                    mDroppedEventCount.incrementAndGet();
+                }
+            } else if (mOverflowPolicy == OverflowPolicy.BLOCK && Thread.currentThread() != mConsumerThread) {
+                LockSupport.parkNanos(BLOCK_PARK_TIME);
+            } else {
+                mDroppedEventCount.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drain events in order.
+     *
+     * @param listener  listener called for each event, null to discard events.
+     * @param maxEvents maximum number of events to drain.
+     * @return number of events drained.
+     */
+    int drain(Listener listener, int maxEvents) {
+        int count = 0;
+        while (count < maxEvents && poll(listener)) {
+            count++;
+        }
+        return count;
+    }
+
+    private boolean offer(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+        long position = mProducerPosition.get();
+        int index;
+        while (true) {
+            index = (int) position & mMask;
+            long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mProducerPosition.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = mProducerPosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mProducerPosition.get();
+            }
+        }
+        mNames[index] = name;
+        mProperties[index] = properties;
+        mTransmissionTargets[index] = transmissionTarget;
+        mFlags[index] = flags;
+        mUserIds[index] = userId;
+        mTimestamps[index] = timestamp;
+
+        /* Publish the event to the consumer. */
+        mSequences.set(index, position + 1);
+        return true;
+    }
+
+    private boolean poll(Listener listener) {
+        long position = mConsumerPosition.get();
+        int index;
+        while (true) {
+            index = (int) position & mMask;
+            long difference = mSequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (mConsumerPosition.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = mConsumerPosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mConsumerPosition.get();
+            }
+        }
+        String name = mNames[index];
+        List<TypedProperty> properties = mProperties[index];
+        AnalyticsTransmissionTarget transmissionTarget = mTransmissionTargets[index];
+        int flags = mFlags[index];
+        String userId = mUserIds[index];
+        long timestamp = mTimestamps[index];
+        mNames[index] = null;
+        mProperties[index] = null;
+        mTransmissionTargets[index] = null;
+        mUserIds[index] = null;
+
+        /* Release the slot to the producer of the next lap. */
+        mSequences.set(index, position + mMask + 1);
+        if (listener != null) {
+            listener.onEvent(name, properties, transmissionTarget, flags, userId, timestamp);
+        }
+        return true;
+    }
+}
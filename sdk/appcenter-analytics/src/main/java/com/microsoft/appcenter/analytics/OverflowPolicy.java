@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * What to do when tracking an event while the event buffer is full.
+ *
+ * @see Analytics#setEventBuffer(int, int)
+ */
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({
+        OverflowPolicy.DROP_OLDEST,
+        OverflowPolicy.DROP_NEWEST,
+        OverflowPolicy.BLOCK
+})
+public @interface OverflowPolicy {
+
+    /**
+     * Drop the oldest buffered event to make room for the new one.
+     */
+    int DROP_OLDEST = 1;
+
+    /**
+     * Drop the event being tracked.
+     */
+    int DROP_NEWEST = 2;
+
+    /**
+     * Wait until there is room for the event. Events tracked from the App Center background
+     * thread are dropped instead as waiting there would never end.
+     */
+    int BLOCK = 3;
+}
@@ -58,12 +58,14 @@ import static com.microsoft.appcenter.analytics.Analytics.ANALYTICS_CRITICAL_GRO
 import static com.microsoft.appcenter.analytics.Analytics.ANALYTICS_GROUP;
 import static com.microsoft.appcenter.analytics.Analytics.MAXIMUM_TRANSMISSION_INTERVAL_IN_SECONDS;
 import static com.microsoft.appcenter.analytics.Analytics.MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS;
+import static com.microsoft.appcenter.analytics.Analytics.STORAGE_QUOTA;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
@@ -236,6 +238,85 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         assertNull(argumentCaptor.getValue().getTypedProperties());
     }
 
+    @Test
+    public void trackEventWithEventBuffer() {
+        assertTrue(Analytics.setEventBuffer(2, OverflowPolicy.DROP_NEWEST));
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        ArgumentCaptor<EventLog> argumentCaptor = ArgumentCaptor.forClass(EventLog.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Cannot change buffer after start. */
+        assertFalse(Analytics.setEventBuffer(4, OverflowPolicy.DROP_NEWEST));
+
+        /* Events are enqueued with the time they were tracked. */
+        long before = System.currentTimeMillis();
+        Analytics.trackEvent("eventName");
+        verify(channel).enqueue(argumentCaptor.capture(), eq(ANALYTICS_GROUP), eq(DEFAULTS));
+        assertEquals("eventName", argumentCaptor.getValue().getName());
+        assertNotNull(argumentCaptor.getValue().getTimestamp());
+        assertTrue(argumentCaptor.getValue().getTimestamp().getTime() >= before);
+        assertEquals(0, Analytics.getDroppedEventCount());
+    }
+
+    @Test
+    public void trackEventWithFullEventBuffer() {
+        assertTrue(Analytics.setEventBuffer(1, OverflowPolicy.DROP_NEWEST));
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Hold the drain commands to fill the buffer, capacity is rounded to 2. */
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                return null;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class), any(Runnable.class));
+        for (int i = 0; i < 3; i++) {
+            Analytics.trackEvent("eventName");
+        }
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        assertEquals(1, Analytics.getDroppedEventCount());
+    }
+
+    @Test
+    public void trackEventWithFullBlockingEventBufferOnLooperThread() {
+        assertTrue(Analytics.setEventBuffer(1, OverflowPolicy.BLOCK));
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+
+        /* The service starts on the App Center looper thread, this thread. */
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Filling the buffer before any drain does not wait for room on the thread that would drain it. */
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                return null;
+            }
+        }).when(mAppCenterHandler).post(any(Runnable.class), any(Runnable.class));
+        for (int i = 0; i < 3; i++) {
+            Analytics.trackEvent("eventName");
+        }
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+        assertEquals(1, Analytics.getDroppedEventCount());
+    }
+
+    @Test
+    public void invalidEventBuffer() {
+        assertEquals(0, Analytics.getDroppedEventCount());
+        assertFalse(Analytics.setEventBuffer(0, OverflowPolicy.DROP_NEWEST));
+        assertFalse(Analytics.setEventBuffer(Analytics.MAXIMUM_EVENT_BUFFER_CAPACITY + 1, OverflowPolicy.DROP_NEWEST));
+        assertFalse(Analytics.setEventBuffer(16, 0));
+        assertTrue(Analytics.setEventBuffer(Analytics.MAXIMUM_EVENT_BUFFER_CAPACITY, OverflowPolicy.BLOCK));
+    }
+
     @Test
     public void trackEventFromAppWithNullMapProperty() {
         Analytics analytics = Analytics.getInstance();
@@ -482,8 +563,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
         verify(channel).removeGroup(eq(analytics.getGroupName()));
-        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
-        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), eq(0f), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), eq(STORAGE_QUOTA), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addListener(isA(SessionTracker.class));
         verify(channel).addListener(isA(AnalyticsValidator.class));
         verify(channel).addListener(isA(AnalyticsTransmissionTarget.getChannelListener().getClass()));
@@ -568,7 +649,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         Channel channel = mock(Channel.class);
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
-        verify(channel).addGroup(eq(analytics.getGroupName()), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(analytics.getGroupName()), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addListener(isA(SessionTracker.class));
         verify(channel).addListener(isA(AnalyticsValidator.class));
 
@@ -607,7 +688,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         Channel channel = mock(Channel.class);
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
-        verify(channel).addGroup(eq(analytics.getGroupName()), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(analytics.getGroupName()), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         verify(channel).addListener(isA(SessionTracker.class));
         verify(channel).addListener(isA(AnalyticsValidator.class));
 
@@ -714,7 +795,7 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
         final ArgumentCaptor<Channel.GroupListener> captor = ArgumentCaptor.forClass(Channel.GroupListener.class);
-        verify(channel, times(2)).addGroup(anyString(), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), captor.capture());
+        verify(channel, times(2)).addGroup(anyString(), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), captor.capture());
         doAnswer(new Answer<Void>() {
 
             @Override
@@ -739,8 +820,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         Channel channel = mock(Channel.class);
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
-        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
-        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         Analytics.trackEvent("name", generateEventProperties(), Flags.CRITICAL);
         verify(channel).enqueue(any(Log.class), eq(ANALYTICS_CRITICAL_GROUP), eq(Flags.CRITICAL));
     }
@@ -753,8 +834,8 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         Channel channel = mock(Channel.class);
         analytics.onStarting(mAppCenterHandler);
         analytics.onStarted(mock(Context.class), channel, "", null, true);
-        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
-        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_CRITICAL_GROUP), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(ANALYTICS_GROUP), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         Analytics.trackEvent("name", generateEventProperties(), Flags.NORMAL);
         verify(channel).enqueue(any(Log.class), eq(ANALYTICS_GROUP), eq(Flags.NORMAL));
     }
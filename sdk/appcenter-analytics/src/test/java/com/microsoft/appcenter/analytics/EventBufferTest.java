@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics;
+
+import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EventBufferTest {
+
+    private static EventBuffer.Listener collect(final List<String> names) {
+        return new EventBuffer.Listener() {
+
+            @Override
+            public void onEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+                names.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        assertEquals(2, new EventBuffer(1, OverflowPolicy.DROP_NEWEST, Thread.currentThread()).getCapacity());
+        assertEquals(4, new EventBuffer(4, OverflowPolicy.DROP_NEWEST, Thread.currentThread()).getCapacity());
+        assertEquals(8, new EventBuffer(5, OverflowPolicy.DROP_NEWEST, Thread.currentThread()).getCapacity());
+    }
+
+    @Test
+    public void drainInOrder() {
+        EventBuffer buffer = new EventBuffer(4, OverflowPolicy.DROP_NEWEST, Thread.currentThread());
+        assertTrue(buffer.isEmpty());
+        final List<TypedProperty> properties = Collections.emptyList();
+        final AnalyticsTransmissionTarget target = mock(AnalyticsTransmissionTarget.class);
+        assertTrue(buffer.add("one", properties, target, 2, "alice", 42));
+        assertTrue(buffer.add("two", null, null, 1, null, 43));
+        assertFalse(buffer.isEmpty());
+
+        /* Verify all fields of the first event. */
+        final List<String> names = new ArrayList<>();
+        assertEquals(1, buffer.drain(new EventBuffer.Listener() {
+
+            @Override
+            public void onEvent(String name, List<TypedProperty> actualProperties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+                names.add(name);
+                assertSame(properties, actualProperties);
+                assertSame(target, transmissionTarget);
+                assertEquals(2, flags);
+                assertEquals("alice", userId);
+                assertEquals(42, timestamp);
+            }
+        }, 1));
+
+        /* Then the second one. */
+        assertEquals(1, buffer.drain(new EventBuffer.Listener() {
+
+            @Override
+            public void onEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+                names.add(name);
+                assertNull(properties);
+                assertNull(transmissionTarget);
+                assertNull(userId);
+            }
+        }, 10));
+        assertEquals(0, buffer.drain(collect(names), 10));
+        assertTrue(buffer.isEmpty());
+        assertEquals(2, names.size());
+        assertEquals("one", names.get(0));
+        assertEquals("two", names.get(1));
+    }
+
+    @Test
+    public void dropNewest() {
+        EventBuffer buffer = new EventBuffer(2, OverflowPolicy.DROP_NEWEST, Thread.currentThread());
+        assertTrue(buffer.add("1", null, null, 1, null, 0));
+        assertTrue(buffer.add("2", null, null, 1, null, 0));
+        assertFalse(buffer.add("3", null, null, 1, null, 0));
+        assertEquals(1, buffer.getDroppedEventCount());
+        List<String> names = new ArrayList<>();
+        buffer.drain(collect(names), 10);
+        assertEquals(2, names.size());
+        assertEquals("1", names.get(0));
+        assertEquals("2", names.get(1));
+
+        /* Slots are reused after drain. */
+        assertTrue(buffer.add("4", null, null, 1, null, 0));
+        assertEquals(1, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void dropOldest() {
+        EventBuffer buffer = new EventBuffer(2, OverflowPolicy.DROP_OLDEST, Thread.currentThread());
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(buffer.add(String.valueOf(i), null, null, 1, null, 0));
+        }
+        assertEquals(3, buffer.getDroppedEventCount());
+        List<String> names = new ArrayList<>();
+        buffer.drain(collect(names), 10);
+        assertEquals(2, names.size());
+        assertEquals("4", names.get(0));
+        assertEquals("5", names.get(1));
+    }
+
+    @Test
+    public void discard() {
+        EventBuffer buffer = new EventBuffer(2, OverflowPolicy.DROP_NEWEST, Thread.currentThread());
+        buffer.add("1", null, null, 1, null, 0);
+        assertEquals(1, buffer.drain(null, 10));
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void blockUntilDrained() throws InterruptedException {
+        final EventBuffer buffer = new EventBuffer(2, OverflowPolicy.BLOCK, Thread.currentThread());
+        buffer.add("1", null, null, 1, null, 0);
+        buffer.add("2", null, null, 1, null, 0);
+
+        /* Add from another thread, it waits for room. */
+        final CountDownLatch added = new CountDownLatch(1);
+        new Thread() {
+
+            @Override
+            public void run() {
+                buffer.add("3", null, null, 1, null, 0);
+                added.countDown();
+            }
+        }.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+        List<String> names = new ArrayList<>();
+        buffer.drain(collect(names), 1);
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        buffer.drain(collect(names), 10);
+        assertEquals(3, names.size());
+        assertEquals("3", names.get(2));
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void blockDropsOnConsumerThread() {
+        EventBuffer buffer = new EventBuffer(2, OverflowPolicy.BLOCK, Thread.currentThread());
+
+        /* This thread is the consumer, it cannot wait for room even before any drain. */
+        buffer.add("1", null, null, 1, null, 0);
+        buffer.add("2", null, null, 1, null, 0);
+        assertFalse(buffer.add("3", null, null, 1, null, 0));
+        assertEquals(1, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final EventBuffer buffer = new EventBuffer(64, OverflowPolicy.BLOCK, Thread.currentThread());
+        final int producerCount = 4;
+        final int eventCount = 10000;
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            final int producer = i;
+            producers[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventCount; j++) {
+                        buffer.add(null, null, null, producer, null, j);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+
+        /* Each producer's events are drained in order and none is lost. */
+        final long[] nextTimestamps = new long[producerCount];
+        final int[] counts = new int[1];
+        EventBuffer.Listener listener = new EventBuffer.Listener() {
+
+            @Override
+            public void onEvent(String name, List<TypedProperty> properties, AnalyticsTransmissionTarget transmissionTarget, int flags, String userId, long timestamp) {
+                assertEquals(nextTimestamps[flags]++, timestamp);
+                counts[0]++;
+            }
+        };
+        while (counts[0] < producerCount * eventCount) {
+            buffer.drain(listener, 100);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+}
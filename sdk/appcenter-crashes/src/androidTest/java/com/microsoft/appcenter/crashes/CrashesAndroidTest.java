@@ -54,6 +54,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
@@ -404,7 +405,7 @@ public class CrashesAndroidTest {
         mChannel = mock(Channel.class);
         ArgumentCaptor<Channel.GroupListener> groupListener = ArgumentCaptor.forClass(Channel.GroupListener.class);
         startFresh(crashesListener);
-        verify(mChannel).addGroup(anyString(), anyInt(), anyInt(), anyInt(), isNull(Ingestion.class), groupListener.capture());
+        verify(mChannel).addGroup(anyString(), anyInt(), anyInt(), anyInt(), anyFloat(), isNull(Ingestion.class), groupListener.capture());
         groupListener.getValue().onBeforeSending(log.getValue());
         groupListener.getValue().onSuccess(log.getValue());
 
@@ -126,6 +126,14 @@ public class Crashes extends AbstractAppCenterService {
      */
     private static final int MAX_ATTACHMENT_SIZE = 7 * 1024 * 1024;
 
+    /**
+     * Storage quota of crash logs as a fraction of the maximum storage size, which protects them
+     * from eviction by logs of other services with the same priority.
+     * Large attachments are stored in files and don't count in the quota.
+     */
+    @VisibleForTesting
+    static final float STORAGE_QUOTA = 0.25f;
+
     /**
      * Default crashes listener.
      */
@@ -505,6 +513,11 @@ public class Crashes extends AbstractAppCenterService {
         return 1;
     }
 
+    @Override
+    protected float getStorageQuota() {
+        return STORAGE_QUOTA;
+    }
+
     @Override
     protected Channel.GroupListener getChannelListener() {
         return new Channel.GroupListener() {
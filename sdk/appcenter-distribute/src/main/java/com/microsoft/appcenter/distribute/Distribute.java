@@ -1158,15 +1158,23 @@ public class Distribute extends AbstractAppCenterService {
                             String payload = httpResponse.getPayload();
                             handleApiCallSuccess(releaseCallId, payload, ReleaseDetails.parse(payload), distributionGroupId);
                         } catch (JSONException e) {
-                            onCallFailed(e);
+                            handleApiCallFailure(releaseCallId, e);
                         }
                     }
                 });
             }
 
             @Override
-            public void onCallFailed(Exception e) {
-                handleApiCallFailure(releaseCallId, e);
+            public void onCallFailed(final Exception e) {
+
+                /* HTTP callbacks run on the sender thread, the workflow is handled on UI thread. */
+                HandlerUtils.runOnUiThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        handleApiCallFailure(releaseCallId, e);
+                    }
+                });
             }
         });
     }
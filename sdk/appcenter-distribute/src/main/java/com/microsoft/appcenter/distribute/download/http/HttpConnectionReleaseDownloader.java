@@ -22,6 +22,7 @@ import com.microsoft.appcenter.distribute.PermissionUtils;
 import com.microsoft.appcenter.distribute.R;
 import com.microsoft.appcenter.distribute.ReleaseDetails;
 import com.microsoft.appcenter.distribute.download.AbstractReleaseDownloader;
+import com.microsoft.appcenter.http.HttpExecutor;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.AsyncTaskUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
@@ -33,6 +34,7 @@ import java.util.ArrayList;
 import static com.microsoft.appcenter.distribute.DistributeConstants.KIBIBYTE_IN_BYTES;
 import static com.microsoft.appcenter.distribute.DistributeConstants.LOG_TAG;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_DOWNLOAD;
 
 /**
  * Downloads new releases directly via HttpsURLConnection for Android versions prior to 5.0.
@@ -165,7 +167,7 @@ public class HttpConnectionReleaseDownloader extends AbstractReleaseDownloader {
         }
         Uri downloadUrl = mReleaseDetails.getDownloadUrl();
         AppCenterLog.debug(LOG_TAG, "Start downloading new release from " + downloadUrl);
-        mDownloadTask = AsyncTaskUtils.execute(LOG_TAG, new HttpConnectionDownloadFileTask(this, downloadUrl, file));
+        mDownloadTask = AsyncTaskUtils.execute(LOG_TAG, HttpExecutor.getExecutor(LANE_DOWNLOAD), new HttpConnectionDownloadFileTask(this, downloadUrl, file));
     }
 
     private void removeFile(File file) {
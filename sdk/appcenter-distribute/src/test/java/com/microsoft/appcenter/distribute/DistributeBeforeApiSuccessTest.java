@@ -1107,6 +1107,38 @@ public class DistributeBeforeApiSuccessTest extends AbstractDistributeTest {
         SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_STATE);
     }
 
+    @Test
+    public void releaseFailureIsHandledOnUiThread() {
+
+        /* Mock we already have token. */
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_UPDATE_TOKEN)).thenReturn("some token");
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).thenAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ((ServiceCallback) invocation.getArguments()[4]).onCallFailed(new HttpException(new HttpResponse(503)));
+                return mock(ServiceCall.class);
+            }
+        });
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(HandlerUtils.class);
+        HandlerUtils.runOnUiThread(captor.capture());
+
+        /* Trigger call, the failure is not handled on the sender thread. */
+        start();
+        Distribute.getInstance().onActivityResumed(mock(Activity.class));
+        verify(mHttpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verifyStatic(never());
+        SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_STATE);
+
+        /* Workflow completes once on UI thread. */
+        for (Runnable runnable : captor.getAllValues()) {
+            runnable.run();
+        }
+        verifyStatic();
+        SharedPreferencesManager.remove(PREFERENCE_KEY_DOWNLOAD_STATE);
+    }
+
     private void checkReleaseFailure(final Exception exception, VerificationMode deleteTokenVerificationMode) {
 
         /* Mock we already have token. */
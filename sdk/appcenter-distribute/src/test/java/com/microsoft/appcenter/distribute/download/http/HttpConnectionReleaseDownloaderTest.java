@@ -34,6 +34,7 @@ import org.powermock.reflect.Whitebox;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.Executor;
 
 import static android.content.Context.NOTIFICATION_SERVICE;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOADED_RELEASE_FILE;
@@ -114,7 +115,7 @@ public class HttpConnectionReleaseDownloaderTest {
         /* Mock AsyncTaskUtils. */
         mockStatic(AsyncTaskUtils.class);
         when(AsyncTaskUtils.execute(anyString(), isA(HttpConnectionCheckTask.class))).thenReturn(mCheckTask);
-        when(AsyncTaskUtils.execute(anyString(), isA(HttpConnectionDownloadFileTask.class))).thenReturn(mDownloadFileTask);
+        when(AsyncTaskUtils.execute(anyString(), any(Executor.class), isA(HttpConnectionDownloadFileTask.class))).thenReturn(mDownloadFileTask);
         when(AsyncTaskUtils.execute(anyString(), isA(HttpConnectionRemoveFileTask.class))).thenReturn(mRemoveFileTask);
 
         /* Mock NetworkStateHelper. */
@@ -252,7 +253,7 @@ public class HttpConnectionReleaseDownloaderTest {
         /* Start new download. */
         mReleaseDownloader.onStart(mock(File.class));
         verifyStatic();
-        AsyncTaskUtils.execute(anyString(), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
+        AsyncTaskUtils.execute(anyString(), any(Executor.class), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
 
         /* Cancel clears everything only once. */
         mReleaseDownloader.cancel();
@@ -281,7 +282,7 @@ public class HttpConnectionReleaseDownloaderTest {
 
         /* Verify. */
         verifyStatic();
-        AsyncTaskUtils.execute(anyString(), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
+        AsyncTaskUtils.execute(anyString(), any(Executor.class), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
     }
 
     @Test
@@ -293,7 +294,7 @@ public class HttpConnectionReleaseDownloaderTest {
 
         /* Verify. */
         verifyStatic(never());
-        AsyncTaskUtils.execute(anyString(), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
+        AsyncTaskUtils.execute(anyString(), any(Executor.class), isA(HttpConnectionDownloadFileTask.class), Mockito.<Void>anyVararg());
     }
 
     @Test
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the codecs on the platform zlib streams: on Android 4.1 to 6.0,
+ * closing a {@link java.util.zip.DeflaterOutputStream} ends its deflater even when it's not the default one.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public class CompressionCodecAndroidTest {
+
+    private static byte[] compress(CompressionCodec codec, byte[] payload) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(payload.length);
+        OutputStream stream = codec.compress(buffer);
+        try {
+            stream.write(payload);
+        } finally {
+            stream.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    private static byte[] decompress(InputStream stream, int length) throws Exception {
+        byte[] result = new byte[length];
+        try {
+            int offset = 0;
+            int count;
+            while (offset < length && (count = stream.read(result, offset, length - offset)) > 0) {
+                offset += count;
+            }
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void pooledDeflatersAreReusedAfterClose() throws Exception {
+        byte[] payload = "{\"logs\":[{\"type\":\"event\",\"name\":\"test\"}]}".getBytes(CHARSET_NAME);
+        GzipCodec gzipCodec = new GzipCodec();
+        DeflateCodec deflateCodec = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, null);
+
+        /* Each codec compresses several payloads with the same pooled deflater. */
+        for (int i = 0; i < DeflaterPool.MAX_IDLE_DEFLATERS + 1; i++) {
+            byte[] gzip = compress(gzipCodec, payload);
+            assertArrayEquals(payload, decompress(new GZIPInputStream(new ByteArrayInputStream(gzip)), payload.length));
+            byte[] deflate = compress(deflateCodec, payload);
+            assertArrayEquals(payload, decompress(new InflaterInputStream(new ByteArrayInputStream(deflate)), payload.length));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Debug;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the size and CPU cost of the compression codecs on typical batches.
+ * Each payload is decompressed the way the ingestion endpoint would to check it can be read back.
+ * Results are printed in logcat, there is no assertion on timing as it depends on the device.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CompressionCodecBenchmarkAndroidTest {
+
+    /**
+     * Batch sizes to compare, from a single log to the maximum batch size.
+     */
+    private static final int[] BATCH_SIZES = {1, 10, 50, 500};
+
+    /**
+     * Number of times each payload is compressed.
+     */
+    private static final int ITERATION_COUNT = 100;
+
+    private static byte[] generatePayload(int logCount) throws Exception {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        List<Log> logs = new ArrayList<>(logCount);
+        for (int i = 0; i < logCount; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        LogContainer container = new LogContainer();
+        container.setLogs(logs);
+        return logSerializer.serializeContainer(container).getBytes(CHARSET_NAME);
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] payload) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(payload.length);
+        OutputStream stream = codec.compress(buffer);
+        try {
+            stream.write(payload);
+        } finally {
+            stream.close();
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decompress like the ingestion endpoint, the dictionary is looked up only if the payload requires it.
+     */
+    private static byte[] decompress(CompressionCodec codec, byte[] data, int length) throws Exception {
+        byte[] result = new byte[length];
+        if (codec instanceof GzipCodec) {
+            InputStream stream = new GZIPInputStream(new ByteArrayInputStream(data));
+            try {
+                int offset = 0;
+                int count;
+                while (offset < length && (count = stream.read(result, offset, length - offset)) > 0) {
+                    offset += count;
+                }
+                assertTrue(stream.read() < 0);
+            } finally {
+                stream.close();
+            }
+        } else {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int count = inflater.inflate(result);
+                if (inflater.needsDictionary()) {
+                    inflater.setDictionary(DeflateCodec.getSdkDictionary());
+                    count += inflater.inflate(result, count, length - count);
+                }
+                assertTrue(inflater.finished());
+                assertEquals(length, count);
+            } finally {
+                inflater.end();
+            }
+        }
+        return result;
+    }
+
+    private static void run(String name, CompressionCodec codec) throws Exception {
+        for (int batchSize : BATCH_SIZES) {
+            byte[] payload = generatePayload(batchSize);
+            byte[] compressed = compress(codec, payload);
+            assertArrayEquals(payload, decompress(codec, compressed, payload.length));
+
+            /* Measure CPU time of this thread only, not wall time. */
+            long start = Debug.threadCpuTimeNanos();
+            for (int i = 0; i < ITERATION_COUNT; i++) {
+                compress(codec, payload);
+            }
+            long cpuTime = Debug.threadCpuTimeNanos() - start;
+            AppCenterLog.info(AppCenter.LOG_TAG, String.format("Benchmark %s: %d logs, %d bytes to %d bytes (%d%% saved), %d us per KB.",
+                    name, batchSize, payload.length, compressed.length, 100 - compressed.length * 100 / payload.length,
+                    cpuTime * 1024 / (1000L * ITERATION_COUNT * payload.length)));
+        }
+    }
+
+    @Test
+    public void compareCodecs() throws Exception {
+        AppCenter.setLogLevel(android.util.Log.INFO);
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            run("gzip level=" + level, new GzipCodec(level));
+        }
+        run("deflate", new DeflateCodec());
+        run("deflate with SDK dictionary", DeflateCodec.withSdkDictionary(Deflater.DEFAULT_COMPRESSION));
+        run("deflate with SDK dictionary level=" + Deflater.BEST_COMPRESSION, DeflateCodec.withSdkDictionary(Deflater.BEST_COMPRESSION));
+    }
+}
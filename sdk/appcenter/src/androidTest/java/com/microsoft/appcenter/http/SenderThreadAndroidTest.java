@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Printer;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that sending logs, HTTP callbacks and retry timers never run on the UI thread.
+ * Calls target a closed local port so that they fail fast without network.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class SenderThreadAndroidTest {
+
+    /**
+     * URL refusing connections.
+     */
+    private static final String CLOSED_PORT_URL = "https://127.0.0.1:1";
+
+    /**
+     * Code that must not run on the main looper, matched against dispatched messages.
+     */
+    private static final String[] FORBIDDEN_ON_MAIN_LOOPER = {
+            "com.microsoft.appcenter.channel.",
+            "com.microsoft.appcenter.http.",
+            "com.microsoft.appcenter.ingestion.",
+            "android.os.AsyncTask"
+    };
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    /**
+     * Violations found by the main looper monitor or by {@link ThreadCheckingHttpClient}.
+     */
+    private final List<String> mMainThreadUsages = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+
+        /* Looper logs every dispatched message with its target handler and callback. */
+        Looper.getMainLooper().setMessageLogging(new Printer() {
+
+            @Override
+            public void println(String message) {
+                if (message.startsWith(">>>>> Dispatching")) {
+                    for (String forbidden : FORBIDDEN_ON_MAIN_LOOPER) {
+                        if (message.contains(forbidden)) {
+                            mMainThreadUsages.add(message);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Looper.getMainLooper().setMessageLogging(null);
+    }
+
+    private void checkNotMainThread(String operation) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            mMainThreadUsages.add(operation);
+        }
+    }
+
+    @Test
+    public void retriesOffMainThread() throws Exception {
+        final Semaphore attempts = new Semaphore(0);
+        HttpClient httpClient = new HttpClientRetryer(new ThreadCheckingHttpClient(new DefaultHttpClient(), attempts));
+        ServiceCall call = httpClient.callAsync(CLOSED_PORT_URL, METHOD_POST, new HashMap<String, String>(), new HttpClient.CallTemplate() {
+
+            @Override
+            public String buildRequestBody() {
+                checkNotMainThread("buildRequestBody");
+                return "{}";
+            }
+
+            @Override
+            public void onBeforeCalling(URL url, Map<String, String> headers) {
+                checkNotMainThread("onBeforeCalling");
+            }
+        }, new ServiceCallback() {
+
+            @Override
+            public void onCallSucceeded(HttpResponse httpResponse) {
+            }
+
+            @Override
+            public void onCallFailed(Exception e) {
+            }
+        });
+
+        /* Wait for the first call, its failure and the retry, the first retry interval is at most 10 seconds. */
+        assertTrue(attempts.tryAcquire(3, HttpClientRetryer.RETRY_INTERVALS[0] * 2, TimeUnit.MILLISECONDS));
+        call.cancel();
+        httpClient.close();
+        assertEquals(Collections.emptyList(), mMainThreadUsages);
+    }
+
+    @Test
+    public void sendLogsOffMainThread() throws Exception {
+        HandlerThread appCenterThread = new HandlerThread("SenderThreadAndroidTest");
+        appCenterThread.start();
+        Semaphore calls = new Semaphore(0);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        String groupName = "group_sender_thread";
+        DefaultChannel channel = new DefaultChannel(sContext, UUID.randomUUID().toString(), logSerializer,
+                new ThreadCheckingHttpClient(new DefaultHttpClient(), calls), new Handler(appCenterThread.getLooper()));
+        try {
+            channel.setLogUrl(CLOSED_PORT_URL);
+            channel.addGroup(groupName, 1, 0, 1, 0, null, null);
+            channel.enqueue(AndroidTestUtils.generateMockLog(), groupName, NORMAL);
+
+            /* Wait for the call to fail, once on the way in and once for the callback. */
+            assertTrue(calls.tryAcquire(2, 10, TimeUnit.SECONDS));
+        } finally {
+            channel.clear(groupName);
+            channel.removeGroup(groupName);
+            channel.shutdown();
+            appCenterThread.quit();
+        }
+        assertEquals(Collections.emptyList(), mMainThreadUsages);
+    }
+
+    /**
+     * HTTP client recording calls and callbacks on the main thread.
+     */
+    private class ThreadCheckingHttpClient extends HttpClientDecorator {
+
+        /**
+         * Released on each call and each callback.
+         */
+        private final Semaphore mEvents;
+
+        ThreadCheckingHttpClient(HttpClient decoratedApi, Semaphore events) {
+            super(decoratedApi);
+            mEvents = events;
+        }
+
+        @Override
+        public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
+            checkNotMainThread("callAsync");
+            mEvents.release();
+            return mDecoratedApi.callAsync(url, method, headers, callTemplate, new ServiceCallback() {
+
+                @Override
+                public void onCallSucceeded(HttpResponse httpResponse) {
+                    checkNotMainThread("onCallSucceeded");
+                    serviceCallback.onCallSucceeded(httpResponse);
+                    mEvents.release();
+                }
+
+                @Override
+                public void onCallFailed(Exception e) {
+                    checkNotMainThread("onCallFailed");
+                    serviceCallback.onCallFailed(e);
+                    mEvents.release();
+                }
+            });
+        }
+    }
+}
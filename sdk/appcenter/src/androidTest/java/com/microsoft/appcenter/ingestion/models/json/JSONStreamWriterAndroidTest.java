@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@SuppressWarnings("unused")
+public class JSONStreamWriterAndroidTest {
+
+    private static void writeValues(JSONStringer writer) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("int", 1);
+        object.put("array", new JSONArray().put("a/b").put(JSONObject.NULL).put(2.5));
+        writer.object();
+        writer.key("string").value("quote\" backslash\\ slash/ tab\t newline\n return\r feed\f back\b control\u0001 unicode\u00e9\u2028");
+        writer.key("long").value(Long.MIN_VALUE);
+        writer.key("double").value(12.0);
+        writer.key("fraction").value(-0.125);
+        writer.key("boolean").value(false);
+        writer.key("null").value(null);
+        writer.key("jsonNull").value(JSONObject.NULL);
+        writer.key("integer").value((Object) 42);
+        writer.key("float").value((Object) 1.5f);
+        writer.key("object").value(object);
+        writer.key("empty").array().object().endObject().array().endArray().endArray();
+        writer.endObject();
+    }
+
+    @Test
+    public void sameOutputAsJSONStringer() throws JSONException {
+        JSONStringer expected = new JSONStringer();
+        writeValues(expected);
+        JSONStreamWriter actual = new JSONStreamWriter(1);
+        writeValues(actual);
+        assertEquals(expected.toString(), actual.toString());
+
+        /* Buffer is reused after reset. */
+        actual.reset();
+        assertNull(actual.toString());
+        writeValues(actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void sameLogsAsJSONStringer() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockLog log = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key" + i, "value \"" + i + "\"/\n");
+            log.setProperties(properties);
+            logs.add(log);
+        }
+        CustomPropertiesLog customPropertiesLog = new CustomPropertiesLog();
+        Map<String, Object> customProperties = new HashMap<>();
+        customProperties.put("t1", "test");
+        customProperties.put("t2", new Date(0));
+        customProperties.put("t3", 0.5);
+        customProperties.put("t4", true);
+        customPropertiesLog.setProperties(customProperties);
+        customPropertiesLog.setSid(UUID.randomUUID());
+        customPropertiesLog.setTimestamp(new Date());
+        logs.add(customPropertiesLog);
+
+        /* Verify each log. */
+        for (Log log : logs) {
+            JSONStringer expected = new JSONStringer();
+            expected.object();
+            log.write(expected);
+            expected.endObject();
+            assertEquals(expected.toString(), serializer.serializeLog(log));
+        }
+
+        /* Verify container. */
+        JSONStringer expected = new JSONStringer();
+        expected.object().key("logs").array();
+        for (Log log : logs) {
+            expected.object();
+            log.write(expected);
+            expected.endObject();
+        }
+        expected.endArray().endObject();
+        LogContainer container = new LogContainer();
+        container.setLogs(logs);
+        assertEquals(expected.toString(), serializer.serializeContainer(container));
+    }
+
+    @Test(expected = JSONException.class)
+    public void multipleRoots() throws JSONException {
+        JSONStreamWriter writer = new JSONStreamWriter(1);
+        writer.object().endObject();
+        writer.object();
+    }
+
+    @Test(expected = JSONException.class)
+    public void valueWithoutKey() throws JSONException {
+        JSONStreamWriter writer = new JSONStreamWriter(1);
+        writer.object().value(1);
+    }
+
+    @Test(expected = JSONException.class)
+    public void valueWithoutRoot() throws JSONException {
+        new JSONStreamWriter(1).value("test");
+    }
+
+    @Test(expected = JSONException.class)
+    public void keyInArray() throws JSONException {
+        new JSONStreamWriter(1).array().key("test");
+    }
+
+    @Test(expected = JSONException.class)
+    public void nullKey() throws JSONException {
+        new JSONStreamWriter(1).object().key(null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void mismatchedClose() throws JSONException {
+        new JSONStreamWriter(1).object().endArray();
+    }
+
+    @Test(expected = JSONException.class)
+    public void invalidDouble() throws JSONException {
+        new JSONStreamWriter(1).array().value(Double.NaN);
+    }
+}
@@ -15,6 +15,7 @@ import org.json.JSONException;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -25,6 +26,7 @@ import java.util.UUID;
 import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
 import static com.microsoft.appcenter.test.TestUtils.TAG;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -54,6 +56,60 @@ public class LogSerializerAndroidTest {
         assertEquals(expectedContainer.hashCode(), actualContainer.hashCode());
     }
 
+    @Test
+    public void serializedLogsContainer() throws JSONException {
+        LogContainer container = AndroidTestUtils.generateMockLogContainer();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        String expectedPayload = serializer.serializeContainer(container);
+
+        /* Joining persisted payloads must produce the same container as serializing logs. */
+        List<String> serializedLogs = new ArrayList<>();
+        for (Log log : container.getLogs()) {
+            serializedLogs.add(serializer.serializeLog(log));
+        }
+        container.setSerializedLogs(serializedLogs);
+        String payload = serializer.serializeContainer(container);
+        assertEquals(expectedPayload, payload);
+        assertEquals(container, serializer.deserializeContainer(payload, null));
+    }
+
+    @Test
+    public void deserializeContainerWithOtherFields() throws JSONException {
+        CustomPropertiesLog log = new CustomPropertiesLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("t1", "test");
+        properties.put("t2", 1.5);
+        properties.put("t3", Long.MAX_VALUE);
+        properties.put("t4", true);
+        log.setProperties(properties);
+        log.setTimestamp(new Date());
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        String payload = "{\"before\":{\"a\":[1,null]},\"logs\":[" + serializer.serializeLog(log) + "],\"after\":2}";
+        LogContainer container = serializer.deserializeContainer(payload, null);
+        assertEquals(Collections.<Log>singletonList(log), container.getLogs());
+    }
+
+    @Test(expected = JSONException.class)
+    public void deserializeContainerWithoutLogs() throws JSONException {
+        new DefaultLogSerializer().deserializeContainer("{\"other\":[]}", null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void deserializeInvalidContainer() throws JSONException {
+        new DefaultLogSerializer().deserializeContainer("{\"logs\":[1]}", null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void deserializeTruncatedContainer() throws JSONException {
+        LogContainer container = AndroidTestUtils.generateMockLogContainer();
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        String payload = serializer.serializeContainer(container);
+        serializer.deserializeContainer(payload.substring(0, payload.length() - 2), null);
+    }
+
     @Test(expected = JSONException.class)
     public void deserializeUnknownType() throws JSONException {
         MockLog log = AndroidTestUtils.generateMockLog();
@@ -184,6 +240,64 @@ public class LogSerializerAndroidTest {
         serializer.serializeLog(invalidTypeLog);
     }
 
+    @Test
+    public void encodeLog() throws JSONException {
+        MockLog expectedLog = AndroidTestUtils.generateMockLog();
+        expectedLog.setTimestamp(new Date());
+        expectedLog.setUserId("charlie");
+
+        /* Verify encode and decode. */
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        byte[] payload = serializer.encodeLog(expectedLog);
+        assertEquals(expectedLog, serializer.decodeLog(payload, null));
+
+        /* Binary is more compact than JSON. */
+        assertTrue(payload.length < serializer.serializeLog(expectedLog).length());
+    }
+
+    @Test
+    public void encodeCustomPropertiesLog() throws JSONException {
+        CustomPropertiesLog log = new CustomPropertiesLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("t1", "test");
+        properties.put("t2", new Date(0));
+        properties.put("t3", 0);
+        properties.put("t4", false);
+        properties.put("t5", 12.5);
+        properties.put("t6", Long.MAX_VALUE);
+        properties.put("t7", "2017-07-08");
+
+        //noinspection ConstantConditions
+        properties.put("t8", null);
+        log.setProperties(properties);
+        log.setSid(UUID.randomUUID());
+        log.setTimestamp(new Date());
+
+        /* Verify encode and decode. */
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        byte[] payload = serializer.encodeLog(log);
+        assertEquals(log, serializer.decodeLog(payload, null));
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeTruncatedLog() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        byte[] payload = serializer.encodeLog(AndroidTestUtils.generateMockLog());
+        serializer.decodeLog(Arrays.copyOf(payload, payload.length - 1), null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void decodeUnsupportedVersion() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        byte[] payload = serializer.encodeLog(AndroidTestUtils.generateMockLog());
+        payload[0] = 42;
+        serializer.decodeLog(payload, null);
+    }
+
     @Test
     public void toCommonSchemaLog() {
         LogFactory logFactory = mock(LogFactory.class);
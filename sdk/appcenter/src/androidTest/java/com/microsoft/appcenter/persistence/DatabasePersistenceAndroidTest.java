@@ -9,6 +9,7 @@ import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
@@ -19,6 +20,7 @@ import com.microsoft.appcenter.AndroidTestUtils;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
@@ -37,6 +39,8 @@ import com.microsoft.appcenter.utils.storage.SQLiteUtils;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -64,7 +68,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.anyString;
@@ -108,7 +114,7 @@ public class DatabasePersistenceAndroidTest {
     private ContentValues getContentValues(DatabasePersistence persistence, String group) {
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.appendWhere(DatabasePersistence.COLUMN_GROUP + " = ?");
-        String[] selectionArgs = new String[]{group};
+        String[] selectionArgs = new String[]{String.valueOf(persistence.getDictionaryId(group, false))};
         Cursor cursor = persistence.mDatabaseManager.getCursor(builder, null, selectionArgs, null);
         ContentValues values = persistence.mDatabaseManager.nextValues(cursor);
         assertNotNull(values);
@@ -396,6 +402,331 @@ public class DatabasePersistenceAndroidTest {
             List<Log> actualLogs = new ArrayList<>();
             persistence.getLogs(group, Collections.<String>emptyList(), allLogs.size(), actualLogs);
             assertEquals(expectedLogs, actualLogs);
+            assertEquals(allLogs.size() - databaseCount, persistence.getEvictedLogCount());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putTooManyLogsEvictsLargePayload() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate a large log that is the oldest one. */
+            String group = "test-p1";
+            LogWithProperties largeLog = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", generateString(2 * 1024 * 1024, 'x'));
+            largeLog.setProperties(properties);
+            long id = persistence.putLog(largeLog, group, NORMAL);
+            File file = persistence.getLargePayloadFile(persistence.getLargePayloadGroupDirectory(group), id);
+            assertTrue(file.exists());
+
+            /* Generate logs until we notice eviction. */
+            int putCount = 1;
+            for (int i = 0; putCount == persistence.countLogs(group); i++) {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), group, NORMAL);
+                putCount++;
+
+                /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+                assertTrue("No eviction is happening", i < 1000);
+            }
+
+            /* Several logs were evicted at once, including the large one and its file. */
+            long evictedCount = persistence.getEvictedLogCount();
+            assertEquals(putCount - persistence.countLogs(group), evictedCount);
+            assertTrue(evictedCount > 1);
+            assertFalse(file.exists());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithGroupStorageQuota() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        persistence.setGroupStorageQuota("test-p2", 0.125f);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate a few logs in the group with a quota. */
+            List<Log> quotaLogs = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                persistence.putLog(log, "test-p2", NORMAL);
+                quotaLogs.add(log);
+            }
+
+            /* Fill the database with another group until we notice eviction. */
+            int putCount = 0;
+            for (int i = 0; putCount == persistence.countLogs("test-p1"); i++) {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+                putCount++;
+
+                /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+                assertTrue("No eviction is happening", i < 1000);
+            }
+
+            /* Logs of the group with a quota were not evicted. */
+            assertEquals(quotaLogs.size(), persistence.countLogs("test-p2"));
+
+            /* Generate logs in the group with a quota until it evicts its own logs. */
+            for (int i = 0; quotaLogs.size() == persistence.countLogs("test-p2"); i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                persistence.putLog(log, "test-p2", NORMAL);
+                quotaLogs.add(log);
+
+                /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+                assertTrue("No eviction is happening", i < 1000);
+            }
+
+            /* The oldest logs of the group were evicted. */
+            int quotaCount = persistence.countLogs("test-p2");
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p2", Collections.<String>emptyList(), quotaLogs.size(), outputLogs);
+            assertEquals(quotaLogs.subList(quotaLogs.size() - quotaCount, quotaLogs.size()), outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void higherPriorityLogsEvictGroupWithStorageQuota() throws PersistenceException {
+
+        /* Initialize database persistence with a quota as large as the database. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        persistence.setGroupStorageQuota("test-p1", 1f);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Fill the database with the group with a quota until it evicts its own logs. */
+            int putCount = 0;
+            for (int i = 0; putCount == persistence.countLogs("test-p1"); i++) {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+                putCount++;
+
+                /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+                assertTrue("No eviction is happening", i < 1000);
+            }
+            int quotaCount = persistence.countLogs("test-p1");
+
+            /* A log of another group with the same priority cannot evict them. */
+            try {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p2", NORMAL);
+                fail("Logs of a group with a quota are not supposed to be evicted by logs of the same priority");
+            } catch (PersistenceException ignored) {
+            }
+            assertEquals(quotaCount, persistence.countLogs("test-p1"));
+            assertEquals(0, persistence.countLogs("test-p2"));
+
+            /* A critical log evicts them. */
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p2", CRITICAL);
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertTrue(persistence.countLogs("test-p1") < quotaCount);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogs() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate logs including a large one and persist them at once. */
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                logs.add(AndroidTestUtils.generateMockLog());
+            }
+            LogWithProperties largeLog = AndroidTestUtils.generateMockLog();
+            int size = 2 * 1024 * 1024;
+            StringBuilder largeValue = new StringBuilder(size);
+            for (int i = 0; i < size; i++) {
+                largeValue.append("x");
+            }
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", largeValue.toString());
+            largeLog.setProperties(properties);
+            logs.add(2, largeLog);
+            long[] ids = persistence.putLogs(logs, "test-p1", NORMAL);
+
+            /* Verify identifiers. */
+            assertEquals(logs.size(), ids.length);
+            for (long id : ids) {
+                assertTrue(id > 0);
+            }
+            File file = persistence.getLargePayloadFile(persistence.getLargePayloadGroupDirectory("test-p1"), ids[2]);
+            assertTrue(file.exists());
+
+            /* Get logs from persistence in the same order. */
+            assertEquals(logs.size(), persistence.countLogs("test-p1"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), logs.size(), outputLogs);
+            assertEquals(logs, outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithParallelEncoding() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setParallelEncodingEnabled(true);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate enough logs to use all threads, with compressed and binary payloads. */
+            persistence.setCompressionEnabled(true);
+            persistence.setBinaryEncodingEnabled(true);
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 10 * DatabasePersistence.MIN_LOGS_PER_ENCODING_THREAD; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                Map<String, String> properties = new HashMap<>();
+                for (int j = 0; j < i % 20; j++) {
+                    properties.put("key" + j, "value " + i);
+                }
+                log.setProperties(properties);
+                logs.add(log);
+            }
+            long[] ids = persistence.putLogs(logs, "test-p1", NORMAL);
+
+            /* Verify logs are stored in order. */
+            assertEquals(logs.size(), ids.length);
+            for (int i = 1; i < ids.length; i++) {
+                assertTrue(ids[i] > ids[i - 1]);
+            }
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), logs.size(), outputLogs);
+            assertEquals(logs, outputLogs);
+
+            /* Disabling falls back to encoding on the calling thread. */
+            persistence.setParallelEncodingEnabled(false);
+            ids = persistence.putLogs(logs, "test-p2", NORMAL);
+            assertEquals(logs.size(), ids.length);
+            assertEquals(logs.size(), persistence.countLogs("test-p2"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithParallelEncodingFailure() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setParallelEncodingEnabled(true);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Every thread gets a log failing with an unchecked exception. */
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 10 * DatabasePersistence.MIN_LOGS_PER_ENCODING_THREAD; i++) {
+                MockLog log;
+                if (i % 10 == 5) {
+                    log = new MockLog() {
+
+                        @Override
+                        public void write(JSONStringer writer) {
+                            throw new IllegalStateException("mock");
+                        }
+                    };
+                    log.setDevice(AndroidTestUtils.generateMockLog().getDevice());
+                    log.setTimestamp(new Date());
+                } else {
+                    log = AndroidTestUtils.generateMockLog();
+                }
+                logs.add(log);
+            }
+            long[] ids = persistence.putLogs(logs, "test-p1", NORMAL);
+
+            /* Only the failing logs are not stored. */
+            assertEquals(logs.size(), ids.length);
+            List<Log> storedLogs = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                if (i % 10 == 5) {
+                    assertEquals(-1, ids[i]);
+                } else {
+                    assertTrue(ids[i] > 0);
+                    storedLogs.add(logs.get(i));
+                }
+            }
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), logs.size(), outputLogs);
+            assertEquals(storedLogs, outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsWithEviction() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate more logs than the database can hold and persist them at once. */
+            List<Log> allLogs = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                allLogs.add(AndroidTestUtils.generateMockLog());
+            }
+            String group = "test-p1";
+            long[] ids = persistence.putLogs(allLogs, group, NORMAL);
+            for (long id : ids) {
+                assertTrue(id > 0);
+            }
+
+            /* Deleted logs should be first ones. */
+            int databaseCount = persistence.countLogs(group);
+            assertTrue(databaseCount < allLogs.size());
+            List<Log> expectedLogs = allLogs.subList(allLogs.size() - databaseCount, allLogs.size());
+            List<Log> actualLogs = new ArrayList<>();
+            persistence.getLogs(group, Collections.<String>emptyList(), allLogs.size(), actualLogs);
+            assertEquals(expectedLogs, actualLogs);
         } finally {
             persistence.close();
         }
@@ -718,9 +1049,9 @@ public class DatabasePersistenceAndroidTest {
             builder.appendWhere(DatabasePersistence.COLUMN_GROUP + " = ?");
 
             /* Access DatabaseStorage directly to verify the deletions. */
-            Cursor cursor1 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{"test-p1"}, null);
-            Cursor cursor2 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{"test-p2"}, null);
-            Cursor cursor3 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{"test-p3"}, null);
+            Cursor cursor1 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{String.valueOf(persistence.getDictionaryId("test-p1", false))}, null);
+            Cursor cursor2 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{String.valueOf(persistence.getDictionaryId("test-p2", false))}, null);
+            Cursor cursor3 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{String.valueOf(persistence.getDictionaryId("test-p3", false))}, null);
 
             //noinspection TryFinallyCanBeTryWithResources
             try {
@@ -741,7 +1072,7 @@ public class DatabasePersistenceAndroidTest {
             persistence.deleteLogs("test-p1", id);
 
             /* Access DatabaseStorage directly to verify the deletions. */
-            Cursor cursor4 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{"test-p1"}, null);
+            Cursor cursor4 = persistence.mDatabaseManager.getCursor(builder, null, new String[]{String.valueOf(persistence.getDictionaryId("test-p1", false))}, null);
 
             //noinspection TryFinallyCanBeTryWithResources
             try {
@@ -871,6 +1202,329 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void takeSerializedLogs() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate and persist some logs. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            Log log2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log1, "test", NORMAL);
+            persistence.putLog(log2, "test", NORMAL);
+
+            /* Get logs, payloads are returned as persisted with their device and in the same order. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertNotNull(batchId);
+            List<String> serializedLogs = persistence.takeSerializedLogs("test", batchId);
+            assertNotNull(serializedLogs);
+            assertEquals(2, serializedLogs.size());
+            assertEquals(outputLogs.get(0), logSerializer.deserializeLog(serializedLogs.get(0), null));
+            assertEquals(outputLogs.get(1), logSerializer.deserializeLog(serializedLogs.get(1), null));
+
+            /* Payloads are handed over only once. */
+            assertNull(persistence.takeSerializedLogs("test", batchId));
+
+            /* Payloads are released when the batch is deleted. */
+            persistence.clearPendingLogState();
+            batchId = persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertNotNull(batchId);
+            persistence.deleteLogs("test", batchId);
+            assertNull(persistence.takeSerializedLogs("test", batchId));
+            assertTrue(persistence.mPendingSerializedLogsGroups.isEmpty());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void storeDeviceOnce() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate logs sharing the same device snapshot, with equal but distinct instances. */
+            MockLog log1 = AndroidTestUtils.generateMockLog();
+            MockLog log2 = AndroidTestUtils.generateMockLog();
+            Device device = new Device();
+            device.read(new JSONObject(logSerializer.serializeLog(log1)).getJSONObject("device"));
+            log2.setDevice(device);
+            MockLog log3 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log1, "test", NORMAL);
+            persistence.putLogs(Arrays.<Log>asList(log2, log3), "test", NORMAL);
+
+            /* Devices are stored once and not embedded in log rows. */
+            assertEquals(2, getDeviceCount(persistence));
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues values = persistence.mDatabaseManager.buildValues(cursor);
+                    assertNotNull(values.getAsLong(DatabasePersistence.COLUMN_DEVICE));
+                    assertFalse(values.getAsString(DatabasePersistence.COLUMN_LOG).contains("\"device\""));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            /* Logs are restored with one device instance per snapshot. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs);
+            assertNotNull(batchId);
+            assertEquals(Arrays.<Log>asList(log1, log2, log3), outputLogs);
+            assertSame(outputLogs.get(0).getDevice(), outputLogs.get(1).getDevice());
+            assertNotSame(outputLogs.get(0).getDevice(), outputLogs.get(2).getDevice());
+
+            /* Payloads sent include the device. */
+            List<String> serializedLogs = persistence.takeSerializedLogs("test", batchId);
+            assertNotNull(serializedLogs);
+            for (int i = 0; i < outputLogs.size(); i++) {
+                assertEquals(outputLogs.get(i), logSerializer.deserializeLog(serializedLogs.get(i), null));
+            }
+
+            /* Unused snapshots are deleted when a new one is stored. */
+            persistence.deleteLogs("test", batchId);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test", NORMAL);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test", NORMAL);
+            assertEquals(2, getDeviceCount(persistence));
+            assertEquals(2, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void storeSeveralNewDevicesAtOnce() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* An unused snapshot is stored before the batch. */
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test", NORMAL);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.deleteLogs("test", persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs));
+
+            /* Every log of the batch has a new snapshot, none can be deleted before the logs are inserted. */
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                logs.add(AndroidTestUtils.generateMockLog());
+            }
+            persistence.putLogs(logs, "test", NORMAL);
+            assertEquals(4, getDeviceCount(persistence));
+            assertTrue(hasIndex(DatabasePersistence.INDEX_DEVICE));
+
+            /* All logs are restored with their device. */
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), logs.size(), outputLogs);
+            assertEquals(logs, outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCompressedLogs() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a text log, then compressed logs. */
+            MockLog textLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(textLog, "test", NORMAL);
+            persistence.setCompressionEnabled(true);
+            MockLog compressedLog = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                properties.put("key" + i, "repetitive value");
+            }
+            compressedLog.setProperties(properties);
+            persistence.putLog(compressedLog, "test", NORMAL);
+            MockLog otherCompressedLog = AndroidTestUtils.generateMockLog();
+            otherCompressedLog.setProperties(properties);
+            persistence.putLogs(Collections.<Log>singletonList(otherCompressedLog), "test", NORMAL);
+
+            /* Verify storage: compressed rows have no text payload and a codec. */
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, null);
+            int compressedCount = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues values = persistence.mDatabaseManager.buildValues(cursor);
+                    if (values.getAsByteArray(DatabasePersistence.COLUMN_BINARY_LOG) != null) {
+                        assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                        assertEquals(Integer.valueOf(DatabasePersistence.CODEC_DEFLATE), values.getAsInteger(DatabasePersistence.COLUMN_CODEC));
+                        compressedCount++;
+                    } else {
+                        assertNotNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                        assertNull(values.getAsInteger(DatabasePersistence.COLUMN_CODEC));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(2, compressedCount);
+
+            /* Compressed and text rows are all read back, even after disabling compression. */
+            persistence.setCompressionEnabled(false);
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs);
+            assertNotNull(batchId);
+            assertEquals(Arrays.<Log>asList(textLog, compressedLog, otherCompressedLog), outputLogs);
+            persistence.deleteLogs("test", batchId);
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putBinaryLogs() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a text log, then a binary log and a compressed binary log. */
+            MockLog textLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(textLog, "test", NORMAL);
+            persistence.setBinaryEncodingEnabled(true);
+            MockLog binaryLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(binaryLog, "test", NORMAL);
+            persistence.setCompressionEnabled(true);
+            MockLog compressedLog = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                properties.put("key" + i, "repetitive value " + i);
+            }
+            compressedLog.setProperties(properties);
+            persistence.putLogs(Collections.<Log>singletonList(compressedLog), "test", NORMAL);
+
+            /* Verify storage: binary rows have no text payload and the binary codec flag. */
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, null);
+            List<Integer> codecs = new ArrayList<>();
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues values = persistence.mDatabaseManager.buildValues(cursor);
+                    codecs.add(values.getAsInteger(DatabasePersistence.COLUMN_CODEC));
+                    if (values.getAsByteArray(DatabasePersistence.COLUMN_BINARY_LOG) != null) {
+                        assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(Arrays.asList(null, DatabasePersistence.CODEC_BINARY,
+                    DatabasePersistence.CODEC_BINARY | DatabasePersistence.CODEC_DEFLATE), codecs);
+
+            /* All rows are read back, even after disabling binary encoding. */
+            persistence.setBinaryEncodingEnabled(false);
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 3, outputLogs);
+            assertNotNull(batchId);
+            assertEquals(Arrays.<Log>asList(textLog, binaryLog, compressedLog), outputLogs);
+
+            /* Binary payloads can't be sent as is, the batch needs to be serialized again. */
+            assertNull(persistence.takeSerializedLogs("test", batchId));
+            persistence.deleteLogs("test", batchId);
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void compressedLogsFitInGroupQuota() throws PersistenceException {
+
+        /* Initialize database persistence with a small group quota. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        persistence.setGroupStorageQuota("test", 0.125f);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            properties.put("key" + i, "repetitive value");
+        }
+        try {
+
+            /* Count logs kept in the quota without compression. */
+            int textCount = putLogsUntilEviction(persistence, properties);
+            persistence.deleteLogs("test");
+
+            /* Compressed logs use less of the quota. */
+            persistence.setCompressionEnabled(true);
+            int compressedCount = putLogsUntilEviction(persistence, properties);
+            assertTrue(compressedCount > textCount);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static int putLogsUntilEviction(DatabasePersistence persistence, Map<String, String> properties) throws PersistenceException {
+        for (int i = 0; i == persistence.countLogs("test"); i++) {
+            MockLog log = AndroidTestUtils.generateMockLog();
+            log.setProperties(properties);
+            persistence.putLog(log, "test", NORMAL);
+
+            /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+            assertTrue("No eviction is happening", i < 1000);
+        }
+        return persistence.countLogs("test");
+    }
+
+    private static boolean hasIndex(String name) {
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(sContext.getDatabasePath(DatabasePersistence.DATABASE).getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?", new String[]{name});
+            try {
+                return cursor.moveToNext();
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    private static int getDeviceCount(DatabasePersistence persistence) {
+        Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.DEVICE_TABLE, SQLiteUtils.newSQLiteQueryBuilder(), null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
     private void getAllLogs(DatabasePersistence persistence, int numberOfLogs, int sizeForGetLogs) {
         List<Log> outputLogs = new ArrayList<>();
         int expected = 0;
@@ -924,8 +1578,16 @@ public class DatabasePersistenceAndroidTest {
 
             /* Get logs and check order. */
             List<Log> actualLogs = new ArrayList<>();
-            persistence.getLogs("test", Collections.<String>emptyList(), expectedLogs.size(), actualLogs);
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), expectedLogs.size(), actualLogs);
             assertEquals(expectedLogs, actualLogs);
+            assertEquals(CRITICAL, persistence.getBatchPriority("test", batchId));
+
+            /* Once the critical logs are sent, the next batch is normal. */
+            persistence.deleteLogs("test", batchId);
+            assertEquals(NORMAL, persistence.getBatchPriority("test", batchId));
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test", NORMAL);
+            batchId = persistence.getLogs("test", Collections.<String>emptyList(), expectedLogs.size(), actualLogs);
+            assertEquals(NORMAL, persistence.getBatchPriority("test", batchId));
         } finally {
             persistence.close();
         }
@@ -1167,7 +1829,7 @@ public class DatabasePersistenceAndroidTest {
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token).getDecryptedData());
 
             /* Verify target key stored as well. */
-            String targetKey = values.getAsString(DatabasePersistence.COLUMN_TARGET_KEY);
+            String targetKey = persistence.getDictionaryValue(values.getAsLong(DatabasePersistence.COLUMN_TARGET_KEY));
             assertEquals(commonSchemaLog.getIKey(), "o:" + targetKey);
 
             /* Verify priority stored too. */
@@ -1176,4 +1838,201 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion6to7() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old version where strings were stored in the logs table. */
+        ContentValues schema = new ContentValues();
+        schema.put(DatabasePersistence.COLUMN_GROUP, "");
+        schema.put(DatabasePersistence.COLUMN_LOG, "");
+        schema.put(DatabasePersistence.COLUMN_TARGET_TOKEN, "");
+        schema.put(DatabasePersistence.COLUMN_DATA_TYPE, "");
+        schema.put(DatabasePersistence.COLUMN_TARGET_KEY, "");
+        schema.put(DatabasePersistence.COLUMN_PRIORITY, 0);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_STRING_COLUMNS, schema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+
+        /* Prepare a common schema log. */
+        MockCommonSchemaLog commonSchemaLog = new MockCommonSchemaLog();
+        commonSchemaLog.setName("test");
+        commonSchemaLog.setIKey("o:test");
+        commonSchemaLog.setTimestamp(new Date());
+        commonSchemaLog.setVer("3.0");
+        commonSchemaLog.addTransmissionTarget("test-guid");
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        long oldLogId;
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, oldLog.getType());
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            oldLogId = databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+            contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(commonSchemaLog));
+            contentValues.put(DatabasePersistence.COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(sContext).encrypt("test-guid"));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, commonSchemaLog.getType());
+            contentValues.put(DatabasePersistence.COLUMN_TARGET_KEY, "test");
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, CRITICAL);
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Verify old data kept. */
+            assertEquals(2, persistence.countLogs("test"));
+
+            /* Verify priority and target token migrated. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertEquals(Arrays.asList(commonSchemaLog, oldLog), outputLogs);
+
+            /* Verify identifiers kept as large payload file names depend on them. */
+            assertTrue(persistence.mPendingDbIdentifiers.contains(oldLogId));
+
+            /* Verify strings moved to dictionary. */
+            assertNotNull(persistence.getDictionaryId("test", false));
+            assertNotNull(persistence.getDictionaryId(MOCK_LOG_TYPE, false));
+            assertNotNull(persistence.getDictionaryId(MockCommonSchemaLog.TYPE, false));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion7to8() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old version where devices were embedded in logs. */
+        ContentValues schema = new ContentValues();
+        schema.put(DatabasePersistence.COLUMN_GROUP, 0L);
+        schema.put(DatabasePersistence.COLUMN_LOG, "");
+        schema.put(DatabasePersistence.COLUMN_TARGET_TOKEN, "");
+        schema.put(DatabasePersistence.COLUMN_DATA_TYPE, 0L);
+        schema.put(DatabasePersistence.COLUMN_TARGET_KEY, 0L);
+        schema.put(DatabasePersistence.COLUMN_PRIORITY, 0);
+        final ContentValues dictionarySchema = new ContentValues();
+        dictionarySchema.put("value", "");
+        DatabaseManager.Listener listener = new DatabaseManager.Listener() {
+
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                SQLiteUtils.createTable(db, DatabasePersistence.DICTIONARY_TABLE, dictionarySchema);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_EMBEDDED_DEVICE, schema, listener);
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put("value", "test");
+            long groupId = databaseManager.insert(DatabasePersistence.DICTIONARY_TABLE, contentValues);
+            contentValues = new ContentValues();
+            contentValues.put("value", oldLog.getType());
+            long typeId = databaseManager.insert(DatabasePersistence.DICTIONARY_TABLE, contentValues);
+            contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, groupId);
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, typeId);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a new log after upgrade, its device goes to the device table. */
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", NORMAL);
+            assertEquals(2, persistence.countLogs("test"));
+            assertEquals(1, getDeviceCount(persistence));
+            assertTrue(hasIndex(DatabasePersistence.INDEX_DEVICE));
+
+            /* Verify old log kept with its embedded device, and the new log restored. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 2, outputLogs);
+            assertEquals(Arrays.asList(oldLog, newLog), outputLogs);
+            assertNotNull(batchId);
+            List<String> serializedLogs = persistence.takeSerializedLogs("test", batchId);
+            assertNotNull(serializedLogs);
+            assertEquals(logSerializer.serializeLog(oldLog), serializedLogs.get(0));
+            assertEquals(newLog, logSerializer.deserializeLog(serializedLogs.get(1), null));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void logsQueriesUseGroupIndex() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Make sure database is created. */
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            String groupId = String.valueOf(persistence.getDictionaryId("test-p1", false));
+
+            /* Build queries exactly as the persistence does. */
+            SQLiteQueryBuilder builder = persistence.buildGetLogsQuery(Collections.singletonList("2"), Collections.singletonList(3L), Collections.singletonList(4L));
+            builder.setTables(DatabasePersistence.TABLE);
+            String getLogsQuery = builder.buildQuery(null, null, null, null, DatabasePersistence.GET_SORT_ORDER, "10");
+            String countLogsQuery = "SELECT COUNT(*) FROM " + DatabasePersistence.TABLE + " WHERE " + DatabasePersistence.COLUMN_GROUP + " = ?";
+            String deleteLogsQuery = "DELETE FROM " + DatabasePersistence.TABLE + " WHERE " + DatabasePersistence.COLUMN_GROUP + " = ?";
+
+            /* Verify query plans. */
+            SQLiteDatabase database = SQLiteDatabase.openDatabase(sContext.getDatabasePath(DatabasePersistence.DATABASE).getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                assertUsesGroupIndex(database, getLogsQuery, groupId, "2");
+                assertUsesGroupIndex(database, countLogsQuery, groupId);
+                assertUsesGroupIndex(database, deleteLogsQuery, groupId);
+            } finally {
+                database.close();
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static void assertUsesGroupIndex(SQLiteDatabase database, String query, String... selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnIndex("detail"))).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(plan.toString(), plan.toString().contains(DatabasePersistence.INDEX_GROUP_PRIORITY));
+        assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+    }
 }
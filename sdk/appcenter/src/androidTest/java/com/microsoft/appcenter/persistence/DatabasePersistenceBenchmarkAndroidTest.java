@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLog;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the throughput of the default rollback journal with write-ahead logging and compiled statements,
+ * and of storing logs from several producers with and without parallel encoding.
+ * Results are printed in logcat, there is no assertion on timing as it depends on the device.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class DatabasePersistenceBenchmarkAndroidTest {
+
+    /**
+     * Number of logs written and read per run.
+     */
+    private static final int LOG_COUNT = 1000;
+
+    /**
+     * Number of logs per batch, same as the default channel trigger count.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Number of threads producing logs concurrently.
+     */
+    private static final int PRODUCER_COUNT = 4;
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    private static void run(boolean writeAheadLoggingEnabled) throws PersistenceException {
+
+        /* Start from an empty database: journal mode is persisted in the database file. */
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setWriteAheadLoggingEnabled(writeAheadLoggingEnabled);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        List<Log> logs = new ArrayList<>(LOG_COUNT);
+        for (int i = 0; i < LOG_COUNT; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        try {
+
+            /* Insert logs one by one like the channel does without group commit. */
+            long start = SystemClock.elapsedRealtime();
+            for (Log log : logs) {
+                persistence.putLog(log, "test-p1", NORMAL);
+                persistence.countLogs("test-p1");
+            }
+            long insertTime = SystemClock.elapsedRealtime() - start;
+
+            /* Read and delete batches like the channel does when sending. */
+            start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < LOG_COUNT / BATCH_SIZE; i++) {
+                List<Log> outLogs = new ArrayList<>(BATCH_SIZE);
+                String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), BATCH_SIZE, outLogs);
+                assertNotNull(batchId);
+                assertEquals(BATCH_SIZE, outLogs.size());
+                persistence.deleteLogs("test-p1", batchId);
+            }
+            long readTime = SystemClock.elapsedRealtime() - start;
+            assertEquals(0, persistence.countLogs("test-p1"));
+            AppCenterLog.info(AppCenter.LOG_TAG, String.format("Benchmark writeAheadLogging=%s: inserted %d logs/s, read and deleted %d logs/s.",
+                    writeAheadLoggingEnabled, LOG_COUNT * 1000L / Math.max(1, insertTime), LOG_COUNT * 1000L / Math.max(1, readTime)));
+        } finally {
+            persistence.close();
+            sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        }
+    }
+
+    private static void runGroupCommit(boolean parallelEncodingEnabled) throws Exception {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        final DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setParallelEncodingEnabled(parallelEncodingEnabled);
+        persistence.setCompressionEnabled(true);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Several threads produce logs with properties, one thread stores them in batches like group commit does. */
+            final BlockingQueue<Log> queue = new LinkedBlockingQueue<>();
+            Thread[] producers = new Thread[PRODUCER_COUNT];
+            for (int i = 0; i < PRODUCER_COUNT; i++) {
+                producers[i] = new Thread() {
+
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < LOG_COUNT / PRODUCER_COUNT; j++) {
+                            MockLog log = AndroidTestUtils.generateMockLog();
+                            Map<String, String> properties = new HashMap<>();
+                            for (int k = 0; k < 20; k++) {
+                                properties.put("key" + k, UUID.randomUUID().toString());
+                            }
+                            log.setProperties(properties);
+                            queue.add(log);
+                        }
+                    }
+                };
+            }
+            long start = SystemClock.elapsedRealtime();
+            for (Thread producer : producers) {
+                producer.start();
+            }
+            int storedCount = 0;
+            while (storedCount < LOG_COUNT) {
+                List<Log> batch = new ArrayList<>(BATCH_SIZE);
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                persistence.putLogs(batch, "test-p1", NORMAL);
+                storedCount += batch.size();
+            }
+            long insertTime = SystemClock.elapsedRealtime() - start;
+            assertEquals(LOG_COUNT, persistence.countLogs("test-p1"));
+            AppCenterLog.info(AppCenter.LOG_TAG, String.format("Benchmark parallelEncoding=%s: %d producers, stored %d logs/s.",
+                    parallelEncodingEnabled, PRODUCER_COUNT, LOG_COUNT * 1000L / Math.max(1, insertTime)));
+        } finally {
+            persistence.close();
+            sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        }
+    }
+
+    @Test
+    public void compareJournalModes() throws PersistenceException {
+        AppCenter.setLogLevel(android.util.Log.INFO);
+        run(false);
+        run(true);
+    }
+
+    @Test
+    public void compareParallelEncoding() throws Exception {
+        AppCenter.setLogLevel(android.util.Log.INFO);
+        runGroupCommit(false);
+        runGroupCommit(true);
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLog;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static com.microsoft.appcenter.test.TestUtils.generateString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class JournalPersistenceAndroidTest {
+
+    /**
+     * Maximum storage size in bytes for unit test case.
+     */
+    private static final int MAX_STORAGE_SIZE_IN_BYTES = 32 * 1024;
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    /**
+     * Journal directory.
+     */
+    private File mDirectory;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AppCenter.setLogLevel(android.util.Log.VERBOSE);
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(sContext.getFilesDir(), "journal-test");
+        FileManager.deleteDir(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        FileManager.deleteDir(mDirectory);
+    }
+
+    private JournalPersistence createPersistence() {
+        JournalPersistence persistence = new JournalPersistence(sContext, mDirectory);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        return persistence;
+    }
+
+    @Test
+    public void putGetAndDeleteLogs() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        try {
+
+            /* Put logs in 2 groups. */
+            List<Log> expectedLogs = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                assertTrue(persistence.putLog(log, "test-p1", NORMAL) > 0);
+                expectedLogs.add(log);
+            }
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p2", NORMAL);
+            assertEquals(5, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+            assertEquals(0, persistence.countLogs("test-p3"));
+
+            /* Get a first batch. */
+            List<Log> outLogs = new ArrayList<>();
+            String batchId1 = persistence.getLogs("test-p1", Collections.<String>emptyList(), 3, outLogs);
+            assertNotNull(batchId1);
+            assertEquals(expectedLogs.subList(0, 3), outLogs);
+            List<String> serializedLogs = persistence.takeSerializedLogs("test-p1", batchId1);
+            assertNotNull(serializedLogs);
+            assertEquals(3, serializedLogs.size());
+            assertNull(persistence.takeSerializedLogs("test-p1", batchId1));
+
+            /* Pending logs are not returned again. */
+            outLogs.clear();
+            String batchId2 = persistence.getLogs("test-p1", Collections.<String>emptyList(), 3, outLogs);
+            assertNotNull(batchId2);
+            assertEquals(expectedLogs.subList(3, 5), outLogs);
+            outLogs.clear();
+            assertNull(persistence.getLogs("test-p1", Collections.<String>emptyList(), 3, outLogs));
+
+            /* Delete first batch, count includes pending logs. */
+            persistence.deleteLogs("test-p1", batchId1);
+            assertEquals(2, persistence.countLogs("test-p1"));
+
+            /* Clearing pending state makes the second batch available again. */
+            persistence.clearPendingLogState();
+            String batchId3 = persistence.getLogs("test-p1", Collections.<String>emptyList(), 3, outLogs);
+            assertNotNull(batchId3);
+            assertEquals(expectedLogs.subList(3, 5), outLogs);
+            persistence.deleteLogs("test-p1", batchId3);
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertEquals(1, persistence.countLogs("test-p2"));
+
+            /* Delete a whole group. */
+            persistence.deleteLogs("test-p2");
+            assertEquals(0, persistence.countLogs("test-p2"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsInOneCall() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        try {
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                logs.add(AndroidTestUtils.generateMockLog());
+            }
+            long[] ids = persistence.putLogs(logs, "test-p1", NORMAL);
+            assertEquals(10, ids.length);
+            for (long id : ids) {
+                assertTrue(id > 0);
+            }
+            List<Log> outLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test-p1", Collections.<String>emptyList(), 20, outLogs));
+            assertEquals(logs, outLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsWithMixedPriorities() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        try {
+            MockLog normal1 = AndroidTestUtils.generateMockLog();
+            MockLog critical1 = AndroidTestUtils.generateMockLog();
+            MockLog normal2 = AndroidTestUtils.generateMockLog();
+            MockLog critical2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(normal1, "test-p1", NORMAL);
+            persistence.putLog(critical1, "test-p1", CRITICAL);
+            persistence.putLog(normal2, "test-p1", NORMAL);
+            persistence.putLog(critical2, "test-p1", CRITICAL);
+
+            /* Critical logs come first, then oldest first. */
+            List<Log> outLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, outLogs);
+            assertEquals(Arrays.<Log>asList(critical1, critical2, normal1, normal2), outLogs);
+            assertEquals(CRITICAL, persistence.getBatchPriority("test-p1", batchId));
+
+            /* Once the critical logs are sent, the next batch is normal. */
+            persistence.deleteLogs("test-p1", batchId);
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, outLogs);
+            assertEquals(NORMAL, persistence.getBatchPriority("test-p1", batchId));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void getLogsFilteringOutPausedTargetKeys() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        try {
+            for (String iKey : Arrays.asList("1", "2", "3")) {
+                for (int i = 0; i < 5; i++) {
+                    CommonSchemaLog log = new MockCommonSchemaLog();
+                    log.setVer("3.0");
+                    log.setName("test");
+                    log.setTimestamp(new Date());
+                    log.setIKey(iKey);
+                    log.addTransmissionTarget(iKey + "-token");
+                    persistence.putLog(log, "test", NORMAL);
+                }
+            }
+
+            /* Get logs without paused keys. */
+            List<Log> outLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test", Arrays.asList("1", "2"), 15, outLogs));
+            assertEquals(5, outLogs.size());
+            for (Log log : outLogs) {
+                assertEquals("3", ((CommonSchemaLog) log).getIKey());
+                assertEquals(Collections.singleton("3-token"), log.getTransmissionTargetTokens());
+            }
+
+            /* Get the other logs once resumed. */
+            outLogs.clear();
+            assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 15, outLogs));
+            assertEquals(10, outLogs.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void reloadAfterRestart() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        List<Log> logs = new ArrayList<>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                persistence.putLog(log, "test/one", NORMAL);
+                logs.add(log);
+            }
+            List<Log> outLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test/one", Collections.<String>emptyList(), 2, outLogs);
+            assertNotNull(batchId);
+            persistence.deleteLogs("test/one", batchId);
+
+            /* Pending but not deleted logs are sent again after restart. */
+            assertNotNull(persistence.getLogs("test/one", Collections.<String>emptyList(), 2, outLogs));
+        } finally {
+            persistence.close();
+        }
+
+        /* Reopen: only deleted logs are gone and new identifiers do not collide. */
+        persistence = createPersistence();
+        try {
+            assertEquals(4, persistence.countLogs("test/one"));
+            MockLog log = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log, "test/one", NORMAL);
+            logs.add(log);
+            List<Log> outLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test/one", Collections.<String>emptyList(), 10, outLogs));
+            assertEquals(logs.subList(2, 7), outLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void truncatedRecordIsIgnoredAfterRestart() throws PersistenceException, IOException {
+        JournalPersistence persistence = createPersistence();
+        MockLog log = AndroidTestUtils.generateMockLog();
+        try {
+            persistence.putLog(log, "test-p1", CRITICAL);
+        } finally {
+            persistence.close();
+        }
+
+        /* Simulate a record partially written when the process died. */
+        File[] segments = new File(mDirectory, "test-p1").listFiles();
+        assertNotNull(segments);
+        File segment = null;
+        for (File file : segments) {
+            if (file.getName().endsWith(JournalPersistence.SEGMENT_FILE_EXTENSION)) {
+                segment = file;
+            }
+        }
+        assertNotNull(segment);
+        long length = segment.length();
+        FileOutputStream stream = new FileOutputStream(segment, true);
+        try {
+            stream.write(new byte[]{0, 0, 1, 0, 42});
+        } finally {
+            stream.close();
+        }
+
+        /* The valid record is still there and the tail is dropped. */
+        persistence = createPersistence();
+        try {
+            List<Log> outLogs = new ArrayList<>();
+            assertNotNull(persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, outLogs));
+            assertEquals(Collections.<Log>singletonList(log), outLogs);
+            assertEquals(length, segment.length());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void segmentsAreDeletedWhenAllLogsAreDeleted() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        try {
+
+            /* Fill several segments. */
+            for (int i = 0; i < 50; i++) {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            }
+            File directory = new File(mDirectory, "test-p1");
+            assertTrue(countSegments(directory) > 1);
+
+            /* Send everything. */
+            List<Log> outLogs = new ArrayList<>();
+            String batchId;
+            while ((batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 10, outLogs)) != null) {
+                persistence.deleteLogs("test-p1", batchId);
+            }
+            assertEquals(0, persistence.countLogs("test-p1"));
+            assertEquals(0, countSegments(directory));
+
+            /* Cursor is compacted when segments are deleted. */
+            assertEquals(0, new File(directory, JournalPersistence.CURSOR_FILE).length());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putTooManyLogsKeepsCritical() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        try {
+
+            /* Critical logs. */
+            List<Log> criticalLogs = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                persistence.putLog(log, "test-p1", CRITICAL);
+                criticalLogs.add(log);
+            }
+
+            /* Normal logs until eviction. */
+            List<Log> normalLogs = new ArrayList<>();
+            for (int i = 0; persistence.getEvictedLogCount() == 0; i++) {
+                MockLog log = AndroidTestUtils.generateMockLog();
+                persistence.putLog(log, "test-p2", NORMAL);
+                normalLogs.add(log);
+
+                /* Fail if no eviction happens after a long time to avoid infinite loop on bug. */
+                assertTrue("No eviction is happening", i < 1000);
+            }
+
+            /* Oldest normal logs were evicted, critical logs are kept. */
+            int count = persistence.countLogs("test-p2");
+            assertEquals(normalLogs.size() - persistence.getEvictedLogCount(), count);
+            List<Log> outLogs = new ArrayList<>();
+            persistence.getLogs("test-p2", Collections.<String>emptyList(), 2000, outLogs);
+            assertEquals(normalLogs.subList(normalLogs.size() - count, normalLogs.size()), outLogs);
+            outLogs.clear();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), 2000, outLogs);
+            assertEquals(criticalLogs, outLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putNormalLogFailsIfFullOfCritical() throws PersistenceException {
+        JournalPersistence persistence = createPersistence();
+        assertTrue(persistence.setMaxStorageSize(MAX_STORAGE_SIZE_IN_BYTES));
+        try {
+
+            /* Fill storage with critical logs. */
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", CRITICAL);
+                }
+            } catch (PersistenceException e) {
+                fail("Critical logs should evict older critical logs");
+            }
+            assertTrue(persistence.getEvictedLogCount() > 0);
+            int count = persistence.countLogs("test-p1");
+
+            /* Normal log cannot evict critical ones. */
+            try {
+                persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p2", NORMAL);
+                fail("Expected storage full");
+            } catch (PersistenceException ignore) {
+            }
+            assertEquals(count, persistence.countLogs("test-p1"));
+            assertEquals(0, persistence.countLogs("test-p2"));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogTooLargeFails() {
+        JournalPersistence persistence = createPersistence();
+        assertTrue(persistence.setMaxStorageSize(1024));
+        assertFalse(persistence.setMaxStorageSize(0));
+        MockLog log = AndroidTestUtils.generateMockLog();
+        Map<String, String> properties = new HashMap<>();
+        properties.put("large", generateString(2048, 'x'));
+        log.setProperties(properties);
+        try {
+            persistence.putLog(log, "test-p1", NORMAL);
+            fail("Expected log too large");
+        } catch (PersistenceException ignore) {
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static int countSegments(File directory) {
+        File[] files = directory.listFiles();
+        int count = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(JournalPersistence.SEGMENT_FILE_EXTENSION)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
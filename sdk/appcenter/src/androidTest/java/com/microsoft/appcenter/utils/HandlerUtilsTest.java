@@ -53,4 +53,32 @@ public class HandlerUtilsTest {
         assertEquals(mainThreadFirstRun.get(), mainThreadNestedRun.get());
         assertNotEquals(Thread.currentThread(), mainThreadNestedRun.get());
     }
+
+    @Test
+    public void runOnSenderThread() {
+        final AtomicReference<Thread> senderThreadFirstRun = new AtomicReference<>();
+        final AtomicReference<Thread> senderThreadNestedRun = new AtomicReference<>();
+        final Semaphore semaphore = new Semaphore(0);
+        HandlerUtils.runOnSenderThread(new Runnable() {
+
+            @Override
+            public void run() {
+                senderThreadFirstRun.set(Thread.currentThread());
+                HandlerUtils.runOnSenderThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        senderThreadNestedRun.set(Thread.currentThread());
+                        semaphore.release();
+                    }
+                });
+            }
+        });
+        semaphore.acquireUninterruptibly();
+        assertNotNull(senderThreadFirstRun.get());
+        assertEquals(senderThreadFirstRun.get(), senderThreadNestedRun.get());
+        assertEquals(HandlerUtils.SENDER_THREAD_NAME, senderThreadNestedRun.get().getName());
+        assertNotEquals(HandlerUtils.getMainHandler().getLooper().getThread(), senderThreadNestedRun.get());
+        assertSame(HandlerUtils.getSenderHandler(), HandlerUtils.getSenderHandler());
+    }
 }
@@ -143,7 +143,7 @@ public abstract class AbstractAppCenterService implements AppCenterService {
 
             /* Register service to channel on enabling. */
             if (enabled) {
-                mChannel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener());
+                mChannel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), getStorageQuota(), null, getChannelListener());
             }
 
             /* Otherwise, clear all persisted logs and remove a group for the service. */
@@ -194,7 +194,7 @@ public abstract class AbstractAppCenterService implements AppCenterService {
 
             /* Add a group to the channel if the service is enabled */
             if (enabled) {
-                channel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), null, getChannelListener());
+                channel.addGroup(groupName, getTriggerCount(), getTriggerInterval(), getTriggerMaxParallelRequests(), getStorageQuota(), null, getChannelListener());
             }
 
             /* Otherwise, clear all persisted logs for the service. */
@@ -265,6 +265,16 @@ public abstract class AbstractAppCenterService implements AppCenterService {
         return DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS;
     }
 
+    /**
+     * Gets a maximum size of the logs stored for the group, which logs of other groups cannot evict
+     * unless they have a higher priority.
+     *
+     * @return A fraction of the maximum storage size, 0 for no quota.
+     */
+    protected float getStorageQuota() {
+        return 0;
+    }
+
     /**
      * Gets a listener which will be called when channel completes synchronization.
      *
@@ -449,6 +449,19 @@ public class AppCenter {
         return getInstance().setInstanceMaxStorageSizeAsync(storageSizeInBytes);
     }
 
+    /**
+     * Get the number of logs discarded since the application started because the storage size set by
+     * {@link #setMaxStorageSize(long)}, or the storage quota of a module, was reached.
+     * Oldest and least important logs are discarded first to make room for new logs.
+     * This operation is performed in background as it waits for pending storage operations.
+     *
+     * @return future with result being the number of discarded logs, 0 if App Center is not configured.
+     * @see AppCenterFuture
+     */
+    public static AppCenterFuture<Long> getEvictedLogCount() {
+        return getInstance().getInstanceEvictedLogCountAsync();
+    }
+
     /**
      * {@link #setUserId(String)} implementation at instance level.
      */
@@ -806,7 +819,7 @@ public class AppCenter {
             mChannel.setMaxStorageSize(DEFAULT_MAX_STORAGE_SIZE_IN_BYTES);
         }
         mChannel.setEnabled(enabled);
-        mChannel.addGroup(CORE_GROUP, DEFAULT_TRIGGER_COUNT, DEFAULT_TRIGGER_INTERVAL, DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS, null, null);
+        mChannel.addGroup(CORE_GROUP, DEFAULT_TRIGGER_COUNT, DEFAULT_TRIGGER_INTERVAL, DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS, 0, null, null);
         mOneCollectorChannelListener = new OneCollectorChannelListener(mChannel, mLogSerializer, httpClient, IdHelper.getInstallId());
         if (mLogUrl != null) {
             if (mAppSecret != null) {
@@ -1157,6 +1170,25 @@ public class AppCenter {
         return future;
     }
 
+    /**
+     * Implements {@link #getEvictedLogCount()}.
+     */
+    private synchronized AppCenterFuture<Long> getInstanceEvictedLogCountAsync() {
+        final DefaultAppCenterFuture<Long> future = new DefaultAppCenterFuture<>();
+        if (checkPrecondition()) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(mChannel.getEvictedLogCount());
+                }
+            });
+        } else {
+            future.complete(0L);
+        }
+        return future;
+    }
+
     /**
      * Set the user identifier for logs sent for the default target token when the secret
      * passed in {@link AppCenter#start(Application, String, Class[])} contains "target={targetToken}".
@@ -5,7 +5,12 @@
 
 package com.microsoft.appcenter;
 
+import com.microsoft.appcenter.http.CompressionCodec;
 import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpExecutor;
+import com.microsoft.appcenter.http.HttpTransport;
+
+import java.util.concurrent.Executor;
 
 /**
  * Configuration to override default dependencies used by the SDK.
@@ -17,6 +22,66 @@ public final class DependencyConfiguration {
      */
     private static HttpClient sHttpClient;
 
+    /**
+     * Codec compressing HTTP request bodies.
+     */
+    private static CompressionCodec sHttpCompressionCodec;
+
+    /**
+     * Executor running HTTP calls.
+     */
+    private static Executor sHttpExecutor;
+
+    /**
+     * Transport of the default HTTP client.
+     */
+    private static HttpTransport sHttpTransport;
+
+    /**
+     * Maximum number of logs buffered before being stored together, 0 to store logs one by one.
+     */
+    private static int sGroupCommitMaxLogs;
+
+    /**
+     * Maximum time in milliseconds a log is buffered before being stored.
+     */
+    private static long sGroupCommitInterval;
+
+    /**
+     * Write-ahead logging flag for the log database.
+     */
+    private static boolean sDatabaseWriteAheadLoggingEnabled;
+
+    /**
+     * Compression flag for log payloads stored in the log database.
+     */
+    private static boolean sDatabaseCompressionEnabled;
+
+    /**
+     * Binary encoding flag for logs stored in the log database.
+     */
+    private static boolean sDatabaseBinaryEncodingEnabled;
+
+    /**
+     * Parallel encoding flag for logs stored together in the log database.
+     */
+    private static boolean sDatabaseParallelEncodingEnabled;
+
+    /**
+     * Flag to store logs in segment files instead of the log database.
+     */
+    private static boolean sJournalPersistenceEnabled;
+
+    /**
+     * Maximum size of logs kept in memory, 0 to store logs on disk.
+     */
+    private static long sMemoryPersistenceMaxSize;
+
+    /**
+     * Flag to move logs from memory to disk when memory is full or the application goes to background.
+     */
+    private static boolean sMemoryPersistenceSpillEnabled;
+
     DependencyConfiguration() {
     }
 
@@ -37,4 +102,227 @@ public final class DependencyConfiguration {
     public static void setHttpClient(HttpClient httpClient) {
         sHttpClient = httpClient;
     }
+
+    /**
+     * Get the codec compressing HTTP request bodies of the default HTTP client.
+     *
+     * @return codec, null for gzip with the default compression level.
+     */
+    public static CompressionCodec getHttpCompressionCodec() {
+        return sHttpCompressionCodec;
+    }
+
+    /**
+     * Set the codec compressing HTTP request bodies of the default HTTP client.
+     * This must be called before the SDK is started.
+     *
+     * @param compressionCodec codec, null for gzip with the default compression level.
+     */
+    public static void setHttpCompressionCodec(CompressionCodec compressionCodec) {
+        sHttpCompressionCodec = compressionCodec;
+    }
+
+    /**
+     * Get the executor running HTTP calls of the default HTTP client and downloads.
+     *
+     * @return executor, null for the shared {@link HttpExecutor}.
+     */
+    public static Executor getHttpExecutor() {
+        return sHttpExecutor;
+    }
+
+    /**
+     * Set the executor running HTTP calls of the default HTTP client and downloads.
+     * This must be called before the SDK is started. Pass a {@link HttpExecutor} to change
+     * the thread count or the queue size while keeping priorities, any other executor runs tasks in submission order.
+     *
+     * @param executor executor, null for the shared {@link HttpExecutor}.
+     */
+    public static void setHttpExecutor(Executor executor) {
+        sHttpExecutor = executor;
+    }
+
+    /**
+     * Get the transport sending requests of the default HTTP client.
+     *
+     * @return transport, null for {@link java.net.HttpURLConnection} with persistent connections.
+     */
+    public static HttpTransport getHttpTransport() {
+        return sHttpTransport;
+    }
+
+    /**
+     * Set the transport sending requests of the default HTTP client, for example to use an HTTP/2 capable engine.
+     * This must be called before the SDK is started.
+     *
+     * @param httpTransport transport, null for {@link java.net.HttpURLConnection} with persistent connections.
+     */
+    public static void setHttpTransport(HttpTransport httpTransport) {
+        sHttpTransport = httpTransport;
+    }
+
+    /**
+     * Get the maximum number of logs buffered before being stored together.
+     *
+     * @return maximum number of logs, 0 by default when logs are stored one by one.
+     */
+    public static int getGroupCommitMaxLogs() {
+        return sGroupCommitMaxLogs;
+    }
+
+    /**
+     * Get the maximum time a log is buffered before being stored.
+     *
+     * @return time in milliseconds.
+     */
+    public static long getGroupCommitInterval() {
+        return sGroupCommitInterval;
+    }
+
+    /**
+     * Store logs enqueued within a time window together, in a single transaction instead of one
+     * transaction per log, must be called before starting App Center. Buffered logs are lost if the process
+     * is killed before they are stored, critical logs are never buffered.
+     *
+     * @param maxLogs  maximum number of logs to buffer before storing them, 0 to store logs one by one.
+     * @param interval maximum time in milliseconds a log can stay in the buffer.
+     */
+    public static void setGroupCommit(int maxLogs, long interval) {
+        sGroupCommitMaxLogs = maxLogs;
+        sGroupCommitInterval = interval;
+    }
+
+    /**
+     * Check whether the log database uses write-ahead logging.
+     *
+     * @return true if write-ahead logging is enabled, false by default.
+     */
+    public static boolean isDatabaseWriteAheadLoggingEnabled() {
+        return sDatabaseWriteAheadLoggingEnabled;
+    }
+
+    /**
+     * Enable write-ahead logging for the log database, must be called before starting App Center.
+     * Logs can then be read for sending while new logs are written.
+     *
+     * @param enabled true to enable write-ahead logging.
+     */
+    public static void setDatabaseWriteAheadLoggingEnabled(boolean enabled) {
+        sDatabaseWriteAheadLoggingEnabled = enabled;
+    }
+
+    /**
+     * Check whether log payloads are compressed in the log database.
+     *
+     * @return true if compression is enabled, false by default.
+     */
+    public static boolean isDatabaseCompressionEnabled() {
+        return sDatabaseCompressionEnabled;
+    }
+
+    /**
+     * Enable compression of log payloads in the log database, must be called before starting App Center.
+     * More logs can then be kept offline within the same maximum storage size.
+     *
+     * @param enabled true to enable compression.
+     */
+    public static void setDatabaseCompressionEnabled(boolean enabled) {
+        sDatabaseCompressionEnabled = enabled;
+    }
+
+    /**
+     * Check whether logs are stored in binary instead of JSON in the log database.
+     *
+     * @return true if binary encoding is enabled, false by default.
+     */
+    public static boolean isDatabaseBinaryEncodingEnabled() {
+        return sDatabaseBinaryEncodingEnabled;
+    }
+
+    /**
+     * Enable binary encoding of logs in the log database, must be called before starting App Center.
+     * Logs are smaller and faster to store and read back, logs already stored in JSON remain readable.
+     *
+     * @param enabled true to enable binary encoding.
+     */
+    public static void setDatabaseBinaryEncodingEnabled(boolean enabled) {
+        sDatabaseBinaryEncodingEnabled = enabled;
+    }
+
+    /**
+     * Check whether logs stored together in the log database are encoded on several threads.
+     *
+     * @return true if parallel encoding is enabled, false by default.
+     */
+    public static boolean isDatabaseParallelEncodingEnabled() {
+        return sDatabaseParallelEncodingEnabled;
+    }
+
+    /**
+     * Enable encoding logs on several threads when they are stored together in the log database,
+     * must be called before starting App Center. This applies to logs buffered by group commit
+     * (see {@link #setGroupCommit(int, long)}), they are still stored in order in a single transaction.
+     *
+     * @param enabled true to enable parallel encoding.
+     */
+    public static void setDatabaseParallelEncodingEnabled(boolean enabled) {
+        sDatabaseParallelEncodingEnabled = enabled;
+    }
+
+    /**
+     * Check whether logs are stored in segment files instead of the log database.
+     *
+     * @return true if the file journal is used, false by default.
+     */
+    public static boolean isJournalPersistenceEnabled() {
+        return sJournalPersistenceEnabled;
+    }
+
+    /**
+     * Store logs in append-only segment files instead of the log database, must be called before starting App Center.
+     * Logs already stored in the other engine are not migrated.
+     *
+     * @param enabled true to use the file journal.
+     */
+    public static void setJournalPersistenceEnabled(boolean enabled) {
+        sJournalPersistenceEnabled = enabled;
+    }
+
+    /**
+     * Get the maximum size of logs kept in memory.
+     *
+     * @return maximum size in bytes, 0 by default when logs are stored on disk.
+     */
+    public static long getMemoryPersistenceMaxSize() {
+        return sMemoryPersistenceMaxSize;
+    }
+
+    /**
+     * Keep logs in memory instead of storing them on disk, must be called before starting App Center.
+     * When the size is reached, the oldest logs are discarded unless spill is enabled.
+     *
+     * @param maxSizeInBytes maximum size of logs in memory, 0 to store logs on disk.
+     */
+    public static void setMemoryPersistenceMaxSize(long maxSizeInBytes) {
+        sMemoryPersistenceMaxSize = maxSizeInBytes;
+    }
+
+    /**
+     * Check whether logs kept in memory are moved to disk when memory is full or the application goes to background.
+     *
+     * @return true if spill is enabled, false by default.
+     */
+    public static boolean isMemoryPersistenceSpillEnabled() {
+        return sMemoryPersistenceSpillEnabled;
+    }
+
+    /**
+     * Move logs kept in memory to disk when memory is full or the application goes to background,
+     * must be called before starting App Center. Disk storage uses the engine selected by the other options.
+     *
+     * @param enabled true to enable spill.
+     */
+    public static void setMemoryPersistenceSpillEnabled(boolean enabled) {
+        sMemoryPersistenceSpillEnabled = enabled;
+    }
 }
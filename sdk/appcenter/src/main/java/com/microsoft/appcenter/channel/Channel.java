@@ -35,6 +35,13 @@ public interface Channel {
      */
     boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Get the number of logs discarded to make room for new logs because storage or a group quota was full.
+     *
+     * @return number of discarded logs since the channel was created.
+     */
+    long getEvictedLogCount();
+
     /**
      * Add a group for logs to be persisted and sent.
      *
@@ -42,10 +49,13 @@ public interface Channel {
      * @param maxLogsPerBatch    maximum log count per batch.
      * @param batchTimeInterval  time interval for a next batch.
      * @param maxParallelBatches maximum number of batches in parallel.
+     * @param storageQuota       maximum size of the stored logs of the group as a fraction of the maximum storage size,
+     *                           0 for no quota. Logs of a group with a quota are only deleted to store newer logs
+     *                           of the same group or logs with a higher priority.
      * @param ingestion          ingestion for the channel. If null then the default ingestion will be used.
      * @param groupListener      a listener for a service.
      */
-    void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener);
+    void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, float storageQuota, Ingestion ingestion, GroupListener groupListener);
 
     /**
      * Remove a group for logs.
@@ -96,6 +106,16 @@ public interface Channel {
      */
     void setEnabled(boolean enabled);
 
+    /**
+     * Configure group commit: logs enqueued within the given time window are stored together
+     * in a single database transaction instead of one transaction per log.
+     * Buffered logs are lost if the process is killed before they are stored, critical logs are never buffered.
+     *
+     * @param maxLogs  maximum number of logs to buffer before storing them, 0 to disable group commit.
+     * @param interval maximum time in milliseconds a log can stay in the buffer.
+     */
+    void setGroupCommit(int maxLogs, long interval);
+
     /**
      * Update log URL.
      *
@@ -5,14 +5,17 @@
 
 package com.microsoft.appcenter.channel;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Handler;
-import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.DependencyConfiguration;
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpResponse;
 import com.microsoft.appcenter.http.HttpUtils;
@@ -25,6 +28,8 @@ import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.JournalPersistence;
+import com.microsoft.appcenter.persistence.MemoryPersistence;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
@@ -40,6 +45,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -67,6 +73,13 @@ public class DefaultChannel implements Channel {
      */
     private static final long MINIMUM_TRANSMISSION_INTERVAL = 3000;
 
+    /**
+     * Time in ms before a scheduled batch at which the connection to ingestion is prepared.
+     * Batches sent within that time from now prepare the connection as soon as scheduled.
+     */
+    @VisibleForTesting
+    static final long PRECONNECT_LEAD_TIME = MINIMUM_TRANSMISSION_INTERVAL;
+
     /**
      * Application context.
      */
@@ -134,6 +147,69 @@ public class DefaultChannel implements Channel {
      */
     private int mCurrentState;
 
+    /**
+     * Maximum number of logs buffered before being stored, 0 if group commit is disabled.
+     */
+    private int mGroupCommitMaxLogs;
+
+    /**
+     * Maximum time in milliseconds a log is buffered before being stored.
+     */
+    private long mGroupCommitInterval;
+
+    /**
+     * Logs waiting to be stored, by group and persistence flags.
+     */
+    private final Map<String, PendingWrites> mPendingWrites = new LinkedHashMap<>();
+
+    /**
+     * Number of logs waiting to be stored.
+     */
+    private int mPendingWriteCount;
+
+    /**
+     * Runnable that stores buffered logs when group commit window expires.
+     */
+    private final Runnable mFlushPendingWritesRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flushPendingWrites();
+        }
+    };
+
+    /**
+     * Runnable that writes logs buffered in memory to disk.
+     */
+    private final Runnable mFlushPersistenceRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flushPersistence();
+        }
+    };
+
+    /**
+     * Flushes persistence when the application goes to background.
+     */
+    private final ComponentCallbacks2 mTrimMemoryCallbacks = new ComponentCallbacks2() {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                mAppCenterHandler.post(mFlushPersistenceRunnable);
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+
     /**
      * Creates and initializes a new instance.
      *
@@ -169,22 +245,60 @@ public class DefaultChannel implements Channel {
         mIngestions.add(mIngestion);
         mAppCenterHandler = appCenterHandler;
         mEnabled = true;
+        mGroupCommitMaxLogs = DependencyConfiguration.getGroupCommitMaxLogs();
+        mGroupCommitInterval = DependencyConfiguration.getGroupCommitInterval();
+        mContext.registerComponentCallbacks(mTrimMemoryCallbacks);
     }
 
     /**
      * Init Persistence for default constructor.
      */
     private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer) {
-        Persistence persistence = new DatabasePersistence(context);
+        Persistence persistence;
+        long memoryMaxSize = DependencyConfiguration.getMemoryPersistenceMaxSize();
+        if (memoryMaxSize > 0) {
+            Persistence spillPersistence = DependencyConfiguration.isMemoryPersistenceSpillEnabled() ? buildDiskPersistence(context) : null;
+            persistence = new MemoryPersistence(memoryMaxSize, spillPersistence);
+        } else {
+            persistence = buildDiskPersistence(context);
+        }
         persistence.setLogSerializer(logSerializer);
         return persistence;
     }
 
+    /**
+     * Init the disk persistence engine selected in {@link DependencyConfiguration}.
+     */
+    private static Persistence buildDiskPersistence(@NonNull Context context) {
+        if (DependencyConfiguration.isJournalPersistenceEnabled()) {
+            return new JournalPersistence(context);
+        }
+        DatabasePersistence persistence = new DatabasePersistence(context);
+        if (DependencyConfiguration.isDatabaseWriteAheadLoggingEnabled()) {
+            persistence.setWriteAheadLoggingEnabled(true);
+        }
+        if (DependencyConfiguration.isDatabaseCompressionEnabled()) {
+            persistence.setCompressionEnabled(true);
+        }
+        if (DependencyConfiguration.isDatabaseBinaryEncodingEnabled()) {
+            persistence.setBinaryEncodingEnabled(true);
+        }
+        if (DependencyConfiguration.isDatabaseParallelEncodingEnabled()) {
+            persistence.setParallelEncodingEnabled(true);
+        }
+        return persistence;
+    }
+
     @Override
     public synchronized boolean setMaxStorageSize(long maxStorageSizeInBytes) {
         return mPersistence.setMaxStorageSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public long getEvictedLogCount() {
+        return mPersistence.getEvictedLogCount();
+    }
+
     /**
      * Call this after every async (such as database/ingestion) callback and stop processing if it returns false.
      * That means either the groupState was removed (or removed/added again),
@@ -216,7 +330,7 @@ public class DefaultChannel implements Channel {
     }
 
     @Override
-    public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener) {
+    public synchronized void addGroup(final String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, float storageQuota, Ingestion ingestion, GroupListener groupListener) {
 
         /* Init group. */
         AppCenterLog.debug(LOG_TAG, "addGroup(" + groupName + ")");
@@ -224,6 +338,7 @@ public class DefaultChannel implements Channel {
         mIngestions.add(ingestion);
         final GroupState groupState = new GroupState(groupName, maxLogsPerBatch, batchTimeInterval, maxParallelBatches, ingestion, groupListener);
         mGroupStates.put(groupName, groupState);
+        mPersistence.setGroupStorageQuota(groupName, storageQuota);
 
         /* Count pending logs. */
         groupState.mPendingLogCount = mPersistence.countLogs(groupName);
@@ -350,6 +465,15 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    @Override
+    public synchronized void setGroupCommit(int maxLogs, long interval) {
+        mGroupCommitMaxLogs = maxLogs;
+        mGroupCommitInterval = interval;
+        if (maxLogs <= 0 || mPendingWriteCount >= maxLogs) {
+            flushPendingWrites();
+        }
+    }
+
     @Override
     public synchronized void setLogUrl(String logUrl) {
         mIngestion.setLogUrl(logUrl);
@@ -366,6 +490,7 @@ public class DefaultChannel implements Channel {
             return;
         }
         AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
+        flushPendingWrites();
         mPersistence.deleteLogs(groupName);
 
         /* Call listeners so that they can react on group clearing. */
@@ -389,6 +514,7 @@ public class DefaultChannel implements Channel {
         mEnabled = false;
         mDiscardLogs = deleteLogs;
         mCurrentState++;
+        flushPendingWrites();
         for (GroupState groupState : mGroupStates.values()) {
             cancelTimer(groupState);
 
@@ -445,6 +571,10 @@ public class DefaultChannel implements Channel {
             mAppCenterHandler.removeCallbacks(groupState.mRunnable);
             SharedPreferencesManager.remove(START_TIMER_PREFIX + groupState.mName);
         }
+        if (groupState.mPreconnectScheduled) {
+            groupState.mPreconnectScheduled = false;
+            mAppCenterHandler.removeCallbacks(groupState.mPreconnectRunnable);
+        }
     }
 
     /**
@@ -494,24 +624,18 @@ public class DefaultChannel implements Channel {
         /* Remember this batch. */
         groupState.mSendingBatches.put(batchId, batch);
 
-        /*
-         * Due to bug on old Android versions (verified on 4.0.4),
-         * if we start an async task from here, i.e. the async handler thread,
-         * we end up with AsyncTask configured with the wrong Handler to use for onPostExecute
-         * instead of using main thread as advertised in Javadoc (and its a static field there).
-         *
-         * Our SDK guards against an application that would make a first async task in non UI
-         * thread before SDK is initialized, but we should also avoid corrupting AsyncTask
-         * with our wrong handler to avoid creating bugs in the application code since we are
-         * a library.
-         *
-         * So make sure we execute the async task from UI thread to avoid any issue.
-         */
-        HandlerUtils.runOnUiThread(new Runnable() {
+        /* Reuse persisted payloads if available to avoid serializing logs again. */
+        final List<String> serializedLogs = mPersistence.takeSerializedLogs(groupState.mName, batchId);
+
+        /* Batches containing critical logs are sent ahead of other HTTP calls. */
+        final boolean critical = mPersistence.getBatchPriority(groupState.mName, batchId) == Flags.CRITICAL;
+
+        /* Send from the dedicated sender thread so that the UI thread is never involved in ingestion. */
+        HandlerUtils.runOnSenderThread(new Runnable() {
 
             @Override
             public void run() {
-                sendLogs(groupState, stateSnapshot, batch, batchId);
+                sendLogs(groupState, stateSnapshot, batch, serializedLogs, critical, batchId);
             }
         });
     }
@@ -519,18 +643,24 @@ public class DefaultChannel implements Channel {
     /**
      * Send logs.
      *
-     * @param groupState   The group state.
-     * @param currentState The current state.
-     * @param batch        The log batch.
-     * @param batchId      The batch ID.
+     * @param groupState     The group state.
+     * @param currentState   The current state.
+     * @param batch          The log batch.
+     * @param serializedLogs The persisted payloads of the batch, if available.
+     * @param critical       True if the batch contains critical logs.
+     * @param batchId        The batch ID.
      */
-    @MainThread
-    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, final String batchId) {
+    @WorkerThread
+    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, List<String> serializedLogs, boolean critical, final String batchId) {
         if (checkStateDidNotChange(groupState, currentState)) {
 
             /* Send logs. */
             LogContainer logContainer = new LogContainer();
             logContainer.setLogs(batch);
+            if (serializedLogs != null && serializedLogs.size() == batch.size()) {
+                logContainer.setSerializedLogs(serializedLogs);
+            }
+            logContainer.setCritical(critical);
             groupState.mIngestion.sendAsync(mAppSecret, mInstallId, logContainer, new ServiceCallback() {
 
                 @Override
@@ -690,35 +820,135 @@ public class DefaultChannel implements Channel {
                 AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.");
                 return;
             }
+
+            /* Buffer log if group commit is enabled, critical logs must not be lost if the process is killed. */
+            if (mGroupCommitMaxLogs > 0 && Flags.getPersistenceFlag(flags, false) != Flags.CRITICAL) {
+                addPendingWrite(log, groupName, flags);
+                return;
+            }
             try {
 
                 /* Persist log. */
                 mPersistence.putLog(log, groupName, flags);
             } catch (Persistence.PersistenceException e) {
                 AppCenterLog.error(LOG_TAG, "Error persisting log", e);
-                if (groupState.mListener != null) {
-                    groupState.mListener.onBeforeSending(log);
-                    groupState.mListener.onFailure(log, e);
-                }
+                notifyPersistenceFailure(groupState, log, e);
                 return;
             }
+            onLogPersisted(groupState, log);
+        }
+    }
 
-            /* Nothing more to do if the log is from a paused transmission target. */
-            Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
-            String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
-            if (groupState.mPausedTargetKeys.contains(targetKey)) {
-                AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
-                return;
-            }
+    /**
+     * Buffer a log until the group commit window expires or the buffer is full.
+     *
+     * @param log       the log.
+     * @param groupName the group name.
+     * @param flags     the persistence flags.
+     */
+    private void addPendingWrite(@NonNull Log log, @NonNull String groupName, int flags) {
+        String key = groupName + "/" + flags;
+        PendingWrites pendingWrites = mPendingWrites.get(key);
+        if (pendingWrites == null) {
+            pendingWrites = new PendingWrites(groupName, flags);
+            mPendingWrites.put(key, pendingWrites);
+        }
+        pendingWrites.mLogs.add(log);
+        mPendingWriteCount++;
+        if (mPendingWriteCount >= mGroupCommitMaxLogs) {
+            flushPendingWrites();
+        } else if (mPendingWriteCount == 1) {
+            mAppCenterHandler.postDelayed(mFlushPendingWritesRunnable, mGroupCommitInterval);
+        }
+    }
 
-            /* Increment counters and schedule ingestion if we are enabled. */
-            groupState.mPendingLogCount++;
-            AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
-            if (mEnabled) {
-                checkPendingLogs(groupState);
-            } else {
-                AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+    /**
+     * Store buffered logs then write logs that persistence keeps in memory to disk.
+     */
+    @VisibleForTesting
+    synchronized void flushPersistence() {
+        flushPendingWrites();
+        mPersistence.flush();
+    }
+
+    /**
+     * Store all buffered logs, one transaction per group and persistence flags.
+     */
+    @VisibleForTesting
+    synchronized void flushPendingWrites() {
+        if (mPendingWriteCount == 0) {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "flushPendingWrites() pendingWriteCount=" + mPendingWriteCount);
+        mAppCenterHandler.removeCallbacks(mFlushPendingWritesRunnable);
+        List<PendingWrites> pendingWritesList = new ArrayList<>(mPendingWrites.values());
+        mPendingWrites.clear();
+        mPendingWriteCount = 0;
+        for (PendingWrites pendingWrites : pendingWritesList) {
+            GroupState groupState = mGroupStates.get(pendingWrites.mGroupName);
+            long[] ids;
+            try {
+                ids = mPersistence.putLogs(pendingWrites.mLogs, pendingWrites.mGroupName, pendingWrites.mFlags);
+            } catch (Persistence.PersistenceException e) {
+                AppCenterLog.error(LOG_TAG, "Error persisting logs", e);
+                if (groupState != null) {
+                    for (Log log : pendingWrites.mLogs) {
+                        notifyPersistenceFailure(groupState, log, e);
+                    }
+                }
+                continue;
+            }
+            if (groupState == null) {
+                continue;
             }
+            for (int i = 0; i < ids.length; i++) {
+                Log log = pendingWrites.mLogs.get(i);
+                if (ids[i] == -1) {
+                    notifyPersistenceFailure(groupState, log, new Persistence.PersistenceException("Failed to store a log for log type " + log.getType() + "."));
+                } else {
+                    onLogPersisted(groupState, log);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notify group listener that a log could not be persisted.
+     *
+     * @param groupState the group state.
+     * @param log        the log.
+     * @param e          the persistence error.
+     */
+    private void notifyPersistenceFailure(@NonNull GroupState groupState, @NonNull Log log, @NonNull Exception e) {
+        if (groupState.mListener != null) {
+            groupState.mListener.onBeforeSending(log);
+            groupState.mListener.onFailure(log, e);
+        }
+    }
+
+    /**
+     * Update counters and schedule ingestion after a log has been persisted.
+     *
+     * @param groupState the group state.
+     * @param log        the persisted log.
+     */
+    private void onLogPersisted(@NonNull GroupState groupState, @NonNull Log log) {
+
+        /* Nothing more to do if the log is from a paused transmission target. */
+        Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
+        String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
+        if (groupState.mPausedTargetKeys.contains(targetKey)) {
+            AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
+            return;
+        }
+
+        /* Increment counters and schedule ingestion if we are enabled. */
+        groupState.mPendingLogCount++;
+        AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
+        if (mEnabled) {
+            checkPendingLogs(groupState);
+        } else {
+            AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
         }
     }
 
@@ -747,6 +977,24 @@ public class DefaultChannel implements Channel {
         else if (!groupState.mScheduled) {
             groupState.mScheduled = true;
             mAppCenterHandler.postDelayed(groupState.mRunnable, batchTimeInterval);
+            schedulePreconnect(groupState, batchTimeInterval);
+        }
+    }
+
+    /**
+     * Prepare the connection to ingestion shortly before a batch is sent,
+     * so that the batch does not wait for DNS resolution and TLS handshake.
+     *
+     * @param groupState        the group state.
+     * @param batchTimeInterval time in ms before the batch is sent.
+     */
+    private void schedulePreconnect(@NonNull GroupState groupState, long batchTimeInterval) {
+        long delay = batchTimeInterval - PRECONNECT_LEAD_TIME;
+        if (delay <= 0) {
+            groupState.mIngestion.preconnect();
+        } else if (!groupState.mPreconnectScheduled) {
+            groupState.mPreconnectScheduled = true;
+            mAppCenterHandler.postDelayed(groupState.mPreconnectRunnable, delay);
         }
     }
 
@@ -817,6 +1065,7 @@ public class DefaultChannel implements Channel {
 
     @Override
     public synchronized void shutdown() {
+        mContext.unregisterComponentCallbacks(mTrimMemoryCallbacks);
         suspend(false, new CancellationException());
     }
 
@@ -871,6 +1120,11 @@ public class DefaultChannel implements Channel {
          */
         boolean mScheduled;
 
+        /**
+         * Is connection preparation scheduled.
+         */
+        boolean mPreconnectScheduled;
+
         /**
          * Indicates if the group is paused.
          */
@@ -894,6 +1148,18 @@ public class DefaultChannel implements Channel {
             }
         };
 
+        /**
+         * Runnable that prepares the connection to ingestion before {@link #mRunnable} runs.
+         */
+        final Runnable mPreconnectRunnable = new Runnable() {
+
+            @Override
+            public void run() {
+                mPreconnectScheduled = false;
+                mIngestion.preconnect();
+            }
+        };
+
         /**
          * Init.
          *
@@ -913,4 +1179,36 @@ public class DefaultChannel implements Channel {
             mListener = listener;
         }
     }
+
+    /**
+     * Logs buffered for a group commit that share the same group and persistence flags.
+     */
+    private static class PendingWrites {
+
+        /**
+         * Group name.
+         */
+        final String mGroupName;
+
+        /**
+         * Persistence flags.
+         */
+        final int mFlags;
+
+        /**
+         * Buffered logs.
+         */
+        final List<Log> mLogs = new ArrayList<>();
+
+        /**
+         * Init.
+         *
+         * @param groupName group name.
+         * @param flags     persistence flags.
+         */
+        PendingWrites(String groupName, int flags) {
+            mGroupName = groupName;
+            mFlags = flags;
+        }
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compression applied to request bodies that are large enough to be worth it.
+ * Implementations must be thread safe, several calls can compress at the same time.
+ *
+ * @see GzipCodec
+ * @see DeflateCodec
+ */
+public interface CompressionCodec {
+
+    /**
+     * Get the encoding name sent in the Content-Encoding header.
+     *
+     * @return content encoding.
+     */
+    @NonNull
+    String getContentEncoding();
+
+    /**
+     * Open a stream compressing the bytes written to it.
+     * Closing the returned stream finishes compression and closes the target stream.
+     *
+     * @param out target stream receiving compressed bytes.
+     * @return compressing stream.
+     * @throws IOException if writing the header to the target stream fails.
+     */
+    @NonNull
+    OutputStream compress(@NonNull OutputStream out) throws IOException;
+}
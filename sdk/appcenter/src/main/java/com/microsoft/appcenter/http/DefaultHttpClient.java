@@ -5,23 +5,26 @@
 
 package com.microsoft.appcenter.http;
 
-import android.os.AsyncTask;
+import android.net.TrafficStats;
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.HandlerUtils;
 
+import java.net.URL;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.http.HttpUtils.THREAD_STATS_TAG;
 
 /**
  * Default HTTP client without the additional behaviors.
  */
-public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.Tracker {
+public class DefaultHttpClient implements HttpClient.Preconnectable, DefaultHttpClientCallTask.Tracker {
 
     /**
      * HTTP GET method.
@@ -64,26 +67,61 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
     static final String CONTENT_ENCODING_KEY = "Content-Encoding";
 
     /**
-     * Content encoding header key.
+     * Gzip content encoding value.
      */
     static final String CONTENT_ENCODING_VALUE = "gzip";
 
+    /**
+     * Codec used when compression is enabled without specifying one, shared to reuse deflaters.
+     */
+    static final CompressionCodec DEFAULT_COMPRESSION_CODEC = new GzipCodec();
+
+    /**
+     * Transport used when none is specified.
+     */
+    static final HttpTransport DEFAULT_HTTP_TRANSPORT = new DefaultHttpTransport();
+
     /**
      * List of ongoing call tasks.
      */
     private final Set<DefaultHttpClientCallTask> mTasks = new HashSet<>();
 
     /**
-     * Indicates whether compression is enabled.
+     * Codec compressing request bodies, null if compression is disabled.
      */
-    private final boolean mCompressionEnabled;
+    private final CompressionCodec mCompressionCodec;
+
+    /**
+     * Transport sending requests.
+     */
+    private final HttpTransport mHttpTransport;
 
     public DefaultHttpClient() {
         this(true);
     }
 
     public DefaultHttpClient(boolean compressionEnabled) {
-        mCompressionEnabled = compressionEnabled;
+        this(compressionEnabled ? DEFAULT_COMPRESSION_CODEC : null);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionCodec codec compressing large request bodies, null to disable compression.
+     */
+    public DefaultHttpClient(CompressionCodec compressionCodec) {
+        this(compressionCodec, DEFAULT_HTTP_TRANSPORT);
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionCodec codec compressing large request bodies, null to disable compression.
+     * @param httpTransport    transport sending requests.
+     */
+    public DefaultHttpClient(CompressionCodec compressionCodec, @NonNull HttpTransport httpTransport) {
+        mCompressionCodec = compressionCodec;
+        mHttpTransport = httpTransport;
     }
 
     @VisibleForTesting
@@ -93,18 +131,18 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
 
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
-        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled);
+        final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionCodec, mHttpTransport);
         try {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            task.executeOnExecutor(HttpExecutor.getExecutor(HttpExecutor.getLane(callTemplate)));
         } catch (final RejectedExecutionException e) {
 
             /*
-             * When executor saturated (shared with app), we should use the retry mechanism
+             * When executor saturated, we should use the retry mechanism
              * rather than creating more threads to avoid putting too much pressure on the hosting app.
              * Also we need to return the method before calling the listener,
-             * so we post the callback on handler to make sure of that.
+             * so we post the callback on the sender thread handler to make sure of that.
              */
-            HandlerUtils.runOnUiThread(new Runnable() {
+            HandlerUtils.getSenderHandler().post(new Runnable() {
 
                 @Override
                 public void run() {
@@ -117,7 +155,7 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
             @Override
             public void cancel() {
 
-                /* This doesn't kill the AsyncTask, so we should check the state manually. */
+                /* This doesn't kill the call, so we should check the state manually. */
                 task.cancel(true);
             }
         };
@@ -150,8 +188,39 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
         /* Nothing to do. */
     }
 
+    @Override
+    public void preconnect(final String url) {
+        try {
+            HttpExecutor.getExecutor(HttpExecutor.LANE_NORMAL).execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    /* Do tag socket to avoid strict mode issue. */
+                    TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
+                    try {
+                        mHttpTransport.preconnect(new URL(url));
+                    } catch (Exception e) {
+                        AppCenterLog.verbose(LOG_TAG, "Failed to prepare connection, the call will connect.", e);
+                    } finally {
+                        TrafficStats.clearThreadStatsTag();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+
+            /* Calls are already queued, they will connect anyway. */
+            AppCenterLog.verbose(LOG_TAG, "Skip preparing connection while executor is saturated.");
+        }
+    }
+
     @VisibleForTesting
     boolean isCompressionEnabled() {
-        return mCompressionEnabled;
+        return mCompressionCodec != null;
+    }
+
+    @VisibleForTesting
+    CompressionCodec getCompressionCodec() {
+        return mCompressionCodec;
     }
 }
@@ -6,14 +6,13 @@
 package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
 
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -23,29 +22,28 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
-
-import javax.net.ssl.HttpsURLConnection;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_KEY;
-import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static com.microsoft.appcenter.http.HttpUtils.READ_BUFFER_SIZE;
 import static com.microsoft.appcenter.http.HttpUtils.THREAD_STATS_TAG;
 import static com.microsoft.appcenter.http.HttpUtils.WRITE_BUFFER_SIZE;
-import static com.microsoft.appcenter.http.HttpUtils.createHttpsConnection;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 /**
  * Async task for default HTTP client.
+ * The call runs on an executor thread and its result is delivered on the sender thread,
+ * unlike {@link android.os.AsyncTask} that would deliver it on the UI thread.
  */
-class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
+class DefaultHttpClientCallTask implements Runnable {
 
     /**
      * Default string builder capacity.
@@ -53,9 +51,9 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     private static final int DEFAULT_STRING_BUILDER_CAPACITY = 16;
 
     /**
-     * Minimum payload length in bytes to use gzip.
+     * Size of the payload chunks written to the connection, checking for cancellation between chunks.
      */
-    private static final int MIN_GZIP_LENGTH = 1400;
+    private static final int PAYLOAD_CHUNK_SIZE = 16 * WRITE_BUFFER_SIZE;
 
     /**
      * Maximum payload length to use prettify for logging.
@@ -89,33 +87,42 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
     private final Tracker mTracker;
 
-    private final boolean mCompressionEnabled;
+    private final CompressionCodec mCompressionCodec;
+
+    private final HttpTransport mHttpTransport;
 
-    DefaultHttpClientCallTask(String url, String method, Map<String, String> headers, HttpClient.CallTemplate callTemplate, ServiceCallback serviceCallback, Tracker tracker, boolean compressionEnabled) {
+    /**
+     * True once the response body has been read to the end, the connection can then be kept alive.
+     */
+    private boolean mResponseConsumed;
+
+    /**
+     * True once cancelled.
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * Thread running the call, to interrupt it if cancelled.
+     */
+    private Thread mThread;
+
+    DefaultHttpClientCallTask(String url, String method, Map<String, String> headers, HttpClient.CallTemplate callTemplate, ServiceCallback serviceCallback, Tracker tracker, CompressionCodec compressionCodec, HttpTransport httpTransport) {
         mUrl = url;
         mMethod = method;
         mHeaders = headers;
         mCallTemplate = callTemplate;
         mServiceCallback = serviceCallback;
         mTracker = tracker;
-        mCompressionEnabled = compressionEnabled;
-    }
-
-    private static InputStream getInputStream(HttpsURLConnection httpsURLConnection) throws IOException {
-        int status = httpsURLConnection.getResponseCode();
-        if (status >= 200 && status < 400) {
-            return httpsURLConnection.getInputStream();
-        } else {
-            return httpsURLConnection.getErrorStream();
-        }
+        mCompressionCodec = compressionCodec;
+        mHttpTransport = httpTransport;
     }
 
     /**
      * Write payload to output stream.
      */
-    private void writePayload(OutputStream out, byte[] payload) throws IOException {
-        for (int i = 0; i < payload.length; i += WRITE_BUFFER_SIZE) {
-            out.write(payload, i, min(payload.length - i, WRITE_BUFFER_SIZE));
+    private void writePayload(OutputStream out, byte[] payload, int length) throws IOException {
+        for (int i = 0; i < length; i += PAYLOAD_CHUNK_SIZE) {
+            out.write(payload, i, min(length - i, PAYLOAD_CHUNK_SIZE));
             if (isCancelled()) {
                 break;
             }
@@ -125,15 +132,15 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
     /**
      * Dump response stream to a string.
      */
-    private String readResponse(HttpsURLConnection httpsURLConnection) throws IOException {
+    private String readResponse(HttpTransport.Connection connection) throws IOException {
 
         /*
          * Though content length header value is less than actual payload length (gzip), we want to init
          * buffer with a reasonable start size to optimize (default is 16 and is way too low for this
          * use case).
          */
-        StringBuilder builder = new StringBuilder(max(httpsURLConnection.getContentLength(), DEFAULT_STRING_BUILDER_CAPACITY));
-        InputStream stream = getInputStream(httpsURLConnection);
+        StringBuilder builder = new StringBuilder(max(connection.getContentLength(), DEFAULT_STRING_BUILDER_CAPACITY));
+        InputStream stream = connection.getInputStream();
 
         //noinspection TryFinallyCanBeTryWithResources
         try {
@@ -146,6 +153,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
                     break;
                 }
             }
+            mResponseConsumed = len < 0;
             return builder.toString();
         } finally {
             stream.close();
@@ -157,21 +165,14 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
      */
     private HttpResponse doHttpCall() throws Exception {
         URL url = new URL(mUrl);
-        HttpsURLConnection httpsURLConnection = createHttpsConnection(url);
+        HttpTransport.Connection connection = mHttpTransport.openConnection(url, mMethod);
         try {
 
-            /* Build payload now if POST. */
-            httpsURLConnection.setRequestMethod(mMethod);
-            String payload = null;
-            byte[] binaryPayload = null;
-            boolean shouldCompress = false;
+            /* Build payload now if POST, retries reuse the bytes encoded by the first attempt. */
+            PreparedBody preparedBody = null;
             boolean isPost = mMethod.equals(METHOD_POST);
             if (isPost && mCallTemplate != null) {
-
-                /* Get bytes, check if large enough to compress. */
-                payload = mCallTemplate.buildRequestBody();
-                binaryPayload = payload.getBytes(CHARSET_NAME);
-                shouldCompress = mCompressionEnabled && binaryPayload.length >= MIN_GZIP_LENGTH;
+                preparedBody = PreparedBody.prepare(mCallTemplate, mCompressionCodec);
 
                 /* If no content type specified, assume json. */
                 if (!mHeaders.containsKey(CONTENT_TYPE_KEY)) {
@@ -180,13 +181,13 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             }
 
             /* If about to compress, add corresponding header. */
-            if (shouldCompress) {
-                mHeaders.put(CONTENT_ENCODING_KEY, CONTENT_ENCODING_VALUE);
+            if (preparedBody != null && preparedBody.getContentEncoding() != null) {
+                mHeaders.put(CONTENT_ENCODING_KEY, preparedBody.getContentEncoding());
             }
 
             /* Send headers. */
             for (Map.Entry<String, String> header : mHeaders.entrySet()) {
-                httpsURLConnection.setRequestProperty(header.getKey(), header.getValue());
+                connection.setRequestProperty(header.getKey(), header.getValue());
             }
             if (isCancelled()) {
                 return null;
@@ -198,10 +199,11 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             }
 
             /* Send payload. */
-            if (binaryPayload != null) {
+            if (preparedBody != null) {
 
                 /* Log payload. */
-                if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
+                String payload = preparedBody.getText();
+                if (payload != null && AppCenterLog.getLogLevel() <= Log.VERBOSE) {
                     if (payload.length() < MAX_PRETTIFY_LOG_LENGTH) {
                         payload = TOKEN_REGEX_URL_ENCODED.matcher(payload).replaceAll("token=***");
                         if (CONTENT_TYPE_VALUE.equals(mHeaders.get(CONTENT_TYPE_KEY))) {
@@ -211,23 +213,12 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
                     AppCenterLog.verbose(LOG_TAG, payload);
                 }
 
-                /* Compress payload if large enough to be worth it. */
-                if (shouldCompress) {
-                    ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(binaryPayload.length);
-                    GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBuffer);
-                    gzipStream.write(binaryPayload);
-                    gzipStream.close();
-                    binaryPayload = gzipBuffer.toByteArray();
-                }
-
                 /* Send payload on the wire. */
-                httpsURLConnection.setDoOutput(true);
-                httpsURLConnection.setFixedLengthStreamingMode(binaryPayload.length);
-                OutputStream out = httpsURLConnection.getOutputStream();
+                OutputStream out = connection.getOutputStream(preparedBody.getLength());
 
                 //noinspection TryFinallyCanBeTryWithResources
                 try {
-                    writePayload(out, binaryPayload);
+                    writePayload(out, preparedBody.getBytes(), preparedBody.getLength());
                 } finally {
                     out.close();
                 }
@@ -237,10 +228,10 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             }
 
             /* Read response. */
-            int status = httpsURLConnection.getResponseCode();
-            String response = readResponse(httpsURLConnection);
+            int status = connection.getResponseCode();
+            String response = readResponse(connection);
             if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
-                String contentType = httpsURLConnection.getHeaderField(CONTENT_TYPE_KEY);
+                String contentType = connection.getHeaderField(CONTENT_TYPE_KEY);
                 String logPayload;
                 if (contentType == null || contentType.startsWith("text/") || contentType.startsWith("application/")) {
                     logPayload = TOKEN_REGEX_JSON.matcher(response).replaceAll("token\":\"***\"");
@@ -251,7 +242,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
                 AppCenterLog.verbose(LOG_TAG, "HTTP response status=" + status + " payload=" + logPayload);
             }
             Map<String, String> responseHeaders = new HashMap<>();
-            for (Map.Entry<String, List<String>> header : httpsURLConnection.getHeaderFields().entrySet()) {
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
                 responseHeaders.put(header.getKey(), header.getValue().iterator().next());
             }
             HttpResponse httpResponse = new HttpResponse(status, response, responseHeaders);
@@ -265,13 +256,92 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             throw new HttpException(httpResponse);
         } finally {
 
-            /* Release connection. */
-            httpsURLConnection.disconnect();
+            /* Keep the connection alive only if the response was fully read, the next request could not use it otherwise. */
+            if (mResponseConsumed) {
+                connection.release();
+            } else {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Start the call on the specified executor.
+     *
+     * @param executor executor running the call.
+     * @return this task.
+     * @throws RejectedExecutionException if the executor is saturated.
+     */
+    DefaultHttpClientCallTask executeOnExecutor(Executor executor) {
+        onPreExecute();
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mTracker.onFinish(this);
+            throw e;
         }
+        return this;
     }
 
     @Override
-    protected Object doInBackground(Void... params) {
+    public void run() {
+        Object result = null;
+        if (!isCancelled()) {
+            synchronized (this) {
+                mThread = Thread.currentThread();
+            }
+            try {
+                result = doInBackground();
+            } finally {
+                synchronized (this) {
+                    mThread = null;
+                }
+
+                /* Don't leave an interruption from a late cancel on the pooled thread. */
+                Thread.interrupted();
+            }
+        }
+
+        /* Deliver result on the sender thread. */
+        final Object finalResult = result;
+        HandlerUtils.getSenderHandler().post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    onCancelled(finalResult);
+                } else {
+                    onPostExecute(finalResult);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancel the call. The result is still delivered to {@link #onCancelled(Object)}.
+     *
+     * @param mayInterruptIfRunning true to interrupt the thread running the call.
+     * @return false if already cancelled, true otherwise.
+     */
+    synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (mCancelled) {
+            return false;
+        }
+        mCancelled = true;
+        if (mayInterruptIfRunning && mThread != null) {
+            mThread.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if cancelled.
+     */
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    Object doInBackground() {
 
         /* Do tag socket to avoid strict mode issue. */
         TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
@@ -284,13 +354,11 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
-    @Override
-    protected void onPreExecute() {
+    void onPreExecute() {
         mTracker.onStart(this);
     }
 
-    @Override
-    protected void onPostExecute(Object result) {
+    void onPostExecute(Object result) {
         mTracker.onFinish(this);
         if (result instanceof Exception) {
             mServiceCallback.onCallFailed((Exception) result);
@@ -300,8 +368,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
-    @Override
-    protected void onCancelled(Object result) {
+    void onCancelled(Object result) {
 
         /* Handle the result even if it was cancelled. */
         if (result instanceof HttpResponse || result instanceof HttpException) {
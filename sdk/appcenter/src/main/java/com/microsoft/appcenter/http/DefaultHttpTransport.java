@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import static com.microsoft.appcenter.http.HttpUtils.CONNECT_TIMEOUT;
+import static com.microsoft.appcenter.http.HttpUtils.READ_TIMEOUT;
+import static com.microsoft.appcenter.http.HttpUtils.createHttpsConnection;
+import static com.microsoft.appcenter.http.HttpUtils.getSslSocketFactory;
+
+/**
+ * Transport using {@link HttpsURLConnection}. Connections are not disconnected after a successful
+ * exchange: once the response body is read to the end and closed, the platform keeps the socket
+ * in its pool and the next request to the same host skips the TCP and TLS handshakes.
+ * <p>
+ * The pool can't be filled ahead of a request, so pre-connecting resolves the host and performs
+ * a TLS handshake on a separate socket: the request then finds the address in the platform DNS
+ * caches and resumes the TLS session with an abbreviated handshake.
+ */
+public class DefaultHttpTransport implements HttpTransport {
+
+    /**
+     * Minimum time in ms between a connection to a host and a pre-connection to that host,
+     * a connection used more recently is likely to still be in the pool.
+     */
+    @VisibleForTesting
+    static final long PRECONNECT_INTERVAL = 60000;
+
+    /**
+     * Last time a connection was opened or prepared, by host and port.
+     */
+    private final Map<String, Long> mLastConnectionTimes = new HashMap<>();
+
+    /**
+     * Get the port connected to for a URL.
+     */
+    private static int getPort(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    /**
+     * Record a connection to a host.
+     *
+     * @param url             URL.
+     * @param minimumInterval interval in ms since the previous connection to the host below which the
+     *                        connection is not recorded.
+     * @return true if recorded, false if the host was connected more recently than the interval.
+     */
+    private synchronized boolean recordConnection(URL url, long minimumInterval) {
+        String key = url.getHost() + ":" + getPort(url);
+        long now = SystemClock.elapsedRealtime();
+        Long lastConnectionTime = mLastConnectionTimes.get(key);
+        if (lastConnectionTime != null && now - lastConnectionTime < minimumInterval) {
+            return false;
+        }
+        mLastConnectionTimes.put(key, now);
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public Connection openConnection(@NonNull URL url, @NonNull String method) throws IOException {
+        HttpsURLConnection httpsURLConnection = createHttpsConnection(url);
+        httpsURLConnection.setRequestMethod(method);
+        recordConnection(url, 0);
+        return new UrlConnection(httpsURLConnection);
+    }
+
+    @Override
+    public void preconnect(@NonNull URL url) throws IOException {
+        if (!"https".equals(url.getProtocol())) {
+            throw new IOException("App Center support only HTTPS connection.");
+        }
+        if (!recordConnection(url, PRECONNECT_INTERVAL)) {
+            return;
+        }
+
+        /* Resolving the host fills the platform DNS caches that the request uses. */
+        String host = url.getHost();
+        int port = getPort(url);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getByName(host), port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(READ_TIMEOUT);
+
+            /*
+             * Use the socket factory of the requests with the same host and port, so that the session
+             * is cached where the request looks for it. No data is sent: on older versions the host
+             * name is verified by the request itself.
+             */
+            SSLSocket sslSocket = (SSLSocket) getSslSocketFactory().createSocket(socket, host, port, true);
+            socket = sslSocket;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+
+                /* Verify like the request does, a session is resumed only with the same identification. */
+                SSLParameters sslParameters = sslSocket.getSSLParameters();
+                sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(sslParameters);
+            }
+            sslSocket.startHandshake();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Connection wrapping {@link HttpsURLConnection}.
+     */
+    private static class UrlConnection implements Connection {
+
+        /**
+         * Wrapped connection.
+         */
+        private final HttpsURLConnection mHttpsURLConnection;
+
+        UrlConnection(HttpsURLConnection httpsURLConnection) {
+            mHttpsURLConnection = httpsURLConnection;
+        }
+
+        @Override
+        public void setRequestProperty(@NonNull String key, @NonNull String value) {
+            mHttpsURLConnection.setRequestProperty(key, value);
+        }
+
+        @NonNull
+        @Override
+        public OutputStream getOutputStream(int length) throws IOException {
+            mHttpsURLConnection.setDoOutput(true);
+            mHttpsURLConnection.setFixedLengthStreamingMode(length);
+            return mHttpsURLConnection.getOutputStream();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mHttpsURLConnection.getResponseCode();
+        }
+
+        @Override
+        public int getContentLength() {
+            return mHttpsURLConnection.getContentLength();
+        }
+
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return mHttpsURLConnection.getHeaderField(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return mHttpsURLConnection.getHeaderFields();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            int status = mHttpsURLConnection.getResponseCode();
+            if (status >= 200 && status < 400) {
+                return mHttpsURLConnection.getInputStream();
+            } else {
+                return mHttpsURLConnection.getErrorStream();
+            }
+        }
+
+        @Override
+        public void release() {
+
+            /* Nothing to do: the consumed stream already gave the socket back to the pool. */
+        }
+
+        @Override
+        public void disconnect() {
+            mHttpsURLConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.Deflater;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
+
+/**
+ * Deflate compression in the zlib format, optionally with a preset dictionary.
+ * <p>
+ * A preset dictionary holds strings that every payload repeats, such as the log property names,
+ * so that even the first occurrence of each is compressed. The receiver must know the dictionary
+ * to decompress, it's identified by its Adler-32 checksum in the zlib header.
+ * Use a dictionary only with an ingestion endpoint configured for it.
+ */
+public final class DeflateCodec implements CompressionCodec {
+
+    /**
+     * Content encoding value.
+     */
+    static final String CONTENT_ENCODING = "deflate";
+
+    /**
+     * Strings repeated in App Center and Common Schema payloads, from least to most frequent
+     * as the end of the dictionary is the cheapest to reference. Fragments are not meant to be valid JSON.
+     */
+    private static final String SDK_DICTIONARY = "{\"ver\":\"3.0\",\"name\":\"\",\"time\":\"\",\"iKey\":\"o:\",\"flags\":1,\"popSample\":100,\"cV\":\"\"," +
+            "\"ext\":{\"protocol\":{\"ticketKeys\":[],\"devMake\":\"\",\"devModel\":\"\"},\"user\":{\"localId\":\"c:\",\"locale\":\"\"}," +
+            "\"os\":{\"name\":\"Android\",\"ver\":\"\"},\"app\":{\"id\":\"A:\",\"ver\":\"\",\"locale\":\"\",\"userId\":\"\"},\"net\":{\"provider\":\"\"}," +
+            "\"sdk\":{\"libVer\":\"appcenter.android-\",\"epoch\":\"\",\"seq\":1,\"installId\":\"\"},\"loc\":{\"tz\":\"+00:00\"},\"device\":{\"localId\":\"a:\"}}," +
+            "\"data\":{\"baseType\":\"\",\"baseData\":{}}}" +
+            "{\"type\":\"startService\",\"services\":[\"Analytics\",\"Crashes\",\"Distribute\"]}" +
+            "{\"type\":\"startSession\",\"type\":\"page\",\"name\":\"\"" +
+            "\"wrapperSdkVersion\":\"\",\"wrapperSdkName\":\"\",\"wrapperRuntimeVersion\":\"\"" +
+            "\"typedProperties\":[{\"type\":\"dateTime\",\"type\":\"double\",\"type\":\"long\",\"type\":\"boolean\",\"value\":true}," +
+            "{\"type\":\"string\",\"name\":\"\",\"value\":\"\"}]" +
+            "\"device\":{\"sdkName\":\"appcenter.android\",\"sdkVersion\":\"\",\"model\":\"\",\"oemName\":\"\",\"osName\":\"Android\"," +
+            "\"osVersion\":\"\",\"osBuild\":\"\",\"osApiLevel\":2,\"locale\":\"en_US\",\"timeZoneOffset\":0,\"screenSize\":\"x\"," +
+            "\"appVersion\":\"1.0\",\"carrierName\":\"\",\"carrierCountry\":\"\",\"appBuild\":\"1\",\"appNamespace\":\"com.\"}" +
+            "{\"logs\":[{\"type\":\"event\",\"id\":\"-\",\"name\":\"\",\"timestamp\":\"T::.Z\",\"sid\":\"-\",\"userId\":\"\",\"properties\":{\"\":\"\"},";
+
+    /**
+     * Deflaters producing zlib data.
+     */
+    private final DeflaterPool mDeflaterPool;
+
+    /**
+     * Preset dictionary or null.
+     */
+    private final byte[] mDictionary;
+
+    /**
+     * Init with the default compression level and no dictionary.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * Init.
+     *
+     * @param level      compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *                   or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param dictionary optional preset dictionary, most frequent strings last.
+     * @throws IllegalArgumentException if level is invalid.
+     */
+    public DeflateCodec(int level, byte[] dictionary) {
+        mDeflaterPool = new DeflaterPool(level, false);
+        mDictionary = dictionary == null ? null : dictionary.clone();
+    }
+
+    /**
+     * Create a codec using the dictionary built from the strings repeated in SDK payloads.
+     *
+     * @param level compression level.
+     * @return codec.
+     * @throws IllegalArgumentException if level is invalid.
+     * @see #getSdkDictionary()
+     */
+    @NonNull
+    public static DeflateCodec withSdkDictionary(int level) {
+        return new DeflateCodec(level, getSdkDictionary());
+    }
+
+    /**
+     * Get the preset dictionary built from the strings repeated in SDK payloads,
+     * for an ingestion endpoint to decompress the payloads.
+     *
+     * @return dictionary bytes.
+     */
+    @NonNull
+    public static byte[] getSdkDictionary() {
+        try {
+            return SDK_DICTIONARY.getBytes(CHARSET_NAME);
+        } catch (UnsupportedEncodingException e) {
+
+            /* UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return compression level.
+     */
+    public int getLevel() {
+        return mDeflaterPool.getLevel();
+    }
+
+    /**
+     * @return true if this codec uses a preset dictionary.
+     */
+    public boolean hasDictionary() {
+        return mDictionary != null;
+    }
+
+    @NonNull
+    @Override
+    public String getContentEncoding() {
+        return CONTENT_ENCODING;
+    }
+
+    @NonNull
+    @Override
+    public OutputStream compress(@NonNull OutputStream out) {
+        Deflater deflater = mDeflaterPool.obtain();
+        if (mDictionary != null) {
+            deflater.setDictionary(mDictionary);
+        }
+        return new DeflaterPool.PooledDeflaterOutputStream(out, mDeflaterPool, deflater);
+    }
+}
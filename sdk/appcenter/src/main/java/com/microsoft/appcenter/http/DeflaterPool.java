@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Keeps a few idle {@link Deflater} instances with the same settings, as each one allocates
+ * several hundred kilobytes of native memory that we don't want to allocate again for every call.
+ */
+class DeflaterPool {
+
+    /**
+     * Maximum number of idle deflaters kept, calls are rarely compressed concurrently.
+     */
+    @VisibleForTesting
+    static final int MAX_IDLE_DEFLATERS = 2;
+
+    /**
+     * Size of the buffer receiving compressed bytes before writing them to the target stream.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Compression level.
+     */
+    private final int mLevel;
+
+    /**
+     * True for raw deflate data without zlib header and checksum.
+     */
+    private final boolean mNoWrap;
+
+    /**
+     * Idle deflaters.
+     */
+    private final Deque<Deflater> mIdleDeflaters = new ArrayDeque<>();
+
+    /**
+     * Init.
+     *
+     * @param level  compression level from {@link Deflater#DEFAULT_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}.
+     * @param noWrap true for raw deflate data without zlib header and checksum.
+     * @throws IllegalArgumentException if level is invalid.
+     */
+    DeflaterPool(int level, boolean noWrap) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        mLevel = level;
+        mNoWrap = noWrap;
+    }
+
+    /**
+     * @return compression level.
+     */
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Get an idle deflater or create one.
+     *
+     * @return deflater ready to compress new data.
+     */
+    @NonNull
+    synchronized Deflater obtain() {
+        Deflater deflater = mIdleDeflaters.pollFirst();
+        if (deflater == null) {
+            deflater = new Deflater(mLevel, mNoWrap);
+        }
+        return deflater;
+    }
+
+    /**
+     * Give back a deflater, it's released if enough deflaters are idle.
+     *
+     * @param deflater deflater obtained from this pool.
+     */
+    void recycle(@NonNull Deflater deflater) {
+        deflater.reset();
+        synchronized (this) {
+            if (mIdleDeflaters.size() < MAX_IDLE_DEFLATERS) {
+                mIdleDeflaters.addFirst(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * @return number of idle deflaters.
+     */
+    @VisibleForTesting
+    synchronized int getIdleCount() {
+        return mIdleDeflaters.size();
+    }
+
+    /**
+     * Compressing stream giving back its deflater to the pool when closed.
+     */
+    static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+        /**
+         * Pool owning the deflater.
+         */
+        private final DeflaterPool mPool;
+
+        /**
+         * True once the deflater was given back.
+         */
+        private boolean mRecycled;
+
+        PooledDeflaterOutputStream(@NonNull OutputStream out, @NonNull DeflaterPool pool, @NonNull Deflater deflater) {
+            super(out, deflater, BUFFER_SIZE);
+            mPool = pool;
+        }
+
+        /**
+         * Finish compressing and close the target stream without ending the deflater,
+         * {@link DeflaterOutputStream#close()} ends it on some Android versions and it could not be reused.
+         */
+        @Override
+        public void close() throws IOException {
+            if (mRecycled) {
+                return;
+            }
+            mRecycled = true;
+            try {
+                finish();
+            } finally {
+                try {
+                    out.close();
+                } finally {
+                    mPool.recycle(def);
+                }
+            }
+        }
+    }
+}
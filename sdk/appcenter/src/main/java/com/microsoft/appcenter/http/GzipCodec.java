@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_VALUE;
+
+/**
+ * Gzip compression, the default codec. Output is the same as {@link GZIPOutputStream}
+ * with the same compression level, but deflaters are reused across calls.
+ */
+public final class GzipCodec implements CompressionCodec {
+
+    /**
+     * Length of the gzip header without optional fields.
+     */
+    private static final int HEADER_LENGTH = 10;
+
+    /**
+     * Gzip header as written by {@link GZIPOutputStream} on this platform, the OS byte differs across Java versions.
+     */
+    private static final byte[] HEADER = getPlatformHeader();
+
+    /**
+     * Deflaters producing raw deflate data.
+     */
+    private final DeflaterPool mDeflaterPool;
+
+    /**
+     * Init with the default compression level.
+     */
+    public GzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Init.
+     *
+     * @param level compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *              or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @throws IllegalArgumentException if level is invalid.
+     */
+    public GzipCodec(int level) {
+        mDeflaterPool = new DeflaterPool(level, true);
+    }
+
+    private static byte[] getPlatformHeader() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(HEADER_LENGTH * 2);
+        try {
+            new GZIPOutputStream(buffer).close();
+        } catch (IOException ignored) {
+
+            /* Cannot happen when writing to memory. */
+        }
+        return Arrays.copyOf(buffer.toByteArray(), HEADER_LENGTH);
+    }
+
+    /**
+     * @return compression level.
+     */
+    public int getLevel() {
+        return mDeflaterPool.getLevel();
+    }
+
+    @NonNull
+    @Override
+    public String getContentEncoding() {
+        return CONTENT_ENCODING_VALUE;
+    }
+
+    @NonNull
+    @Override
+    public OutputStream compress(@NonNull OutputStream out) throws IOException {
+        out.write(HEADER);
+        return new GzipOutputStream(out, mDeflaterPool);
+    }
+
+    /**
+     * Deflate stream with the gzip checksum and size trailer.
+     */
+    private static class GzipOutputStream extends DeflaterPool.PooledDeflaterOutputStream {
+
+        /**
+         * Checksum of uncompressed data.
+         */
+        private final CRC32 mCrc = new CRC32();
+
+        /**
+         * True once the trailer is written.
+         */
+        private boolean mFinished;
+
+        GzipOutputStream(OutputStream out, DeflaterPool pool) {
+            super(out, pool, pool.obtain());
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            super.write(buffer, offset, length);
+            mCrc.update(buffer, offset, length);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            if (!mFinished) {
+                mFinished = true;
+                writeInt((int) mCrc.getValue());
+                writeInt((int) def.getBytesRead());
+            }
+        }
+
+        /**
+         * Write little endian integer.
+         */
+        private void writeInt(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+            out.write((value >> 16) & 0xff);
+            out.write((value >> 24) & 0xff);
+        }
+    }
+}
@@ -50,8 +50,35 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks of a call that can be run ahead of or after other calls.
+     */
+    interface PrioritizedCallTemplate extends CallTemplate {
+
+        /**
+         * Get the lane in which the call is executed.
+         *
+         * @return one of the lanes of {@link HttpExecutor}.
+         */
+        int getLane();
+    }
+
     /**
      * Make this client active again after closing.
      */
     void reopen();
+
+    /**
+     * Client that can connect to a host ahead of its calls.
+     */
+    interface Preconnectable extends HttpClient {
+
+        /**
+         * Prepare a connection to the host of a URL in background, so that a call made shortly
+         * after does not wait for DNS resolution and TLS handshake.
+         *
+         * @param url URL that will be called.
+         */
+        void preconnect(String url);
+    }
 }
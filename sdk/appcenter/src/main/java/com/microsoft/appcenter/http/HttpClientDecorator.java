@@ -9,7 +9,7 @@ import android.support.annotation.VisibleForTesting;
 
 import java.io.IOException;
 
-public abstract class HttpClientDecorator implements HttpClient {
+public abstract class HttpClientDecorator implements HttpClient.Preconnectable {
 
     final HttpClient mDecoratedApi;
 
@@ -27,6 +27,11 @@ public abstract class HttpClientDecorator implements HttpClient {
         mDecoratedApi.reopen();
     }
 
+    @Override
+    public void preconnect(String url) {
+        HttpUtils.preconnect(mDecoratedApi, url);
+    }
+
     @VisibleForTesting
     HttpClient getDecoratedApi() {
         return mDecoratedApi;
@@ -67,6 +67,13 @@ public class HttpClientNetworkStateHandler extends HttpClientDecorator implement
         super.reopen();
     }
 
+    @Override
+    public void preconnect(String url) {
+        if (mNetworkStateHelper.isNetworkConnected()) {
+            super.preconnect(url);
+        }
+    }
+
     @Override
     public synchronized void onNetworkStateUpdated(boolean connected) {
         if (connected && mCalls.size() > 0) {
@@ -6,13 +6,19 @@
 package com.microsoft.appcenter.http;
 
 import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -21,6 +27,11 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS
 
 /**
  * Decorator managing retries.
+ * <p>
+ * Calls to the same URL share a circuit breaker: after {@link #CIRCUIT_BREAKER_THRESHOLD}
+ * consecutive recoverable failures, or when the server asks to retry later, the circuit opens and
+ * calls to that URL wait instead of being sent. Once the circuit opening interval has elapsed,
+ * a single waiting call is sent to probe the endpoint, the other calls are sent if it succeeds.
  */
 public class HttpClientRetryer extends HttpClientDecorator {
 
@@ -35,7 +46,13 @@ public class HttpClientRetryer extends HttpClientDecorator {
     };
 
     /**
-     * Android "timer" using the main thread loop.
+     * Number of consecutive recoverable failures to a URL that opens its circuit.
+     */
+    @VisibleForTesting
+    static final int CIRCUIT_BREAKER_THRESHOLD = 3;
+
+    /**
+     * Android "timer" using the sender thread loop.
      */
     private final Handler mHandler;
 
@@ -44,13 +61,18 @@ public class HttpClientRetryer extends HttpClientDecorator {
      */
     private final Random mRandom = new Random();
 
+    /**
+     * Circuit breakers by URL.
+     */
+    private final Map<String, CircuitBreaker> mCircuitBreakers = new HashMap<>();
+
     /**
      * Init with default retry policy.
      *
      * @param decoratedApi API to decorate.
      */
     HttpClientRetryer(HttpClient decoratedApi) {
-        this(decoratedApi, new Handler(Looper.getMainLooper()));
+        this(decoratedApi, HandlerUtils.getSenderHandler());
     }
 
     /**
@@ -68,54 +90,394 @@ public class HttpClientRetryer extends HttpClientDecorator {
     @Override
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
 
-        /* Wrap the call with the retry logic and call delegate. */
-        RetryableCall retryableCall = new RetryableCall(mDecoratedApi, url, method, headers, callTemplate, serviceCallback);
+        /*
+         * Wrap the call with the retry logic and call delegate.
+         * The request body is encoded once and reused by retries.
+         */
+        if (callTemplate != null) {
+            callTemplate = new PreparedCallTemplate(callTemplate);
+        }
+        RetryableCall retryableCall = new RetryableCall(mDecoratedApi, getCircuitBreaker(url), url, method, headers, callTemplate, serviceCallback);
         retryableCall.run();
         return retryableCall;
     }
 
+    @Override
+    public void close() throws IOException {
+
+        /* Failure counts are kept: they describe the endpoint, not the callers. */
+        for (CircuitBreaker circuitBreaker : getCircuitBreakers()) {
+            circuitBreaker.clear();
+        }
+        super.close();
+    }
+
+    @Override
+    public void preconnect(String url) {
+        if (!getCircuitBreaker(url).isOpen()) {
+            super.preconnect(url);
+        }
+    }
+
+    /**
+     * Get the circuit breaker shared by the calls to a URL.
+     *
+     * @param url URL.
+     * @return circuit breaker.
+     */
+    private synchronized CircuitBreaker getCircuitBreaker(String url) {
+        CircuitBreaker circuitBreaker = mCircuitBreakers.get(url);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(url);
+            mCircuitBreakers.put(url, circuitBreaker);
+        }
+        return circuitBreaker;
+    }
+
+    private synchronized List<CircuitBreaker> getCircuitBreakers() {
+        return new ArrayList<>(mCircuitBreakers.values());
+    }
+
+    /**
+     * Get a random delay between half the interval and the interval.
+     *
+     * @param interval interval in ms.
+     * @return delay in ms.
+     */
+    private long randomize(long interval) {
+        long delay = interval / 2;
+        return delay + mRandom.nextInt((int) delay);
+    }
+
+    /**
+     * State of the calls to a URL. The circuit is closed when calls are sent normally,
+     * open when calls wait, and half open while a probe call is in progress.
+     */
+    private class CircuitBreaker implements Runnable {
+
+        /**
+         * URL.
+         */
+        private final String mUrl;
+
+        /**
+         * Calls waiting for the circuit to close, in order.
+         */
+        private final LinkedList<RetryableCall> mWaitingCalls = new LinkedList<>();
+
+        /**
+         * Consecutive recoverable failures.
+         */
+        private int mFailureCount;
+
+        /**
+         * Consecutive circuit openings, used to increase the opening interval.
+         */
+        private int mOpenCount;
+
+        /**
+         * Time in ms (elapsed realtime) until which the circuit is open, 0 if closed.
+         */
+        private long mOpenUntil;
+
+        /**
+         * True once the opening interval has elapsed.
+         */
+        private boolean mHalfOpen;
+
+        /**
+         * Call probing the endpoint while half open.
+         */
+        private RetryableCall mProbe;
+
+        /**
+         * True if this is posted to the handler.
+         */
+        private boolean mTimerScheduled;
+
+        CircuitBreaker(String url) {
+            mUrl = url;
+        }
+
+        synchronized boolean isOpen() {
+            return mOpenUntil > 0 && !mHalfOpen;
+        }
+
+        /**
+         * Check whether a call can be sent, otherwise it waits for the circuit to close.
+         *
+         * @param call call.
+         * @return true if the call can be sent now.
+         */
+        boolean acquire(RetryableCall call) {
+            synchronized (this) {
+                if (mOpenUntil == 0) {
+                    return true;
+                }
+                if (!mHalfOpen && SystemClock.elapsedRealtime() >= mOpenUntil) {
+                    mHalfOpen = true;
+                }
+                if (mHalfOpen && mProbe == null) {
+                    AppCenterLog.debug(AppCenter.LOG_TAG, "Probing " + mUrl + " before sending other calls.");
+                    mProbe = call;
+                    return true;
+                }
+                mWaitingCalls.add(call);
+            }
+            scheduleTimer();
+            return false;
+        }
+
+        /**
+         * Make a failed call wait for the circuit to close, it will be the next probe.
+         *
+         * @param call call.
+         */
+        void await(RetryableCall call) {
+            synchronized (this) {
+                mWaitingCalls.addFirst(call);
+            }
+            scheduleTimer();
+        }
+
+        /**
+         * Record a response from the endpoint, this closes the circuit.
+         *
+         * @param call call that received the response.
+         */
+        void onResponse(RetryableCall call) {
+            List<RetryableCall> calls;
+            synchronized (this) {
+                mFailureCount = 0;
+                if (mOpenUntil == 0) {
+                    return;
+                }
+                AppCenterLog.info(AppCenter.LOG_TAG, "Endpoint " + mUrl + " is back, sending " + mWaitingCalls.size() + " waiting call(s).");
+                mOpenCount = 0;
+                mOpenUntil = 0;
+                mHalfOpen = false;
+                mProbe = null;
+                calls = new ArrayList<>(mWaitingCalls);
+                mWaitingCalls.clear();
+                if (mTimerScheduled) {
+                    mTimerScheduled = false;
+                    mHandler.removeCallbacks(this);
+                }
+            }
+            for (RetryableCall waitingCall : calls) {
+                waitingCall.run();
+            }
+        }
+
+        /**
+         * Record a recoverable failure, this opens the circuit after too many consecutive failures
+         * or when the server throttles calls.
+         *
+         * @param call      failed call.
+         * @param delay     retry delay of the call in ms.
+         * @param throttled true if the delay was requested by the server.
+         * @return true if the circuit is open.
+         */
+        boolean onFailure(RetryableCall call, long delay, boolean throttled) {
+            boolean scheduleTimer;
+            synchronized (this) {
+                mFailureCount++;
+                boolean probe = mProbe == call;
+                if (probe) {
+                    mProbe = null;
+                }
+                if (mFailureCount < CIRCUIT_BREAKER_THRESHOLD && !throttled) {
+                    return false;
+                }
+
+                /*
+                 * Only open the circuit when it's closed or half open, or when the probe fails:
+                 * calls sent before the opening just wait for the current interval to elapse.
+                 */
+                if (mOpenUntil == 0 || mHalfOpen || probe) {
+
+                    /* The server delay applies as is, otherwise back off further on each opening. */
+                    if (!throttled) {
+                        delay = Math.max(delay, randomize(RETRY_INTERVALS[Math.min(mOpenCount, RETRY_INTERVALS.length - 1)]));
+                        mOpenCount++;
+                    }
+                    AppCenterLog.warn(AppCenter.LOG_TAG, "Calls to " + mUrl + " are paused for " + delay + " ms.");
+                    if (mTimerScheduled) {
+                        mTimerScheduled = false;
+                        mHandler.removeCallbacks(this);
+                    }
+                    mOpenUntil = SystemClock.elapsedRealtime() + delay;
+                    mHalfOpen = false;
+                }
+                scheduleTimer = !mWaitingCalls.isEmpty();
+            }
+            if (scheduleTimer) {
+                scheduleTimer();
+            }
+            return true;
+        }
+
+        /**
+         * Release the probe slot of a call that completed without telling whether the endpoint is up.
+         *
+         * @param call call.
+         */
+        void release(RetryableCall call) {
+            boolean nextProbe;
+            synchronized (this) {
+                if (mProbe != call) {
+                    return;
+                }
+                mProbe = null;
+                nextProbe = !mWaitingCalls.isEmpty();
+            }
+            if (nextProbe) {
+                run();
+            }
+        }
+
+        /**
+         * Forget a cancelled call.
+         *
+         * @param call call.
+         */
+        void remove(RetryableCall call) {
+            synchronized (this) {
+                mWaitingCalls.remove(call);
+            }
+            release(call);
+        }
+
+        /**
+         * Forget all the waiting calls.
+         */
+        synchronized void clear() {
+            mWaitingCalls.clear();
+            mProbe = null;
+            if (mTimerScheduled) {
+                mTimerScheduled = false;
+                mHandler.removeCallbacks(this);
+            }
+        }
+
+        private void scheduleTimer() {
+            long delay;
+            synchronized (this) {
+                if (mTimerScheduled || mHalfOpen) {
+                    return;
+                }
+                mTimerScheduled = true;
+                delay = Math.max(0, mOpenUntil - SystemClock.elapsedRealtime());
+            }
+            mHandler.postDelayed(this, delay);
+        }
+
+        /**
+         * Called when the opening interval has elapsed, send the first waiting call as a probe.
+         */
+        @Override
+        public void run() {
+            RetryableCall probe;
+            synchronized (this) {
+                mTimerScheduled = false;
+                if (mOpenUntil == 0 || mProbe != null || mWaitingCalls.isEmpty()) {
+                    return;
+                }
+                mHalfOpen = true;
+                probe = mProbe = mWaitingCalls.removeFirst();
+            }
+            AppCenterLog.debug(AppCenter.LOG_TAG, "Probing " + mUrl + " before sending other calls.");
+            probe.send();
+        }
+    }
+
     /**
      * Retry wrapper logic.
      */
     private class RetryableCall extends HttpClientCallDecorator {
 
+        /**
+         * Circuit breaker of the URL.
+         */
+        private final CircuitBreaker mCircuitBreaker;
+
         /**
          * Current retry counter. 0 means its the first try.
          */
         private int mRetryCount;
 
-        RetryableCall(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+        RetryableCall(HttpClient decoratedApi, CircuitBreaker circuitBreaker, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
             super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+            mCircuitBreaker = circuitBreaker;
         }
 
         @Override
         public synchronized void cancel() {
             mHandler.removeCallbacks(this);
-            super.cancel();
+            mCircuitBreaker.remove(this);
+
+            /* A call waiting for the circuit to close may not have been sent yet. */
+            if (mServiceCall != null) {
+                super.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCircuitBreaker.acquire(this)) {
+                send();
+            }
+        }
+
+        void send() {
+            super.run();
+        }
+
+        @Override
+        public void onCallSucceeded(HttpResponse httpResponse) {
+            mCircuitBreaker.onResponse(this);
+            super.onCallSucceeded(httpResponse);
         }
 
         @Override
         public void onCallFailed(Exception e) {
-            if (mRetryCount < RETRY_INTERVALS.length && HttpUtils.isRecoverableError(e)) {
-                long delay = 0;
+            boolean recoverable = HttpUtils.isRecoverableError(e);
+            if (!recoverable) {
                 if (e instanceof HttpException) {
-                    HttpException httpException = (HttpException) e;
-                    String retryAfterMs = httpException.getHttpResponse().getHeaders().get(X_MS_RETRY_AFTER_MS_HEADER);
-                    if (retryAfterMs != null) {
-                        delay = Long.parseLong(retryAfterMs);
-                    }
+                    mCircuitBreaker.onResponse(this);
+                } else {
+                    mCircuitBreaker.release(this);
                 }
+                mServiceCallback.onCallFailed(e);
+                return;
+            }
+            long delay = 0;
+            if (e instanceof HttpException) {
+                HttpException httpException = (HttpException) e;
+                String retryAfterMs = httpException.getHttpResponse().getHeaders().get(X_MS_RETRY_AFTER_MS_HEADER);
+                if (retryAfterMs != null) {
+                    delay = Long.parseLong(retryAfterMs);
+                }
+            }
+            boolean throttled = delay > 0;
+            if (mRetryCount < RETRY_INTERVALS.length) {
                 if (delay == 0) {
-                    delay = RETRY_INTERVALS[mRetryCount++] / 2;
-                    delay += mRandom.nextInt((int) delay);
+                    delay = randomize(RETRY_INTERVALS[mRetryCount++]);
                 }
                 String message = "Try #" + mRetryCount + " failed and will be retried in " + delay + " ms";
                 if (e instanceof UnknownHostException) {
                     message += " (UnknownHostException)";
                 }
                 AppCenterLog.warn(AppCenter.LOG_TAG, message, e);
-                mHandler.postDelayed(this, delay);
+
+                /* While the circuit is open, the retry waits with the other calls. */
+                if (mCircuitBreaker.onFailure(this, delay, throttled)) {
+                    mCircuitBreaker.await(this);
+                } else {
+                    mHandler.postDelayed(this, delay);
+                }
             } else {
+                mCircuitBreaker.onFailure(this, delay, throttled);
                 mServiceCallback.onCallFailed(e);
             }
         }
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.DependencyConfiguration;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded executor for HTTP calls and downloads, owned by the SDK so that it is not shared with
+ * application tasks. Queued tasks run by lane priority: critical logs first, then other logs,
+ * then downloads. Downloads can never use all the threads so that logs are still sent during a
+ * large download.
+ */
+public class HttpExecutor implements Executor {
+
+    /**
+     * Lane for calls sending critical logs such as crashes.
+     */
+    public static final int LANE_CRITICAL = 0;
+
+    /**
+     * Lane for other calls, used by default.
+     */
+    public static final int LANE_NORMAL = 1;
+
+    /**
+     * Lane for downloads.
+     */
+    public static final int LANE_DOWNLOAD = 2;
+
+    /**
+     * Number of lanes.
+     */
+    @VisibleForTesting
+    static final int LANE_COUNT = 3;
+
+    /**
+     * Default maximum number of threads.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 3;
+
+    /**
+     * Default maximum number of tasks waiting in each lane.
+     */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 64;
+
+    /**
+     * Time after which an idle thread stops.
+     */
+    @VisibleForTesting
+    static final long KEEP_ALIVE_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Thread name prefix.
+     */
+    @VisibleForTesting
+    static final String THREAD_NAME_PREFIX = "AppCenter.Http-";
+
+    /**
+     * Shared instance used when no executor is configured.
+     */
+    private static HttpExecutor sSharedInstance;
+
+    /**
+     * Maximum number of threads.
+     */
+    private final int mMaxThreadCount;
+
+    /**
+     * Maximum number of tasks waiting in each lane.
+     */
+    private final int mMaxQueueSize;
+
+    /**
+     * Lanes by priority order.
+     */
+    private final Lane[] mLanes = new Lane[LANE_COUNT];
+
+    /**
+     * Number of threads started and not stopped yet.
+     */
+    private int mThreadCount;
+
+    /**
+     * Number of threads waiting for a task.
+     */
+    private int mIdleThreadCount;
+
+    /**
+     * Thread name counter.
+     */
+    private int mThreadSequence;
+
+    /**
+     * Init with default limits.
+     */
+    public HttpExecutor() {
+        this(DEFAULT_THREAD_COUNT, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * Init.
+     *
+     * @param maxThreadCount maximum number of threads, threads are started on demand and stop when idle.
+     * @param maxQueueSize   maximum number of tasks waiting for a thread in each lane, further tasks are rejected.
+     * @throws IllegalArgumentException if a limit is invalid.
+     */
+    public HttpExecutor(@IntRange(from = 1) int maxThreadCount, @IntRange(from = 1) int maxQueueSize) {
+        if (maxThreadCount < 1) {
+            throw new IllegalArgumentException("maxThreadCount must be at least 1.");
+        }
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be at least 1.");
+        }
+        mMaxThreadCount = maxThreadCount;
+        mMaxQueueSize = maxQueueSize;
+        for (int i = 0; i < LANE_COUNT; i++) {
+
+            /* Keep one thread for logs when there are several threads. */
+            int maxActiveCount = i == LANE_DOWNLOAD ? Math.max(1, maxThreadCount - 1) : maxThreadCount;
+            mLanes[i] = new Lane(i, maxActiveCount);
+        }
+    }
+
+    /**
+     * Get the shared instance used when no executor is configured.
+     *
+     * @return shared instance.
+     */
+    public static synchronized HttpExecutor getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new HttpExecutor();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetSharedInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Get the executor to use for a lane, as configured by {@link DependencyConfiguration#setHttpExecutor(Executor)}.
+     * An executor supplied by the application runs tasks of all lanes.
+     *
+     * @param lane lane.
+     * @return executor.
+     */
+    @NonNull
+    public static Executor getExecutor(@IntRange(from = LANE_CRITICAL, to = LANE_DOWNLOAD) int lane) {
+        Executor executor = DependencyConfiguration.getHttpExecutor();
+        if (executor == null) {
+            executor = getSharedInstance();
+        }
+        if (executor instanceof HttpExecutor) {
+            return ((HttpExecutor) executor).getLaneExecutor(lane);
+        }
+        return executor;
+    }
+
+    /**
+     * Get the lane of a call.
+     *
+     * @param callTemplate call template, can be null.
+     * @return lane of the call, {@link #LANE_NORMAL} if not specified.
+     */
+    static int getLane(HttpClient.CallTemplate callTemplate) {
+        if (callTemplate instanceof HttpClient.PrioritizedCallTemplate) {
+            return ((HttpClient.PrioritizedCallTemplate) callTemplate).getLane();
+        }
+        return LANE_NORMAL;
+    }
+
+    /**
+     * Get an executor running tasks in a lane of this executor.
+     *
+     * @param lane lane.
+     * @return executor.
+     */
+    @NonNull
+    public Executor getLaneExecutor(@IntRange(from = LANE_CRITICAL, to = LANE_DOWNLOAD) int lane) {
+        return checkLane(lane);
+    }
+
+    /**
+     * Run a task in the normal lane.
+     *
+     * @param command task.
+     * @throws RejectedExecutionException if the lane queue is full.
+     */
+    @Override
+    public void execute(@NonNull Runnable command) {
+        execute(LANE_NORMAL, command);
+    }
+
+    /**
+     * Run a task in a lane.
+     *
+     * @param lane    lane.
+     * @param command task.
+     * @throws RejectedExecutionException if the lane queue is full.
+     */
+    public void execute(@IntRange(from = LANE_CRITICAL, to = LANE_DOWNLOAD) int lane, @NonNull Runnable command) {
+        checkLane(lane).execute(command);
+    }
+
+    /**
+     * Get metrics of a lane.
+     *
+     * @param lane lane.
+     * @return snapshot of the lane metrics.
+     */
+    @NonNull
+    public synchronized LaneMetrics getMetrics(@IntRange(from = LANE_CRITICAL, to = LANE_DOWNLOAD) int lane) {
+        Lane state = checkLane(lane);
+        return new LaneMetrics(state.mQueue.size(), state.mActiveCount, state.mCompletedCount, state.mRejectedCount,
+                state.mStartedCount > 0 ? state.mTotalWaitTime / state.mStartedCount : 0);
+    }
+
+    /**
+     * @return number of threads currently started.
+     */
+    @VisibleForTesting
+    synchronized int getThreadCount() {
+        return mThreadCount;
+    }
+
+    private Lane checkLane(int lane) {
+        if (lane < LANE_CRITICAL || lane >= LANE_COUNT) {
+            throw new IllegalArgumentException("Invalid lane: " + lane);
+        }
+        return mLanes[lane];
+    }
+
+    private synchronized void enqueue(Lane lane, Runnable command) {
+        if (lane.mQueue.size() >= mMaxQueueSize) {
+            lane.mRejectedCount++;
+            throw new RejectedExecutionException("HTTP executor lane " + lane.mIndex + " is full.");
+        }
+        lane.mQueue.add(new QueuedTask(lane, command, SystemClock.elapsedRealtime()));
+
+        /* Wake up an idle thread if possible, start a new one if all threads are busy. */
+        if (!startWorkerIfNeeded()) {
+            notify();
+        }
+    }
+
+    /**
+     * Start a thread if there are more queued tasks than idle threads and the limit is not reached.
+     *
+     * @return true if a thread was started.
+     */
+    private boolean startWorkerIfNeeded() {
+        if (getQueuedCount() > mIdleThreadCount && mThreadCount < mMaxThreadCount) {
+            mThreadCount++;
+            new Thread(new Worker(), THREAD_NAME_PREFIX + ++mThreadSequence).start();
+            return true;
+        }
+        return false;
+    }
+
+    private int getQueuedCount() {
+        int count = 0;
+        for (Lane lane : mLanes) {
+            count += lane.mQueue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Take the next task by priority, waiting for one until the keep alive time expires.
+     *
+     * @return task, or null if the thread must stop.
+     */
+    private synchronized QueuedTask takeTask() {
+        long deadline = SystemClock.elapsedRealtime() + KEEP_ALIVE_TIME;
+        while (true) {
+            for (Lane lane : mLanes) {
+                if (lane.mActiveCount < lane.mMaxActiveCount) {
+                    QueuedTask task = lane.mQueue.poll();
+                    if (task != null) {
+                        lane.mActiveCount++;
+                        lane.mStartedCount++;
+                        lane.mTotalWaitTime += SystemClock.elapsedRealtime() - task.mQueueTime;
+                        return task;
+                    }
+                }
+            }
+            long waitTime = deadline - SystemClock.elapsedRealtime();
+            if (waitTime <= 0) {
+                mThreadCount--;
+                return null;
+            }
+            mIdleThreadCount++;
+            try {
+                wait(waitTime);
+            } catch (InterruptedException e) {
+
+                /* Threads are never interrupted by the SDK, check the queues again. */
+            } finally {
+                mIdleThreadCount--;
+            }
+        }
+    }
+
+    private synchronized void finishTask(Lane lane) {
+        lane.mActiveCount--;
+        lane.mCompletedCount++;
+    }
+
+    private synchronized void abortWorker() {
+        mThreadCount--;
+
+        /* Replace the thread if tasks were queued while it was failing. */
+        startWorkerIfNeeded();
+    }
+
+    /**
+     * Snapshot of the metrics of a lane.
+     */
+    public static class LaneMetrics {
+
+        /**
+         * Number of tasks waiting for a thread.
+         */
+        private final int mQueuedCount;
+
+        /**
+         * Number of tasks running.
+         */
+        private final int mActiveCount;
+
+        /**
+         * Number of tasks that completed.
+         */
+        private final long mCompletedCount;
+
+        /**
+         * Number of tasks rejected because the queue was full.
+         */
+        private final long mRejectedCount;
+
+        /**
+         * Average time tasks waited for a thread, in milliseconds.
+         */
+        private final long mAverageWaitTime;
+
+        LaneMetrics(int queuedCount, int activeCount, long completedCount, long rejectedCount, long averageWaitTime) {
+            mQueuedCount = queuedCount;
+            mActiveCount = activeCount;
+            mCompletedCount = completedCount;
+            mRejectedCount = rejectedCount;
+            mAverageWaitTime = averageWaitTime;
+        }
+
+        /**
+         * @return number of tasks waiting for a thread.
+         */
+        public int getQueuedCount() {
+            return mQueuedCount;
+        }
+
+        /**
+         * @return number of tasks running.
+         */
+        public int getActiveCount() {
+            return mActiveCount;
+        }
+
+        /**
+         * @return number of tasks that completed, including failed tasks.
+         */
+        public long getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        /**
+         * @return number of tasks rejected because the queue was full.
+         */
+        public long getRejectedCount() {
+            return mRejectedCount;
+        }
+
+        /**
+         * @return average time tasks waited for a thread, in milliseconds.
+         */
+        public long getAverageWaitTime() {
+            return mAverageWaitTime;
+        }
+
+        @Override
+        public String toString() {
+            return "LaneMetrics{" +
+                    "queued=" + mQueuedCount +
+                    ", active=" + mActiveCount +
+                    ", completed=" + mCompletedCount +
+                    ", rejected=" + mRejectedCount +
+                    ", averageWaitTime=" + mAverageWaitTime +
+                    '}';
+        }
+    }
+
+    /**
+     * Task waiting in a lane.
+     */
+    private static class QueuedTask {
+
+        /**
+         * Lane of the task.
+         */
+        final Lane mLane;
+
+        /**
+         * Task to run.
+         */
+        final Runnable mCommand;
+
+        /**
+         * Time the task was queued.
+         */
+        final long mQueueTime;
+
+        QueuedTask(Lane lane, Runnable command, long queueTime) {
+            mLane = lane;
+            mCommand = command;
+            mQueueTime = queueTime;
+        }
+    }
+
+    /**
+     * Lane state, guarded by the executor lock. Also an executor to run tasks in this lane.
+     */
+    private class Lane implements Executor {
+
+        /**
+         * Lane index.
+         */
+        final int mIndex;
+
+        /**
+         * Maximum number of tasks of this lane running at the same time.
+         */
+        final int mMaxActiveCount;
+
+        /**
+         * Tasks waiting for a thread.
+         */
+        final Queue<QueuedTask> mQueue = new ArrayDeque<>();
+
+        /**
+         * Number of tasks running.
+         */
+        int mActiveCount;
+
+        /**
+         * Number of tasks that started.
+         */
+        long mStartedCount;
+
+        /**
+         * Number of tasks that completed.
+         */
+        long mCompletedCount;
+
+        /**
+         * Number of tasks rejected.
+         */
+        long mRejectedCount;
+
+        /**
+         * Sum of the time tasks waited for a thread.
+         */
+        long mTotalWaitTime;
+
+        Lane(int index, int maxActiveCount) {
+            mIndex = index;
+            mMaxActiveCount = maxActiveCount;
+        }
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            enqueue(this, command);
+        }
+    }
+
+    /**
+     * Thread loop running tasks by priority.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+
+            /* Same priority as AsyncTask threads. */
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            QueuedTask task;
+            boolean stopped = false;
+            try {
+                while ((task = takeTask()) != null) {
+                    try {
+                        task.mCommand.run();
+                    } finally {
+                        finishTask(task.mLane);
+                    }
+                }
+                stopped = true;
+            } finally {
+
+                /* A task failed with an exception: this thread stops, account for it. */
+                if (!stopped) {
+                    abortWorker();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP engine used by {@link DefaultHttpClient} to exchange requests and responses.
+ * The default implementation is {@link DefaultHttpTransport}, an alternative engine
+ * such as an HTTP/2 capable client can be set with
+ * {@link com.microsoft.appcenter.DependencyConfiguration#setHttpTransport(HttpTransport)}.
+ * Implementations must be thread safe, calls run in parallel.
+ */
+public interface HttpTransport {
+
+    /**
+     * Prepare a request. The request is sent when its body is written or when the response is read.
+     *
+     * @param url    URL, always HTTPS.
+     * @param method HTTP method.
+     * @return connection for a single request.
+     * @throws IOException if the request cannot be prepared.
+     */
+    @NonNull
+    Connection openConnection(@NonNull URL url, @NonNull String method) throws IOException;
+
+    /**
+     * Connect to the host of a URL ahead of a call, so that the call does not wait for DNS resolution
+     * and a full TLS handshake. This is called on a background thread and may block,
+     * implementations that can't prepare connections do nothing.
+     *
+     * @param url URL that will be called.
+     * @throws IOException if connecting fails.
+     */
+    void preconnect(@NonNull URL url) throws IOException;
+
+    /**
+     * A single request and its response. Once the response is read, the client calls
+     * {@link #release()} so that the underlying connection can be reused for another request,
+     * or {@link #disconnect()} if the call failed or was cancelled.
+     */
+    interface Connection {
+
+        /**
+         * Set a request header, must be called before the body is written.
+         *
+         * @param key   header name.
+         * @param value header value.
+         */
+        void setRequestProperty(@NonNull String key, @NonNull String value);
+
+        /**
+         * Get the stream to write the request body to.
+         *
+         * @param length body length in bytes.
+         * @return stream, closed by the caller once the body is written.
+         * @throws IOException if the request cannot be sent.
+         */
+        @NonNull
+        OutputStream getOutputStream(int length) throws IOException;
+
+        /**
+         * Get the response status code, sending the request if needed.
+         *
+         * @return status code.
+         * @throws IOException if the request fails.
+         */
+        int getResponseCode() throws IOException;
+
+        /**
+         * Get the response content length.
+         *
+         * @return length in bytes, or -1 if not known.
+         */
+        int getContentLength();
+
+        /**
+         * Get a response header value.
+         *
+         * @param name header name, case insensitive.
+         * @return the header value, or null if missing.
+         */
+        String getHeaderField(@NonNull String name);
+
+        /**
+         * Get all response headers.
+         *
+         * @return headers by name.
+         */
+        @NonNull
+        Map<String, List<String>> getHeaderFields();
+
+        /**
+         * Get the response body, including for error responses.
+         *
+         * @return stream, read to the end and closed by the caller.
+         * @throws IOException if the response cannot be read.
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * Release the connection after the response is consumed, keeping it alive for other requests.
+         */
+        void release();
+
+        /**
+         * Close the connection, it is not reused.
+         */
+        void disconnect();
+    }
+}
@@ -10,6 +10,7 @@ import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.DependencyConfiguration;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 
 import java.io.EOFException;
@@ -27,6 +28,10 @@ import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.DEFAULT_COMPRESSION_CODEC;
+import static com.microsoft.appcenter.http.DefaultHttpClient.DEFAULT_HTTP_TRANSPORT;
 
 /**
  * HTTP utilities.
@@ -89,6 +94,12 @@ public class HttpUtils {
      */
     private static final Pattern API_KEY_PATTERN = Pattern.compile("-[^,]+(,|$)");
 
+    /**
+     * Socket factory forcing TLS 1.2, shared by all connections as the platform pools
+     * keep-alive connections per socket factory.
+     */
+    private static TLS1_2SocketFactory sTls1_2SocketFactory;
+
     @VisibleForTesting
     HttpUtils() {
     }
@@ -199,12 +210,59 @@ public class HttpUtils {
     }
 
     public static HttpClient createHttpClientWithoutRetryer(@NonNull Context context, boolean compressionEnabled) {
-        HttpClient httpClient = new DefaultHttpClient(compressionEnabled);
+        CompressionCodec compressionCodec = null;
+        if (compressionEnabled) {
+            compressionCodec = DependencyConfiguration.getHttpCompressionCodec();
+            if (compressionCodec == null) {
+                compressionCodec = DEFAULT_COMPRESSION_CODEC;
+            }
+        }
+        HttpTransport httpTransport = DependencyConfiguration.getHttpTransport();
+        if (httpTransport == null) {
+            httpTransport = DEFAULT_HTTP_TRANSPORT;
+        }
+        HttpClient httpClient = new DefaultHttpClient(compressionCodec, httpTransport);
         NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
         httpClient = new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
         return httpClient;
     }
 
+    /**
+     * Prepare a connection for the calls to a URL if the client supports it.
+     *
+     * @param httpClient HTTP client.
+     * @param url        URL that will be called.
+     */
+    public static void preconnect(@NonNull HttpClient httpClient, @NonNull String url) {
+        if (httpClient instanceof HttpClient.Preconnectable) {
+            ((HttpClient.Preconnectable) httpClient).preconnect(url);
+        }
+    }
+
+    /**
+     * Get the socket factory used by HTTPS connections, sessions cached by this factory are resumed by the calls.
+     *
+     * @return socket factory.
+     */
+    static SSLSocketFactory getSslSocketFactory() {
+        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
+            return getTls1_2SocketFactory();
+        }
+        return HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+
+    /**
+     * Get the shared socket factory forcing TLS 1.2.
+     *
+     * @return socket factory.
+     */
+    private static synchronized TLS1_2SocketFactory getTls1_2SocketFactory() {
+        if (sTls1_2SocketFactory == null) {
+            sTls1_2SocketFactory = new TLS1_2SocketFactory();
+        }
+        return sTls1_2SocketFactory;
+    }
+
     /**
      * Create HTTPS connection.
      *
@@ -239,7 +297,7 @@ public class HttpUtils {
          * See https://github.com/square/okhttp/issues/2372#issuecomment-244807676
          */
         if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
-            httpsURLConnection.setSSLSocketFactory(new TLS1_2SocketFactory());
+            httpsURLConnection.setSSLSocketFactory(getTls1_2SocketFactory());
         }
 
         /* Configure connection timeouts. */
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.CHARSET_NAME;
+
+/**
+ * Request body converted to bytes and compressed if large enough, sent as is by every attempt of a call.
+ */
+class PreparedBody {
+
+    /**
+     * Minimum payload length in bytes to use compression.
+     */
+    static final int MIN_COMPRESSION_LENGTH = 1400;
+
+    /**
+     * Size of the buffers used to encode and compress text.
+     */
+    private static final int ENCODE_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Minimum initial size of the buffer receiving compressed bytes.
+     */
+    private static final int MIN_COMPRESSION_BUFFER_SIZE = 256;
+
+    /**
+     * Body text, only kept for verbose logging.
+     */
+    private final String mText;
+
+    /**
+     * Bytes to send.
+     */
+    private final byte[] mBytes;
+
+    /**
+     * Number of bytes to send, the array can be larger.
+     */
+    private final int mLength;
+
+    /**
+     * Content encoding of compressed bytes, null if not compressed.
+     */
+    private final String mContentEncoding;
+
+    private PreparedBody(String text, byte[] bytes, int length, String contentEncoding) {
+        mText = text;
+        mBytes = bytes;
+        mLength = length;
+        mContentEncoding = contentEncoding;
+    }
+
+    /**
+     * Build and encode the request body of a call template, or reuse the one encoded by a previous attempt.
+     *
+     * @param callTemplate       call template.
+     * @param compressionCodec codec to compress body if large enough, null to disable compression.
+     * @return prepared body.
+     * @throws JSONException if the call template fails to build the body.
+     * @throws IOException   if compression fails.
+     */
+    @NonNull
+    static PreparedBody prepare(@NonNull HttpClient.CallTemplate callTemplate, CompressionCodec compressionCodec) throws JSONException, IOException {
+        if (callTemplate instanceof PreparedCallTemplate) {
+            return ((PreparedCallTemplate) callTemplate).getPreparedBody(compressionCodec);
+        }
+        return encode(callTemplate.buildRequestBody(), compressionCodec);
+    }
+
+    /**
+     * Encode a request body.
+     *
+     * @param text             body.
+     * @param compressionCodec codec to compress body if large enough, null to disable compression.
+     * @return prepared body.
+     * @throws IOException if compression fails.
+     */
+    @NonNull
+    static PreparedBody encode(@NonNull String text, CompressionCodec compressionCodec) throws IOException {
+        byte[] bytes;
+        int length;
+        String contentEncoding = null;
+        if (compressionCodec != null && getEncodedLength(text) >= MIN_COMPRESSION_LENGTH) {
+
+            /*
+             * Encode text straight into the compressing stream, without a full uncompressed copy in between.
+             * JSON logs usually compress more than 10 times, start small and let the buffer grow.
+             */
+            CompressionBuffer compressionBuffer = new CompressionBuffer(text.length() / 16);
+            CharsetEncoder encoder = Charset.forName(CHARSET_NAME).newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            OutputStream compressionStream = compressionCodec.compress(compressionBuffer);
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                CharBuffer chars = CharBuffer.wrap(text);
+                ByteBuffer buffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+                boolean endOfInput = false;
+                while (true) {
+                    CoderResult result = endOfInput ? encoder.flush(buffer) : encoder.encode(chars, buffer, true);
+                    compressionStream.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                    if (result.isUnderflow()) {
+                        if (endOfInput) {
+                            break;
+                        }
+                        endOfInput = true;
+                    }
+                }
+            } finally {
+
+                /* Closing also gives back the deflater when compression fails. */
+                compressionStream.close();
+            }
+
+            /* Keep the stream buffer as is rather than copying it to an array of the exact size. */
+            bytes = compressionBuffer.getBuffer();
+            length = compressionBuffer.size();
+            contentEncoding = compressionCodec.getContentEncoding();
+        } else {
+            bytes = text.getBytes(CHARSET_NAME);
+            length = bytes.length;
+        }
+
+        /* Don't keep a copy of the text for the retries unless we need to log it. */
+        if (AppCenterLog.getLogLevel() > Log.VERBOSE) {
+            text = null;
+        }
+        return new PreparedBody(text, bytes, length, contentEncoding);
+    }
+
+    /**
+     * Get the length of a text encoded in UTF-8, without encoding it.
+     * Unpaired surrogates count as one byte since they are replaced by '?'.
+     *
+     * @param text text.
+     * @return encoded length in bytes.
+     */
+    @VisibleForTesting
+    static int getEncodedLength(@NonNull String text) {
+        int length = 0;
+        int charCount = text.length();
+        for (int i = 0; i < charCount; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < charCount && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return body text or null if verbose logging was disabled when the body was encoded.
+     */
+    String getText() {
+        return mText;
+    }
+
+    /**
+     * @return bytes to send from index 0 to {@link #getLength()}, must not be modified.
+     */
+    byte[] getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return number of bytes to send.
+     */
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return content encoding of compressed bytes, null if not compressed.
+     */
+    String getContentEncoding() {
+        return mContentEncoding;
+    }
+
+    /**
+     * Compressed output buffer giving access to its array without copying it.
+     */
+    private static class CompressionBuffer extends ByteArrayOutputStream {
+
+        CompressionBuffer(int size) {
+            super(Math.max(size, MIN_COMPRESSION_BUFFER_SIZE));
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Call template that builds and encodes the request body only once for all the attempts of a call.
+ */
+class PreparedCallTemplate implements HttpClient.PrioritizedCallTemplate {
+
+    /**
+     * Decorated call template.
+     */
+    private final HttpClient.CallTemplate mCallTemplate;
+
+    /**
+     * Body encoded by the first attempt.
+     */
+    private PreparedBody mPreparedBody;
+
+    /**
+     * Codec used to encode {@link #mPreparedBody}.
+     */
+    private CompressionCodec mCompressionCodec;
+
+    PreparedCallTemplate(@NonNull HttpClient.CallTemplate callTemplate) {
+        mCallTemplate = callTemplate;
+    }
+
+    @Override
+    public String buildRequestBody() throws JSONException {
+        return mCallTemplate.buildRequestBody();
+    }
+
+    @Override
+    public void onBeforeCalling(URL url, Map<String, String> headers) {
+        mCallTemplate.onBeforeCalling(url, headers);
+    }
+
+    @Override
+    public int getLane() {
+        return HttpExecutor.getLane(mCallTemplate);
+    }
+
+    /**
+     * Get the encoded request body, building it on first call.
+     *
+     * @param compressionCodec codec to compress body if large enough, null to disable compression.
+     * @return prepared body.
+     * @throws JSONException if the call template fails to build the body.
+     * @throws IOException   if compression fails.
+     */
+    @NonNull
+    synchronized PreparedBody getPreparedBody(CompressionCodec compressionCodec) throws JSONException, IOException {
+        if (mPreparedBody == null || mCompressionCodec != compressionCodec) {
+            mPreparedBody = PreparedBody.encode(mCallTemplate.buildRequestBody(), compressionCodec);
+            mCompressionCodec = compressionCodec;
+        }
+        return mPreparedBody;
+    }
+}
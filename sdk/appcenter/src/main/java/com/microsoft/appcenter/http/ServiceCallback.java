@@ -7,6 +7,7 @@ package com.microsoft.appcenter.http;
 
 /**
  * The callback used for client side asynchronous operations.
+ * Methods are called on the sender thread, see {@link com.microsoft.appcenter.utils.HandlerUtils#runOnSenderThread(Runnable)}.
  */
 public interface ServiceCallback {
 
@@ -5,6 +5,8 @@
 
 package com.microsoft.appcenter.http;
 
+import android.support.annotation.VisibleForTesting;
+
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -12,6 +14,7 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -32,6 +35,18 @@ class TLS1_2SocketFactory extends SSLSocketFactory {
      */
     private static final String[] ENABLED_PROTOCOLS = { TLS1_2_PROTOCOL };
 
+    /**
+     * Maximum number of TLS sessions kept for resumption, one per host and port.
+     */
+    @VisibleForTesting
+    static final int SESSION_CACHE_SIZE = 16;
+
+    /**
+     * Time in seconds a TLS session can be resumed, servers can use a shorter lifetime.
+     */
+    @VisibleForTesting
+    static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
     /**
      * Socket factory.
      *
@@ -39,8 +54,14 @@ class TLS1_2SocketFactory extends SSLSocketFactory {
      */
     private final SSLSocketFactory delegate;
 
+    /**
+     * Client sessions of the sockets created by this factory, null if using the default factory.
+     */
+    private final SSLSessionContext mSessionContext;
+
     TLS1_2SocketFactory() {
         SSLSocketFactory socketFactory = null;
+        SSLSessionContext sessionContext = null;
         try {
 
             /*
@@ -50,9 +71,30 @@ class TLS1_2SocketFactory extends SSLSocketFactory {
             SSLContext sc = SSLContext.getInstance(TLS1_2_PROTOCOL);
             sc.init(null, null, null);
             socketFactory = sc.getSocketFactory();
+
+            /*
+             * Sessions are cached by the context and shared by all the sockets of this factory:
+             * a new connection to a known host resumes the session with an abbreviated handshake.
+             * The context can be unavailable in some environments.
+             */
+            sessionContext = sc.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+            }
         } catch (KeyManagementException | NoSuchAlgorithmException ignored) {
         }
         delegate = socketFactory != null ? socketFactory : getDefaultSSLSocketFactory();
+        mSessionContext = sessionContext;
+    }
+
+    /**
+     * Get the client sessions of the sockets created by this factory.
+     *
+     * @return session context, null if not available.
+     */
+    SSLSessionContext getSessionContext() {
+        return mSessionContext;
     }
 
     /**
@@ -10,6 +10,7 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.http.AbstractAppCallTemplate;
 import com.microsoft.appcenter.http.HttpClient;
+import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCall;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
@@ -24,6 +25,8 @@ import java.util.UUID;
 
 import static com.microsoft.appcenter.Constants.APP_SECRET;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_CRITICAL;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_NORMAL;
 
 public class AppCenterIngestion implements Ingestion {
 
@@ -92,6 +95,11 @@ public class AppCenterIngestion implements Ingestion {
         return mHttpClient.callAsync(mLogUrl + API_PATH, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
+    @Override
+    public void preconnect() {
+        HttpUtils.preconnect(mHttpClient, mLogUrl + API_PATH);
+    }
+
     @Override
     public void close() throws IOException {
         mHttpClient.close();
@@ -105,7 +113,7 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate extends AbstractAppCallTemplate {
+    private static class IngestionCallTemplate extends AbstractAppCallTemplate implements HttpClient.PrioritizedCallTemplate {
 
         private final LogSerializer mLogSerializer;
 
@@ -122,5 +130,10 @@ public class AppCenterIngestion implements Ingestion {
             /* Serialize payload. */
             return mLogSerializer.serializeContainer(mLogContainer);
         }
+
+        @Override
+        public int getLane() {
+            return mLogContainer.isCritical() ? LANE_CRITICAL : LANE_NORMAL;
+        }
     }
 }
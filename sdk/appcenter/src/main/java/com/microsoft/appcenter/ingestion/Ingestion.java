@@ -36,6 +36,12 @@ public interface Ingestion extends Closeable {
      */
     void setLogUrl(String logUrl);
 
+    /**
+     * Prepare a connection to the log URL in background, so that the next logs are sent without
+     * waiting for DNS resolution and TLS handshake. This does nothing if the HTTP client does not support it.
+     */
+    void preconnect();
+
     /**
      * Make ingestion active again after closing.
      */
@@ -36,6 +36,8 @@ import static android.util.Log.VERBOSE;
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_CRITICAL;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_NORMAL;
 
 public class OneCollectorIngestion implements Ingestion {
 
@@ -191,6 +193,11 @@ public class OneCollectorIngestion implements Ingestion {
         mHttpClient.reopen();
     }
 
+    @Override
+    public void preconnect() {
+        HttpUtils.preconnect(mHttpClient, mLogUrl);
+    }
+
     @Override
     public void close() throws IOException {
         mHttpClient.close();
@@ -199,7 +206,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.PrioritizedCallTemplate {
 
         /**
          * Log serializer.
@@ -222,8 +229,17 @@ public class OneCollectorIngestion implements Ingestion {
         @Override
         public String buildRequestBody() throws JSONException {
 
-            /* Serialize payload. */
+            /* Use already serialized logs if available. */
             StringBuilder jsonStream = new StringBuilder();
+            List<String> serializedLogs = mLogContainer.getSerializedLogs();
+            if (serializedLogs != null) {
+                for (String serializedLog : serializedLogs) {
+                    jsonStream.append(serializedLog).append('\n');
+                }
+                return jsonStream.toString();
+            }
+
+            /* Serialize payload. */
             for (Log log : mLogContainer.getLogs()) {
                 jsonStream.append(mLogSerializer.serializeLog(log));
 
@@ -233,6 +249,11 @@ public class OneCollectorIngestion implements Ingestion {
             return jsonStream.toString();
         }
 
+        @Override
+        public int getLane() {
+            return mLogContainer.isCritical() ? LANE_CRITICAL : LANE_NORMAL;
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
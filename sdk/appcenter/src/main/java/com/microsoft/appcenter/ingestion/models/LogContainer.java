@@ -17,6 +17,18 @@ public class LogContainer {
      */
     private List<Log> logs;
 
+    /**
+     * The logs already serialized to JSON, in the same order as {@link #logs}.
+     * This is a transport optimization and is not part of the model identity.
+     */
+    private List<String> serializedLogs;
+
+    /**
+     * Whether the logs must be sent ahead of other HTTP calls.
+     * This is a transport hint and is not part of the model identity.
+     */
+    private boolean critical;
+
     /**
      * Get the logs value.
      *
@@ -35,6 +47,42 @@ public class LogContainer {
         this.logs = logs;
     }
 
+    /**
+     * Get the serialized logs value.
+     *
+     * @return the serialized logs value, or null if logs need to be serialized.
+     */
+    public List<String> getSerializedLogs() {
+        return this.serializedLogs;
+    }
+
+    /**
+     * Set the serialized logs value.
+     *
+     * @param serializedLogs JSON payloads of the logs, in the same order as the logs.
+     */
+    public void setSerializedLogs(List<String> serializedLogs) {
+        this.serializedLogs = serializedLogs;
+    }
+
+    /**
+     * Get the critical value.
+     *
+     * @return true if the logs are sent ahead of other HTTP calls.
+     */
+    public boolean isCritical() {
+        return this.critical;
+    }
+
+    /**
+     * Set the critical value.
+     *
+     * @param critical true to send the logs ahead of other HTTP calls.
+     */
+    public void setCritical(boolean critical) {
+        this.critical = critical;
+    }
+
     @SuppressWarnings("EqualsReplaceableByObjectsCall")
     @Override
     public boolean equals(Object o) {
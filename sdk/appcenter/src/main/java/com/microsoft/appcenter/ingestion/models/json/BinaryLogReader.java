@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.KEY_END;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.KEY_INLINE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.KEY_REFERENCE_OFFSET;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.KNOWN_STRINGS;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.MAX_REFERENCE_LENGTH;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_ARRAY;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_DATE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_DOUBLE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_END;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_FALSE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_LONG;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_NULL;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_OBJECT;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_STRING;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_STRING_REFERENCE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_TRUE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.TYPE_UUID;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryLogWriter.VERSION;
+
+/**
+ * Reads payloads written by {@link BinaryLogWriter} back to JSON objects,
+ * for models to be read with their usual {@link Model#read(JSONObject)} method.
+ */
+class BinaryLogReader {
+
+    /**
+     * Payload.
+     */
+    private final byte[] mData;
+
+    /**
+     * Strings seen in this payload, numbered after the known strings.
+     */
+    private final List<String> mStrings = new ArrayList<>();
+
+    /**
+     * Read position.
+     */
+    private int mPosition;
+
+    private BinaryLogReader(@NonNull byte[] data) {
+        mData = data;
+    }
+
+    /**
+     * Read a payload.
+     *
+     * @param data payload written by {@link BinaryLogWriter}.
+     * @return JSON object.
+     * @throws JSONException if the payload is invalid or uses an unsupported version.
+     */
+    @NonNull
+    static JSONObject read(@NonNull byte[] data) throws JSONException {
+        BinaryLogReader reader = new BinaryLogReader(data);
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new JSONException("Unsupported binary log version: " + version);
+        }
+        Object value = reader.readValue(reader.readByte());
+        if (!(value instanceof JSONObject) || reader.mPosition != data.length) {
+            throw new JSONException("Invalid binary log.");
+        }
+        return (JSONObject) value;
+    }
+
+    private Object readValue(int type) throws JSONException {
+        switch (type) {
+            case TYPE_NULL:
+                return JSONObject.NULL;
+
+            case TYPE_FALSE:
+                return false;
+
+            case TYPE_TRUE:
+                return true;
+
+            case TYPE_LONG:
+
+                /* Same number types as parsing JSON. */
+                long value = unZigZag(readVarLong());
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(readLong());
+
+            case TYPE_STRING:
+                return readString();
+
+            case TYPE_STRING_REFERENCE:
+                return getString(readVarLong());
+
+            case TYPE_UUID:
+                return new UUID(readLong(), readLong()).toString();
+
+            case TYPE_DATE:
+                return JSONDateUtils.toString(new Date(unZigZag(readVarLong())));
+
+            case TYPE_OBJECT:
+                JSONObject object = new JSONObject();
+                long key;
+                while ((key = readVarLong()) != KEY_END) {
+                    String name = key == KEY_INLINE ? readString() : getString(key - KEY_REFERENCE_OFFSET);
+                    object.put(name, readValue(readByte()));
+                }
+                return object;
+
+            case TYPE_ARRAY:
+                JSONArray array = new JSONArray();
+                int elementType;
+                while ((elementType = readByte()) != TYPE_END) {
+                    array.put(readValue(elementType));
+                }
+                return array;
+
+            default:
+                throw new JSONException("Invalid binary log type: " + type);
+        }
+    }
+
+    private String getString(long index) throws JSONException {
+        if (index < KNOWN_STRINGS.length) {
+            return KNOWN_STRINGS[(int) index];
+        }
+        index -= KNOWN_STRINGS.length;
+        if (index >= mStrings.size()) {
+            throw new JSONException("Invalid binary log string reference.");
+        }
+        return mStrings.get((int) index);
+    }
+
+    private String readString() throws JSONException {
+        long length = readVarLong();
+        if (length > mData.length - mPosition) {
+            throw new JSONException("Binary log is truncated.");
+        }
+        String value;
+        try {
+            value = new String(mData, mPosition, (int) length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new JSONException(e.getMessage());
+        }
+        mPosition += length;
+        if (value.length() <= MAX_REFERENCE_LENGTH) {
+            mStrings.add(value);
+        }
+        return value;
+    }
+
+    private int readByte() throws JSONException {
+        if (mPosition >= mData.length) {
+            throw new JSONException("Binary log is truncated.");
+        }
+        return mData[mPosition++] & 0xFF;
+    }
+
+    private long readVarLong() throws JSONException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new JSONException("Invalid binary log varint.");
+    }
+
+    private long readLong() throws JSONException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes models in a compact binary format instead of JSON, only read by {@link BinaryLogReader}.
+ * Models are written with their usual {@link Model#write(JSONStringer)} method.
+ * <p>
+ * Format: a version byte followed by a value. Each value starts with a type tag.
+ * Strings are UTF-8 with a varint length, or a reference to a string already seen in the payload
+ * or in the {@link #KNOWN_STRINGS} table. Object keys are a varint: {@link #KEY_INLINE} followed
+ * by an inline string, or a string reference plus {@link #KEY_REFERENCE_OFFSET}. UUIDs are written
+ * as two longs and dates as epoch milliseconds. Objects end with {@link #KEY_END} and arrays with
+ * an end tag.
+ */
+class BinaryLogWriter extends JSONStringer {
+
+    /**
+     * Current format version, increase it when changing the format or {@link #KNOWN_STRINGS}.
+     */
+    static final int VERSION = 1;
+
+    static final int TYPE_NULL = 0;
+
+    static final int TYPE_FALSE = 1;
+
+    static final int TYPE_TRUE = 2;
+
+    static final int TYPE_LONG = 3;
+
+    static final int TYPE_DOUBLE = 4;
+
+    static final int TYPE_STRING = 5;
+
+    static final int TYPE_STRING_REFERENCE = 6;
+
+    static final int TYPE_UUID = 7;
+
+    static final int TYPE_DATE = 8;
+
+    static final int TYPE_OBJECT = 9;
+
+    static final int TYPE_ARRAY = 10;
+
+    static final int TYPE_END = 11;
+
+    static final int KEY_END = 0;
+
+    static final int KEY_INLINE = 1;
+
+    static final int KEY_REFERENCE_OFFSET = 2;
+
+    /**
+     * Strings referenced without being written, mostly model property names and log types.
+     * Append only: existing indexes must never change for a given {@link #VERSION}.
+     */
+    static final String[] KNOWN_STRINGS = {
+            "type", "timestamp", "sid", "distributionGroupId", "userId", "device", "properties", "id",
+            "name", "typedProperties", "value", "services", "sdkName", "sdkVersion", "model", "oemName",
+            "osName", "osVersion", "osBuild", "osApiLevel", "locale", "timeZoneOffset", "screenSize",
+            "appVersion", "carrierName", "carrierCountry", "appBuild", "appNamespace", "wrapperSdkVersion",
+            "wrapperSdkName", "wrapperRuntimeVersion", "liveUpdateReleaseLabel", "liveUpdateDeploymentKey",
+            "liveUpdatePackageHash", "processId", "processName", "parentProcessId", "parentProcessName",
+            "errorThreadId", "errorThreadName", "fatal", "appLaunchTimestamp", "architecture", "exception",
+            "threads", "frames", "className", "methodName", "lineNumber", "fileName", "message", "stackTrace",
+            "innerExceptions", "minidumpFilePath", "errorId", "contentType", "data", "ver", "iKey", "flags",
+            "cV", "ext", "metadata", "protocol", "user", "os", "app", "net", "sdk", "loc", "baseType",
+            "baseData", "libVer", "epoch", "seq", "installId", "localId", "tz", "devMake", "devModel",
+            "provider", "popSample", "ticketKeys", "pushToken", "f", "event", "page", "startSession",
+            "startService", "customProperties", "managedError", "handledError", "errorAttachment",
+            "commonSchemaEvent", "string", "boolean", "long", "double", "dateTime", "clear", "number",
+            "appcenter.android", "Android", "en_US", "java.lang.Exception", "java.lang.RuntimeException"
+    };
+
+    /**
+     * Maximum length of strings looked up in the references, longer strings are rarely repeated.
+     */
+    static final int MAX_REFERENCE_LENGTH = 64;
+
+    /**
+     * Length of a UUID string.
+     */
+    private static final int UUID_LENGTH = 36;
+
+    /**
+     * Length of a date string written by {@link JSONDateUtils}.
+     */
+    private static final int DATE_LENGTH = 24;
+
+    /**
+     * Cumulative days before each month in a non leap year.
+     */
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365};
+
+    /**
+     * Index of known strings, shared by all writers.
+     */
+    private static final Map<String, Integer> KNOWN_STRING_INDEXES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < KNOWN_STRINGS.length; i++) {
+            KNOWN_STRING_INDEXES.put(KNOWN_STRINGS[i], i);
+        }
+    }
+
+    /**
+     * Output buffer.
+     */
+    private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream(256);
+
+    /**
+     * Strings written in this payload by index, numbered after the known strings.
+     */
+    private final Map<String, Integer> mStringIndexes = new HashMap<>();
+
+    BinaryLogWriter() {
+        mOutput.write(VERSION);
+    }
+
+    /**
+     * Get the encoded payload.
+     *
+     * @return encoded payload.
+     */
+    @NonNull
+    byte[] toByteArray() {
+        return mOutput.toByteArray();
+    }
+
+    @Override
+    public JSONStringer object() {
+        mOutput.write(TYPE_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JSONStringer endObject() {
+        mOutput.write(KEY_END);
+        return this;
+    }
+
+    @Override
+    public JSONStringer array() {
+        mOutput.write(TYPE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JSONStringer endArray() {
+        mOutput.write(TYPE_END);
+        return this;
+    }
+
+    @Override
+    public JSONStringer key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        Integer index = getStringIndex(name);
+        if (index != null) {
+            writeVarLong(index + KEY_REFERENCE_OFFSET);
+        } else {
+            mOutput.write(KEY_INLINE);
+            writeString(name);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(boolean value) {
+        mOutput.write(value ? TYPE_TRUE : TYPE_FALSE);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("Forbidden numeric value: " + value);
+        }
+        mOutput.write(TYPE_DOUBLE);
+        writeLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(long value) {
+        mOutput.write(TYPE_LONG);
+        writeVarLong(zigZag(value));
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            mOutput.write(TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            value((boolean) (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            value(((Number) value).doubleValue());
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            endArray();
+        } else {
+            writeStringValue(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Not supported, use {@link #toByteArray()}.
+     */
+    @Override
+    public String toString() {
+        return "";
+    }
+
+    /**
+     * Write a string value, in the most compact form.
+     */
+    private void writeStringValue(@NonNull String value) {
+        int length = value.length();
+        if (length == UUID_LENGTH && writeUUID(value)) {
+            return;
+        }
+        if (length == DATE_LENGTH) {
+            Long time = parseDate(value);
+            if (time != null) {
+                mOutput.write(TYPE_DATE);
+                writeVarLong(zigZag(time));
+                return;
+            }
+        }
+        Integer index = length <= MAX_REFERENCE_LENGTH ? getStringIndex(value) : null;
+        if (index != null) {
+            mOutput.write(TYPE_STRING_REFERENCE);
+            writeVarLong(index);
+        } else {
+            mOutput.write(TYPE_STRING);
+            writeString(value);
+        }
+    }
+
+    /**
+     * Get the reference of a string already written or known.
+     *
+     * @param value string.
+     * @return index or null if the string has to be written, it will be referenced next time.
+     */
+    private Integer getStringIndex(@NonNull String value) {
+        Integer index = KNOWN_STRING_INDEXES.get(value);
+        if (index == null) {
+            index = mStringIndexes.get(value);
+            if (index == null && value.length() <= MAX_REFERENCE_LENGTH) {
+                mStringIndexes.put(value, KNOWN_STRINGS.length + mStringIndexes.size());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Write a string with its length.
+     */
+    private void writeString(@NonNull String value) {
+        byte[] bytes;
+        try {
+
+            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+            bytes = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+
+            /* Cannot happen, UTF-8 is always supported. */
+            throw new IllegalStateException(e);
+        }
+        writeVarLong(bytes.length);
+        mOutput.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write a string as a UUID if it's in the canonical format of {@link java.util.UUID#toString()}.
+     *
+     * @return false if not written.
+     */
+    private boolean writeUUID(@NonNull String value) {
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return false;
+            }
+            if (digits < 16) {
+                mostSigBits = (mostSigBits << 4) | digit;
+            } else {
+                leastSigBits = (leastSigBits << 4) | digit;
+            }
+            digits++;
+        }
+        mOutput.write(TYPE_UUID);
+        writeLong(mostSigBits);
+        writeLong(leastSigBits);
+        return true;
+    }
+
+    /**
+     * Parse a date in the exact format written by {@link JSONDateUtils}, without allocating a calendar.
+     *
+     * @return epoch milliseconds or null if the string is not a date that formats back to the same string.
+     */
+    private static Long parseDate(@NonNull String value) {
+        if (value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T' || value.charAt(13) != ':'
+                || value.charAt(16) != ':' || value.charAt(19) != '.' || value.charAt(23) != 'Z') {
+            return null;
+        }
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 7);
+        int day = parseDigits(value, 8, 10);
+        int hour = parseDigits(value, 11, 13);
+        int minute = parseDigits(value, 14, 16);
+        int second = parseDigits(value, 17, 19);
+        int millis = parseDigits(value, 20, 23);
+
+        /* Restrict to years where the Gregorian calendar of the date formatter applies. */
+        if (year < 1900 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return null;
+        }
+        boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        int daysInMonth = DAYS_BEFORE_MONTH[month] - DAYS_BEFORE_MONTH[month - 1] + (leapYear && month == 2 ? 1 : 0);
+        if (day > daysInMonth) {
+            return null;
+        }
+        int previousYear = year - 1;
+        long days = 365L * (year - 1970) + (previousYear / 4 - previousYear / 100 + previousYear / 400) - (1969 / 4 - 1969 / 100 + 1969 / 400)
+                + DAYS_BEFORE_MONTH[month - 1] + (leapYear && month > 2 ? 1 : 0) + day - 1;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * Parse decimal digits.
+     *
+     * @return value or -1 if a character is not a digit.
+     */
+    private static int parseDigits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + c - '0';
+        }
+        return result;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mOutput.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        mOutput.write((int) value);
+    }
+
+    private void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mOutput.write((int) (value >>> shift));
+        }
+    }
+}
@@ -6,16 +6,19 @@
 package com.microsoft.appcenter.ingestion.models.json;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
 
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,8 +31,47 @@ public class DefaultLogSerializer implements LogSerializer {
 
     private static final String LOGS = "logs";
 
+    /**
+     * Initial capacity of serialization buffers, in characters.
+     */
+    private static final int WRITER_CAPACITY = 4096;
+
+    /**
+     * Serialization buffers larger than this are released after use rather than kept, in characters.
+     */
+    @VisibleForTesting
+    static final int MAX_IDLE_WRITER_CAPACITY = 128 * 1024;
+
     private final Map<String, LogFactory> mLogFactories = new HashMap<>();
 
+    /**
+     * Writer kept for the next serialization, null while in use.
+     */
+    private JSONStreamWriter mIdleWriter;
+
+    /**
+     * Get a writer, reusing the buffer of a previous serialization if available.
+     */
+    @NonNull
+    private synchronized JSONStreamWriter obtainWriter() {
+        JSONStreamWriter writer = mIdleWriter;
+        mIdleWriter = null;
+        if (writer == null) {
+            writer = new JSONStreamWriter(WRITER_CAPACITY);
+        }
+        return writer;
+    }
+
+    /**
+     * Keep a writer for the next serialization, unless its buffer grew too large to keep in memory.
+     */
+    private synchronized void recycleWriter(@NonNull JSONStreamWriter writer) {
+        if (writer.capacity() <= MAX_IDLE_WRITER_CAPACITY) {
+            writer.reset();
+            mIdleWriter = writer;
+        }
+    }
+
     @NonNull
     private JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
         writer.object();
@@ -55,7 +97,12 @@ public class DefaultLogSerializer implements LogSerializer {
     @NonNull
     @Override
     public String serializeLog(@NonNull Log log) throws JSONException {
-        return writeLog(new JSONStringer(), log).toString();
+        JSONStreamWriter writer = obtainWriter();
+        try {
+            return writeLog(writer, log).toString();
+        } finally {
+            recycleWriter(writer);
+        }
     }
 
     @NonNull
@@ -64,6 +111,20 @@ public class DefaultLogSerializer implements LogSerializer {
         return readLog(new JSONObject(json), type);
     }
 
+    @NonNull
+    @Override
+    public byte[] encodeLog(@NonNull Log log) throws JSONException {
+        BinaryLogWriter writer = new BinaryLogWriter();
+        writeLog(writer, log);
+        return writer.toByteArray();
+    }
+
+    @NonNull
+    @Override
+    public Log decodeLog(@NonNull byte[] data, String type) throws JSONException {
+        return readLog(BinaryLogReader.read(data), type);
+    }
+
     @Override
     public Collection<CommonSchemaLog> toCommonSchemaLog(@NonNull Log log) {
         return mLogFactories.get(log.getType()).toCommonSchemaLogs(log);
@@ -73,32 +134,73 @@ public class DefaultLogSerializer implements LogSerializer {
     @Override
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
-        /* Init JSON serializer. */
-        JSONStringer writer = new JSONStringer();
+        /* Join already serialized logs if available, this avoids a serialization round trip. */
+        List<String> serializedLogs = logContainer.getSerializedLogs();
+        if (serializedLogs != null) {
+            StringBuilder builder = new StringBuilder("{\"" + LOGS + "\":[");
+            for (int i = 0; i < serializedLogs.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(serializedLogs.get(i));
+            }
+            return builder.append("]}").toString();
+        }
 
-        /* Start writing JSON. */
-        writer.object();
-        writer.key(LOGS).array();
-        for (Log log : logContainer.getLogs()) {
-            writeLog(writer, log);
+        /* Init JSON serializer. */
+        JSONStreamWriter writer = obtainWriter();
+        try {
+
+            /* Start writing JSON. */
+            writer.object();
+            writer.key(LOGS).array();
+            for (Log log : logContainer.getLogs()) {
+                writeLog(writer, log);
+            }
+            writer.endArray();
+            writer.endObject();
+            return writer.toString();
+        } finally {
+            recycleWriter(writer);
         }
-        writer.endArray();
-        writer.endObject();
-        return writer.toString();
     }
 
     @NonNull
     @Override
     public LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException {
-        JSONObject jContainer = new JSONObject(json);
-        LogContainer container = new LogContainer();
-        JSONArray jLogs = jContainer.getJSONArray(LOGS);
-        List<Log> logs = new ArrayList<>();
-        for (int i = 0; i < jLogs.length(); i++) {
-            JSONObject jLog = jLogs.getJSONObject(i);
-            Log log = readLog(jLog, type);
-            logs.add(log);
+
+        /* Stream logs one by one instead of parsing the whole container first. */
+        JsonReader reader = new JsonReader(new StringReader(json));
+        List<Log> logs = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (LOGS.equals(reader.nextName())) {
+                    logs = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        logs.add(readLog(JSONStreamReader.readObject(reader), type));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new JSONException("Invalid log container: " + e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignore) {
+
+                /* Nothing to release when reading a string. */
+            }
+        }
+        if (logs == null) {
+            throw new JSONException("No value for " + LOGS);
         }
+        LogContainer container = new LogContainer();
         container.setLogs(logs);
         return container;
     }
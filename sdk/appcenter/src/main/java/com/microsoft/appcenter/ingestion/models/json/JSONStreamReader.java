@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Reads JSON values from a {@link JsonReader} one at a time, for a model to be read with its usual
+ * {@link Model#read(JSONObject)} method without parsing the whole document first.
+ * Values have the same types as when parsed by {@link JSONObject#JSONObject(String)}.
+ */
+class JSONStreamReader {
+
+    private JSONStreamReader() {
+    }
+
+    /**
+     * Read the next value as a JSON object.
+     *
+     * @param reader reader positioned on an object.
+     * @return JSON object.
+     * @throws IOException           if the JSON is malformed.
+     * @throws IllegalStateException if the next value is not an object.
+     * @throws JSONException         if a number is invalid.
+     */
+    @NonNull
+    static JSONObject readObject(@NonNull JsonReader reader) throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return object;
+    }
+
+    private static Object readValue(@NonNull JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+
+            case BOOLEAN:
+                return reader.nextBoolean();
+
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+
+            case NUMBER:
+                return readNumber(reader.nextString());
+
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static Object readNumber(@NonNull String literal) throws JSONException {
+
+        /* Integers that fit are Integer then Long, like JSONTokener. */
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(literal);
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException ignore) {
+
+                /* Too large for a long, read as a double. */
+            }
+        }
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException e) {
+            throw new JSONException("Invalid number: " + literal);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * {@link JSONStringer} writing to a buffer that can be reused from one document to the next,
+ * so that models keep using their {@link Model#write(JSONStringer)} method.
+ * The output is the same as {@link JSONStringer} without indentation.
+ */
+class JSONStreamWriter extends JSONStringer {
+
+    /**
+     * Scope of an array without values yet.
+     */
+    private static final int EMPTY_ARRAY = 0;
+
+    /**
+     * Scope of an array with at least one value.
+     */
+    private static final int NONEMPTY_ARRAY = 1;
+
+    /**
+     * Scope of an object without keys yet.
+     */
+    private static final int EMPTY_OBJECT = 2;
+
+    /**
+     * Scope of an object with a key waiting for its value.
+     */
+    private static final int DANGLING_KEY = 3;
+
+    /**
+     * Scope of an object with at least one key and value.
+     */
+    private static final int NONEMPTY_OBJECT = 4;
+
+    /**
+     * Hexadecimal digits for escaped control characters.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Output buffer.
+     */
+    private final StringBuilder mBuffer;
+
+    /**
+     * Scopes of the arrays and objects being written.
+     */
+    private int[] mScopes = new int[16];
+
+    /**
+     * Number of open scopes.
+     */
+    private int mDepth;
+
+    /**
+     * Init.
+     *
+     * @param capacity initial buffer capacity in characters.
+     */
+    JSONStreamWriter(int capacity) {
+        mBuffer = new StringBuilder(capacity);
+    }
+
+    /**
+     * Clear the output to write a new document, keeping the buffer allocated.
+     */
+    void reset() {
+        mBuffer.setLength(0);
+        mDepth = 0;
+    }
+
+    /**
+     * @return buffer capacity in characters.
+     */
+    int capacity() {
+        return mBuffer.capacity();
+    }
+
+    @Override
+    public JSONStringer object() throws JSONException {
+        return open(EMPTY_OBJECT, '{');
+    }
+
+    @Override
+    public JSONStringer endObject() throws JSONException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    @Override
+    public JSONStringer array() throws JSONException {
+        return open(EMPTY_ARRAY, '[');
+    }
+
+    @Override
+    public JSONStringer endArray() throws JSONException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    @Override
+    public JSONStringer key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        int scope = peek();
+        if (scope == NONEMPTY_OBJECT) {
+            mBuffer.append(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new JSONException("Nesting problem");
+        }
+        mScopes[mDepth - 1] = DANGLING_KEY;
+        string(name);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(boolean value) throws JSONException {
+        beforeValue();
+        mBuffer.append(value);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(double value) throws JSONException {
+        beforeValue();
+        mBuffer.append(JSONObject.numberToString(value));
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(long value) throws JSONException {
+        beforeValue();
+        mBuffer.append(value);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            for (Iterator<String> keys = object.keys(); keys.hasNext(); ) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            return endObject();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        beforeValue();
+        if (value == null || value instanceof Boolean || value == JSONObject.NULL) {
+            mBuffer.append(value);
+        } else if (value instanceof Number) {
+            mBuffer.append(JSONObject.numberToString((Number) value));
+        } else {
+            string(value.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return mBuffer.length() == 0 ? null : mBuffer.toString();
+    }
+
+    private JSONStringer open(int scope, char bracket) throws JSONException {
+        if (mDepth == 0 && mBuffer.length() > 0) {
+            throw new JSONException("Nesting problem: multiple top-level roots");
+        }
+        if (mDepth > 0) {
+            beforeValue();
+        }
+        if (mDepth == mScopes.length) {
+            mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+        }
+        mScopes[mDepth++] = scope;
+        mBuffer.append(bracket);
+        return this;
+    }
+
+    private JSONStringer close(int emptyScope, int nonEmptyScope, char bracket) throws JSONException {
+        int scope = peek();
+        if (scope != emptyScope && scope != nonEmptyScope) {
+            throw new JSONException("Nesting problem");
+        }
+        mDepth--;
+        mBuffer.append(bracket);
+        return this;
+    }
+
+    private int peek() throws JSONException {
+        if (mDepth == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        return mScopes[mDepth - 1];
+    }
+
+    private void beforeValue() throws JSONException {
+        switch (peek()) {
+            case EMPTY_ARRAY:
+                mScopes[mDepth - 1] = NONEMPTY_ARRAY;
+                break;
+
+            case NONEMPTY_ARRAY:
+                mBuffer.append(',');
+                break;
+
+            case DANGLING_KEY:
+                mBuffer.append(':');
+                mScopes[mDepth - 1] = NONEMPTY_OBJECT;
+                break;
+
+            default:
+                throw new JSONException("Nesting problem");
+        }
+    }
+
+    private void string(@NonNull String value) {
+        mBuffer.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    mBuffer.append('\\').append(c);
+                    break;
+
+                case '\t':
+                    mBuffer.append("\\t");
+                    break;
+
+                case '\b':
+                    mBuffer.append("\\b");
+                    break;
+
+                case '\n':
+                    mBuffer.append("\\n");
+                    break;
+
+                case '\r':
+                    mBuffer.append("\\r");
+                    break;
+
+                case '\f':
+                    mBuffer.append("\\f");
+                    break;
+
+                default:
+                    if (c <= 0x1F) {
+                        mBuffer.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        mBuffer.append(c);
+                    }
+                    break;
+            }
+        }
+        mBuffer.append('"');
+    }
+}
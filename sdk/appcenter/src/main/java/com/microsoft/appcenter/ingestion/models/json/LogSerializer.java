@@ -23,6 +23,12 @@ public interface LogSerializer {
     @NonNull
     Log deserializeLog(@NonNull String json, String type) throws JSONException;
 
+    @NonNull
+    byte[] encodeLog(@NonNull Log log) throws JSONException;
+
+    @NonNull
+    Log decodeLog(@NonNull byte[] data, String type) throws JSONException;
+
     Collection<CommonSchemaLog> toCommonSchemaLog(@NonNull Log log);
 
     @NonNull
@@ -17,20 +17,27 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SQLiteUtils;
 
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +47,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
 import static com.microsoft.appcenter.utils.storage.DatabaseManager.PRIMARY_KEY;
@@ -80,10 +98,31 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_TIMESTAMP_COLUMN = 5;
 
+    /**
+     * Version where group, type and target key columns were stored as strings, we need to move
+     * strings to the dictionary table when upgrading from this version.
+     */
+    @VisibleForTesting
+    static final int VERSION_STRING_COLUMNS = 6;
+
+    /**
+     * Version where each log embedded its device snapshot, we need to add the device column
+     * when upgrading from this version.
+     */
+    @VisibleForTesting
+    static final int VERSION_EMBEDDED_DEVICE = 7;
+
+    /**
+     * Version where payloads were only stored as text, we need to add the codec and binary log
+     * columns when upgrading from this version.
+     */
+    @VisibleForTesting
+    static final int VERSION_TEXT_PAYLOAD = 8;
+
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 6;
+    private static final int VERSION = 9;
 
     /**
      * Project identifier part of the target token in clear text (the target token key).
@@ -100,7 +139,70 @@ public class DatabasePersistence extends Persistence {
     /**
      * Name of target token column in the table.
      */
-    private static final String COLUMN_DATA_TYPE = "type";
+    @VisibleForTesting
+    static final String COLUMN_DATA_TYPE = "type";
+
+    /**
+     * Dictionary table name, stores strings repeated in many logs only once.
+     */
+    @VisibleForTesting
+    static final String DICTIONARY_TABLE = "dictionary";
+
+    /**
+     * Name of value column in the dictionary table.
+     */
+    private static final String COLUMN_DICTIONARY_VALUE = "value";
+
+    /**
+     * Name of the column referencing the device snapshot of a log in the device table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE = "device";
+
+    /**
+     * Device table name, stores each distinct device snapshot only once.
+     */
+    @VisibleForTesting
+    static final String DEVICE_TABLE = "devices";
+
+    /**
+     * Name of content hash column in the device table.
+     */
+    private static final String COLUMN_DEVICE_HASH = "hash";
+
+    /**
+     * Name of JSON value column in the device table.
+     */
+    private static final String COLUMN_DEVICE_VALUE = "value";
+
+    /**
+     * Name of the column storing an encoded log payload, used instead of {@link #COLUMN_LOG}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_BINARY_LOG = "binary_log";
+
+    /**
+     * Name of the column identifying how {@link #COLUMN_BINARY_LOG} is encoded.
+     */
+    @VisibleForTesting
+    static final String COLUMN_CODEC = "codec";
+
+    /**
+     * Codec flag of a payload compressed with Deflate.
+     */
+    @VisibleForTesting
+    static final int CODEC_DEFLATE = 1;
+
+    /**
+     * Codec flag of a log encoded with {@link LogSerializer#encodeLog(Log)} instead of JSON.
+     */
+    @VisibleForTesting
+    static final int CODEC_BINARY = 2;
+
+    /**
+     * JSON property of the device snapshot in a log payload.
+     */
+    private static final String DEVICE_PROPERTY = "device";
 
     /**
      * Database name.
@@ -112,17 +214,50 @@ public class DatabasePersistence extends Persistence {
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0);
+    static final ContentValues SCHEMA = getContentValues(0L, "", "", 0L, 0L, 0, 0L, new byte[0], 0);
 
     /**
      * Priority index.
      */
     private static final String INDEX_PRIORITY = "ix_" + TABLE + "_" + COLUMN_PRIORITY;
 
+    /**
+     * Index to select, count and delete logs of a group in the order they are sent.
+     */
+    @VisibleForTesting
+    static final String INDEX_GROUP_PRIORITY = "ix_" + TABLE + "_" + COLUMN_GROUP + "_" + COLUMN_PRIORITY;
+
+    /**
+     * Unique index on dictionary values.
+     */
+    private static final String INDEX_DICTIONARY_VALUE = "ix_" + DICTIONARY_TABLE + "_" + COLUMN_DICTIONARY_VALUE;
+
+    /**
+     * Device hash index.
+     */
+    private static final String INDEX_DEVICE_HASH = "ix_" + DEVICE_TABLE + "_" + COLUMN_DEVICE_HASH;
+
+    /**
+     * Index to find the logs referencing a device snapshot.
+     */
+    @VisibleForTesting
+    static final String INDEX_DEVICE = "ix_" + TABLE + "_" + COLUMN_DEVICE;
+
     /**
      * Order by clause to select logs.
      */
-    private static final String GET_SORT_ORDER = COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY;
+    @VisibleForTesting
+    static final String GET_SORT_ORDER = COLUMN_PRIORITY + " DESC, " + PRIMARY_KEY;
+
+    /**
+     * Size in bytes of the payload stored in a row, null for payloads stored in a file.
+     */
+    private static final String LOG_SIZE_EXPRESSION = "COALESCE(LENGTH(CAST(" + COLUMN_LOG + " AS BLOB)), LENGTH(" + COLUMN_BINARY_LOG + "))";
+
+    /**
+     * Group dictionary identifier of a log whose payload is stored in a file, null for other logs.
+     */
+    private static final String LARGE_PAYLOAD_GROUP_EXPRESSION = "CASE WHEN " + LOG_SIZE_EXPRESSION + " IS NULL THEN " + COLUMN_GROUP + " END";
 
     /**
      * Size limit (in bytes) for a database row log payload.
@@ -140,6 +275,27 @@ public class DatabasePersistence extends Persistence {
      */
     private static final String PAYLOAD_FILE_EXTENSION = ".json";
 
+    /**
+     * Buffer size used to compress and decompress payloads.
+     */
+    private static final int COMPRESSION_BUFFER_SIZE = 4096;
+
+    /**
+     * Maximum number of threads encoding logs in addition to the thread storing them.
+     */
+    private static final int MAX_ENCODING_THREADS = 3;
+
+    /**
+     * Encoding threads are stopped after being idle for this time in milliseconds.
+     */
+    private static final long ENCODING_THREAD_KEEP_ALIVE = 30000;
+
+    /**
+     * Minimum number of logs per thread to split encoding.
+     */
+    @VisibleForTesting
+    static final int MIN_LOGS_PER_ENCODING_THREAD = 8;
+
     /**
      * Database manager instance to access Persistence database.
      */
@@ -158,6 +314,100 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     final Set<Long> mPendingDbIdentifiers;
 
+    /**
+     * Pending logs across all groups which payload is stored in a file (log column is null).
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingLargePayloadDbIdentifiers;
+
+    /**
+     * Persisted JSON payloads of pending log groups not yet taken by the channel.
+     * Key is the same as {@link #mPendingDbIdentifiersGroups}.
+     */
+    @VisibleForTesting
+    final Map<String, List<String>> mPendingSerializedLogsGroups;
+
+    /**
+     * Highest persistence priority of pending log groups.
+     * Key is the same as {@link #mPendingDbIdentifiersGroups}.
+     */
+    private final Map<String, Integer> mPendingPrioritiesGroups = new HashMap<>();
+
+    /**
+     * Storage quotas by group name, as fractions of the maximum database size.
+     */
+    private final Map<String, Float> mGroupQuotas = new HashMap<>();
+
+    /**
+     * Size in bytes of the log payloads stored in the database for groups with a quota, loaded on demand
+     * and then updated for each log stored or deleted. Large payloads stored in files are not counted,
+     * like they don't count in the maximum database size.
+     * Logs that were already pending when loaded are not counted.
+     */
+    private final Map<String, Long> mGroupSizes = new HashMap<>();
+
+    /**
+     * Size in bytes of the log payloads of pending log groups with a quota.
+     * Key is the same as {@link #mPendingDbIdentifiersGroups}.
+     */
+    private final Map<String, Long> mPendingSizesGroups = new HashMap<>();
+
+    /**
+     * Dictionary identifiers by value, loaded on demand.
+     */
+    private final Map<String, Long> mDictionaryIds = new HashMap<>();
+
+    /**
+     * Dictionary values by identifier, loaded on demand.
+     */
+    private final Map<Long, String> mDictionaryValues = new HashMap<>();
+
+    /**
+     * Device snapshot identifiers by content hash, loaded on demand.
+     */
+    private final Map<String, Long> mDeviceIds = new HashMap<>();
+
+    /**
+     * Device snapshot JSON by identifier, loaded on demand.
+     */
+    private final Map<Long, String> mDeviceValues = new HashMap<>();
+
+    /**
+     * Device snapshots by identifier, one instance is shared by all the logs read with the same snapshot.
+     */
+    private final Map<Long, Device> mDevices = new HashMap<>();
+
+    /**
+     * True to compress log payloads.
+     */
+    private boolean mCompressionEnabled;
+
+    /**
+     * True to store logs in binary instead of JSON.
+     */
+    private boolean mBinaryEncodingEnabled;
+
+    /**
+     * Threads encoding logs along with the calling thread when storing several logs at once,
+     * null to encode on the calling thread only.
+     */
+    private ThreadPoolExecutor mEncodingExecutor;
+
+    /**
+     * Device of the last log stored, consecutive logs usually share the same snapshot.
+     */
+    private Device mLastDevice;
+
+    /**
+     * Device snapshot identifier of {@link #mLastDevice}.
+     */
+    private Long mLastDeviceId;
+
+    /**
+     * True if a device snapshot was stored since unused snapshots were last deleted.
+     */
+    private boolean mDeviceStored;
+
     /**
      * Application context.
      */
@@ -168,6 +418,11 @@ public class DatabasePersistence extends Persistence {
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Number of logs deleted since this instance was created because storage was full.
+     */
+    private final AtomicLong mEvictedLogCount = new AtomicLong();
+
     /**
      * Initializes variables with default values.
      *
@@ -188,29 +443,97 @@ public class DatabasePersistence extends Persistence {
         mContext = context;
         mPendingDbIdentifiersGroups = new HashMap<>();
         mPendingDbIdentifiers = new HashSet<>();
+        mPendingLargePayloadDbIdentifiers = new HashSet<>();
+        mPendingSerializedLogsGroups = new HashMap<>();
         mDatabaseManager = new DatabaseManager(context, DATABASE, TABLE, version, schema, new DatabaseManager.Listener() {
 
-            private void createPriorityIndex(SQLiteDatabase db) {
+            private void createIndexes(SQLiteDatabase db) {
                 db.execSQL("CREATE INDEX `" + INDEX_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_PRIORITY + "`)");
+                db.execSQL("CREATE INDEX `" + INDEX_GROUP_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_GROUP + "`, `" + COLUMN_PRIORITY + "` DESC, `" + PRIMARY_KEY + "`)");
+                createDeviceIndex(db);
+            }
+
+            private void createDeviceIndex(SQLiteDatabase db) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `" + INDEX_DEVICE + "` ON " + TABLE + " (`" + COLUMN_DEVICE + "`)");
+            }
+
+            private void createDictionary(SQLiteDatabase db) {
+                ContentValues dictionarySchema = new ContentValues();
+                dictionarySchema.put(COLUMN_DICTIONARY_VALUE, "");
+                SQLiteUtils.createTable(db, DICTIONARY_TABLE, dictionarySchema);
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `" + INDEX_DICTIONARY_VALUE + "` ON " + DICTIONARY_TABLE + " (`" + COLUMN_DICTIONARY_VALUE + "`)");
+            }
+
+            private void createDeviceTable(SQLiteDatabase db) {
+                ContentValues deviceSchema = new ContentValues();
+                deviceSchema.put(COLUMN_DEVICE_HASH, "");
+                deviceSchema.put(COLUMN_DEVICE_VALUE, "");
+                SQLiteUtils.createTable(db, DEVICE_TABLE, deviceSchema);
+                db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `" + INDEX_DEVICE_HASH + "` ON " + DEVICE_TABLE + " (`" + COLUMN_DEVICE_HASH + "`)");
+            }
+
+            /**
+             * Move repeated strings of version 6 logs to the dictionary, keeping log identifiers
+             * as they are used to name large payload files.
+             */
+            private void migrateStringColumns(SQLiteDatabase db) {
+                String oldTable = TABLE + "_v" + VERSION_STRING_COLUMNS;
+                db.execSQL("ALTER TABLE `" + TABLE + "` RENAME TO `" + oldTable + "`");
+                SQLiteUtils.createTable(db, TABLE, schema);
+                String[] columns = {COLUMN_GROUP, COLUMN_DATA_TYPE, COLUMN_TARGET_KEY};
+                for (String column : columns) {
+                    db.execSQL("INSERT OR IGNORE INTO `" + DICTIONARY_TABLE + "` (`" + COLUMN_DICTIONARY_VALUE + "`)" +
+                            " SELECT DISTINCT `" + column + "` FROM `" + oldTable + "` WHERE `" + column + "` IS NOT NULL");
+                }
+                String dictionaryId = "(SELECT `" + PRIMARY_KEY + "` FROM `" + DICTIONARY_TABLE + "` WHERE `" + COLUMN_DICTIONARY_VALUE + "` = `" + oldTable + "`.`%s`)";
+                String allColumns = PRIMARY_KEY + ", %s, " + COLUMN_LOG + ", " + COLUMN_TARGET_TOKEN + ", %s, %s, " + COLUMN_PRIORITY;
+                db.execSQL("INSERT INTO `" + TABLE + "` (" + String.format(allColumns, COLUMN_GROUP, COLUMN_DATA_TYPE, COLUMN_TARGET_KEY) + ")" +
+                        " SELECT " + String.format(allColumns,
+                        String.format(dictionaryId, COLUMN_GROUP), String.format(dictionaryId, COLUMN_DATA_TYPE), String.format(dictionaryId, COLUMN_TARGET_KEY)) +
+                        " FROM `" + oldTable + "`");
+                SQLiteUtils.dropTable(db, oldTable);
             }
 
             @Override
             public void onCreate(SQLiteDatabase db) {
-                createPriorityIndex(db);
+                createDictionary(db);
+                createDeviceTable(db);
+                createIndexes(db);
+
+                /* Database can be re-created if it was corrupted, cached identifiers and sizes are no longer valid. */
+                clearDictionaryCache();
+                mGroupSizes.clear();
             }
 
             @Override
             public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+                createDictionary(db);
+                createDeviceTable(db);
 
                 /*
                  * With version 3.0 of the SDK we decided to remove timestamp column and as
                  * it's a major SDK version and SQLite does not support removing column we just start over.
-                 * When adding a new column in a future version, update this code by something like
-                 * if (oldVersion <= VERSION_TIMESTAMP_COLUMN) {drop/create} else {add missing columns}
                  */
-                SQLiteUtils.dropTable(db, TABLE);
-                SQLiteUtils.createTable(db, TABLE, schema);
-                createPriorityIndex(db);
+                if (oldVersion <= VERSION_TIMESTAMP_COLUMN) {
+                    SQLiteUtils.dropTable(db, TABLE);
+                    SQLiteUtils.createTable(db, TABLE, schema);
+                    createIndexes(db);
+                } else if (oldVersion <= VERSION_STRING_COLUMNS) {
+                    migrateStringColumns(db);
+                    createIndexes(db);
+                } else {
+
+                    /* Existing logs keep their embedded device and text payload, new columns are null for them. */
+                    if (oldVersion <= VERSION_EMBEDDED_DEVICE) {
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_DEVICE + "` INTEGER");
+                        createDeviceIndex(db);
+                    }
+                    if (oldVersion <= VERSION_TEXT_PAYLOAD) {
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_BINARY_LOG + "` BLOB");
+                        db.execSQL("ALTER TABLE `" + TABLE + "` ADD COLUMN `" + COLUMN_CODEC + "` INTEGER");
+                    }
+                }
+                clearDictionaryCache();
             }
         });
         mLargePayloadDirectory = new File(Constants.FILES_PATH + PAYLOAD_LARGE_DIRECTORY);
@@ -222,14 +545,18 @@ public class DatabasePersistence extends Persistence {
     /**
      * Instantiates {@link ContentValues} with the give values.
      *
-     * @param group       The group of the storage for the log.
+     * @param group       The dictionary identifier of the group of the storage for the log.
      * @param logJ        The JSON string for a log.
      * @param targetToken The target token if the log is common schema.
-     * @param targetKey   The project identifier part of the target token in clear text.
+     * @param type        The dictionary identifier of the log type.
+     * @param targetKey   The dictionary identifier of the project identifier part of the target token.
      * @param priority    The persistence priority.
+     * @param device      The identifier of the device snapshot in the device table, null if embedded in the JSON string.
+     * @param binaryLog   The encoded log if not stored as a JSON string.
+     * @param codec       The codec of the encoded log.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority) {
+    private static ContentValues getContentValues(@Nullable Long group, @Nullable String logJ, String targetToken, Long type, Long targetKey, int priority, @Nullable Long device, @Nullable byte[] binaryLog, @Nullable Integer codec) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
@@ -237,6 +564,9 @@ public class DatabasePersistence extends Persistence {
         values.put(COLUMN_DATA_TYPE, type);
         values.put(COLUMN_TARGET_KEY, targetKey);
         values.put(COLUMN_PRIORITY, priority);
+        values.put(COLUMN_DEVICE, device);
+        values.put(COLUMN_BINARY_LOG, binaryLog);
+        values.put(COLUMN_CODEC, codec);
         return values;
     }
 
@@ -245,62 +575,102 @@ public class DatabasePersistence extends Persistence {
         return mDatabaseManager.setMaxSize(maxStorageSizeInBytes);
     }
 
+    /**
+     * Enables or disables write-ahead logging and the reuse of compiled statements for frequent queries.
+     * Write-ahead logging lets the channel read logs while new logs are being written.
+     *
+     * @param enabled true to enable write-ahead logging.
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        mDatabaseManager.setWriteAheadLoggingEnabled(enabled);
+        mDatabaseManager.setCompiledStatementsEnabled(enabled);
+    }
+
+    /**
+     * Enables or disables the compression of log payloads stored from now on.
+     * Logs already stored are read whether they are compressed or not.
+     *
+     * @param enabled true to compress log payloads.
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables the binary encoding of logs stored from now on, it's faster and more
+     * compact than JSON. Logs already stored are read whatever their encoding.
+     *
+     * @param enabled true to store logs in binary.
+     */
+    public void setBinaryEncodingEnabled(boolean enabled) {
+        mBinaryEncodingEnabled = enabled;
+    }
+
+    /**
+     * Enables or disables encoding logs on several threads when storing several logs at once.
+     * Logs are still stored in a single transaction and in order by the calling thread.
+     * It has no effect on single core devices.
+     *
+     * @param enabled true to encode logs in parallel.
+     */
+    public void setParallelEncodingEnabled(boolean enabled) {
+        if (enabled && mEncodingExecutor == null) {
+            int threadCount = Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_ENCODING_THREADS);
+            if (threadCount > 0) {
+                mEncodingExecutor = new ThreadPoolExecutor(threadCount, threadCount, ENCODING_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AppCenter.Encoder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                mEncodingExecutor.allowCoreThreadTimeOut(true);
+            }
+        } else if (!enabled && mEncodingExecutor != null) {
+            mEncodingExecutor.shutdown();
+            mEncodingExecutor = null;
+        }
+    }
+
+    @Override
+    public void setGroupStorageQuota(@NonNull String group, float quota) {
+        if (quota > 0) {
+            mGroupQuotas.put(group, Math.min(quota, 1f));
+            AppCenterLog.debug(LOG_TAG, "Storage quota of " + group + " set to " + quota + " of the maximum storage size.");
+        } else if (mGroupQuotas.remove(group) != null) {
+            mGroupSizes.remove(group);
+            AppCenterLog.debug(LOG_TAG, "Storage quota of " + group + " removed.");
+        }
+    }
+
     @Override
     public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
 
         /* Convert log to JSON string and put in the database. */
         try {
             AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + log.getType() + " with flags=" + flags);
-            String payload = getLogSerializer().serializeLog(log);
-            ContentValues contentValues;
-
-            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
-            int payloadSize = payload.getBytes("UTF-8").length;
-            boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
-            String targetKey;
-            String targetToken;
-            if (log instanceof CommonSchemaLog) {
-                if (isLargePayload) {
-                    throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
-                }
-                targetToken = log.getTransmissionTargetTokens().iterator().next();
-                targetKey = PartAUtils.getTargetKey(targetToken);
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
-            } else {
-                targetKey = null;
-                targetToken = null;
-            }
-            long maxSize = mDatabaseManager.getMaxSize();
-            if (maxSize == -1) {
-                throw new PersistenceException("Failed to store a log to the Persistence database.");
-            }
-            if (!isLargePayload && maxSize <= payloadSize) {
-                throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
-                        "Current maximum database size is " + maxSize + " bytes.");
-            }
-            contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false));
-            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
+            Long deviceId = getDeviceId(log);
+            Payload payload = encodePayload(log, deviceId);
+            ContentValues contentValues = getLogContentValues(log, group, flags, payload, mDatabaseManager.getMaxSize(), deviceId);
+            if (mGroupQuotas.containsKey(group)) {
+                evictGroupLogs(group, contentValues.getAsLong(COLUMN_GROUP), Flags.getPersistenceFlag(flags, false), payload.getDatabaseSize());
+            }
+            Map<Long, String> evictedLogs = new HashMap<>();
+            String evictionSelection = getEvictionSelection(group, Flags.getPersistenceFlag(flags, false));
+            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY, evictionSelection, LARGE_PAYLOAD_GROUP_EXPRESSION, evictedLogs);
+            onEvicted(evictedLogs);
+            deleteUnusedDevices();
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
             }
             AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + log.getType() + " with databaseId=" + databaseId);
-            if (isLargePayload) {
-                AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
-                File directory = getLargePayloadGroupDirectory(group);
-
-                //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
-                directory.mkdir();
-                File payloadFile = getLargePayloadFile(directory, databaseId);
-                try {
-                    FileManager.write(payloadFile, payload);
-                } catch (IOException e) {
-
-                    /* Remove database entry if we cannot save payload as a file. */
-                    mDatabaseManager.delete(databaseId);
-                    throw e;
-                }
-                AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
+            if (payload.isLarge()) {
+                writeLargePayload(group, databaseId, payload.mText);
             }
+            updateGroupSize(group, payload.getDatabaseSize());
             return databaseId;
         } catch (JSONException e) {
             throw new PersistenceException("Cannot convert to JSON string.", e);
@@ -309,96 +679,454 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
-    @NonNull
-    @VisibleForTesting
-    File getLargePayloadGroupDirectory(String group) {
-        return new File(mLargePayloadDirectory, group);
-    }
-
-    @NonNull
-    @VisibleForTesting
-    File getLargePayloadFile(File directory, long databaseId) {
-        return new File(directory, databaseId + PAYLOAD_FILE_EXTENSION);
-    }
-
-    private void deleteLog(File groupLargePayloadDirectory, long id) {
-
-        //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
-        getLargePayloadFile(groupLargePayloadDirectory, id).delete();
-        mDatabaseManager.delete(id);
-    }
-
     @Override
-    public void deleteLogs(@NonNull String group, @NonNull String id) {
-
-        /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence database for " + group + " with " + id);
-        AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
+    public long[] putLogs(@NonNull List<Log> logs, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        AppCenterLog.debug(LOG_TAG, "Storing " + logs.size() + " logs to the Persistence database with flags=" + flags);
+        long maxSize = mDatabaseManager.getMaxSize();
+        if (maxSize == -1) {
+            throw new PersistenceException("Failed to store logs to the Persistence database.");
+        }
 
-        /* Delete logs. */
-        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
-        File directory = getLargePayloadGroupDirectory(group);
-        if (dbIdentifiers != null) {
-            for (Long dbIdentifier : dbIdentifiers) {
-                AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
-                deleteLog(directory, dbIdentifier);
-                mPendingDbIdentifiers.remove(dbIdentifier);
+        /* Resolve device snapshots, this uses the database so it's done before encoding logs. */
+        Long[] deviceIds = new Long[logs.size()];
+        Exception[] errors = new Exception[logs.size()];
+        for (int i = 0; i < logs.size(); i++) {
+            try {
+                deviceIds[i] = getDeviceId(logs.get(i));
+            } catch (JSONException e) {
+                errors[i] = e;
             }
         }
-    }
-
-    @Override
-    public void deleteLogs(String group) {
 
-        /* Log. */
-        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence database for " + group);
+        /* Convert logs to JSON strings or binary, skipping logs that cannot be stored. */
+        Payload[] payloads = encodePayloads(logs, deviceIds, errors);
+        long[] databaseIds = new long[logs.size()];
+        Arrays.fill(databaseIds, -1);
+        List<ContentValues> valuesList = new ArrayList<>(logs.size());
+        List<Integer> logIndexes = new ArrayList<>(logs.size());
+        List<String> largePayloads = new ArrayList<>(logs.size());
+        List<Integer> payloadSizes = new ArrayList<>(logs.size());
+        long totalPayloadSize = 0;
+        for (int i = 0; i < logs.size(); i++) {
+            Log log = logs.get(i);
+            Exception error = errors[i];
+            if (error != null) {
+                AppCenterLog.error(LOG_TAG, error instanceof JSONException ? "Cannot convert to JSON string." : "Cannot convert log to bytes.", error);
+                continue;
+            }
+            try {
+                Payload payload = payloads[i];
+                valuesList.add(getLogContentValues(log, group, flags, payload, maxSize, deviceIds[i]));
+                logIndexes.add(i);
+                largePayloads.add(payload.isLarge() ? payload.mText : null);
+                payloadSizes.add(payload.getDatabaseSize());
+                totalPayloadSize += payload.getDatabaseSize();
+            } catch (PersistenceException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot store log of type " + log.getType() + ".", e);
+            }
+        }
 
-        /* Delete large payload files. */
-        File directory = getLargePayloadGroupDirectory(group);
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
+        /* Make room for all the logs at once in the group quota. */
+        if (mGroupQuotas.containsKey(group) && !valuesList.isEmpty()) {
+            evictGroupLogs(group, getDictionaryId(group, false), Flags.getPersistenceFlag(flags, false), totalPayloadSize);
+        }
 
-                //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
-                file.delete();
+        /* Commit all rows at once. */
+        Map<Long, String> evictedLogs = new HashMap<>();
+        String evictionSelection = getEvictionSelection(group, Flags.getPersistenceFlag(flags, false));
+        long[] insertedIds = mDatabaseManager.put(valuesList, COLUMN_PRIORITY, evictionSelection, LARGE_PAYLOAD_GROUP_EXPRESSION, evictedLogs);
+        onEvicted(evictedLogs);
+
+        /* Snapshots of the whole batch are referenced only now. */
+        deleteUnusedDevices();
+        for (int i = 0; i < insertedIds.length; i++) {
+            long databaseId = insertedIds[i];
+            String largePayload = largePayloads.get(i);
+            if (databaseId != -1 && largePayload != null) {
+                try {
+                    writeLargePayload(group, databaseId, largePayload);
+                } catch (IOException e) {
+                    AppCenterLog.error(LOG_TAG, "Cannot save large payload in a file.", e);
+                    databaseId = -1;
+                }
+            }
+            if (databaseId != -1) {
+                updateGroupSize(group, payloadSizes.get(i));
             }
+            databaseIds[logIndexes.get(i)] = databaseId;
         }
+        AppCenterLog.debug(LOG_TAG, "Stored " + insertedIds.length + " logs to the Persistence database.");
+        return databaseIds;
+    }
 
-        //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
-        directory.delete();
-
-        /* Delete from database. */
-        int deletedCount = mDatabaseManager.delete(COLUMN_GROUP, group);
-        AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs.");
+    /**
+     * Validates an encoded log and converts it to database values.
+     *
+     * @param log      The log.
+     * @param group    The group of the storage for the log.
+     * @param flags    The persistence flags.
+     * @param payload  The encoded log.
+     * @param maxSize  The maximum size of the database.
+     * @param deviceId The device snapshot identifier, null if the device is embedded in the payload.
+     * @return The database values, the log columns are null if the payload must be stored in a file.
+     * @throws PersistenceException if the log cannot be stored.
+     */
+    private ContentValues getLogContentValues(Log log, String group, int flags, Payload payload, long maxSize, Long deviceId) throws PersistenceException {
+        boolean isLargePayload = payload.isLarge();
+        int payloadSize = payload.mSize;
+        String targetKey;
+        String targetToken;
+        if (log instanceof CommonSchemaLog) {
+            if (isLargePayload) {
+                throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
+            }
+            targetToken = log.getTransmissionTargetTokens().iterator().next();
+            targetKey = PartAUtils.getTargetKey(targetToken);
+            targetToken = CryptoUtils.getInstance(mContext).encryptCached(targetToken);
+        } else {
+            targetKey = null;
+            targetToken = null;
+        }
+        if (maxSize == -1) {
+            throw new PersistenceException("Failed to store a log to the Persistence database.");
+        }
+        if (!isLargePayload && maxSize <= payloadSize) {
+            throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
+                    "Current maximum database size is " + maxSize + " bytes.");
+        }
+        Long groupId = getDictionaryId(group, true);
+        Long typeId = getDictionaryId(log.getType(), true);
+        Long targetKeyId = getDictionaryId(targetKey, true);
+        if (groupId == null || (log.getType() != null && typeId == null) || (targetKey != null && targetKeyId == null)) {
+            throw new PersistenceException("Failed to store log strings in the Persistence database dictionary.");
+        }
+        String textPayload = isLargePayload ? null : payload.mText;
+        return getContentValues(groupId, textPayload, targetToken, typeId, targetKeyId, Flags.getPersistenceFlag(flags, false), deviceId, payload.mBinary, payload.mCodec);
+    }
 
-        /* Delete from pending state. */
-        for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(group)) {
-                iterator.remove();
+    /**
+     * Counts the logs deleted to make room for new logs when the database is full, and deletes
+     * their large payload files.
+     *
+     * @param evictedLogs The group dictionary identifier of each evicted log by database identifier,
+     *                    null for logs without a large payload file.
+     */
+    private void onEvicted(@NonNull Map<Long, String> evictedLogs) {
+        if (evictedLogs.isEmpty()) {
+            return;
+        }
+        long total = mEvictedLogCount.addAndGet(evictedLogs.size());
+        AppCenterLog.warn(LOG_TAG, "Storage is full, discarded " + evictedLogs.size() + " log(s), " + total + " in total.");
+        for (Map.Entry<Long, String> entry : evictedLogs.entrySet()) {
+            if (entry.getValue() != null) {
+                String group = getDictionaryValue(Long.valueOf(entry.getValue()));
+                if (group != null) {
+
+                    //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+                    getLargePayloadFile(getLargePayloadGroupDirectory(group), entry.getKey()).delete();
+                }
             }
         }
     }
 
-    @Override
-    public int countLogs(@NonNull String group) {
+    /**
+     * Gets the condition on logs that can be deleted when the database is full to store new logs:
+     * logs of other groups with a quota are only deleted for new logs with a higher priority.
+     *
+     * @param group    The group of the new logs.
+     * @param priority The persistence priority of the new logs.
+     * @return WHERE clause without WHERE itself, or null if any log can be deleted.
+     */
+    @Nullable
+    private String getEvictionSelection(@NonNull String group, int priority) {
+        StringBuilder groupIds = new StringBuilder();
+        for (String quotaGroup : mGroupQuotas.keySet()) {
+            Long groupId = quotaGroup.equals(group) ? null : getDictionaryId(quotaGroup, true);
+            if (groupId != null) {
+                groupIds.append(groupId).append(',');
+            }
+        }
+        if (groupIds.length() == 0) {
+            return null;
+        }
+        groupIds.deleteCharAt(groupIds.length() - 1);
+        return "(" + COLUMN_GROUP + " NOT IN (" + groupIds + ") OR " + COLUMN_PRIORITY + " < " + priority + ")";
+    }
+
+    /**
+     * Deletes the oldest logs with the lowest priority of a group, when needed to store new logs
+     * without exceeding the group quota. Logs are deleted until the group size goes down to
+     * {@link DatabaseManager#LOW_WATERMARK_RATIO} of its quota and the new logs can fit.
+     *
+     * @param group    The group of the storage for logs.
+     * @param groupId  The dictionary identifier of the group.
+     * @param priority The persistence priority of the new logs.
+     * @param size     The size in bytes of the new logs.
+     * @throws PersistenceException if the new logs cannot fit in the quota.
+     */
+    private void evictGroupLogs(@NonNull String group, Long groupId, int priority, long size) throws PersistenceException {
+        long maxSize = mDatabaseManager.getMaxSize();
+        if (maxSize <= 0) {
+            return;
+        }
+        long quota = (long) (mGroupQuotas.get(group) * maxSize);
+        if (size > quota) {
+            throw new PersistenceException("Logs are too large (" + size + " bytes) for the storage quota of " + group + " (" + quota + " bytes).");
+        }
+        long groupSize = getGroupSize(group, groupId);
+        if (groupSize + size <= quota) {
+            return;
+        }
 
-        /* Query database and get scanner. */
+        /* Select the logs to delete. Pending logs are about to be deleted once sent. */
+        long sizeToFree = groupSize + size - (long) (quota * DatabaseManager.LOW_WATERMARK_RATIO);
+        long freedSize = 0;
+        List<Long> ids = new ArrayList<>();
+        List<Long> largePayloadIds = new ArrayList<>();
+        File directory = getLargePayloadGroupDirectory(group);
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
-        builder.appendWhere(COLUMN_GROUP + " = ?");
-        int count = 0;
+        builder.appendWhere(COLUMN_GROUP + " = ? AND " + COLUMN_PRIORITY + " <= ?");
+        String[] columns = {PRIMARY_KEY, LOG_SIZE_EXPRESSION};
         try {
-            Cursor cursor = mDatabaseManager.getCursor(builder, new String[]{"COUNT(*)"}, new String[]{group}, null);
+            Cursor cursor = mDatabaseManager.getCursor(builder, columns, new String[]{String.valueOf(groupId), String.valueOf(priority)}, COLUMN_PRIORITY + " , " + PRIMARY_KEY);
             try {
-                cursor.moveToNext();
-                count = cursor.getInt(0);
+                while (freedSize < sizeToFree && cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    if (!mPendingDbIdentifiers.contains(id)) {
+                        ids.add(id);
+                        if (cursor.isNull(1)) {
+                            largePayloadIds.add(id);
+                        } else {
+                            freedSize += cursor.getLong(1);
+                        }
+                    }
+                }
             } finally {
                 cursor.close();
             }
         } catch (RuntimeException e) {
-            AppCenterLog.error(LOG_TAG, "Failed to get logs count: ", e);
+            throw new PersistenceException("Failed to delete logs to respect the storage quota of " + group + ".", e);
+        }
+
+        /* Delete them at once. */
+        if (!ids.isEmpty()) {
+            mDatabaseManager.delete(ids);
+            for (Long id : largePayloadIds) {
+
+                //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
+                getLargePayloadFile(directory, id).delete();
+            }
+            updateGroupSize(group, -freedSize);
+            long total = mEvictedLogCount.addAndGet(ids.size());
+            AppCenterLog.warn(LOG_TAG, "Storage quota of " + group + " is full, discarded " + ids.size() + " log(s), " + total + " in total.");
+        }
+
+        /* Tracked size may have drifted if some logs could not be read, load it again before giving up. */
+        if (freedSize < sizeToFree) {
+            mGroupSizes.remove(group);
+            if (getGroupSize(group, groupId) + size > quota) {
+                throw new PersistenceException("Storage quota of " + group + " is full of logs with a higher priority.");
+            }
         }
-        return count;
+    }
+
+    /**
+     * Gets the size in bytes of the log payloads stored in the database for a group, reading it
+     * from the database only the first time.
+     *
+     * @param group   The group of the storage for logs.
+     * @param groupId The dictionary identifier of the group.
+     * @return The size in bytes of the logs, not counting pending logs.
+     * @throws PersistenceException if the size cannot be read.
+     */
+    private long getGroupSize(@NonNull String group, Long groupId) throws PersistenceException {
+        Long groupSize = mGroupSizes.get(group);
+        if (groupSize == null) {
+            groupSize = 0L;
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(COLUMN_GROUP + " = ?");
+            String[] columns = {PRIMARY_KEY, LOG_SIZE_EXPRESSION};
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(builder, columns, new String[]{String.valueOf(groupId)}, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        long id = cursor.getLong(0);
+                        if (!mPendingDbIdentifiers.contains(id) && !cursor.isNull(1)) {
+                            groupSize += cursor.getLong(1);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                throw new PersistenceException("Failed to get the storage size of " + group + ".", e);
+            }
+            mGroupSizes.put(group, groupSize);
+        }
+        return groupSize;
+    }
+
+    /**
+     * Updates the tracked size of a group if loaded.
+     *
+     * @param group The group of the storage for logs.
+     * @param delta The size in bytes of the logs added, negative for deleted logs.
+     */
+    private void updateGroupSize(@NonNull String group, long delta) {
+        Long groupSize = mGroupSizes.get(group);
+        if (groupSize != null) {
+            mGroupSizes.put(group, Math.max(0, groupSize + delta));
+        }
+    }
+
+    /**
+     * Writes a payload too large for SQLite in a separate file.
+     *
+     * @param group      The group of the storage for the log.
+     * @param databaseId The database identifier of the log.
+     * @param payload    The log serialized to JSON.
+     * @throws IOException if the file cannot be written, the database entry is deleted in that case.
+     */
+    private void writeLargePayload(String group, long databaseId, String payload) throws IOException {
+        AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
+        File directory = getLargePayloadGroupDirectory(group);
+
+        //noinspection ResultOfMethodCallIgnored we'll get an error anyway at write time.
+        directory.mkdir();
+        File payloadFile = getLargePayloadFile(directory, databaseId);
+        try {
+            FileManager.write(payloadFile, payload);
+        } catch (IOException e) {
+
+            /* Remove database entry if we cannot save payload as a file. */
+            mDatabaseManager.delete(databaseId);
+            throw e;
+        }
+        AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
+    }
+
+    @NonNull
+    @VisibleForTesting
+    File getLargePayloadGroupDirectory(String group) {
+        return new File(mLargePayloadDirectory, group);
+    }
+
+    @NonNull
+    @VisibleForTesting
+    File getLargePayloadFile(File directory, long databaseId) {
+        return new File(directory, databaseId + PAYLOAD_FILE_EXTENSION);
+    }
+
+    private void deleteLog(File groupLargePayloadDirectory, long id) {
+
+        //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+        getLargePayloadFile(groupLargePayloadDirectory, id).delete();
+        mDatabaseManager.delete(id);
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+
+        /* Log. */
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence database for " + group + " with " + id);
+        AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
+
+        /* Delete logs. */
+        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
+        mPendingSerializedLogsGroups.remove(group + id);
+        mPendingPrioritiesGroups.remove(group + id);
+        Long pendingSize = mPendingSizesGroups.remove(group + id);
+        if (pendingSize != null) {
+            updateGroupSize(group, -pendingSize);
+        }
+        if (dbIdentifiers != null) {
+            AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifiers);
+
+            /* Delete the whole batch in a single statement. */
+            mDatabaseManager.delete(dbIdentifiers);
+
+            /* Only logs read from a file have one to delete. */
+            File directory = getLargePayloadGroupDirectory(group);
+            for (Long dbIdentifier : dbIdentifiers) {
+                mPendingDbIdentifiers.remove(dbIdentifier);
+                if (mPendingLargePayloadDbIdentifiers.remove(dbIdentifier)) {
+
+                    //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
+                    getLargePayloadFile(directory, dbIdentifier).delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+
+        /* Log. */
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the Persistence database for " + group);
+
+        /* Delete large payload files. */
+        File directory = getLargePayloadGroupDirectory(group);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+
+                //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
+                file.delete();
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
+        directory.delete();
+
+        /* Delete from database. */
+        Long groupId = getDictionaryId(group, false);
+        if (groupId != null) {
+            int deletedCount = mDatabaseManager.delete(COLUMN_GROUP, groupId);
+            AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs.");
+        }
+
+        /* Delete from pending state. */
+        if (mGroupSizes.containsKey(group)) {
+            mGroupSizes.put(group, 0L);
+        }
+        for (Iterator<String> iterator = mPendingSizesGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingDbIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> entry = iterator.next();
+            if (entry.getKey().startsWith(group)) {
+                mPendingLargePayloadDbIdentifiers.removeAll(entry.getValue());
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = mPendingSerializedLogsGroups.keySet().iterator(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            if (key.startsWith(group)) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = mPendingPrioritiesGroups.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+
+        /* No log was ever stored in this group if its name is not in the dictionary. */
+        Long groupId = getDictionaryId(group, false);
+        if (groupId == null) {
+            return 0;
+        }
+
+        /* Query database, errors are logged by the database manager. */
+        long count = mDatabaseManager.getRowCount(COLUMN_GROUP + " = ?", new String[]{String.valueOf(groupId)});
+        return count < 0 ? 0 : (int) count;
     }
 
     @Override
@@ -408,106 +1136,162 @@ public class DatabasePersistence extends Persistence {
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
 
-        /* Query database. */
-        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
-        builder.appendWhere(COLUMN_GROUP + " = ?");
+        /* No log was ever stored in this group if its name is not in the dictionary. */
+        Long groupId = getDictionaryId(group, false);
+        if (groupId == null) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the Persistence database at the moment");
+            return null;
+        }
+
+        /* Query selection arguments, paused target keys that are not in the dictionary cannot match any log. */
         List<String> selectionArgs = new ArrayList<>();
-        selectionArgs.add(group);
-        if (!pausedTargetKeys.isEmpty()) {
-            StringBuilder filter = new StringBuilder();
-            for (int i = 0; i < pausedTargetKeys.size(); i++) {
-                filter.append("?,");
+        selectionArgs.add(String.valueOf(groupId));
+        List<String> pausedTargetKeyIds = new ArrayList<>();
+        for (String pausedTargetKey : pausedTargetKeys) {
+            Long pausedTargetKeyId = getDictionaryId(pausedTargetKey, false);
+            if (pausedTargetKeyId != null) {
+                pausedTargetKeyIds.add(String.valueOf(pausedTargetKeyId));
             }
-            filter.deleteCharAt(filter.length() - 1);
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TARGET_KEY + " NOT IN (" + filter.toString() + ")");
-            selectionArgs.addAll(pausedTargetKeys);
         }
+        selectionArgs.addAll(pausedTargetKeyIds);
+        String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
 
         /* Add logs to output parameter after deserialization if logs are not already sent. */
         int count = 0;
         Map<Long, Log> candidates = new LinkedHashMap<>();
+        Map<Long, String> candidatePayloads = new HashMap<>();
+        Map<Long, Long> candidateDeviceIds = new HashMap<>();
+        Map<Long, Integer> candidateBinarySizes = new HashMap<>();
+        Set<Long> candidateLargePayloadIds = new HashSet<>();
+        int priority = Flags.NORMAL;
         List<Long> failedDbIdentifiers = new ArrayList<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
-        String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
-        Cursor cursor = null;
-        ContentValues values;
-        try {
-            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
-        } catch (RuntimeException e) {
-            AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
-        }
-        while (cursor != null &&
-                (values = mDatabaseManager.nextValues(cursor)) != null &&
-                count < limit) {
-            Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
 
-            /*
-             * When we can't even read the identifier (in this case ContentValues is most likely empty).
-             * That probably means it contained a record larger than 2MB (from a previous SDK version)
-             * and we hit the cursor limit.
-             * Get rid of first non pending log.
-             */
-            if (dbIdentifier == null) {
-                AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
-                List<Long> corruptedIds = getLogsIds(builder, selectionArgsArray);
-                for (Long corruptedId : corruptedIds) {
-                    if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId)) {
-
-                        /* Found the record to delete that we could not read when selecting all fields. */
-                        deleteLog(largePayloadGroupDirectory, corruptedId);
-                        AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
-                        break;
+        /*
+         * Only select the rows we need, pending logs are excluded in the query.
+         * Query again if some selected rows could not be used and more rows may be available.
+         */
+        boolean queryAgain = true;
+        while (queryAgain && count < limit) {
+            SQLiteQueryBuilder builder = buildGetLogsQuery(pausedTargetKeyIds, candidates.keySet(), failedDbIdentifiers);
+            int requestedRowCount = limit - count;
+            int rowCount = 0;
+            int failedCount = failedDbIdentifiers.size();
+            boolean corruptedDeleted = false;
+            Cursor cursor = null;
+            ContentValues values;
+            try {
+                cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER, String.valueOf(requestedRowCount));
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
+            }
+            while (cursor != null &&
+                    (values = mDatabaseManager.nextValues(cursor)) != null &&
+                    count < limit) {
+                rowCount++;
+                Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
+
+                /*
+                 * When we can't even read the identifier (in this case ContentValues is most likely empty).
+                 * That probably means it contained a record larger than 2MB (from a previous SDK version)
+                 * and we hit the cursor limit.
+                 * Get rid of first non pending log.
+                 */
+                if (dbIdentifier == null) {
+                    AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
+                    List<Long> corruptedIds = getLogsIds(builder, selectionArgsArray);
+                    for (Long corruptedId : corruptedIds) {
+                        if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId) && !failedDbIdentifiers.contains(corruptedId)) {
+
+                            /* Found the record to delete that we could not read when selecting all fields. */
+                            deleteLog(largePayloadGroupDirectory, corruptedId);
+                            corruptedDeleted = true;
+                            AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
+                            break;
+                        }
                     }
+                    continue;
                 }
-                continue;
-            }
 
-            /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
-            if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
-                try {
+                /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
+                if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
+                    try {
+
+                        /* Deserialize JSON or binary payload to Log. */
+                        String logPayload;
+                        Log log = null;
+                        String databasePayloadType = getDictionaryValue(values.getAsLong(COLUMN_DATA_TYPE));
+                        String databasePayload = values.getAsString(COLUMN_LOG);
+                        byte[] binaryPayload = values.getAsByteArray(COLUMN_BINARY_LOG);
+                        if (binaryPayload != null) {
+                            Integer codec = values.getAsInteger(COLUMN_CODEC);
+                            byte[] decodedPayload = decodePayload(binaryPayload, codec);
+                            if ((codec & CODEC_BINARY) != 0) {
+                                logPayload = null;
+                                log = getLogSerializer().decodeLog(decodedPayload, databasePayloadType);
+                            } else {
+                                logPayload = new String(decodedPayload, "UTF-8");
+                            }
+                        } else if (databasePayload == null) {
+                            File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
+                            AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
+                            logPayload = FileManager.read(file);
+                            if (logPayload == null) {
+                                throw new JSONException("Log payload is null and not stored as a file.");
+                            }
+                        } else {
+                            logPayload = databasePayload;
+                        }
+                        if (logPayload != null) {
+                            log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
+                        }
 
-                    /* Deserialize JSON to Log. */
-                    String logPayload;
-                    String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
-                        File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
-                        AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
-                        logPayload = FileManager.read(file);
-                        if (logPayload == null) {
-                            throw new JSONException("Log payload is null and not stored as a file.");
+                        /* Restore device, shared by all the logs with the same snapshot. */
+                        Long deviceId = values.getAsLong(COLUMN_DEVICE);
+                        if (deviceId != null) {
+                            log.setDevice(getDevice(deviceId));
+                            candidateDeviceIds.put(dbIdentifier, deviceId);
                         }
-                    } else {
-                        logPayload = databasePayload;
-                    }
-                    String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
-                    Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
-
-                    /* Restore target token. */
-                    String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
-                    if (targetToken != null) {
-                        CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken);
-                        log.addTransmissionTarget(data.getDecryptedData());
-                    }
 
-                    /* Add log to list and count. */
-                    candidates.put(dbIdentifier, log);
-                    count++;
-                } catch (JSONException e) {
+                        /* Restore target token. */
+                        String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
+                        if (targetToken != null) {
+                            CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decryptCached(targetToken);
+                            log.addTransmissionTarget(data.getDecryptedData());
+                        }
+
+                        /* Add log to list and count. */
+                        candidates.put(dbIdentifier, log);
+                        candidatePayloads.put(dbIdentifier, logPayload);
+                        if (binaryPayload != null) {
+                            candidateBinarySizes.put(dbIdentifier, binaryPayload.length);
+                        } else if (databasePayload == null) {
+                            candidateLargePayloadIds.add(dbIdentifier);
+                        }
+                        Integer logPriority = values.getAsInteger(COLUMN_PRIORITY);
+                        if (logPriority != null) {
+                            priority = Math.max(priority, logPriority);
+                        }
+                        count++;
+                    } catch (JSONException | UnsupportedEncodingException e) {
 
-                    /* If it is not able to deserialize, delete and get another log. */
-                    AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
+                        /* If it is not able to deserialize, delete and get another log. */
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
 
-                    /* Put the failed identifier to delete. */
-                    failedDbIdentifiers.add(dbIdentifier);
+                        /* Put the failed identifier to delete. */
+                        failedDbIdentifiers.add(dbIdentifier);
+                    }
                 }
             }
-        }
-        if (cursor != null) {
-            try {
-                cursor.close();
-            } catch (RuntimeException ignore) {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignore) {
+                }
             }
+
+            /* Rows that were skipped are now excluded or deleted, other rows may fill the batch. */
+            queryAgain = rowCount == requestedRowCount && (failedDbIdentifiers.size() > failedCount || corruptedDeleted);
         }
 
         /* Delete any logs that cannot be de-serialized. */
@@ -531,11 +1315,42 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
         AppCenterLog.debug(LOG_TAG, "The SID/ID pairs for returning log(s) is/are:");
         List<Long> pendingDbIdentifiersGroup = new ArrayList<>();
+        List<String> serializedLogs = new ArrayList<>();
+        long pendingSize = 0;
         for (Map.Entry<Long, Log> entry : candidates.entrySet()) {
             Long dbIdentifier = entry.getKey();
 
+            /*
+             * Keep the persisted JSON so that the batch can be sent as is, with its device snapshot.
+             * Binary payloads are not JSON: the batch is then serialized again for sending.
+             */
+            String payload = candidatePayloads.get(dbIdentifier);
+            if (payload == null) {
+                serializedLogs = null;
+            } else if (serializedLogs != null) {
+                Long deviceId = candidateDeviceIds.get(dbIdentifier);
+                serializedLogs.add(deviceId == null ? payload : addDevice(payload, mDeviceValues.get(deviceId)));
+            }
+
+            /* Group size accounts for the payload as stored in the database. */
+            Integer binarySize = candidateBinarySizes.get(dbIdentifier);
+            if (binarySize != null) {
+                pendingSize += binarySize;
+            } else if (!candidateLargePayloadIds.contains(dbIdentifier)) {
+                try {
+
+                    //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                    pendingSize += payload.getBytes("UTF-8").length;
+                } catch (UnsupportedEncodingException e) {
+                    pendingSize += payload.length();
+                }
+            }
+
             /* Change a database identifier to pending state. */
             mPendingDbIdentifiers.add(dbIdentifier);
+            if (candidateLargePayloadIds.contains(dbIdentifier)) {
+                mPendingLargePayloadDbIdentifiers.add(dbIdentifier);
+            }
 
             /* Store a database identifier to a group of the ID. */
             pendingDbIdentifiersGroup.add(dbIdentifier);
@@ -549,21 +1364,520 @@ public class DatabasePersistence extends Persistence {
 
         /* Update pending IDs. */
         mPendingDbIdentifiersGroups.put(group + id, pendingDbIdentifiersGroup);
+        if (serializedLogs != null) {
+            mPendingSerializedLogsGroups.put(group + id, serializedLogs);
+        }
+        mPendingPrioritiesGroups.put(group + id, priority);
+
+        /* Remember the size of the logs to update the group size once sent. */
+        if (mGroupSizes.containsKey(group)) {
+            mPendingSizesGroups.put(group + id, pendingSize);
+        }
         return id;
     }
 
+    @Override
+    @Nullable
+    public List<String> takeSerializedLogs(@NonNull String group, @NonNull String batchId) {
+        return mPendingSerializedLogsGroups.remove(group + batchId);
+    }
+
+    @Override
+    public int getBatchPriority(@NonNull String group, @NonNull String batchId) {
+        Integer priority = mPendingPrioritiesGroups.get(group + batchId);
+        return priority == null ? Flags.NORMAL : priority;
+    }
+
     @Override
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
+        mPendingLargePayloadDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingSerializedLogsGroups.clear();
+        mPendingPrioritiesGroups.clear();
+        mPendingSizesGroups.clear();
+
+        /* Logs that were pending are not counted in group sizes, load them again when needed. */
+        mGroupSizes.clear();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
+    @Override
+    public long getEvictedLogCount() {
+        return mEvictedLogCount.get();
+    }
+
     @Override
     public void close() {
+        setParallelEncodingEnabled(false);
         mDatabaseManager.close();
     }
 
+    /**
+     * Get the dictionary identifier of a string.
+     *
+     * @param value  string value.
+     * @param create true to add the string to the dictionary if missing.
+     * @return dictionary identifier or null if value is null, missing and not created or on database error.
+     */
+    @Nullable
+    @VisibleForTesting
+    Long getDictionaryId(@Nullable String value, boolean create) {
+        if (value == null) {
+            return null;
+        }
+        Long id = mDictionaryIds.get(value);
+        if (id != null) {
+            return id;
+        }
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_DICTIONARY_VALUE + " = ?");
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(DICTIONARY_TABLE, builder, SELECT_PRIMARY_KEY, new String[]{value}, null);
+            try {
+                if (cursor.moveToNext()) {
+                    id = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to read dictionary: ", e);
+            return null;
+        }
+        if (id == null && create) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DICTIONARY_VALUE, value);
+            long insertedId = mDatabaseManager.insert(DICTIONARY_TABLE, values);
+            if (insertedId != -1) {
+                id = insertedId;
+            }
+        }
+        if (id != null) {
+            mDictionaryIds.put(value, id);
+            mDictionaryValues.put(id, value);
+        }
+        return id;
+    }
+
+    /**
+     * Get the string for a dictionary identifier.
+     *
+     * @param id dictionary identifier.
+     * @return string value or null if id is null, missing or on database error.
+     */
+    @Nullable
+    @VisibleForTesting
+    String getDictionaryValue(@Nullable Long id) {
+        if (id == null) {
+            return null;
+        }
+        String value = mDictionaryValues.get(id);
+        if (value != null) {
+            return value;
+        }
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(PRIMARY_KEY + " = ?");
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(DICTIONARY_TABLE, builder, new String[]{COLUMN_DICTIONARY_VALUE}, new String[]{String.valueOf(id)}, null);
+            try {
+                if (cursor.moveToNext()) {
+                    value = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to read dictionary: ", e);
+            return null;
+        }
+        if (value != null) {
+            mDictionaryIds.put(value, id);
+            mDictionaryValues.put(id, value);
+        }
+        return value;
+    }
+
+    /**
+     * Get the identifier of the device snapshot of a log, storing the snapshot if it's new.
+     *
+     * @param log log.
+     * @return device snapshot identifier or null if the device must be embedded in the log payload.
+     * @throws JSONException if the device cannot be serialized.
+     */
+    @Nullable
+    private Long getDeviceId(@NonNull Log log) throws JSONException {
+
+        /* Common schema logs have no device in their payload. */
+        Device device = log.getDevice();
+        if (device == null || log instanceof CommonSchemaLog) {
+            return null;
+        }
+        if (mLastDeviceId != null && device.equals(mLastDevice)) {
+            return mLastDeviceId;
+        }
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        device.write(writer);
+        writer.endObject();
+        String value = writer.toString();
+        String hash = HashUtils.sha256(value);
+        Long id = mDeviceIds.get(hash);
+        if (id == null) {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(COLUMN_DEVICE_HASH + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(DEVICE_TABLE, builder, SELECT_PRIMARY_KEY, new String[]{hash}, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        id = cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read device table: ", e);
+                return null;
+            }
+            if (id == null) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_DEVICE_HASH, hash);
+                values.put(COLUMN_DEVICE_VALUE, value);
+                long insertedId = mDatabaseManager.insert(DEVICE_TABLE, values);
+                if (insertedId == -1) {
+                    return null;
+                }
+                id = insertedId;
+                mDeviceStored = true;
+            }
+            mDeviceIds.put(hash, id);
+            mDeviceValues.put(id, value);
+        }
+        mLastDevice = device;
+        mLastDeviceId = id;
+        return id;
+    }
+
+    /**
+     * Delete device snapshots that are no longer referenced by any log, once the logs using a new
+     * snapshot are inserted. The current snapshot is kept for the next logs even if its logs failed to be stored.
+     */
+    private void deleteUnusedDevices() {
+        if (!mDeviceStored) {
+            return;
+        }
+        mDeviceStored = false;
+        String selection = PRIMARY_KEY + " NOT IN (SELECT `" + COLUMN_DEVICE + "` FROM `" + TABLE + "` WHERE `" + COLUMN_DEVICE + "` IS NOT NULL)";
+        if (mLastDeviceId != null) {
+            selection = PRIMARY_KEY + " <> " + mLastDeviceId + " AND " + selection;
+        }
+        int deletedCount = mDatabaseManager.delete(DEVICE_TABLE, selection, null);
+        if (deletedCount > 0) {
+            AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " unused device snapshot(s).");
+            clearDeviceCache();
+        }
+    }
+
+    /**
+     * Get the device snapshot for an identifier.
+     *
+     * @param id device snapshot identifier.
+     * @return device, the same instance for every call with the same identifier.
+     * @throws JSONException if the snapshot is missing or cannot be read.
+     */
+    @NonNull
+    private Device getDevice(long id) throws JSONException {
+        Device device = mDevices.get(id);
+        if (device != null) {
+            return device;
+        }
+        String value = mDeviceValues.get(id);
+        if (value == null) {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(DEVICE_TABLE, builder, new String[]{COLUMN_DEVICE_VALUE}, new String[]{String.valueOf(id)}, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        value = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read device table: ", e);
+            }
+            if (value == null) {
+                throw new JSONException("Device snapshot " + id + " not found.");
+            }
+        }
+        device = new Device();
+        device.read(new JSONObject(value));
+        mDeviceValues.put(id, value);
+        mDevices.put(id, device);
+        return device;
+    }
+
+    /**
+     * Add the device snapshot to a log payload stored without it.
+     *
+     * @param payload log JSON without device.
+     * @param device  device JSON.
+     * @return log JSON with device.
+     */
+    @NonNull
+    private static String addDevice(@NonNull String payload, @NonNull String device) {
+        int end = payload.lastIndexOf('}');
+        return payload.substring(0, end) + ",\"" + DEVICE_PROPERTY + "\":" + device + payload.substring(end);
+    }
+
+    /**
+     * Compress a log payload if compression is enabled and makes the payload smaller.
+     *
+     * @param payload log JSON in UTF-8.
+     * @return compressed payload or null to store the JSON as is.
+     */
+    @Nullable
+    private byte[] compressPayload(@NonNull byte[] payload) {
+        if (!mCompressionEnabled) {
+            return null;
+        }
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length / 2);
+            byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+                if (output.size() >= payload.length) {
+                    return null;
+                }
+            }
+            byte[] compressedPayload = output.toByteArray();
+
+            /* Large payloads are stored as JSON files. */
+            return compressedPayload.length < PAYLOAD_MAX_SIZE ? compressedPayload : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Encode logs, on several threads if enabled and there are enough logs.
+     *
+     * @param logs      logs.
+     * @param deviceIds device snapshot identifiers for each log.
+     * @param errors    encoding error for each log, filled for the logs that cannot be encoded.
+     * @return payload for each log, null for the logs that have an error.
+     */
+    @NonNull
+    private Payload[] encodePayloads(@NonNull final List<Log> logs, @NonNull final Long[] deviceIds, @NonNull final Exception[] errors) {
+        final Payload[] payloads = new Payload[logs.size()];
+        ThreadPoolExecutor executor = mEncodingExecutor;
+        final int stripeCount = executor == null ? 1 : Math.max(1, Math.min(executor.getMaximumPoolSize() + 1, logs.size() / MIN_LOGS_PER_ENCODING_THREAD));
+        List<Future<?>> futures = new ArrayList<>(stripeCount);
+        List<Integer> futureStripes = new ArrayList<>(stripeCount);
+        for (int stripe = 1; stripe < stripeCount; stripe++) {
+            final int firstIndex = stripe;
+            try {
+                futures.add(executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        encodePayloads(logs, deviceIds, errors, payloads, firstIndex, stripeCount);
+                    }
+                }));
+                futureStripes.add(stripe);
+            } catch (RejectedExecutionException e) {
+
+                /* Encoding was disabled in the meantime, do it on this thread. */
+                encodePayloads(logs, deviceIds, errors, payloads, firstIndex, stripeCount);
+            }
+        }
+        encodePayloads(logs, deviceIds, errors, payloads, 0, stripeCount);
+
+        /* Wait for the other threads even if interrupted as they are using the logs. */
+        boolean interrupted = false;
+        for (int f = 0; f < futures.size(); f++) {
+            while (true) {
+                try {
+                    futures.get(f).get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+
+                    /* The logs that the thread could not encode fail with its error, the others are still stored. */
+                    Exception error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    for (int i = futureStripes.get(f); i < logs.size(); i += stripeCount) {
+                        if (payloads[i] == null && errors[i] == null) {
+                            errors[i] = error;
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return payloads;
+    }
+
+    /**
+     * Encode every log of a stripe, the logs at first index plus a multiple of the stripe count.
+     */
+    private void encodePayloads(List<Log> logs, Long[] deviceIds, Exception[] errors, Payload[] payloads, int firstIndex, int stripeCount) {
+        for (int i = firstIndex; i < logs.size(); i += stripeCount) {
+            if (errors[i] == null) {
+                try {
+                    payloads[i] = encodePayload(logs.get(i), deviceIds[i]);
+                } catch (JSONException | IOException | RuntimeException e) {
+                    errors[i] = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decompress a payload stored in the binary log column if needed.
+     *
+     * @param payload stored payload.
+     * @param codec   codec flags of the payload.
+     * @return log JSON in UTF-8 or binary log.
+     * @throws JSONException if the payload cannot be decoded.
+     */
+    @NonNull
+    private static byte[] decodePayload(@NonNull byte[] payload, @Nullable Integer codec) throws JSONException {
+        if (codec == null || (codec & ~(CODEC_DEFLATE | CODEC_BINARY)) != 0) {
+            throw new JSONException("Unsupported payload codec: " + codec);
+        }
+        if ((codec & CODEC_DEFLATE) == 0) {
+            return payload;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new JSONException("Compressed payload is truncated.");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new JSONException("Cannot decompress payload: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Encode a log for storage, without its device if the snapshot is stored in the device table.
+     *
+     * @param log      log.
+     * @param deviceId device snapshot identifier, null to embed the device.
+     * @return encoded log.
+     * @throws JSONException                if the log cannot be serialized.
+     * @throws UnsupportedEncodingException if the JSON cannot be converted to UTF-8.
+     */
+    @NonNull
+    private Payload encodePayload(@NonNull Log log, @Nullable Long deviceId) throws JSONException, UnsupportedEncodingException {
+        Device device = log.getDevice();
+        if (deviceId != null) {
+            log.setDevice(null);
+        }
+        try {
+
+            /* Binary logs can't be stored in a large payload file, use JSON for them. */
+            if (mBinaryEncodingEnabled) {
+                byte[] binaryPayload = getLogSerializer().encodeLog(log);
+                byte[] compressedPayload = compressPayload(binaryPayload);
+                if (compressedPayload != null) {
+                    return new Payload(null, compressedPayload, CODEC_BINARY | CODEC_DEFLATE);
+                }
+                if (binaryPayload.length < PAYLOAD_MAX_SIZE) {
+                    return new Payload(null, binaryPayload, CODEC_BINARY);
+                }
+            }
+            String payload = getLogSerializer().serializeLog(log);
+
+            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+            byte[] payloadBytes = payload.getBytes("UTF-8");
+            byte[] compressedPayload = compressPayload(payloadBytes);
+            if (compressedPayload != null) {
+                return new Payload(null, compressedPayload, CODEC_DEFLATE);
+            }
+            return new Payload(payload, null, null, payloadBytes.length);
+        } finally {
+            if (deviceId != null) {
+                log.setDevice(device);
+            }
+        }
+    }
+
+    /**
+     * Forget cached dictionary entries.
+     */
+    private void clearDictionaryCache() {
+        mDictionaryIds.clear();
+        mDictionaryValues.clear();
+        clearDeviceCache();
+    }
+
+    /**
+     * Forget cached device snapshots.
+     */
+    private void clearDeviceCache() {
+        mDeviceIds.clear();
+        mDeviceValues.clear();
+        mDevices.clear();
+        mLastDevice = null;
+        mLastDeviceId = null;
+    }
+
+    /**
+     * Build the query to select logs for a group, excluding logs that must not be returned.
+     * Identifiers are inlined as they are numbers, that avoids the limit on the number of SQL variables.
+     *
+     * @param pausedTargetKeys target keys to exclude, bound as selection arguments after the group.
+     * @param candidateIds     identifiers already selected by this call.
+     * @param failedIds        identifiers of logs that cannot be deserialized.
+     * @return query builder.
+     */
+    @NonNull
+    @VisibleForTesting
+    SQLiteQueryBuilder buildGetLogsQuery(@NonNull Collection<String> pausedTargetKeys, @NonNull Collection<Long> candidateIds, @NonNull Collection<Long> failedIds) {
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_GROUP + " = ?");
+        if (!pausedTargetKeys.isEmpty()) {
+            StringBuilder filter = new StringBuilder();
+            for (int i = 0; i < pausedTargetKeys.size(); i++) {
+                filter.append("?,");
+            }
+            filter.deleteCharAt(filter.length() - 1);
+            builder.appendWhere(" AND ");
+            builder.appendWhere(COLUMN_TARGET_KEY + " NOT IN (" + filter.toString() + ")");
+        }
+        List<Long> ids = new ArrayList<>(mPendingDbIdentifiers);
+        ids.addAll(candidateIds);
+        ids.addAll(failedIds);
+        StringBuilder excludedIds = new StringBuilder();
+        for (Long id : ids) {
+            excludedIds.append(id).append(',');
+        }
+        if (excludedIds.length() > 0) {
+            excludedIds.deleteCharAt(excludedIds.length() - 1);
+            builder.appendWhere(" AND ");
+            builder.appendWhere(PRIMARY_KEY + " NOT IN (" + excludedIds.toString() + ")");
+        }
+        return builder;
+    }
+
     private List<Long> getLogsIds(SQLiteQueryBuilder builder, String[] selectionArgs) {
         List<Long> result = new ArrayList<>();
         try {
@@ -582,4 +1896,55 @@ public class DatabasePersistence extends Persistence {
         }
         return result;
     }
+
+    /**
+     * Log encoded for storage.
+     */
+    private static class Payload {
+
+        /**
+         * JSON payload, null if the log is stored in binary.
+         */
+        final String mText;
+
+        /**
+         * Payload stored in the binary log column, null if stored as text.
+         */
+        final byte[] mBinary;
+
+        /**
+         * Codec flags of the binary payload.
+         */
+        final Integer mCodec;
+
+        /**
+         * Size in bytes of the payload as stored.
+         */
+        final int mSize;
+
+        Payload(String text, byte[] binary, Integer codec, int size) {
+            mText = text;
+            mBinary = binary;
+            mCodec = codec;
+            mSize = size;
+        }
+
+        Payload(String text, @NonNull byte[] binary, int codec) {
+            this(text, binary, codec, binary.length);
+        }
+
+        /**
+         * @return true if the payload is too large for the database and must be stored in a file.
+         */
+        boolean isLarge() {
+            return mBinary == null && mSize >= PAYLOAD_MAX_SIZE;
+        }
+
+        /**
+         * @return size in bytes of the payload in the database, 0 if stored in a file.
+         */
+        int getDatabaseSize() {
+            return isLarge() ? 0 : mSize;
+        }
+    }
 }
@@ -0,0 +1,1005 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence writing logs to append-only segment files, in a directory per group.
+ * <p>
+ * Each record is written as its length followed by its content. Deleted logs are appended to a
+ * cursor file and a segment file is deleted only when all its records are deleted.
+ * An index of the logs is kept in memory and loaded from files on first use.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public class JournalPersistence extends Persistence {
+
+    /**
+     * Sub path for the journal directory.
+     */
+    private static final String JOURNAL_DIRECTORY = "/appcenter/journal";
+
+    /**
+     * Segment file extension.
+     */
+    @VisibleForTesting
+    static final String SEGMENT_FILE_EXTENSION = ".segment";
+
+    /**
+     * Name of the file, in a group directory, listing identifiers of deleted logs.
+     */
+    @VisibleForTesting
+    static final String CURSOR_FILE = "cursor";
+
+    /**
+     * Storage size used until {@link #setMaxStorageSize(long)} is called.
+     */
+    private static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Maximum size of a segment file.
+     */
+    private static final long SEGMENT_MAX_SIZE = 256 * 1024;
+
+    /**
+     * Segments are smaller than this fraction of the maximum storage size so that eviction
+     * does not delete too many logs at once.
+     */
+    private static final int SEGMENT_MIN_COUNT = 16;
+
+    /**
+     * Number of normal priority records written before syncing the segment file to disk.
+     */
+    private static final int SYNC_RECORD_COUNT = 16;
+
+    /**
+     * Size of the length prefix of a record.
+     */
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * Order in which logs are sent: higher priority first then oldest first.
+     */
+    private static final Comparator<Record> SEND_ORDER = new Comparator<Record>() {
+
+        @Override
+        public int compare(Record record1, Record record2) {
+            if (record1.mPriority != record2.mPriority) {
+                return record1.mPriority > record2.mPriority ? -1 : 1;
+            }
+            return record1.mId < record2.mId ? -1 : (record1.mId == record2.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Pending log groups. Key is a UUID and value is a list of log identifiers.
+     */
+    @VisibleForTesting
+    final Map<String, List<Long>> mPendingIdentifiersGroups = new HashMap<>();
+
+    /**
+     * Pending logs across all groups.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingIdentifiers = new HashSet<>();
+
+    /**
+     * Persisted JSON payloads of pending log groups not yet taken by the channel.
+     * Key is the same as {@link #mPendingIdentifiersGroups}.
+     */
+    private final Map<String, List<String>> mPendingSerializedLogsGroups = new HashMap<>();
+
+    /**
+     * Highest persistence priority of pending log groups.
+     * Key is the same as {@link #mPendingIdentifiersGroups}.
+     */
+    private final Map<String, Integer> mPendingPrioritiesGroups = new HashMap<>();
+
+    /**
+     * Journals by group name, loaded on first use.
+     */
+    private final Map<String, GroupJournal> mGroups = new HashMap<>();
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Base directory of the journal, null until loaded.
+     */
+    private File mDirectory;
+
+    /**
+     * Whether journals were loaded from files.
+     */
+    private boolean mLoaded;
+
+    /**
+     * Maximum size of all segment files.
+     */
+    private long mMaxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Size of all segment files.
+     */
+    private long mTotalSize;
+
+    /**
+     * Next log identifier.
+     */
+    private long mNextId;
+
+    /**
+     * Number of logs deleted since this instance was created because storage was full.
+     */
+    private final AtomicLong mEvictedLogCount = new AtomicLong();
+
+    /**
+     * Initializes the journal in the default directory.
+     *
+     * @param context application context.
+     */
+    public JournalPersistence(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Initializes the journal.
+     *
+     * @param context   application context.
+     * @param directory base directory of the journal, null to use the default directory.
+     */
+    @VisibleForTesting
+    JournalPersistence(Context context, @Nullable File directory) {
+        mContext = context;
+        mDirectory = directory;
+    }
+
+    private static void writeNullableString(DataOutputStream output, @Nullable String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readNullableString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void closeQuietly(@Nullable FileOutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes <= 0) {
+            AppCenterLog.error(LOG_TAG, "Could not change maximum journal size to " + maxStorageSizeInBytes + " bytes.");
+            return false;
+        }
+        mMaxSize = maxStorageSizeInBytes;
+        AppCenterLog.info(LOG_TAG, "Changed maximum journal size to " + maxStorageSizeInBytes + " bytes.");
+        return true;
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        load();
+        GroupJournal journal = getOrCreateGroup(group);
+        int priority = Flags.getPersistenceFlag(flags, false);
+        long id = append(journal, log, priority);
+        if (priority == Flags.PERSISTENCE_CRITICAL || journal.mUnsyncedCount >= SYNC_RECORD_COUNT) {
+            sync(journal);
+        }
+        return id;
+    }
+
+    @Override
+    public long[] putLogs(@NonNull List<Log> logs, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        load();
+        GroupJournal journal = getOrCreateGroup(group);
+        int priority = Flags.getPersistenceFlag(flags, false);
+        long[] ids = new long[logs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                ids[i] = append(journal, logs.get(i), priority);
+            } catch (PersistenceException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot store log of type " + logs.get(i).getType() + ".", e);
+                ids[i] = -1;
+            }
+        }
+
+        /* Sync all records at once. */
+        sync(journal);
+        return ids;
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String batchId) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from the journal for " + group + " with " + batchId);
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + batchId);
+        mPendingSerializedLogsGroups.remove(group + batchId);
+        mPendingPrioritiesGroups.remove(group + batchId);
+        if (ids != null) {
+            mPendingIdentifiers.removeAll(ids);
+            GroupJournal journal = mGroups.get(group);
+            if (journal != null) {
+                acknowledge(journal, ids);
+            }
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from the journal for " + group);
+        load();
+        GroupJournal journal = mGroups.remove(group);
+        if (journal != null) {
+            closeWriter(journal);
+            closeQuietly(journal.mCursorWriter);
+            for (Segment segment : journal.mSegments) {
+                mTotalSize -= segment.mSize;
+            }
+            FileManager.deleteDir(journal.mDirectory);
+        }
+
+        /* Delete from pending state. */
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> entry = iterator.next();
+            if (entry.getKey().startsWith(group)) {
+                mPendingIdentifiers.removeAll(entry.getValue());
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = mPendingSerializedLogsGroups.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(group)) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<String> iterator = mPendingPrioritiesGroups.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        load();
+        GroupJournal journal = mGroups.get(group);
+        return journal == null ? 0 : journal.mRecords.size();
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the journal for " + group);
+        load();
+        GroupJournal journal = mGroups.get(group);
+        List<Record> candidates = new ArrayList<>();
+        List<Log> candidateLogs = new ArrayList<>();
+        List<String> candidatePayloads = new ArrayList<>();
+        List<Long> failedIds = new ArrayList<>();
+        if (journal != null) {
+            Map<Segment, RandomAccessFile> files = new HashMap<>();
+            try {
+                for (Record record : journal.mRecords) {
+                    if (candidates.size() >= limit) {
+                        break;
+                    }
+                    if (mPendingIdentifiers.contains(record.mId) || (record.mTargetKey != null && pausedTargetKeys.contains(record.mTargetKey))) {
+                        continue;
+                    }
+                    try {
+                        RandomAccessFile file = files.get(record.mSegment);
+                        if (file == null) {
+                            file = new RandomAccessFile(record.mSegment.mFile, "r");
+                            files.put(record.mSegment, file);
+                        }
+                        byte[] content = new byte[record.mLength];
+                        file.seek(record.mOffset);
+                        file.readFully(content);
+                        DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+                        input.readLong();
+                        input.readByte();
+                        String type = readNullableString(input);
+                        String targetToken = readNullableString(input);
+                        readNullableString(input);
+                        byte[] payloadBytes = new byte[input.available()];
+                        input.readFully(payloadBytes);
+                        String payload = new String(payloadBytes, "UTF-8");
+                        Log log = getLogSerializer().deserializeLog(payload, type);
+                        if (targetToken != null) {
+                            CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decryptCached(targetToken);
+                            log.addTransmissionTarget(data.getDecryptedData());
+                        }
+                        candidates.add(record);
+                        candidateLogs.add(log);
+                        candidatePayloads.add(payload);
+                    } catch (IOException | JSONException e) {
+                        AppCenterLog.error(LOG_TAG, "Cannot read a log in the journal", e);
+                        failedIds.add(record.mId);
+                    }
+                }
+            } finally {
+                for (RandomAccessFile file : files.values()) {
+                    try {
+                        file.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+            }
+
+            /* Delete any logs that cannot be read. */
+            if (failedIds.size() > 0) {
+                acknowledge(journal, failedIds);
+                AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be read");
+            }
+        }
+
+        /* No logs found. */
+        if (candidates.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in the journal at the moment");
+            return null;
+        }
+
+        /* Mark logs as pending. */
+        String id = UUID.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
+        List<Long> pendingIds = new ArrayList<>(candidates.size());
+        int priority = Flags.NORMAL;
+        for (Record record : candidates) {
+            mPendingIdentifiers.add(record.mId);
+            pendingIds.add(record.mId);
+            priority = Math.max(priority, record.mPriority);
+        }
+        outLogs.addAll(candidateLogs);
+        mPendingIdentifiersGroups.put(group + id, pendingIds);
+        mPendingSerializedLogsGroups.put(group + id, candidatePayloads);
+        mPendingPrioritiesGroups.put(group + id, priority);
+        return id;
+    }
+
+    @Override
+    @Nullable
+    public List<String> takeSerializedLogs(@NonNull String group, @NonNull String batchId) {
+        return mPendingSerializedLogsGroups.remove(group + batchId);
+    }
+
+    @Override
+    public int getBatchPriority(@NonNull String group, @NonNull String batchId) {
+        Integer priority = mPendingPrioritiesGroups.get(group + batchId);
+        return priority == null ? Flags.NORMAL : priority;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIdentifiers.clear();
+        mPendingIdentifiersGroups.clear();
+        mPendingSerializedLogsGroups.clear();
+        mPendingPrioritiesGroups.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public long getEvictedLogCount() {
+        return mEvictedLogCount.get();
+    }
+
+    /**
+     * Syncs records not yet synced in every group.
+     */
+    @Override
+    public void flush() {
+        for (GroupJournal journal : mGroups.values()) {
+            sync(journal);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (GroupJournal journal : mGroups.values()) {
+            sync(journal);
+            closeWriter(journal);
+            closeQuietly(journal.mCursorWriter);
+        }
+        mGroups.clear();
+        mLoaded = false;
+    }
+
+    /**
+     * Loads the journals of all groups the first time.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mDirectory == null) {
+            mDirectory = new File(Constants.FILES_PATH + JOURNAL_DIRECTORY);
+        }
+
+        //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
+        mDirectory.mkdirs();
+        mTotalSize = 0;
+        File[] directories = mDirectory.listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                try {
+                    loadGroup(URLDecoder.decode(directory.getName(), "UTF-8"), directory);
+                } catch (IOException e) {
+                    AppCenterLog.error(LOG_TAG, "Failed to load journal " + directory, e);
+                }
+            }
+        }
+        mNextId = Math.max(mNextId, 1);
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mGroups.size() + " group(s) from the journal using " + mTotalSize + " bytes.");
+    }
+
+    private void loadGroup(String group, File directory) throws IOException {
+        GroupJournal journal = new GroupJournal(group, directory);
+
+        /* Read identifiers of deleted logs. */
+        Set<Long> acknowledgedIds = new HashSet<>();
+        File cursorFile = new File(directory, CURSOR_FILE);
+        if (cursorFile.exists()) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cursorFile)));
+            try {
+                //noinspection InfiniteLoopStatement until EOF.
+                while (true) {
+                    acknowledgedIds.add(input.readLong());
+                }
+            } catch (EOFException ignore) {
+
+                /* A partially written identifier at the end is ignored. */
+            } finally {
+                input.close();
+            }
+        }
+
+        /* Read segments in order. */
+        File[] files = directory.listFiles();
+        List<Segment> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_FILE_EXTENSION)) {
+                    try {
+                        segments.add(new Segment(file, Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()))));
+                    } catch (NumberFormatException e) {
+                        AppCenterLog.warn(LOG_TAG, "Ignoring unexpected file in journal: " + file);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<Segment>() {
+
+            @Override
+            public int compare(Segment segment1, Segment segment2) {
+                return segment1.mNumber < segment2.mNumber ? -1 : (segment1.mNumber == segment2.mNumber ? 0 : 1);
+            }
+        });
+        boolean segmentDeleted = false;
+        for (Segment segment : segments) {
+            loadSegment(journal, segment, acknowledgedIds);
+
+            /* Delete segments that were fully acknowledged before the process died. */
+            if (segment.mAcknowledgedIds.size() == segment.mRecords.size()) {
+
+                //noinspection ResultOfMethodCallIgnored we can't do anything about it.
+                segment.mFile.delete();
+                segmentDeleted = true;
+            } else {
+                journal.mSegments.add(segment);
+                mTotalSize += segment.mSize;
+            }
+        }
+        if (segmentDeleted) {
+            compactCursor(journal);
+        }
+        mGroups.put(group, journal);
+    }
+
+
+    private void loadSegment(GroupJournal journal, Segment segment, Set<Long> acknowledgedIds) throws IOException {
+        long fileLength = segment.mFile.length();
+        long offset = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.mFile)));
+        try {
+            while (offset + LENGTH_SIZE <= fileLength) {
+                int length = input.readInt();
+                if (length <= 0 || offset + LENGTH_SIZE + length > fileLength) {
+                    break;
+                }
+                byte[] content = new byte[length];
+                input.readFully(content);
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(content));
+                long id = header.readLong();
+                int priority = header.readByte();
+                readNullableString(header);
+                readNullableString(header);
+                String targetKey = readNullableString(header);
+                Record record = new Record(id, priority, targetKey, segment, offset + LENGTH_SIZE, length);
+                segment.mRecords.add(record);
+                if (acknowledgedIds.contains(id)) {
+                    segment.mAcknowledgedIds.add(id);
+                } else {
+                    journal.add(record);
+                }
+                mNextId = Math.max(mNextId, id + 1);
+                offset += LENGTH_SIZE + length;
+            }
+        } catch (IOException e) {
+            AppCenterLog.warn(LOG_TAG, "Journal segment " + segment.mFile + " is corrupted after " + offset + " bytes.", e);
+        } finally {
+            input.close();
+        }
+
+        /* Drop a record that was partially written when the process died. */
+        if (offset < fileLength) {
+            AppCenterLog.warn(LOG_TAG, "Truncating journal segment " + segment.mFile + " to " + offset + " bytes.");
+            RandomAccessFile file = new RandomAccessFile(segment.mFile, "rw");
+            try {
+                file.setLength(offset);
+            } finally {
+                file.close();
+            }
+        }
+        segment.mSize = offset;
+    }
+
+    @NonNull
+    private GroupJournal getOrCreateGroup(String group) throws PersistenceException {
+        GroupJournal journal = mGroups.get(group);
+        if (journal == null) {
+            File directory;
+            try {
+                directory = new File(mDirectory, URLEncoder.encode(group, "UTF-8"));
+            } catch (IOException e) {
+                throw new PersistenceException("Cannot create journal directory for " + group, e);
+            }
+
+            //noinspection ResultOfMethodCallIgnored we handle errors when writing the first segment.
+            directory.mkdirs();
+            journal = new GroupJournal(group, directory);
+            mGroups.put(group, journal);
+        }
+        return journal;
+    }
+
+    /**
+     * Appends a log at the end of the journal of a group, evicting older segments if storage is full.
+     * The record is not synced to disk by this method.
+     *
+     * @param journal  journal of the group.
+     * @param log      log to append.
+     * @param priority persistence priority.
+     * @return log identifier.
+     * @throws PersistenceException if the log cannot be stored.
+     */
+    private long append(GroupJournal journal, Log log, int priority) throws PersistenceException {
+        long id = mNextId;
+        byte[] bytes;
+        String targetKey;
+        try {
+            String payload = getLogSerializer().serializeLog(log);
+            String targetToken;
+            if (log instanceof CommonSchemaLog) {
+                targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetKey = PartAUtils.getTargetKey(targetToken);
+                targetToken = CryptoUtils.getInstance(mContext).encryptCached(targetToken);
+            } else {
+                targetKey = null;
+                targetToken = null;
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(LENGTH_SIZE + payload.length() + 64);
+            DataOutputStream output = new DataOutputStream(buffer);
+
+            /* Length is patched once known. */
+            output.writeInt(0);
+            output.writeLong(id);
+            output.writeByte(priority);
+            writeNullableString(output, log.getType());
+            writeNullableString(output, targetToken);
+            writeNullableString(output, targetKey);
+            output.write(payload.getBytes("UTF-8"));
+            bytes = buffer.toByteArray();
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Cannot encode log.", e);
+        }
+        int length = bytes.length - LENGTH_SIZE;
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+        if (bytes.length > mMaxSize) {
+            throw new PersistenceException("Log is too large (" + bytes.length + " bytes) to store in journal. " +
+                    "Current maximum journal size is " + mMaxSize + " bytes.");
+        }
+        while (mTotalSize + bytes.length > mMaxSize) {
+            evict(priority);
+        }
+        Segment segment;
+        try {
+            segment = getWritableSegment(journal, id, bytes.length);
+            journal.mWriter.write(bytes);
+        } catch (IOException e) {
+
+            /* Next records go to a new segment so that they are not behind a corrupted record. */
+            closeWriter(journal);
+            throw new PersistenceException("Failed to write log to the journal.", e);
+        }
+        Record record = new Record(id, priority, targetKey, segment, segment.mSize + LENGTH_SIZE, length);
+        segment.mRecords.add(record);
+        segment.mSize += bytes.length;
+        mTotalSize += bytes.length;
+        journal.add(record);
+        journal.mUnsyncedCount++;
+        mNextId++;
+        return id;
+    }
+
+    /**
+     * Gets the segment to append a record to, creating a new one if the current segment is full.
+     */
+    private Segment getWritableSegment(GroupJournal journal, long id, int recordSize) throws IOException {
+        Segment segment = journal.mWriterSegment;
+        long segmentMaxSize = Math.min(SEGMENT_MAX_SIZE, mMaxSize / SEGMENT_MIN_COUNT);
+        if (segment != null && (segment.mSize == 0 || segment.mSize + recordSize <= segmentMaxSize)) {
+            return segment;
+        }
+        sync(journal);
+        closeWriter(journal);
+        segment = new Segment(new File(journal.mDirectory, id + SEGMENT_FILE_EXTENSION), id);
+        journal.mWriter = new FileOutputStream(segment.mFile, true);
+        journal.mWriterSegment = segment;
+        journal.mSegments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Deletes the oldest segment, across all groups, that contains no log of a higher priority than the new log.
+     */
+    private void evict(int priority) throws PersistenceException {
+        GroupJournal oldestJournal = null;
+        Segment oldestSegment = null;
+        for (GroupJournal journal : mGroups.values()) {
+            for (Segment segment : journal.mSegments) {
+                if (segment.getMaxPriority() <= priority) {
+                    if (oldestSegment == null || segment.mNumber < oldestSegment.mNumber) {
+                        oldestJournal = journal;
+                        oldestSegment = segment;
+                    }
+                    break;
+                }
+            }
+        }
+        if (oldestSegment == null) {
+            throw new PersistenceException("Storage is full and no log can be deleted to store a log with priority " + priority + ".");
+        }
+        int count = removeSegment(oldestJournal, oldestSegment);
+        compactCursor(oldestJournal);
+        mEvictedLogCount.addAndGet(count);
+        AppCenterLog.warn(LOG_TAG, "Storage is full, deleted " + count + " oldest log(s) of " + oldestJournal.mName + " from the journal.");
+    }
+
+    /**
+     * Marks logs as deleted in the cursor file and deletes the segments that have no log left.
+     */
+    private void acknowledge(GroupJournal journal, Collection<Long> ids) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(ids.size() * 8);
+        DataOutputStream output = new DataOutputStream(buffer);
+        List<Segment> completedSegments = new ArrayList<>();
+        try {
+            for (Long id : ids) {
+
+                /* Logs may have been evicted while being sent. */
+                Record record = journal.mRecordsById.get(id);
+                if (record == null) {
+                    continue;
+                }
+                journal.remove(record);
+                Segment segment = record.mSegment;
+                segment.mAcknowledgedIds.add(id);
+                output.writeLong(id);
+                if (segment.mAcknowledgedIds.size() == segment.mRecords.size()) {
+                    completedSegments.add(segment);
+                }
+            }
+            if (buffer.size() > 0) {
+                if (journal.mCursorWriter == null) {
+                    journal.mCursorWriter = new FileOutputStream(new File(journal.mDirectory, CURSOR_FILE), true);
+                }
+                journal.mCursorWriter.write(buffer.toByteArray());
+                journal.mCursorWriter.getFD().sync();
+            }
+        } catch (IOException e) {
+
+            /* Logs will be sent again after restart. */
+            AppCenterLog.error(LOG_TAG, "Failed to write journal cursor of " + journal.mName + ".", e);
+            closeQuietly(journal.mCursorWriter);
+            journal.mCursorWriter = null;
+        }
+        if (!completedSegments.isEmpty()) {
+            for (Segment segment : completedSegments) {
+                removeSegment(journal, segment);
+            }
+            compactCursor(journal);
+        }
+    }
+
+    /**
+     * Deletes a segment file and its logs from memory.
+     *
+     * @return number of logs deleted that were not yet acknowledged.
+     */
+    private int removeSegment(GroupJournal journal, Segment segment) {
+        int count = 0;
+        for (Record record : segment.mRecords) {
+            if (!segment.mAcknowledgedIds.contains(record.mId)) {
+                journal.remove(record);
+                count++;
+            }
+        }
+        if (segment == journal.mWriterSegment) {
+            closeWriter(journal);
+        }
+        journal.mSegments.remove(segment);
+        mTotalSize -= segment.mSize;
+
+        //noinspection ResultOfMethodCallIgnored we can't do anything about it.
+        segment.mFile.delete();
+        return count;
+    }
+
+    /**
+     * Rewrites the cursor file with only identifiers of logs in remaining segments.
+     */
+    private void compactCursor(GroupJournal journal) {
+        closeQuietly(journal.mCursorWriter);
+        journal.mCursorWriter = null;
+        File cursorFile = new File(journal.mDirectory, CURSOR_FILE);
+        File temporaryFile = new File(journal.mDirectory, CURSOR_FILE + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temporaryFile);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+                for (Segment segment : journal.mSegments) {
+                    for (Long id : segment.mAcknowledgedIds) {
+                        output.writeLong(id);
+                    }
+                }
+                output.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!temporaryFile.renameTo(cursorFile)) {
+                throw new IOException("Cannot rename " + temporaryFile);
+            }
+        } catch (IOException e) {
+
+            /* The previous cursor file is still valid, it only contains extra identifiers. */
+            AppCenterLog.error(LOG_TAG, "Failed to compact journal cursor of " + journal.mName + ".", e);
+        }
+    }
+
+    private void sync(GroupJournal journal) {
+        if (journal.mWriter != null && journal.mUnsyncedCount > 0) {
+            try {
+                journal.mWriter.getFD().sync();
+                journal.mUnsyncedCount = 0;
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to sync journal of " + journal.mName + ".", e);
+            }
+        }
+    }
+
+    private void closeWriter(GroupJournal journal) {
+        closeQuietly(journal.mWriter);
+        journal.mWriter = null;
+        journal.mWriterSegment = null;
+        journal.mUnsyncedCount = 0;
+    }
+
+    /**
+     * Journal of a group.
+     */
+    private static class GroupJournal {
+
+        /**
+         * Group name.
+         */
+        final String mName;
+
+        /**
+         * Group directory.
+         */
+        final File mDirectory;
+
+        /**
+         * Segments from oldest to newest.
+         */
+        final List<Segment> mSegments = new ArrayList<>();
+
+        /**
+         * Logs not yet deleted, in sending order.
+         */
+        final TreeSet<Record> mRecords = new TreeSet<>(SEND_ORDER);
+
+        /**
+         * Logs not yet deleted by identifier.
+         */
+        final Map<Long, Record> mRecordsById = new HashMap<>();
+
+        /**
+         * Segment being written, null until the next log is stored.
+         */
+        Segment mWriterSegment;
+
+        /**
+         * Stream to the segment being written.
+         */
+        FileOutputStream mWriter;
+
+        /**
+         * Number of records written since last sync.
+         */
+        int mUnsyncedCount;
+
+        /**
+         * Stream to the cursor file.
+         */
+        FileOutputStream mCursorWriter;
+
+        GroupJournal(String name, File directory) {
+            mName = name;
+            mDirectory = directory;
+        }
+
+        void add(Record record) {
+            mRecords.add(record);
+            mRecordsById.put(record.mId, record);
+        }
+
+        void remove(Record record) {
+            mRecords.remove(record);
+            mRecordsById.remove(record.mId);
+        }
+    }
+
+    /**
+     * Segment file.
+     */
+    private static class Segment {
+
+        /**
+         * File.
+         */
+        final File mFile;
+
+        /**
+         * Identifier of the first log in the segment, used to order segments.
+         */
+        final long mNumber;
+
+        /**
+         * All records in the file.
+         */
+        final List<Record> mRecords = new ArrayList<>();
+
+        /**
+         * Identifiers of deleted logs.
+         */
+        final Set<Long> mAcknowledgedIds = new HashSet<>();
+
+        /**
+         * File size.
+         */
+        long mSize;
+
+        Segment(File file, long number) {
+            mFile = file;
+            mNumber = number;
+        }
+
+        /**
+         * Gets the highest priority of logs not yet deleted.
+         */
+        int getMaxPriority() {
+            int priority = 0;
+            for (Record record : mRecords) {
+                if (!mAcknowledgedIds.contains(record.mId)) {
+                    priority = Math.max(priority, record.mPriority);
+                }
+            }
+            return priority;
+        }
+    }
+
+    /**
+     * Location and metadata of a log in a segment.
+     */
+    private static class Record {
+
+        final long mId;
+
+        final int mPriority;
+
+        final String mTargetKey;
+
+        final Segment mSegment;
+
+        /**
+         * Offset of the record content in the segment file, after its length.
+         */
+        final long mOffset;
+
+        final int mLength;
+
+        Record(long id, int priority, String targetKey, Segment segment, long offset, int length) {
+            mId = id;
+            mPriority = priority;
+            mTargetKey = targetKey;
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+}
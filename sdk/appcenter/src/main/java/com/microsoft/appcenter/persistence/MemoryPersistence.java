@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence keeping logs in memory, in a priority queue per group.
+ * <p>
+ * Logs are lost when the process dies unless a spill persistence is set: logs are then moved to
+ * it when the memory limit is reached and on {@link #flush()}, and logs found in it are sent first.
+ */
+public class MemoryPersistence extends Persistence {
+
+    /**
+     * Order in which logs are sent: higher priority first then oldest first.
+     */
+    private static final Comparator<Entry> SEND_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1.mPriority != entry2.mPriority) {
+                return entry1.mPriority > entry2.mPriority ? -1 : 1;
+            }
+            return entry1.mId < entry2.mId ? -1 : (entry1.mId == entry2.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Order in which logs are discarded when memory is full: lower priority first then oldest first.
+     */
+    private static final Comparator<Entry> EVICTION_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            if (entry1.mPriority != entry2.mPriority) {
+                return entry1.mPriority < entry2.mPriority ? -1 : 1;
+            }
+            return entry1.mId < entry2.mId ? -1 : (entry1.mId == entry2.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Pending log groups. Key is a UUID and value is a list of log identifiers.
+     */
+    @VisibleForTesting
+    final Map<String, List<Long>> mPendingIdentifiersGroups = new HashMap<>();
+
+    /**
+     * Pending logs across all groups.
+     */
+    @VisibleForTesting
+    final Set<Long> mPendingIdentifiers = new HashSet<>();
+
+    /**
+     * JSON payloads of pending log groups not yet taken by the channel.
+     * Key is the same as {@link #mPendingIdentifiersGroups}.
+     */
+    private final Map<String, List<String>> mPendingSerializedLogsGroups = new HashMap<>();
+
+    /**
+     * Highest persistence priority of pending log groups.
+     * Key is the same as {@link #mPendingIdentifiersGroups}.
+     */
+    private final Map<String, Integer> mPendingPrioritiesGroups = new HashMap<>();
+
+    /**
+     * Logs by group, in sending order.
+     */
+    private final Map<String, TreeSet<Entry>> mGroups = new HashMap<>();
+
+    /**
+     * Logs by identifier.
+     */
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Logs of all groups in eviction order.
+     */
+    private final TreeSet<Entry> mEvictionQueue = new TreeSet<>(EVICTION_ORDER);
+
+    /**
+     * Groups for which the spill persistence is known to have no log.
+     */
+    private final Set<String> mDrainedGroups = new HashSet<>();
+
+    /**
+     * Persistence receiving logs that don't fit in memory, can be null.
+     */
+    private final Persistence mSpillPersistence;
+
+    /**
+     * Maximum size of logs in memory.
+     */
+    private final long mMaxMemorySize;
+
+    /**
+     * Maximum storage size, only used without spill persistence.
+     */
+    private long mMaxStorageSize = Long.MAX_VALUE;
+
+    /**
+     * Size of logs in memory.
+     */
+    private long mSize;
+
+    /**
+     * Next log identifier.
+     */
+    private long mNextId = 1;
+
+    /**
+     * Number of logs deleted since this instance was created because memory was full.
+     */
+    private final AtomicLong mEvictedLogCount = new AtomicLong();
+
+    /**
+     * Initializes the persistence.
+     *
+     * @param maxMemorySizeInBytes maximum size of logs kept in memory, serialized to JSON.
+     * @param spillPersistence     persistence receiving logs that don't fit in memory or when the application goes to background,
+     *                             null to discard the oldest logs instead.
+     */
+    public MemoryPersistence(long maxMemorySizeInBytes, @Nullable Persistence spillPersistence) {
+        mMaxMemorySize = maxMemorySizeInBytes;
+        mSpillPersistence = spillPersistence;
+    }
+
+    @Override
+    public void setLogSerializer(@NonNull LogSerializer logSerializer) {
+        super.setLogSerializer(logSerializer);
+        if (mSpillPersistence != null) {
+            mSpillPersistence.setLogSerializer(logSerializer);
+        }
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (mSpillPersistence != null) {
+            return mSpillPersistence.setMaxStorageSize(maxStorageSizeInBytes);
+        }
+        if (maxStorageSizeInBytes <= 0) {
+            return false;
+        }
+        mMaxStorageSize = maxStorageSizeInBytes;
+        return true;
+    }
+
+    @Override
+    public void setGroupStorageQuota(@NonNull String group, float quota) {
+        if (mSpillPersistence != null) {
+            mSpillPersistence.setGroupStorageQuota(group, quota);
+        }
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        int priority = Flags.getPersistenceFlag(flags, false);
+        String payload;
+        long size;
+        try {
+            payload = getLogSerializer().serializeLog(log);
+            size = payload.getBytes("UTF-8").length;
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new PersistenceException("Cannot encode log.", e);
+        }
+        long maxSize = getMaxSize();
+        if (size > maxSize) {
+            if (mSpillPersistence != null) {
+                mDrainedGroups.remove(group);
+                mSpillPersistence.putLog(log, group, priority);
+
+                /* Identifiers of the spill persistence may collide with ours, use a single sequence. */
+                return mNextId++;
+            }
+            throw new PersistenceException("Log is too large (" + size + " bytes) to store in memory. " +
+                    "Current maximum size is " + maxSize + " bytes.");
+        }
+        if (mSize + size > maxSize) {
+            makeRoom(size, priority, maxSize);
+        }
+        String targetKey = null;
+        if (log instanceof CommonSchemaLog) {
+            targetKey = PartAUtils.getTargetKey(log.getTransmissionTargetTokens().iterator().next());
+        }
+        Entry entry = new Entry(mNextId++, group, priority, log, payload, targetKey, size);
+        TreeSet<Entry> entries = mGroups.get(group);
+        if (entries == null) {
+            entries = new TreeSet<>(SEND_ORDER);
+            mGroups.put(group, entries);
+        }
+        entries.add(entry);
+        mEntries.put(entry.mId, entry);
+        mEvictionQueue.add(entry);
+        mSize += size;
+        return entry.mId;
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String batchId) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from memory for " + group + " with " + batchId);
+        List<Long> ids = mPendingIdentifiersGroups.remove(group + batchId);
+        mPendingSerializedLogsGroups.remove(group + batchId);
+        mPendingPrioritiesGroups.remove(group + batchId);
+        if (ids != null) {
+            for (Long id : ids) {
+                mPendingIdentifiers.remove(id);
+
+                /* Logs may have been evicted while being sent. */
+                Entry entry = mEntries.get(id);
+                if (entry != null) {
+                    remove(entry);
+                }
+            }
+        } else if (mSpillPersistence != null) {
+            mSpillPersistence.deleteLogs(group, batchId);
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from memory for " + group);
+        TreeSet<Entry> entries = mGroups.remove(group);
+        if (entries != null) {
+            for (Entry entry : entries) {
+                mEntries.remove(entry.mId);
+                mEvictionQueue.remove(entry);
+                mSize -= entry.mSize;
+            }
+        }
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> pendingGroup = iterator.next();
+            if (pendingGroup.getKey().startsWith(group)) {
+                mPendingIdentifiers.removeAll(pendingGroup.getValue());
+                mPendingSerializedLogsGroups.remove(pendingGroup.getKey());
+                mPendingPrioritiesGroups.remove(pendingGroup.getKey());
+                iterator.remove();
+            }
+        }
+        if (mSpillPersistence != null) {
+            mSpillPersistence.deleteLogs(group);
+            mDrainedGroups.add(group);
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        TreeSet<Entry> entries = mGroups.get(group);
+        int count = entries == null ? 0 : entries.size();
+        if (mSpillPersistence != null && !mDrainedGroups.contains(group)) {
+            count += mSpillPersistence.countLogs(group);
+        }
+        return count;
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs) {
+
+        /* Logs in the spill persistence are older, send them first. */
+        if (mSpillPersistence != null && !mDrainedGroups.contains(group)) {
+            String batchId = mSpillPersistence.getLogs(group, pausedTargetKeys, limit, outLogs);
+            if (batchId != null) {
+                return batchId;
+            }
+            if (mSpillPersistence.countLogs(group) == 0) {
+                mDrainedGroups.add(group);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from memory for " + group);
+        TreeSet<Entry> entries = mGroups.get(group);
+        List<Long> ids = new ArrayList<>();
+        List<String> payloads = new ArrayList<>();
+        int priority = Flags.NORMAL;
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (ids.size() >= limit) {
+                    break;
+                }
+                if (mPendingIdentifiers.contains(entry.mId) || (entry.mTargetKey != null && pausedTargetKeys.contains(entry.mTargetKey))) {
+                    continue;
+                }
+                ids.add(entry.mId);
+                payloads.add(entry.mPayload);
+                outLogs.add(entry.mLog);
+                priority = Math.max(priority, entry.mPriority);
+            }
+        }
+        if (ids.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in memory at the moment");
+            return null;
+        }
+        String batchId = UUID.randomUUID().toString();
+        AppCenterLog.debug(LOG_TAG, "Returning " + ids.size() + " log(s) with an ID, " + batchId);
+        mPendingIdentifiers.addAll(ids);
+        mPendingIdentifiersGroups.put(group + batchId, ids);
+        mPendingSerializedLogsGroups.put(group + batchId, payloads);
+        mPendingPrioritiesGroups.put(group + batchId, priority);
+        return batchId;
+    }
+
+    @Override
+    @Nullable
+    public List<String> takeSerializedLogs(@NonNull String group, @NonNull String batchId) {
+        List<String> serializedLogs = mPendingSerializedLogsGroups.remove(group + batchId);
+        if (serializedLogs == null && mSpillPersistence != null) {
+            serializedLogs = mSpillPersistence.takeSerializedLogs(group, batchId);
+        }
+        return serializedLogs;
+    }
+
+    @Override
+    public int getBatchPriority(@NonNull String group, @NonNull String batchId) {
+        Integer priority = mPendingPrioritiesGroups.get(group + batchId);
+        if (priority == null) {
+            return mSpillPersistence != null ? mSpillPersistence.getBatchPriority(group, batchId) : Flags.NORMAL;
+        }
+        return priority;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        mPendingIdentifiers.clear();
+        mPendingIdentifiersGroups.clear();
+        mPendingSerializedLogsGroups.clear();
+        mPendingPrioritiesGroups.clear();
+        if (mSpillPersistence != null) {
+            mSpillPersistence.clearPendingLogState();
+        }
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public long getEvictedLogCount() {
+        long count = mEvictedLogCount.get();
+        if (mSpillPersistence != null) {
+            count += mSpillPersistence.getEvictedLogCount();
+        }
+        return count;
+    }
+
+    /**
+     * Moves logs that are not being sent to the spill persistence, if any.
+     */
+    @Override
+    public void flush() {
+        if (mSpillPersistence != null) {
+            spill();
+            mSpillPersistence.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mSpillPersistence != null) {
+            spill();
+            mSpillPersistence.close();
+        }
+    }
+
+    private long getMaxSize() {
+        return mSpillPersistence != null ? mMaxMemorySize : Math.min(mMaxMemorySize, mMaxStorageSize);
+    }
+
+    /**
+     * Spills logs or discards lower priority logs until a new log fits in memory.
+     */
+    private void makeRoom(long size, int priority, long maxSize) throws PersistenceException {
+        if (mSpillPersistence != null) {
+            spill();
+        }
+        int count = 0;
+        while (mSize + size > maxSize) {
+            if (mEvictionQueue.isEmpty() || mEvictionQueue.first().mPriority > priority) {
+                throw new PersistenceException("Memory is full and no log can be discarded to store a log with priority " + priority + ".");
+            }
+            Entry entry = mEvictionQueue.first();
+            mPendingIdentifiers.remove(entry.mId);
+            remove(entry);
+            count++;
+        }
+        if (count > 0) {
+            long total = mEvictedLogCount.addAndGet(count);
+            AppCenterLog.warn(LOG_TAG, "Memory is full, discarded " + count + " log(s), " + total + " in total.");
+        }
+    }
+
+    /**
+     * Moves logs that are not being sent to the spill persistence, one call per group and priority.
+     */
+    private void spill() {
+        int count = 0;
+        for (Map.Entry<String, TreeSet<Entry>> group : new HashMap<>(mGroups).entrySet()) {
+            Map<Integer, List<Entry>> entriesByPriority = new HashMap<>();
+            for (Entry entry : group.getValue()) {
+                if (!mPendingIdentifiers.contains(entry.mId)) {
+                    List<Entry> entries = entriesByPriority.get(entry.mPriority);
+                    if (entries == null) {
+                        entries = new ArrayList<>();
+                        entriesByPriority.put(entry.mPriority, entries);
+                    }
+                    entries.add(entry);
+                }
+            }
+            for (Map.Entry<Integer, List<Entry>> priorityEntries : entriesByPriority.entrySet()) {
+                List<Entry> entries = priorityEntries.getValue();
+                List<Log> logs = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    logs.add(entry.mLog);
+                }
+                long[] ids;
+                try {
+                    ids = mSpillPersistence.putLogs(logs, group.getKey(), priorityEntries.getKey());
+                } catch (PersistenceException e) {
+
+                    /* Keep logs in memory. */
+                    AppCenterLog.error(LOG_TAG, "Failed to spill logs of " + group.getKey() + ".", e);
+                    continue;
+                }
+                for (int i = 0; i < ids.length; i++) {
+                    if (ids[i] >= 0) {
+                        remove(entries.get(i));
+                        count++;
+                    }
+                }
+                mDrainedGroups.remove(group.getKey());
+            }
+        }
+        if (count > 0) {
+            AppCenterLog.debug(LOG_TAG, "Spilled " + count + " log(s) from memory.");
+        }
+    }
+
+    private void remove(Entry entry) {
+        TreeSet<Entry> entries = mGroups.get(entry.mGroup);
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                mGroups.remove(entry.mGroup);
+            }
+        }
+        mEntries.remove(entry.mId);
+        mEvictionQueue.remove(entry);
+        mSize -= entry.mSize;
+    }
+
+    /**
+     * Log in memory.
+     */
+    private static class Entry {
+
+        final long mId;
+
+        final String mGroup;
+
+        final int mPriority;
+
+        final Log mLog;
+
+        /**
+         * Log serialized when stored, reused when sending.
+         */
+        final String mPayload;
+
+        final String mTargetKey;
+
+        /**
+         * Payload size in bytes.
+         */
+        final long mSize;
+
+        Entry(long id, String group, int priority, Log log, String payload, String targetKey, long size) {
+            mId = id;
+            mGroup = group;
+            mPriority = priority;
+            mLog = log;
+            mPayload = payload;
+            mTargetKey = targetKey;
+            mSize = size;
+        }
+    }
+}
@@ -12,12 +12,15 @@ import android.support.annotation.Nullable;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.Closeable;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
 /**
  * Abstract class for Persistence service.
  */
@@ -40,6 +43,30 @@ public abstract class Persistence implements Closeable {
     public abstract long putLog(@NonNull Log log, @NonNull String group,
                                 @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException;
 
+    /**
+     * Writes several logs to the storage with the given {@code group}.
+     * Implementations should commit all the logs at once, the default implementation writes them one by one.
+     *
+     * @param logs  The logs to be placed in the storage.
+     * @param group The group of the storage for the logs.
+     * @param flags The persistence flags.
+     * @return Log identifiers from persistence after saving, in the same order as {@code logs}, -1 for each log that could not be saved.
+     * @throws PersistenceException Exception will be thrown if Persistence cannot write to the storage at all.
+     */
+    public long[] putLogs(@NonNull List<Log> logs, @NonNull String group,
+                          @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        long[] ids = new long[logs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                ids[i] = putLog(logs.get(i), group, flags);
+            } catch (PersistenceException e) {
+                AppCenterLog.error(LOG_TAG, "Error persisting log", e);
+                ids[i] = -1;
+            }
+        }
+        return ids;
+    }
+
     /**
      * Deletes a log with the give ID from the {@code group}.
      *
@@ -75,6 +102,33 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs);
 
+    /**
+     * Gets the JSON payloads, as they were persisted, of the logs returned by
+     * {@link #getLogs(String, Collection, int, List)} for the given batch.
+     * This allows sending a batch without serializing its logs again.
+     * Payloads are in the same order as the logs and can be retrieved only once per batch.
+     *
+     * @param group   The group of the storage for logs.
+     * @param batchId The ID for a set of logs.
+     * @return The serialized logs, or {@code null} if not available.
+     */
+    @Nullable
+    public List<String> takeSerializedLogs(@NonNull String group, @NonNull String batchId) {
+        return null;
+    }
+
+    /**
+     * Gets the highest persistence priority of the logs returned by
+     * {@link #getLogs(String, Collection, int, List)} for the given batch.
+     *
+     * @param group   The group of the storage for logs.
+     * @param batchId The ID for a set of logs.
+     * @return The persistence priority, {@link Flags#NORMAL} if the batch is unknown.
+     */
+    public int getBatchPriority(@NonNull String group, @NonNull String batchId) {
+        return Flags.NORMAL;
+    }
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List)}}.
      */
@@ -109,6 +163,33 @@ public abstract class Persistence implements Closeable {
      */
     public abstract boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Set a storage quota for the logs of a group. When the quota is reached, the oldest logs of the
+     * group are deleted to store new ones. Logs of a group with a quota are deleted to make room
+     * for logs of other groups only if those have a higher priority.
+     *
+     * @param group The group of the storage for logs.
+     * @param quota Maximum size of the logs of the group as a fraction of the maximum storage size, 0 to remove the quota.
+     */
+    public void setGroupStorageQuota(@NonNull String group, float quota) {
+    }
+
+    /**
+     * Gets the number of logs discarded to make room for new logs because storage or a group quota was full.
+     *
+     * @return The number of discarded logs since this instance was created.
+     */
+    public long getEvictedLogCount() {
+        return 0;
+    }
+
+    /**
+     * Writes logs that are buffered in memory to durable storage.
+     * Called when the application goes to background, the default implementation does nothing.
+     */
+    public void flush() {
+    }
+
     /**
      * Thrown when {@link Persistence} cannot write a log to the storage.
      */
@@ -118,7 +199,7 @@ public abstract class Persistence implements Closeable {
         }
 
         @SuppressWarnings("SameParameterValue")
-        PersistenceException(String detailMessage) {
+        public PersistenceException(String detailMessage) {
             super(detailMessage);
         }
     }
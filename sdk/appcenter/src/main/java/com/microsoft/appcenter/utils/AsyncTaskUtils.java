@@ -9,6 +9,7 @@ import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
 /**
@@ -35,12 +36,30 @@ public class AsyncTaskUtils {
      */
     @NonNull
     @SafeVarargs
-    @SuppressWarnings("unchecked")
     public static <Params, Type extends AsyncTask<Params, ?, ?>> Type execute(String logTag, @NonNull Type asyncTask, Params... params) {
+        return execute(logTag, AsyncTask.THREAD_POOL_EXECUTOR, asyncTask, params);
+    }
+
+    /**
+     * Execute a task using the specified executor and fall back
+     * using {@link AsyncTask#SERIAL_EXECUTOR} in case of {@link RejectedExecutionException}.
+     *
+     * @param logTag    log tag to use for logging a warning about the fallback.
+     * @param executor  executor to use.
+     * @param asyncTask task to execute.
+     * @param params    parameters.
+     * @param <Params>  parameters type.
+     * @param <Type>    task type.
+     * @return the task.
+     */
+    @NonNull
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public static <Params, Type extends AsyncTask<Params, ?, ?>> Type execute(String logTag, @NonNull Executor executor, @NonNull Type asyncTask, Params... params) {
         try {
-            return (Type) asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params);
+            return (Type) asyncTask.executeOnExecutor(executor, params);
         } catch (RejectedExecutionException e) {
-            AppCenterLog.warn(logTag, "THREAD_POOL_EXECUTOR saturated, fall back on SERIAL_EXECUTOR which has an unbounded queue", e);
+            AppCenterLog.warn(logTag, "Executor saturated, fall back on SERIAL_EXECUTOR which has an unbounded queue", e);
             return (Type) asyncTask.executeOnExecutor(AsyncTask.SERIAL_EXECUTOR, params);
         }
     }
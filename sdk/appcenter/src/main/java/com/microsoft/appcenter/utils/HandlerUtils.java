@@ -6,6 +6,7 @@
 package com.microsoft.appcenter.utils;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.support.annotation.VisibleForTesting;
 
@@ -20,6 +21,17 @@ public class HandlerUtils {
     @VisibleForTesting
     static final Handler sMainHandler = new Handler(Looper.getMainLooper());
 
+    /**
+     * Name of the thread sending logs.
+     */
+    @VisibleForTesting
+    static final String SENDER_THREAD_NAME = "AppCenter.Sender";
+
+    /**
+     * Handler of the thread sending logs and scheduling retries, created on first use.
+     */
+    private static Handler sSenderHandler;
+
     /**
      * Runs the specified runnable on the UI thread.
      *
@@ -41,4 +53,33 @@ public class HandlerUtils {
     public static Handler getMainHandler() {
         return sMainHandler;
     }
+
+    /**
+     * Runs the specified runnable on the thread sending logs.
+     * This keeps network calls, their callbacks and their retry timers off the UI thread.
+     *
+     * @param runnable the runnable to run on the sender thread.
+     */
+    public static void runOnSenderThread(Runnable runnable) {
+        Handler senderHandler = getSenderHandler();
+        if (Thread.currentThread() == senderHandler.getLooper().getThread()) {
+            runnable.run();
+        } else {
+            senderHandler.post(runnable);
+        }
+    }
+
+    /**
+     * Sender thread handler, the thread is started on first call.
+     *
+     * @return sender thread handler.
+     */
+    public static synchronized Handler getSenderHandler() {
+        if (sSenderHandler == null) {
+            HandlerThread senderThread = new HandlerThread(SENDER_THREAD_NAME);
+            senderThread.start();
+            sSenderHandler = new Handler(senderThread.getLooper());
+        }
+        return sSenderHandler;
+    }
 }
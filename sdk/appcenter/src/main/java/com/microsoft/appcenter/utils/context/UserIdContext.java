@@ -37,12 +37,12 @@ public class UserIdContext {
     /**
      * Unique instance.
      */
-    private static UserIdContext sInstance;
+    private static volatile UserIdContext sInstance;
 
     /**
-     * Current user identifier.
+     * Current user identifier, read without locking as it's read for every event.
      */
-    private String mUserId;
+    private volatile String mUserId;
 
     /**
      * Global listeners collection.
@@ -54,11 +54,17 @@ public class UserIdContext {
      *
      * @return unique instance.
      */
-    public static synchronized UserIdContext getInstance() {
-        if (sInstance == null) {
-            sInstance = new UserIdContext();
+    public static UserIdContext getInstance() {
+        UserIdContext instance = sInstance;
+        if (instance == null) {
+            synchronized (UserIdContext.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = sInstance = new UserIdContext();
+                }
+            }
         }
-        return sInstance;
+        return instance;
     }
 
     @VisibleForTesting
@@ -144,7 +150,7 @@ public class UserIdContext {
      *
      * @return user identifier.
      */
-    public synchronized String getUserId() {
+    public String getUserId() {
         return mUserId;
     }
 
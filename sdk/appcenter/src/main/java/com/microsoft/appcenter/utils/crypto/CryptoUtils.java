@@ -23,6 +23,7 @@ import java.security.Provider;
 import java.security.cert.CertificateExpiredException;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -46,6 +47,12 @@ public class CryptoUtils {
      */
     private static final String M_KEY_EXPIRED_EXCEPTION = "android.security.keystore.KeyExpiredException";
 
+    /**
+     * Maximum number of values kept by {@link #encryptCached(String)} and {@link #decryptCached(String)}.
+     */
+    @VisibleForTesting
+    static final int MAX_CACHED_VALUES = 16;
+
     @VisibleForTesting
     static final ICryptoFactory DEFAULT_CRYPTO_FACTORY = new ICryptoFactory() {
 
@@ -145,6 +152,16 @@ public class CryptoUtils {
      */
     private final KeyStore mKeyStore;
 
+    /**
+     * Encrypted values by original value.
+     */
+    private final Map<String, String> mEncryptedValues = new ValueCache<>();
+
+    /**
+     * Decrypted values by encrypted value.
+     */
+    private final Map<String, DecryptedData> mDecryptedValues = new ValueCache<>();
+
     /**
      * Init.
      *
@@ -199,7 +216,7 @@ public class CryptoUtils {
 
         /* Add the fake handler at the end of the list no matter what. */
         CryptoNoOpHandler cryptoNoOpHandler = new CryptoNoOpHandler();
-        mCryptoHandlers.put(cryptoNoOpHandler.getAlgorithm(), new CryptoHandlerEntry(0, cryptoNoOpHandler));
+        mCryptoHandlers.put(cryptoNoOpHandler.getAlgorithm(), new CryptoHandlerEntry(0, cryptoNoOpHandler, cryptoFactory));
     }
 
     /**
@@ -245,7 +262,7 @@ public class CryptoUtils {
 
         /* Register the handler. */
         AppCenterLog.debug(LOG_TAG, "Using " + alias);
-        mCryptoHandlers.put(handler.getAlgorithm(), new CryptoHandlerEntry(index, handler));
+        mCryptoHandlers.put(handler.getAlgorithm(), new CryptoHandlerEntry(index, handler, mCryptoFactory));
     }
 
     @NonNull
@@ -254,20 +271,20 @@ public class CryptoUtils {
     }
 
     /**
-     * Get key store entry for the corresponding handler.
+     * Get key store entry for the corresponding handler, loading it only the first time.
      */
     @Nullable
-    private KeyStore.Entry getKeyStoreEntry(@NonNull CryptoHandlerEntry handlerEntry) throws Exception {
-        return getKeyStoreEntry(handlerEntry.mCryptoHandler, handlerEntry.mAliasIndex);
-    }
-
-    @Nullable
-    private KeyStore.Entry getKeyStoreEntry(CryptoHandler cryptoHandler, int aliasIndex) throws Exception {
+    private KeyStore.Entry getKeyStoreEntry(@NonNull CryptoHandlerEntry handlerEntry, int aliasIndex) throws Exception {
         if (mKeyStore == null) {
             return null;
         }
-        String alias = getAlias(cryptoHandler, aliasIndex);
-        return mKeyStore.getEntry(alias, null);
+        KeyStore.Entry keyStoreEntry = handlerEntry.mKeyStoreEntries[aliasIndex];
+        if (keyStoreEntry == null) {
+            String alias = getAlias(handlerEntry.mCryptoHandler, aliasIndex);
+            keyStoreEntry = mKeyStore.getEntry(alias, null);
+            handlerEntry.mKeyStoreEntries[aliasIndex] = keyStoreEntry;
+        }
+        return keyStoreEntry;
     }
 
     /**
@@ -277,7 +294,7 @@ public class CryptoUtils {
      * @return encrypted data, or original data on internal failure or if null.
      */
     @Nullable
-    public String encrypt(@Nullable String data) {
+    public synchronized String encrypt(@Nullable String data) {
         if (data == null) {
             return null;
         }
@@ -289,8 +306,8 @@ public class CryptoUtils {
             try {
 
                 /* Attempt encryption. */
-                KeyStore.Entry keyStoreEntry = getKeyStoreEntry(handlerEntry);
-                byte[] encryptedBytes = handler.encrypt(mCryptoFactory, mApiLevel, keyStoreEntry, data.getBytes(CHARSET));
+                KeyStore.Entry keyStoreEntry = getKeyStoreEntry(handlerEntry, handlerEntry.mAliasIndex);
+                byte[] encryptedBytes = handler.encrypt(handlerEntry.mCryptoFactory, mApiLevel, keyStoreEntry, data.getBytes(CHARSET));
                 String encryptedString = Base64.encodeToString(encryptedBytes, Base64.DEFAULT);
 
                 /*
@@ -317,8 +334,16 @@ public class CryptoUtils {
 
                     /* Generate new key. */
                     AppCenterLog.debug(LOG_TAG, "Creating alias: " + newAlias);
+                    handlerEntry.mKeyStoreEntries[handlerEntry.mAliasIndex] = null;
                     handler.generateKey(mCryptoFactory, newAlias, mContext);
 
+                    /*
+                     * Cached values were encrypted with the expired key that is deleted on next rotation.
+                     * Decrypted values are cleared as well as they may have been produced by the deleted key.
+                     */
+                    mEncryptedValues.clear();
+                    mDecryptedValues.clear();
+
                     /* And encrypt using that new key. */
                     return encrypt(data);
                 } else {
@@ -340,7 +365,7 @@ public class CryptoUtils {
      * @return decrypted data.
      */
     @NonNull
-    public DecryptedData decrypt(@Nullable String data) {
+    public synchronized DecryptedData decrypt(@Nullable String data) {
 
         /* Handle null for convenience. */
         if (data == null) {
@@ -360,12 +385,12 @@ public class CryptoUtils {
 
         /* Try the current alias. */
         try {
-            return getDecryptedData(cryptoHandler, handlerEntry.mAliasIndex, dataSplit[1]);
+            return getDecryptedData(handlerEntry, handlerEntry.mAliasIndex, dataSplit[1]);
         } catch (Exception e) {
 
             /* Try the expired alias. */
             try {
-                return getDecryptedData(cryptoHandler, handlerEntry.mAliasIndex ^ 1, dataSplit[1]);
+                return getDecryptedData(handlerEntry, handlerEntry.mAliasIndex ^ 1, dataSplit[1]);
             } catch (Exception e2) {
 
                 /* Return data as is on failure. We cannot log details for security. */
@@ -376,9 +401,10 @@ public class CryptoUtils {
     }
 
     @NonNull
-    private DecryptedData getDecryptedData(CryptoHandler cryptoHandler, int aliasIndex, String data) throws Exception {
-        KeyStore.Entry keyStoreEntry = getKeyStoreEntry(cryptoHandler, aliasIndex);
-        byte[] decryptedBytes = cryptoHandler.decrypt(mCryptoFactory, mApiLevel, keyStoreEntry, Base64.decode(data, Base64.DEFAULT));
+    private DecryptedData getDecryptedData(CryptoHandlerEntry handlerEntry, int aliasIndex, String data) throws Exception {
+        CryptoHandler cryptoHandler = handlerEntry.mCryptoHandler;
+        KeyStore.Entry keyStoreEntry = getKeyStoreEntry(handlerEntry, aliasIndex);
+        byte[] decryptedBytes = cryptoHandler.decrypt(handlerEntry.mCryptoFactory, mApiLevel, keyStoreEntry, Base64.decode(data, Base64.DEFAULT));
         String decryptedString = new String(decryptedBytes, CHARSET);
         String newEncryptedData = null;
         if (cryptoHandler != mCryptoHandlers.values().iterator().next().mCryptoHandler) {
@@ -387,6 +413,54 @@ public class CryptoUtils {
         return new DecryptedData(decryptedString, newEncryptedData);
     }
 
+    /**
+     * Encrypt data that is encrypted again and again, like target tokens.
+     * Each distinct value is encrypted only once, the same encrypted value is returned until the key rotates.
+     *
+     * @param data data to encrypt.
+     * @return encrypted data, or original data on internal failure or if null.
+     */
+    @Nullable
+    public synchronized String encryptCached(@Nullable String data) {
+        if (data == null) {
+            return null;
+        }
+        String encryptedData = mEncryptedValues.get(data);
+        if (encryptedData == null) {
+            encryptedData = encrypt(data);
+
+            /* Don't cache a failure, it's most likely transient. */
+            if (!data.equals(encryptedData)) {
+                mEncryptedValues.put(data, encryptedData);
+            }
+        }
+        return encryptedData;
+    }
+
+    /**
+     * Decrypt data that is decrypted again and again, like target tokens.
+     * Each distinct value is decrypted only once until the key rotates.
+     *
+     * @param data data to decrypt.
+     * @return decrypted data.
+     */
+    @NonNull
+    public synchronized DecryptedData decryptCached(@Nullable String data) {
+        if (data == null) {
+            return new DecryptedData(null, null);
+        }
+        DecryptedData decryptedData = mDecryptedValues.get(data);
+        if (decryptedData == null) {
+            decryptedData = decrypt(data);
+
+            /* Don't cache a failure, it's most likely transient. */
+            if (!data.equals(decryptedData.getDecryptedData())) {
+                mDecryptedValues.put(data, decryptedData);
+            }
+        }
+        return decryptedData;
+    }
+
     /**
      * Crypto factory.
      */
@@ -479,6 +553,16 @@ public class CryptoUtils {
          */
         final CryptoHandler mCryptoHandler;
 
+        /**
+         * Crypto factory reusing the ciphers of this handler.
+         */
+        final ICryptoFactory mCryptoFactory;
+
+        /**
+         * Key store entries by alias index, loaded on first use.
+         */
+        final KeyStore.Entry[] mKeyStoreEntries = new KeyStore.Entry[2];
+
         /**
          * Current keystore alias index, 0 or 1.
          */
@@ -487,9 +571,62 @@ public class CryptoUtils {
         /**
          * Init.
          */
-        CryptoHandlerEntry(int aliasIndex, CryptoHandler cryptoHandler) {
+        CryptoHandlerEntry(int aliasIndex, CryptoHandler cryptoHandler, ICryptoFactory cryptoFactory) {
             mAliasIndex = aliasIndex;
             mCryptoHandler = cryptoHandler;
+            mCryptoFactory = new CipherCachingCryptoFactory(cryptoFactory);
+        }
+    }
+
+    /**
+     * Crypto factory that creates each cipher only once, ciphers are initialized again before every operation.
+     * Not thread safe, used only while holding the {@link CryptoUtils} lock.
+     */
+    private static class CipherCachingCryptoFactory implements ICryptoFactory {
+
+        /**
+         * Decorated factory.
+         */
+        private final ICryptoFactory mCryptoFactory;
+
+        /**
+         * Ciphers by transformation and provider.
+         */
+        private final Map<String, ICipher> mCiphers = new HashMap<>();
+
+        CipherCachingCryptoFactory(ICryptoFactory cryptoFactory) {
+            mCryptoFactory = cryptoFactory;
+        }
+
+        @Override
+        public IKeyGenerator getKeyGenerator(String algorithm, String provider) throws Exception {
+            return mCryptoFactory.getKeyGenerator(algorithm, provider);
+        }
+
+        @Override
+        public ICipher getCipher(String algorithm, String provider) throws Exception {
+            String key = algorithm + ALIAS_SEPARATOR + provider;
+            ICipher cipher = mCiphers.get(key);
+            if (cipher == null) {
+                cipher = mCryptoFactory.getCipher(algorithm, provider);
+                mCiphers.put(key, cipher);
+            }
+            return cipher;
+        }
+    }
+
+    /**
+     * Map keeping only the most recently used values.
+     */
+    private static class ValueCache<V> extends LinkedHashMap<String, V> {
+
+        ValueCache() {
+            super(MAX_CACHED_VALUES, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > MAX_CACHED_VALUES;
         }
     }
 
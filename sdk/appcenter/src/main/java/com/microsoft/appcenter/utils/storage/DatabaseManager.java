@@ -13,6 +13,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -21,7 +22,13 @@ import android.support.annotation.VisibleForTesting;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
 
@@ -40,6 +47,16 @@ public class DatabaseManager implements Closeable {
      */
     public static final String[] SELECT_PRIMARY_KEY = {PRIMARY_KEY};
 
+    /**
+     * When storage is full, old entries are deleted until the database uses this ratio of its maximum size.
+     */
+    public static final double LOW_WATERMARK_RATIO = 0.9;
+
+    /**
+     * Estimated size of the row header and primary key, added to the length of column values.
+     */
+    private static final int ROW_OVERHEAD_SIZE = 16;
+
     /**
      * Application context instance.
      */
@@ -65,11 +82,27 @@ public class DatabaseManager implements Closeable {
      */
     private final Listener mListener;
 
+    /**
+     * Compiled statements by SQL, used only when {@link #mCompiledStatementsEnabled} is true.
+     * Statements are only valid for {@link #mStatementsDatabase}.
+     */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
     /**
      * SQLite helper instance.
      */
     private SQLiteOpenHelper mSQLiteOpenHelper;
 
+    /**
+     * True to reuse compiled statements for frequent insert, delete by identifier and count queries.
+     */
+    private boolean mCompiledStatementsEnabled;
+
+    /**
+     * Database instance the compiled statements belong to.
+     */
+    private SQLiteDatabase mStatementsDatabase;
+
     /**
      * Initializes the table in the database.
      *
@@ -171,8 +204,9 @@ public class DatabaseManager implements Closeable {
     }
 
     /**
-     * Stores the entry to the table. If the table is full, the oldest logs are discarded until the
-     * new one can fit. If the log is larger than the max table size, database will be cleared and
+     * Stores the entry to the table. If the table is full, the oldest logs are discarded in bulk
+     * until storage usage goes down to {@link #LOW_WATERMARK_RATIO} of the maximum size and the new
+     * one can fit. If the log is larger than the max table size, database will be cleared and
      * the log is not inserted.
      *
      * @param values         The entry to be stored.
@@ -180,29 +214,34 @@ public class DatabaseManager implements Closeable {
      * @return If a log was inserted, the database identifier. Otherwise -1.
      */
     public long put(@NonNull ContentValues values, @NonNull String priorityColumn) {
+        return put(values, priorityColumn, null, null, null);
+    }
+
+    /**
+     * Stores the entry to the table. If the table is full, the oldest logs matching the eviction
+     * selection are discarded in bulk until storage usage goes down to {@link #LOW_WATERMARK_RATIO}
+     * of the maximum size and the new one can fit.
+     *
+     * @param values            The entry to be stored.
+     * @param priorityColumn    When storage full and deleting data, use this column to determine which entries to delete first.
+     * @param evictionSelection Optional condition (WHERE clause without WHERE itself) on entries that can be deleted when storage is full.
+     * @param evictedColumn     Optional column (or expression) to report for each deleted entry.
+     * @param evictedEntries    Optional map filled with the value of the evicted column by identifier of each deleted entry.
+     * @return If a log was inserted, the database identifier. Otherwise -1.
+     */
+    public long put(@NonNull ContentValues values, @NonNull String priorityColumn, @Nullable String evictionSelection, @Nullable String evictedColumn, @Nullable Map<Long, String> evictedEntries) {
         Long id = null;
-        Cursor cursor = null;
         try {
             while (id == null) {
                 try {
 
                     /* Insert data. */
-                    id = getDatabase().insertOrThrow(mDefaultTable, null, values);
+                    id = insertOrThrow(getDatabase(), values);
                 } catch (SQLiteFullException e) {
 
-                    /* Delete the oldest log. */
-                    AppCenterLog.debug(LOG_TAG, "Storage is full, trying to delete the oldest log that has the lowest priority which is lower or equal priority than the new log");
-                    if (cursor == null) {
-                        String priority = values.getAsString(priorityColumn);
-                        SQLiteQueryBuilder queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
-                        queryBuilder.appendWhere(priorityColumn + " <= ?");
-                        cursor = getCursor(queryBuilder, SELECT_PRIMARY_KEY, new String[]{priority}, priorityColumn + " , " + PRIMARY_KEY);
-                    }
-                    if (cursor.moveToNext()) {
-                        long deletedId = cursor.getLong(0);
-                        delete(deletedId);
-                        AppCenterLog.debug(LOG_TAG, "Deleted log id=" + deletedId);
-                    } else {
+                    /* Delete the oldest logs. */
+                    AppCenterLog.debug(LOG_TAG, "Storage is full, trying to delete the oldest logs that have the lowest priority which is lower or equal priority than the new log");
+                    if (evict(values, priorityColumn, evictionSelection, evictedColumn, evictedEntries) == 0) {
                         throw e;
                     }
                 }
@@ -211,13 +250,234 @@ public class DatabaseManager implements Closeable {
             id = -1L;
             AppCenterLog.error(LOG_TAG, String.format("Failed to insert values (%s) to database %s.", values.toString(), mDatabase), e);
         }
-        if (cursor != null) {
+        return id;
+    }
+
+    /**
+     * Inserts an entry in the default table, using a compiled statement if enabled.
+     *
+     * @param db     The database.
+     * @param values The entry to be stored.
+     * @return The database identifier, or -1 if nothing was inserted.
+     * @throws RuntimeException If an error occurs.
+     */
+    private long insertOrThrow(@NonNull SQLiteDatabase db, @NonNull ContentValues values) throws RuntimeException {
+        if (!mCompiledStatementsEnabled) {
+            return db.insertOrThrow(mDefaultTable, null, values);
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO `").append(mDefaultTable).append("` (");
+        StringBuilder parameters = new StringBuilder();
+        List<Object> arguments = new ArrayList<>(values.size());
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            sql.append('`').append(entry.getKey()).append("`,");
+            parameters.append("?,");
+            arguments.add(entry.getValue());
+        }
+        sql.setCharAt(sql.length() - 1, ')');
+        parameters.setCharAt(parameters.length() - 1, ')');
+        sql.append(" VALUES (").append(parameters);
+        synchronized (mStatements) {
+            SQLiteStatement statement = getStatement(db, sql.toString());
+            statement.clearBindings();
+            for (int i = 0; i < arguments.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, arguments.get(i));
+            }
+            return statement.executeInsert();
+        }
+    }
+
+    /**
+     * Gets a compiled statement, compiling it only the first time for a given database.
+     * Must be called while holding the lock on {@link #mStatements}.
+     *
+     * @param db  The database.
+     * @param sql The SQL statement.
+     * @return The compiled statement.
+     * @throws RuntimeException If an error occurs.
+     */
+    private SQLiteStatement getStatement(@NonNull SQLiteDatabase db, @NonNull String sql) throws RuntimeException {
+        if (db != mStatementsDatabase) {
+            closeStatements();
+            mStatementsDatabase = db;
+        }
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Closes all compiled statements. Must be called while holding the lock on {@link #mStatements}.
+     */
+    private void closeStatements() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            try {
+                statement.close();
+            } catch (RuntimeException ignore) {
+            }
+        }
+        mStatements.clear();
+        mStatementsDatabase = null;
+    }
+
+    /**
+     * Deletes, in a single statement, the oldest entries with the lowest priority (lower or equal
+     * to the priority of the new entry) until storage usage is down to the low watermark and
+     * at least the size of the new entry is freed.
+     *
+     * @param values            The entry that could not be stored.
+     * @param priorityColumn    Column to determine which entries to delete first.
+     * @param evictionSelection Optional condition on entries that can be deleted.
+     * @param evictedColumn     Optional column (or expression) to report for each deleted entry.
+     * @param evictedEntries    Optional map filled with the value of the evicted column by identifier of each deleted entry.
+     * @return The number of entries deleted.
+     * @throws RuntimeException If an error occurs.
+     */
+    private int evict(@NonNull ContentValues values, @NonNull String priorityColumn, @Nullable String evictionSelection, @Nullable String evictedColumn, @Nullable Map<Long, String> evictedEntries) throws RuntimeException {
+
+        /* Compute how much to free: pages in the free list are reused before the file grows. */
+        SQLiteDatabase db = getDatabase();
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePageCount = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        long usedSize = (pageCount - freePageCount) * db.getPageSize();
+        long sizeToFree = Math.max(usedSize - (long) (db.getMaximumSize() * LOW_WATERMARK_RATIO), getSize(values));
+
+        /* Select the entries to delete, estimating the size of each row from its column values. */
+        Map<Long, String> evicted = new LinkedHashMap<>();
+        long freedSize = 0;
+        SQLiteQueryBuilder queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
+        queryBuilder.appendWhere(priorityColumn + " <= ?");
+        if (evictionSelection != null) {
+            queryBuilder.appendWhere(" AND ");
+            queryBuilder.appendWhere(evictionSelection);
+        }
+        String[] columns = {PRIMARY_KEY, getRowSizeExpression(), evictedColumn != null ? evictedColumn : "NULL"};
+        Cursor cursor = getCursor(queryBuilder, columns, new String[]{values.getAsString(priorityColumn)}, priorityColumn + " , " + PRIMARY_KEY);
+        try {
+            while ((evicted.isEmpty() || freedSize < sizeToFree) && cursor.moveToNext()) {
+                evicted.put(cursor.getLong(0), cursor.getString(2));
+                freedSize += cursor.getLong(1);
+            }
+        } finally {
             try {
                 cursor.close();
             } catch (RuntimeException ignore) {
             }
         }
-        return id;
+        if (evicted.isEmpty()) {
+            return 0;
+        }
+
+        int deletedCount = db.delete(mDefaultTable, getIdsSelection(evicted.keySet()), null);
+        AppCenterLog.debug(LOG_TAG, "Deleted " + evicted.size() + " logs to free " + freedSize + " bytes, ids=" + evicted.keySet());
+        if (evictedEntries != null) {
+            evictedEntries.putAll(evicted);
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Gets a condition matching the given identifiers. Identifiers are inlined as they are numbers,
+     * that avoids the limit on the number of SQL variables.
+     *
+     * @param ids The database identifiers, must not be empty.
+     * @return WHERE clause without WHERE itself.
+     */
+    private static String getIdsSelection(@NonNull Collection<Long> ids) {
+        StringBuilder selection = new StringBuilder(PRIMARY_KEY).append(" IN (");
+        for (Long id : ids) {
+            selection.append(id).append(',');
+        }
+        selection.setCharAt(selection.length() - 1, ')');
+        return selection.toString();
+    }
+
+    /**
+     * Gets the SQL expression estimating the size of a row from the schema columns.
+     *
+     * @return SQL expression.
+     */
+    private String getRowSizeExpression() {
+        StringBuilder expression = new StringBuilder();
+        for (String key : mSchema.keySet()) {
+            expression.append("IFNULL(LENGTH(`").append(key).append("`), 0) + ");
+        }
+        return expression.append(ROW_OVERHEAD_SIZE).toString();
+    }
+
+    /**
+     * Estimates the size of an entry once stored, consistent with {@link #getRowSizeExpression()}.
+     *
+     * @param values The entry.
+     * @return The estimated size in bytes.
+     */
+    private static long getSize(@NonNull ContentValues values) {
+        long size = ROW_OVERHEAD_SIZE;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            Object value = entry.getValue();
+            if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value != null) {
+                size += String.valueOf(value).length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Stores the entries to the table in a single transaction to commit them all at once.
+     * If the table is full or the transaction fails, the transaction is rolled back and entries
+     * are inserted one by one with {@link #put(ContentValues, String, String, String, Map)} to apply
+     * the same eviction policy.
+     *
+     * @param valuesList        The entries to be stored.
+     * @param priorityColumn    When storage full and deleting data, use this column to determine which entries to delete first.
+     * @param evictionSelection Optional condition (WHERE clause without WHERE itself) on entries that can be deleted when storage is full.
+     * @param evictedColumn     Optional column (or expression) to report for each deleted entry.
+     * @param evictedEntries    Optional map filled with the value of the evicted column by identifier of each deleted entry.
+     * @return The database identifiers in the same order as the entries, -1 for each entry that could not be inserted.
+     */
+    public long[] put(@NonNull List<ContentValues> valuesList, @NonNull String priorityColumn, @Nullable String evictionSelection, @Nullable String evictedColumn, @Nullable Map<Long, String> evictedEntries) {
+        long[] ids = new long[valuesList.size()];
+        try {
+            SQLiteDatabase db = getDatabase();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = insertOrThrow(db, valuesList.get(i));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return ids;
+        } catch (SQLiteFullException e) {
+            AppCenterLog.debug(LOG_TAG, "Storage is full, inserting values one by one to delete old logs.");
+        } catch (RuntimeException e) {
+            AppCenterLog.warn(LOG_TAG, "Failed to insert values in a single transaction, inserting values one by one.", e);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = put(valuesList.get(i), priorityColumn, evictionSelection, evictedColumn, evictedEntries);
+        }
+        return ids;
+    }
+
+    /**
+     * Stores the entry to the given table, without deleting any existing entry when storage is full.
+     *
+     * @param table  The table to perform the operation on.
+     * @param values The entry to be stored.
+     * @return If a log was inserted, the database identifier. Otherwise -1.
+     */
+    public long insert(@NonNull String table, @NonNull ContentValues values) {
+        try {
+            return getDatabase().insertOrThrow(table, null, values);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to insert values (%s) to table %s of database %s.", values.toString(), table, mDatabase), e);
+            return -1;
+        }
     }
 
     /**
@@ -226,7 +486,56 @@ public class DatabaseManager implements Closeable {
      * @param id The database identifier.
      */
     public void delete(@IntRange(from = 0) long id) {
-        delete(mDefaultTable, PRIMARY_KEY, id);
+        if (!mCompiledStatementsEnabled) {
+            delete(mDefaultTable, PRIMARY_KEY, id);
+            return;
+        }
+        try {
+            SQLiteDatabase db = getDatabase();
+            synchronized (mStatements) {
+                SQLiteStatement statement = getStatement(db, "DELETE FROM `" + mDefaultTable + "` WHERE " + PRIMARY_KEY + " = ?");
+                statement.bindLong(1, id);
+                statement.executeUpdateDelete();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete value with %s=%s from database %s.", PRIMARY_KEY, id, mDatabase), e);
+        }
+    }
+
+    /**
+     * Deletes the entries by their identifiers from the database in a single statement.
+     *
+     * @param ids The database identifiers.
+     * @return the number of rows affected.
+     */
+    public int delete(@NonNull Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String selection = getIdsSelection(ids);
+        try {
+            return getDatabase().delete(mDefaultTable, selection, null);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" from database %s.", selection, mDatabase), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes the entries of a table that match a condition.
+     *
+     * @param table         The table to perform the operation on.
+     * @param selection     The condition (WHERE clause without WHERE itself).
+     * @param selectionArgs The optional values bound to the condition.
+     * @return the number of rows affected.
+     */
+    public int delete(@NonNull String table, @NonNull String selection, @Nullable String[] selectionArgs) {
+        try {
+            return getDatabase().delete(table, selection, selectionArgs);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" and values=\"%s\" from table %s of database %s.", selection, Arrays.toString(selectionArgs), table, mDatabase), e);
+            return 0;
+        }
     }
 
     /**
@@ -274,6 +583,9 @@ public class DatabaseManager implements Closeable {
      */
     @Override
     public void close() {
+        synchronized (mStatements) {
+            closeStatements();
+        }
         try {
 
             /* Close opened database (do not force open). */
@@ -297,6 +609,30 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Gets the count of records in the table matching a condition.
+     *
+     * @param selection     The condition (WHERE clause without WHERE itself).
+     * @param selectionArgs The array of values for selection.
+     * @return The number of matching records in the table, or <code>-1</code> if operation failed.
+     */
+    public long getRowCount(@NonNull String selection, @NonNull String[] selectionArgs) {
+        try {
+            SQLiteDatabase db = getDatabase();
+            if (!mCompiledStatementsEnabled) {
+                return DatabaseUtils.queryNumEntries(db, mDefaultTable, selection, selectionArgs);
+            }
+            synchronized (mStatements) {
+                SQLiteStatement statement = getStatement(db, "SELECT COUNT(*) FROM `" + mDefaultTable + "` WHERE " + selection);
+                statement.bindAllArgsAsStrings(selectionArgs);
+                return statement.simpleQueryForLong();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get row count of database.", e);
+            return -1;
+        }
+    }
+
     /**
      * Gets a cursor for all rows in the table, all rows where key matches value if specified.
      *
@@ -311,6 +647,21 @@ public class DatabaseManager implements Closeable {
         return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder);
     }
 
+    /**
+     * Gets a cursor for at most {@code limit} rows in the table, all rows where key matches value if specified.
+     *
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself), null for no limit.
+     * @return A cursor for all rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
+        return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder, limit);
+    }
+
     /**
      * Gets a cursor for all rows in the table, all rows where key matches value if specified.
      *
@@ -322,12 +673,28 @@ public class DatabaseManager implements Closeable {
      * @return A cursor for all rows that matches the given criteria.
      * @throws RuntimeException If an error occurs.
      */
-    Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
+    public Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
+        return getCursor(table, queryBuilder, columns, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Gets a cursor for at most {@code limit} rows in the table, all rows where key matches value if specified.
+     *
+     * @param table         The table to perform the operation on.
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself), null for no limit.
+     * @return A cursor for all rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
         if (queryBuilder == null) {
             queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
         }
         queryBuilder.setTables(table);
-        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder);
+        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder, limit);
     }
 
     /**
@@ -418,6 +785,36 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Enables or disables write-ahead logging, so that queries can run while another thread is
+     * writing to the database.
+     *
+     * @param enabled true to enable write-ahead logging, false to use the rollback journal.
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        try {
+            mSQLiteOpenHelper.setWriteAheadLoggingEnabled(enabled);
+            AppCenterLog.info(LOG_TAG, "Write-ahead logging " + (enabled ? "enabled" : "disabled") + " for database " + mDatabase + ".");
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Could not change journal mode of database " + mDatabase + ".", e);
+        }
+    }
+
+    /**
+     * Enables or disables reusing compiled statements for inserts, deletes by identifier and counts,
+     * instead of compiling the SQL of every query.
+     *
+     * @param enabled true to reuse compiled statements.
+     */
+    public void setCompiledStatementsEnabled(boolean enabled) {
+        synchronized (mStatements) {
+            mCompiledStatementsEnabled = enabled;
+            if (!enabled) {
+                closeStatements();
+            }
+        }
+    }
+
     /**
      * Database listener.
      */
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyFloat;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
@@ -215,7 +216,7 @@ public class AbstractAppCenterServiceTest {
         Channel channel = mock(Channel.class);
         mService.onStarted(mock(Context.class), channel, "", null, true);
         verify(channel).removeGroup(mService.getGroupName());
-        verify(channel).addGroup(mService.getGroupName(), mService.getTriggerCount(), mService.getTriggerInterval(), mService.getTriggerMaxParallelRequests(), null, mService.getChannelListener());
+        verify(channel).addGroup(mService.getGroupName(), mService.getTriggerCount(), mService.getTriggerInterval(), mService.getTriggerMaxParallelRequests(), mService.getStorageQuota(), null, mService.getChannelListener());
         verifyNoMoreInteractions(channel);
         assertSame(channel, mService.mChannel);
 
@@ -230,14 +231,14 @@ public class AbstractAppCenterServiceTest {
         Channel channel = mock(Channel.class);
         mService.onStarted(mock(Context.class), channel, "", null, true);
         verify(channel).removeGroup(mService.getGroupName());
-        verify(channel).addGroup(eq(mService.getGroupName()), anyInt(), anyLong(), anyInt(), isNull(Ingestion.class), any(Channel.GroupListener.class));
+        verify(channel).addGroup(eq(mService.getGroupName()), anyInt(), anyLong(), anyInt(), anyFloat(), isNull(Ingestion.class), any(Channel.GroupListener.class));
         mService.setInstanceEnabled(false);
         verify(channel, times(2)).removeGroup(mService.getGroupName());
         verify(channel).clear(mService.getGroupName());
         verifyNoMoreInteractions(channel);
         assertSame(channel, mService.mChannel);
         mService.setInstanceEnabled(true);
-        verify(channel, times(2)).addGroup(mService.getGroupName(), mService.getTriggerCount(), mService.getTriggerInterval(), mService.getTriggerMaxParallelRequests(), null, mService.getChannelListener());
+        verify(channel, times(2)).addGroup(mService.getGroupName(), mService.getTriggerCount(), mService.getTriggerInterval(), mService.getTriggerMaxParallelRequests(), mService.getStorageQuota(), null, mService.getChannelListener());
         verifyNoMoreInteractions(channel);
     }
 
@@ -9,6 +9,7 @@ import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyLong;
@@ -106,4 +107,17 @@ public class AppCenterStorageTest extends AbstractAppCenterTest {
         /* And result returned to developer. */
         assertTrue(future.get());
     }
+
+    @Test
+    public void getEvictedLogCount() {
+
+        /* Not configured. */
+        assertEquals(Long.valueOf(0), AppCenter.getEvictedLogCount().get());
+        verify(mChannel, never()).getEvictedLogCount();
+
+        /* Count is read from the channel once configured. */
+        when(mChannel.getEvictedLogCount()).thenReturn(3L);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        assertEquals(Long.valueOf(3), AppCenter.getEvictedLogCount().get());
+    }
 }
@@ -9,13 +9,23 @@ import android.content.Context;
 import android.os.Handler;
 
 import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.http.CompressionCodec;
+import com.microsoft.appcenter.http.DeflateCodec;
 import com.microsoft.appcenter.http.HttpClient;
 import com.microsoft.appcenter.http.HttpClientRetryer;
+import com.microsoft.appcenter.http.HttpTransport;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 
 import org.junit.After;
 import org.junit.Test;
 
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
@@ -47,8 +57,96 @@ public class DependencyConfigurationTest extends AbstractAppCenterTest {
         verifyNew(DefaultChannel.class).withArguments(any(Context.class), eq(DUMMY_APP_SECRET), any(LogSerializer.class), eq(mockHttpClient), any(Handler.class));
     }
 
+    @Test
+    public void httpCompressionCodec() {
+        assertNull(DependencyConfiguration.getHttpCompressionCodec());
+        CompressionCodec compressionCodec = new DeflateCodec();
+        DependencyConfiguration.setHttpCompressionCodec(compressionCodec);
+        assertSame(compressionCodec, DependencyConfiguration.getHttpCompressionCodec());
+    }
+
+    @Test
+    public void httpExecutor() {
+        assertNull(DependencyConfiguration.getHttpExecutor());
+        Executor executor = mock(Executor.class);
+        DependencyConfiguration.setHttpExecutor(executor);
+        assertSame(executor, DependencyConfiguration.getHttpExecutor());
+    }
+
+    @Test
+    public void httpTransport() {
+        assertNull(DependencyConfiguration.getHttpTransport());
+        HttpTransport httpTransport = mock(HttpTransport.class);
+        DependencyConfiguration.setHttpTransport(httpTransport);
+        assertSame(httpTransport, DependencyConfiguration.getHttpTransport());
+    }
+
+    @Test
+    public void databaseWriteAheadLoggingIsOptIn() {
+        assertFalse(DependencyConfiguration.isDatabaseWriteAheadLoggingEnabled());
+        DependencyConfiguration.setDatabaseWriteAheadLoggingEnabled(true);
+        assertTrue(DependencyConfiguration.isDatabaseWriteAheadLoggingEnabled());
+    }
+
+    @Test
+    public void databaseCompressionIsOptIn() {
+        assertFalse(DependencyConfiguration.isDatabaseCompressionEnabled());
+        DependencyConfiguration.setDatabaseCompressionEnabled(true);
+        assertTrue(DependencyConfiguration.isDatabaseCompressionEnabled());
+    }
+
+    @Test
+    public void databaseBinaryEncodingIsOptIn() {
+        assertFalse(DependencyConfiguration.isDatabaseBinaryEncodingEnabled());
+        DependencyConfiguration.setDatabaseBinaryEncodingEnabled(true);
+        assertTrue(DependencyConfiguration.isDatabaseBinaryEncodingEnabled());
+    }
+
+    @Test
+    public void databaseParallelEncodingIsOptIn() {
+        assertFalse(DependencyConfiguration.isDatabaseParallelEncodingEnabled());
+        DependencyConfiguration.setDatabaseParallelEncodingEnabled(true);
+        assertTrue(DependencyConfiguration.isDatabaseParallelEncodingEnabled());
+    }
+
+    @Test
+    public void groupCommitIsOptIn() {
+        assertEquals(0, DependencyConfiguration.getGroupCommitMaxLogs());
+        DependencyConfiguration.setGroupCommit(50, 200);
+        assertEquals(50, DependencyConfiguration.getGroupCommitMaxLogs());
+        assertEquals(200, DependencyConfiguration.getGroupCommitInterval());
+    }
+
+    @Test
+    public void journalPersistenceIsOptIn() {
+        assertFalse(DependencyConfiguration.isJournalPersistenceEnabled());
+        DependencyConfiguration.setJournalPersistenceEnabled(true);
+        assertTrue(DependencyConfiguration.isJournalPersistenceEnabled());
+    }
+
+    @Test
+    public void memoryPersistenceIsOptIn() {
+        assertEquals(0, DependencyConfiguration.getMemoryPersistenceMaxSize());
+        assertFalse(DependencyConfiguration.isMemoryPersistenceSpillEnabled());
+        DependencyConfiguration.setMemoryPersistenceMaxSize(1024);
+        DependencyConfiguration.setMemoryPersistenceSpillEnabled(true);
+        assertEquals(1024, DependencyConfiguration.getMemoryPersistenceMaxSize());
+        assertTrue(DependencyConfiguration.isMemoryPersistenceSpillEnabled());
+    }
+
     @After
     public void resetDependencies() {
         DependencyConfiguration.setHttpClient(null);
+        DependencyConfiguration.setGroupCommit(0, 0);
+        DependencyConfiguration.setDatabaseWriteAheadLoggingEnabled(false);
+        DependencyConfiguration.setDatabaseCompressionEnabled(false);
+        DependencyConfiguration.setDatabaseBinaryEncodingEnabled(false);
+        DependencyConfiguration.setDatabaseParallelEncodingEnabled(false);
+        DependencyConfiguration.setJournalPersistenceEnabled(false);
+        DependencyConfiguration.setMemoryPersistenceMaxSize(0);
+        DependencyConfiguration.setMemoryPersistenceSpillEnabled(false);
+        DependencyConfiguration.setHttpCompressionCodec(null);
+        DependencyConfiguration.setHttpExecutor(null);
+        DependencyConfiguration.setHttpTransport(null);
     }
 }
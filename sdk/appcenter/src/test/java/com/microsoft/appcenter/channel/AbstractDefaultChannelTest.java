@@ -128,7 +128,7 @@ public class AbstractDefaultChannelTest {
                 return null;
             }
         }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
+        HandlerUtils.runOnSenderThread(any(Runnable.class));
         mockStatic(SharedPreferencesManager.class);
         mockStatic(System.class);
     }
@@ -46,7 +46,7 @@ public class ChannelLogDecorateTest {
         mockStatic(IdHelper.class);
         String mockToken = UUID.randomUUID().toString();
         Channel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mock(Persistence.class), mock(Ingestion.class), mock(Handler.class));
-        channel.addGroup("", 0, 0, 0, null, null);
+        channel.addGroup("", 0, 0, 0, 0, null, null);
 
         /* Test a log that should be decorated. */
         for (int i = 0; i < 3; i++) {
@@ -5,6 +5,7 @@
 
 package com.microsoft.appcenter.channel;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 
 import com.microsoft.appcenter.Flags;
@@ -14,11 +15,13 @@ import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.persistence.Persistence;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
 import java.util.List;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -50,7 +53,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
     @Test
     public void logCallbacks() {
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mock(Persistence.class), mock(AppCenterIngestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         Channel.Listener listener = spy(new AbstractChannelListener());
         channel.addListener(listener);
 
@@ -78,7 +81,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
     public void clear() {
         Persistence mockPersistence = mock(Persistence.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Clear an existing channel. */
         channel.clear(TEST_GROUP);
@@ -97,16 +100,21 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any()))
                 .then(getGetLogsAnswer(1));
-        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        Context context = mock(Context.class);
+        DefaultChannel channel = new DefaultChannel(context, UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
+        ArgumentCaptor<ComponentCallbacks2> callbacks = ArgumentCaptor.forClass(ComponentCallbacks2.class);
+        verify(context).registerComponentCallbacks(callbacks.capture());
 
         /* Enqueuing 1 event. */
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
         verify(mockListener).onBeforeSending(notNull(Log.class));
 
+        /* Shutdown stops listening to memory trimming. */
         channel.shutdown();
         verify(mockListener, never()).onFailure(any(Log.class), any(Exception.class));
         verify(mockPersistence).clearPendingLogState();
+        verify(context).unregisterComponentCallbacks(callbacks.getValue());
     }
 
     @Test
@@ -115,7 +123,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         /* Given a mock channel. */
         Persistence persistence = mock(Persistence.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Given we add mock listeners. */
         Channel.Listener listener1 = mock(Channel.Listener.class);
@@ -187,7 +195,7 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         channel.addListener(listener);
         Channel.GroupListener groupListener = mock(Channel.GroupListener.class);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, groupListener);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, groupListener);
         verify(listener).onGroupAdded(TEST_GROUP, groupListener, BATCH_TIME_INTERVAL);
         channel.pauseGroup(TEST_GROUP, null);
         verify(listener).onPaused(TEST_GROUP, null);
@@ -212,5 +220,37 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         /* Just checks calls are forwarded to the low level database layer. */
         assertTrue(channel.setMaxStorageSize(20480));
         assertFalse(channel.setMaxStorageSize(2));
+        when(persistence.getEvictedLogCount()).thenReturn(5L);
+        assertEquals(5L, channel.getEvictedLogCount());
+    }
+
+    @Test
+    public void addGroupForwardsStorageQuota() {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+
+        /* Just checks quotas are forwarded to the persistence layer, including the lack of quota. */
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0.5f, null, null);
+        verify(persistence).setGroupStorageQuota(TEST_GROUP, 0.5f);
+        channel.addGroup(TEST_GROUP + "2", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        verify(persistence).setGroupStorageQuota(TEST_GROUP + "2", 0f);
+    }
+
+    @Test
+    public void flushPersistenceWhenApplicationGoesToBackground() {
+        Context context = mock(Context.class);
+        Persistence persistence = mock(Persistence.class);
+        new DefaultChannel(context, UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        ArgumentCaptor<ComponentCallbacks2> callbacks = ArgumentCaptor.forClass(ComponentCallbacks2.class);
+        verify(context).registerComponentCallbacks(callbacks.capture());
+
+        /* Memory pressure in foreground does not flush. */
+        callbacks.getValue().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        callbacks.getValue().onLowMemory();
+        verify(persistence, never()).flush();
+
+        /* Going to background flushes. */
+        callbacks.getValue().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        verify(persistence).flush();
     }
 }
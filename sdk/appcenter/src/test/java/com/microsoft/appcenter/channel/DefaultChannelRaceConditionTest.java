@@ -67,12 +67,12 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
                 return null;
             }
         }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
+        HandlerUtils.runOnSenderThread(any(Runnable.class));
 
         /* Simulate enable module then disable. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         Channel.GroupListener listener = mock(Channel.GroupListener.class);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, listener);
         channel.setEnabled(false);
         channel.setEnabled(true);
 
@@ -117,7 +117,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         /* Simulate enable module then disable. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         Channel.GroupListener listener = mock(Channel.GroupListener.class);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, listener);
         channel.setEnabled(false);
         channel.setEnabled(true);
 
@@ -171,7 +171,7 @@ public class DefaultChannelRaceConditionTest extends AbstractDefaultChannelTest
         /* Simulate enable module then disable. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
         Channel.GroupListener listener = mock(Channel.GroupListener.class);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, listener);
         channel.setEnabled(false);
         channel.setEnabled(true);
 
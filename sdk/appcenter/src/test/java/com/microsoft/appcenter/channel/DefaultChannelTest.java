@@ -9,6 +9,7 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.DependencyConfiguration;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.http.HttpException;
 import com.microsoft.appcenter.http.HttpResponse;
@@ -31,14 +32,18 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.channel.DefaultChannel.PRECONNECT_LEAD_TIME;
 import static com.microsoft.appcenter.channel.DefaultChannel.START_TIMER_PREFIX;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
@@ -58,6 +63,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
     private static final long CUSTOM_INTERVAL = 10000;
 
+    private static final long GROUP_COMMIT_INTERVAL = 200;
+
     @Test
     public void invalidGroup() throws Persistence.PersistenceException {
         Persistence persistence = mock(Persistence.class);
@@ -85,7 +92,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class)))
                 .then(getSendAsyncAnswer());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Enqueuing 49 events. */
         for (int i = 1; i <= 49; i++) {
@@ -175,7 +182,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getGetLogsAnswer(0));
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Prepare to mock timer. */
         ArgumentCaptor<Runnable> delayedRunnable = ArgumentCaptor.forClass(Runnable.class);
@@ -225,7 +232,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Init channel with mocks. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Prepare to mock timer. */
         ArgumentCaptor<Runnable> delayedRunnable = ArgumentCaptor.forClass(Runnable.class);
@@ -282,7 +289,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Init channel with mocks. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Enqueue enough logs to be split in N + 1 maximum requests. */
         for (int i = 0; i < 100; i++) {
@@ -325,7 +332,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getGetLogsAnswer(20));
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException())).then(getSendAsyncAnswer());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Enqueuing 50 events. */
         for (int i = 0; i < 50; i++) {
@@ -402,7 +409,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getGetLogsAnswer(20));
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(new HttpResponse(403)))).then(getSendAsyncAnswer());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Enqueuing 50 events. */
         for (int i = 0; i < 50; i++) {
@@ -478,7 +485,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer());
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Enqueuing 2 error logs. */
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
@@ -517,7 +524,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException())).then(getSendAsyncAnswer());
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Enqueuing n errors. */
         int logNumber = 5;
@@ -565,7 +572,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
     public void errorLogDiscarded() {
         Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mock(Persistence.class), mock(Ingestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
         channel.setEnabled(false);
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
         verify(mockListener).onFailure(any(Log.class), any(CancellationException.class));
@@ -597,7 +604,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getSendAsyncAnswer(new HttpException(new HttpResponse(404))));
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* 30 from countLogs and 10 new logs from getLogs. */
         verify(mockListener, times(40)).onBeforeSending(any(Log.class));
@@ -630,7 +637,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 .then(getSendAsyncAnswer(new SocketException()));
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         assertFalse(channel.isEnabled());
     }
@@ -645,8 +652,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 when(mockPersistence).putLog(any(Log.class), anyString(), anyInt());
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
-        channel.addGroup(TEST_GROUP + "2", 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.addGroup(TEST_GROUP + "2", 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Verify no request is sent if Persistence fails. */
         for (int i = 0; i < 10; i++) {
@@ -675,7 +682,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
         Channel.Listener listener = spy(new AbstractChannelListener());
         channel.addListener(listener);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
         verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
 
@@ -715,7 +722,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
                 return null;
             }
         });
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
 
         verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
@@ -733,7 +740,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Create channel. */
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         verify(ingestion, never()).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
         assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
         delayedRunnable.getValue().run();
@@ -752,7 +759,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(persistence.countLogs(anyString())).thenReturn(103);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(50)).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         verify(ingestion, times(2)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
         assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
         delayedRunnable.getValue().run();
@@ -771,7 +778,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(persistence.countLogs(anyString())).thenReturn(3);
         when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class))).thenAnswer(getGetLogsAnswer(3));
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
         verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
         channel.setEnabled(false);
@@ -789,7 +796,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenThrow(new DeviceInfoHelper.DeviceInfoException("mock", new PackageManager.NameNotFoundException()));
         Persistence persistence = mock(Persistence.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), null, persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         Channel.Listener listener = mock(Channel.Listener.class);
         channel.addListener(listener);
 
@@ -812,7 +819,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         Persistence persistence = mock(Persistence.class);
         when(persistence.countLogs(anyString())).thenReturn(2);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
         verify(ingestion, never()).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
         assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
         delayedRunnable.getValue().run();
@@ -837,8 +844,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(new HttpResponse(403))));
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
-        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
+        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Enqueuing 1 event. */
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
@@ -867,8 +874,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).thenReturn(null).then(getSendAsyncAnswer(new HttpException(new HttpResponse(403))));
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, 1, MAX_PARALLEL_BATCHES, null, null);
-        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+        channel.addGroup(TEST_GROUP, 1, 1, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
 
         /* Enqueuing 2 events. */
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
@@ -893,8 +900,8 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockIngestion.sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new HttpException(new HttpResponse(503))));
 
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
-        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
+        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
 
         /* Enqueuing 1 event. */
         channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
@@ -920,7 +927,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Setup persistence, channel and a listener. */
         Persistence persistence = mock(Persistence.class);
         Channel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mock(Channel.GroupListener.class));
         Channel.Listener listener = mock(Channel.Listener.class);
         channel.addListener(listener);
 
@@ -953,7 +960,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(5);
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, mockIngestion, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
 
         /* Verify that timer starts and current time is saved into preferences. */
         verifyStatic();
@@ -973,7 +980,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(0);
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, mockIngestion, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
 
         /* Verify that timer isn't started. */
         verifyStatic(never());
@@ -997,7 +1004,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(5);
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, mockIngestion, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
 
         /* Do not replace start timer value. */
         verifyStatic(never());
@@ -1023,7 +1030,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(5);
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, mockIngestion, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
 
         /* Verify that start time is replaced. */
         verifyStatic();
@@ -1050,7 +1057,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(5));
         AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
         DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
-        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, mockIngestion, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
 
         /* Do not start the timer. */
         verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), anyLong());
@@ -1095,7 +1102,7 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
 
         /* Create channel and group. */
         DefaultChannel channel = spy(new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler));
-        channel.addGroup(TEST_GROUP, 50, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, null, mock(Channel.GroupListener.class));
+        channel.addGroup(TEST_GROUP, 50, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mock(Channel.GroupListener.class));
 
         /* Prepare to mock timer. */
         long timeDelay = CUSTOM_INTERVAL - (now - startTimer);
@@ -1124,4 +1131,247 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         /* Check rest logs sending. */
         verify(mockIngestion, times(4)).sendAsync(anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
     }
+
+    @Test
+    public void sendPersistedPayloads() {
+        Persistence mockPersistence = mock(Persistence.class);
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(2));
+        List<String> serializedLogs = Arrays.asList("payload1", "payload2");
+        when(mockPersistence.takeSerializedLogs(eq(TEST_GROUP), anyString())).thenReturn(serializedLogs);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+
+        /* Trigger a batch. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify persisted payloads are forwarded to ingestion. */
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertEquals(2, container.getValue().getLogs().size());
+        assertEquals(serializedLogs, container.getValue().getSerializedLogs());
+    }
+
+    @Test
+    public void sendWithoutPersistedPayloads() {
+        Persistence mockPersistence = mock(Persistence.class);
+        Ingestion mockIngestion = mock(Ingestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class))).then(getGetLogsAnswer(2));
+        when(mockPersistence.takeSerializedLogs(eq(TEST_GROUP), anyString())).thenReturn(null);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 2, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+
+        /* Trigger a batch. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify logs will be serialized by ingestion. */
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertNull(container.getValue().getSerializedLogs());
+    }
+
+    @Test
+    public void groupCommitWhenWindowExpires() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL))).thenReturn(new long[]{1, 2, 3});
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.setGroupCommit(10, GROUP_COMMIT_INTERVAL);
+
+        /* Enqueue logs: they are buffered. */
+        for (int i = 0; i < 3; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        ArgumentCaptor<Runnable> flushRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(flushRunnable.capture(), eq(GROUP_COMMIT_INTERVAL));
+
+        /* Expire the window: all logs are stored at once. */
+        flushRunnable.getValue().run();
+        ArgumentCaptor<List> logs = ArgumentCaptor.forClass(List.class);
+        verify(mockPersistence).putLogs(logs.capture(), eq(TEST_GROUP), eq(NORMAL));
+        assertEquals(3, logs.getValue().size());
+        assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+    }
+
+    @Test
+    public void groupCommitWhenBufferIsFull() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL))).thenReturn(new long[]{1, 2});
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.setGroupCommit(2, GROUP_COMMIT_INTERVAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Buffer is flushed without waiting for the window. */
+        verify(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL));
+        verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Disabling group commit stores logs one by one again. */
+        channel.setGroupCommit(0, 0);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence).putLog(any(Log.class), eq(TEST_GROUP), eq(NORMAL));
+        assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void groupCommitFlushedOnShutdown() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL))).thenReturn(new long[]{1});
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.setGroupCommit(10, GROUP_COMMIT_INTERVAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.shutdown();
+        verify(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL));
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), eq(BATCH_TIME_INTERVAL));
+    }
+
+    @Test
+    public void groupCommitPersistenceFailure() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        when(mockPersistence.putLogs(anyListOf(Log.class), eq(TEST_GROUP), eq(NORMAL))).thenReturn(new long[]{1, -1});
+        doThrow(new Persistence.PersistenceException("mock", new IOException("mock")))
+                .when(mockPersistence).putLogs(anyListOf(Log.class), eq(TEST_GROUP + "2"), anyInt());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
+        channel.addGroup(TEST_GROUP + "2", 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, mockListener);
+        channel.setGroupCommit(10, GROUP_COMMIT_INTERVAL);
+
+        /* One log fails to be stored in first group, the whole commit fails in the second one. */
+        Log failedLog = mock(Log.class);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(failedLog, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP + "2", Flags.DEFAULTS);
+        channel.flushPendingWrites();
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        assertEquals(0, channel.getGroupState(TEST_GROUP + "2").mPendingLogCount);
+        verify(mockListener).onFailure(eq(failedLog), any(Persistence.PersistenceException.class));
+        verify(mockListener, times(2)).onBeforeSending(any(Log.class));
+        verify(mockListener, times(2)).onFailure(any(Log.class), any(Persistence.PersistenceException.class));
+    }
+
+    @Test
+    public void criticalLogsSkipGroupCommit() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        DependencyConfiguration.setGroupCommit(10, GROUP_COMMIT_INTERVAL);
+        DefaultChannel channel;
+        try {
+            channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mock(AppCenterIngestion.class), mAppCenterHandler);
+        } finally {
+            DependencyConfiguration.setGroupCommit(0, 0);
+        }
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+
+        /* Group commit is configured from dependency configuration. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(GROUP_COMMIT_INTERVAL));
+
+        /* Critical log is stored right away, before the commit window expires. */
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(mockPersistence).putLog(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        verify(mockPersistence, never()).putLogs(anyListOf(Log.class), anyString(), anyInt());
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void criticalLogsAreSentInCriticalBatches() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class)))
+                .then(getGetLogsAnswer(1));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        channel.addGroup(TEST_GROUP + "2", 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+
+        /* Normal log. */
+        ArgumentCaptor<LogContainer> logContainer = ArgumentCaptor.forClass(LogContainer.class);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockIngestion).sendAsync(anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertFalse(logContainer.getValue().isCritical());
+
+        /* Batch with a critical log, as read from persistence. */
+        when(mockPersistence.getBatchPriority(eq(TEST_GROUP + "2"), anyString())).thenReturn(Flags.CRITICAL, Flags.NORMAL);
+        channel.enqueue(mock(Log.class), TEST_GROUP + "2", Flags.CRITICAL);
+        verify(mockIngestion, times(2)).sendAsync(anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertTrue(logContainer.getValue().isCritical());
+
+        /* Next batch of the same group has only normal logs. */
+        channel.enqueue(mock(Log.class), TEST_GROUP + "2", Flags.DEFAULTS);
+        verify(mockIngestion, times(3)).sendAsync(anyString(), any(UUID.class), logContainer.capture(), any(ServiceCallback.class));
+        assertFalse(logContainer.getValue().isCritical());
+    }
+
+    @Test
+    public void preconnectWhenLogsArePending() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, 0, null, null);
+        verify(mockIngestion, never()).preconnect();
+
+        /* Batch is sent within the lead time: connection is prepared right away, once per batch. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockIngestion).preconnect();
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), anyLong());
+        assertFalse(channel.getGroupState(TEST_GROUP).mPreconnectScheduled);
+    }
+
+    @Test
+    public void preconnectBeforeCustomTimer() {
+
+        /* Mock current time. */
+        long now = 1;
+        when(System.currentTimeMillis()).thenReturn(now);
+
+        /* Create channel and group. */
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(5);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
+
+        /* Connection is prepared shortly before the timer fires. */
+        ArgumentCaptor<Runnable> preconnectRunnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(CUSTOM_INTERVAL));
+        verify(mAppCenterHandler).postDelayed(preconnectRunnable.capture(), eq(CUSTOM_INTERVAL - PRECONNECT_LEAD_TIME));
+        verify(mockIngestion, never()).preconnect();
+        preconnectRunnable.getValue().run();
+        verify(mockIngestion).preconnect();
+        assertFalse(channel.getGroupState(TEST_GROUP).mPreconnectScheduled);
+    }
+
+    @Test
+    public void cancelPreconnectWhenDisabled() {
+
+        /* Mock current time. */
+        long now = 1;
+        when(System.currentTimeMillis()).thenReturn(now);
+
+        /* Create channel and group. */
+        Persistence mockPersistence = mock(Persistence.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(5);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 10, CUSTOM_INTERVAL, MAX_PARALLEL_BATCHES, 0, mockIngestion, mock(Channel.GroupListener.class));
+        DefaultChannel.GroupState groupState = channel.getGroupState(TEST_GROUP);
+        assertTrue(groupState.mPreconnectScheduled);
+
+        /* Disabling cancels both the timer and the connection preparation. */
+        channel.setEnabled(false);
+        verify(mAppCenterHandler).removeCallbacks(groupState.mRunnable);
+        verify(mAppCenterHandler).removeCallbacks(groupState.mPreconnectRunnable);
+        assertFalse(groupState.mPreconnectScheduled);
+        verify(mockIngestion, never()).preconnect();
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecTest {
+
+    private static final String PAYLOAD = "{\"logs\":[{\"type\":\"event\",\"id\":\"0c5a0b5c-7f5e-4a3e-8b8a-2d8c1f0d4e11\",\"name\":\"click\"," +
+            "\"timestamp\":\"2019-01-01T00:00:00.000Z\",\"device\":{\"sdkName\":\"appcenter.android\",\"sdkVersion\":\"2.0.0\"," +
+            "\"model\":\"Pixel\",\"oemName\":\"Google\",\"osName\":\"Android\",\"osVersion\":\"9\",\"osApiLevel\":28,\"locale\":\"en_US\"," +
+            "\"timeZoneOffset\":0,\"appVersion\":\"1.0\",\"appBuild\":\"1\",\"appNamespace\":\"com.contoso\"}}]}";
+
+    private static byte[] compress(CompressionCodec codec, byte[] data) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream stream = codec.compress(buffer);
+        stream.write(data);
+        stream.close();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, byte[] dictionary, int length) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] result = new byte[length];
+        int count = inflater.inflate(result);
+        if (inflater.needsDictionary()) {
+            inflater.setDictionary(dictionary);
+            count = inflater.inflate(result);
+        }
+        assertTrue(inflater.finished());
+        assertEquals(length, count);
+        inflater.end();
+        return result;
+    }
+
+    @Test
+    public void gzipSameAsGZIPOutputStream() throws Exception {
+        byte[] data = PAYLOAD.getBytes("UTF-8");
+        for (final int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            GZIPOutputStream gzipStream = new GZIPOutputStream(expected) {
+
+                {
+                    def.setLevel(level);
+                }
+            };
+            gzipStream.write(data);
+            gzipStream.close();
+            GzipCodec codec = new GzipCodec(level);
+            assertEquals(level, codec.getLevel());
+            assertEquals("gzip", codec.getContentEncoding());
+
+            /* Check twice to verify a recycled deflater is reset. */
+            assertArrayEquals(expected.toByteArray(), compress(codec, data));
+            assertArrayEquals(expected.toByteArray(), compress(codec, data));
+        }
+    }
+
+    @Test
+    public void deflate() throws Exception {
+        byte[] data = PAYLOAD.getBytes("UTF-8");
+        DeflateCodec codec = new DeflateCodec();
+        assertFalse(codec.hasDictionary());
+        assertEquals("deflate", codec.getContentEncoding());
+        assertArrayEquals(data, inflate(compress(codec, data), null, data.length));
+    }
+
+    @Test
+    public void deflateWithSdkDictionary() throws Exception {
+        byte[] data = PAYLOAD.getBytes("UTF-8");
+        DeflateCodec codec = DeflateCodec.withSdkDictionary(Deflater.BEST_COMPRESSION);
+        assertTrue(codec.hasDictionary());
+        assertEquals(Deflater.BEST_COMPRESSION, codec.getLevel());
+        byte[] compressed = compress(codec, data);
+        assertArrayEquals(data, inflate(compressed, DeflateCodec.getSdkDictionary(), data.length));
+        assertArrayEquals(data, inflate(compress(codec, data), DeflateCodec.getSdkDictionary(), data.length));
+
+        /* Dictionary makes small payloads smaller. */
+        assertTrue(compressed.length < compress(new DeflateCodec(Deflater.BEST_COMPRESSION, null), data).length);
+    }
+
+    @Test
+    public void deflatersAreReused() {
+        DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true);
+        Deflater deflater = pool.obtain();
+        pool.recycle(deflater);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(deflater, pool.obtain());
+        assertEquals(0, pool.getIdleCount());
+
+        /* Extra deflaters are released. */
+        Deflater[] deflaters = new Deflater[DeflaterPool.MAX_IDLE_DEFLATERS + 1];
+        for (int i = 0; i < deflaters.length; i++) {
+            deflaters[i] = pool.obtain();
+        }
+        assertNotSame(deflaters[0], deflaters[1]);
+        for (Deflater extraDeflater : deflaters) {
+            pool.recycle(extraDeflater);
+        }
+        assertEquals(DeflaterPool.MAX_IDLE_DEFLATERS, pool.getIdleCount());
+    }
+
+    @Test
+    public void closingStreamDoesNotEndDeflater() throws Exception {
+        DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, false);
+        final boolean[] ended = new boolean[1];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION) {
+
+            @Override
+            public void end() {
+                ended[0] = true;
+                super.end();
+            }
+        };
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream stream = new DeflaterPool.PooledDeflaterOutputStream(buffer, pool, deflater);
+        stream.write(new byte[]{1, 2, 3});
+        stream.close();
+        stream.close();
+
+        /* The deflater is reusable: not ended and given back once. */
+        assertFalse(ended[0]);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(deflater, pool.obtain());
+        Inflater inflater = new Inflater();
+        inflater.setInput(buffer.toByteArray());
+        byte[] data = new byte[3];
+        assertEquals(3, inflater.inflate(data));
+        assertArrayEquals(new byte[]{1, 2, 3}, data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel() {
+        new GzipCodec(10);
+    }
+}
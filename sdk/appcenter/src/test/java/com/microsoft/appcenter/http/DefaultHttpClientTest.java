@@ -7,9 +7,12 @@ package com.microsoft.appcenter.http;
 
 import android.net.TrafficStats;
 import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Pair;
 
+import com.microsoft.appcenter.DependencyConfiguration;
 import com.microsoft.appcenter.test.TestUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -57,6 +60,7 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyMapOf;
@@ -72,7 +76,6 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
-import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
@@ -117,7 +120,8 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
+                        (CompressionCodec) invocation.getArguments()[6],
+                        (HttpTransport) invocation.getArguments()[7]));
                 when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
 
                     @Override
@@ -192,6 +196,62 @@ public class DefaultHttpClientTest {
         }));
     }
 
+    @Test
+    public void tls1_2SocketFactoryIsShared() throws Exception {
+
+        /* Connections can only be reused with the same socket factory. */
+        mockCall();
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        String urlString = "https://mock/logs?api-version=1.0.0";
+        HttpsURLConnection urlConnection = mockConnection(urlString);
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        ArgumentCaptor<SSLSocketFactory> socketFactory = ArgumentCaptor.forClass(SSLSocketFactory.class);
+        verify(urlConnection, times(2)).setSSLSocketFactory(socketFactory.capture());
+        assertSame(socketFactory.getAllValues().get(0), socketFactory.getAllValues().get(1));
+    }
+
+    @Test
+    public void preconnect() throws Exception {
+        mockStatic(TrafficStats.class);
+        HttpTransport httpTransport = mock(HttpTransport.class);
+        DefaultHttpClient httpClient = new DefaultHttpClient(null, httpTransport);
+        DependencyConfiguration.setHttpExecutor(new Executor() {
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+        try {
+            httpClient.preconnect("https://mock/logs");
+            verify(httpTransport).preconnect(any(URL.class));
+            verifyStatic();
+            TrafficStats.setThreadStatsTag(anyInt());
+            verifyStatic();
+            TrafficStats.clearThreadStatsTag();
+
+            /* Failing to prepare a connection is ignored. */
+            doThrow(new IOException("mock")).when(httpTransport).preconnect(any(URL.class));
+            httpClient.preconnect("https://mock/logs");
+            verify(httpTransport, times(2)).preconnect(any(URL.class));
+
+            /* Skipped when executor is saturated. */
+            DependencyConfiguration.setHttpExecutor(new Executor() {
+
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    throw new RejectedExecutionException();
+                }
+            });
+            httpClient.preconnect("https://mock/logs");
+            verify(httpTransport, times(2)).preconnect(any(URL.class));
+        } finally {
+            DependencyConfiguration.setHttpExecutor(null);
+        }
+    }
+
     @Test
     public void post200() throws Exception {
 
@@ -236,7 +296,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -287,7 +347,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
 
         /* Verify payload. */
@@ -328,7 +388,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -389,7 +449,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, null, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(new HttpResponse(100, "Continue")));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
     }
 
     @Test
@@ -423,7 +483,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
     }
 
@@ -456,7 +516,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -516,7 +576,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -570,7 +630,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -645,7 +705,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(new HttpResponse(503, "Busy")));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
 
         /* Verify socket tagged to avoid strict mode error. */
         verifyStatic();
@@ -687,7 +747,8 @@ public class DefaultHttpClientTest {
                         (HttpClient.CallTemplate) invocation.getArguments()[3],
                         (ServiceCallback) invocation.getArguments()[4],
                         (DefaultHttpClientCallTask.Tracker) invocation.getArguments()[5],
-                        (boolean) invocation.getArguments()[6]));
+                        (CompressionCodec) invocation.getArguments()[6],
+                        (HttpTransport) invocation.getArguments()[7]));
                 callTask.set(call);
                 when(call.executeOnExecutor(any(Executor.class))).then(new Answer<DefaultHttpClientCallTask>() {
 
@@ -814,6 +875,9 @@ public class DefaultHttpClientTest {
         ServiceCall call = httpClient.callAsync(urlString, METHOD_GET, new HashMap<String, String>(), callTemplate, serviceCallback);
         //verify(serviceCallback).onCallSucceeded(anyString(), anyMapOf(String.class, String.class));
         assertEquals(0, httpClient.getTasks().size());
+
+        /* Connection with a partially read response can't be reused. */
+        verify(urlConnection).disconnect();
     }
 
     @Test
@@ -970,13 +1034,15 @@ public class DefaultHttpClientTest {
     @PrepareForTest(HandlerUtils.class)
     public void rejectedAsyncTask() throws Exception {
 
-        /* Mock HandlerUtils to simulate call from background (this unit test) to main (mock) thread. */
+        /* Mock HandlerUtils to simulate call from this unit test thread to sender (mock) thread. */
         final Semaphore semaphore = new Semaphore(0);
         mockStatic(HandlerUtils.class);
-        doAnswer(new Answer<Object>() {
+        Handler senderHandler = mock(Handler.class);
+        when(HandlerUtils.getSenderHandler()).thenReturn(senderHandler);
+        when(senderHandler.post(any(Runnable.class))).then(new Answer<Boolean>() {
 
             @Override
-            public Object answer(final InvocationOnMock invocation) {
+            public Boolean answer(final InvocationOnMock invocation) {
                 new Thread("rejectedAsyncTask.handler") {
 
                     @Override
@@ -985,10 +1051,9 @@ public class DefaultHttpClientTest {
                         semaphore.release();
                     }
                 }.start();
-                return null;
+                return true;
             }
-        }).when(HandlerUtils.class);
-        HandlerUtils.runOnUiThread(any(Runnable.class));
+        });
 
         /* Mock ingestion to fail on saturated executor in AsyncTask. */
         DefaultHttpClientCallTask call = mock(DefaultHttpClientCallTask.class);
@@ -1001,7 +1066,7 @@ public class DefaultHttpClientTest {
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         assertNotNull(httpClient.callAsync("", "", new HashMap<String, String>(), mock(HttpClient.CallTemplate.class), serviceCallback));
 
-        /* Verify the callback call from "main" thread. */
+        /* Verify the callback call from "sender" thread. */
         semaphore.acquireUninterruptibly();
         verify(serviceCallback).onCallFailed(exception);
         verify(serviceCallback, never()).onCallSucceeded(any(HttpResponse.class));
@@ -1058,7 +1123,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1120,7 +1185,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1182,7 +1247,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1251,7 +1316,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
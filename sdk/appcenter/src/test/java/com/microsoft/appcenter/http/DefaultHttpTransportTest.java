@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Build;
+
+import com.microsoft.appcenter.test.TestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultHttpTransportTest {
+
+    /**
+     * Self-signed certificate for localhost and 127.0.0.1.
+     */
+    private static final String KEY_STORE = "localhost.jks";
+
+    private static final char[] KEY_STORE_PASSWORD = "appcenter".toCharArray();
+
+    private static final String ERROR_PATH = "/error";
+
+    private SSLSocketFactory mDefaultSocketFactory;
+
+    private SSLContext mSslContext;
+
+    private LocalHttpsServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+
+        /* Server and client use the same self-signed certificate. */
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream keyStoreStream = getClass().getClassLoader().getResourceAsStream(KEY_STORE);
+        try {
+            keyStore.load(keyStoreStream, KEY_STORE_PASSWORD);
+        } finally {
+            keyStoreStream.close();
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        mSslContext = SSLContext.getInstance("TLS");
+        mSslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        mServer = new LocalHttpsServer(mSslContext.getServerSocketFactory(), true);
+        mDefaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(mSslContext.getSocketFactory());
+
+        /* Use the platform TLS configuration. */
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.N);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HttpsURLConnection.setDefaultSSLSocketFactory(mDefaultSocketFactory);
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
+        mServer.close();
+    }
+
+    private Object call(String path, String method) {
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        try {
+            when(callTemplate.buildRequestBody()).thenReturn("{}");
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        return new DefaultHttpClientCallTask(mServer.getUrl(path), method, new HashMap<String, String>(), callTemplate,
+                mock(ServiceCallback.class), mock(DefaultHttpClientCallTask.Tracker.class), null, new DefaultHttpTransport()).doInBackground();
+    }
+
+    @Test
+    public void connectionIsReused() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", i % 2 == 0 ? METHOD_POST : METHOD_GET)));
+        }
+        assertEquals(10, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void connectionIsReusedAfterHttpError() {
+        Object result = call(ERROR_PATH, METHOD_POST);
+        assertTrue(result instanceof HttpException);
+        assertEquals(503, ((HttpException) result).getHttpResponse().getStatusCode());
+        assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", METHOD_POST)));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void disconnectDoesNotReuseConnection() throws Exception {
+        HttpTransport.Connection connection = new DefaultHttpTransport().openConnection(new URL(mServer.getUrl("/logs")), METHOD_GET);
+        assertEquals(200, connection.getResponseCode());
+
+        /* Response body not read. */
+        connection.disconnect();
+        assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", METHOD_GET)));
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void handshakesPer100Batches() throws Exception {
+
+        /* Persistent connection: a single TCP connection and TLS handshake. */
+        for (int i = 0; i < 100; i++) {
+            assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", METHOD_POST)));
+        }
+        assertEquals(100, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(1, mServer.getHandshakeCount());
+
+        /* Server closing connections: the new connections resume the TLS session. */
+        mServer.close();
+        mServer = new LocalHttpsServer(mSslContext.getServerSocketFactory(), false);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", METHOD_POST)));
+        }
+        assertEquals(100, mServer.getRequestCount());
+        assertEquals(100, mServer.getConnectionCount());
+        assertEquals(1, mServer.getHandshakeCount());
+    }
+
+    @Test
+    public void preconnect() throws Exception {
+        DefaultHttpTransport httpTransport = new DefaultHttpTransport();
+        httpTransport.preconnect(new URL(mServer.getUrl("/logs")));
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(1, mServer.getHandshakeCount());
+        assertEquals(0, mServer.getRequestCount());
+
+        /* The call resumes the session negotiated ahead of it. */
+        assertEquals(new HttpResponse(200, "OK"), withoutHeaders(call("/logs", METHOD_POST)));
+        assertEquals(2, mServer.getConnectionCount());
+        assertEquals(1, mServer.getHandshakeCount());
+
+        /* Pre-connecting again is skipped while a connection was recently used. */
+        httpTransport.preconnect(new URL(mServer.getUrl("/logs")));
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void preconnectRequiresHttps() throws Exception {
+        new DefaultHttpTransport().preconnect(new URL("http://127.0.0.1/logs"));
+    }
+
+    private static HttpResponse withoutHeaders(Object result) {
+        HttpResponse response = (HttpResponse) result;
+        return new HttpResponse(response.getStatusCode(), response.getPayload());
+    }
+
+    /**
+     * Minimal HTTP/1.1 server over TLS 1.2, counting accepted connections and full TLS handshakes.
+     */
+    private static class LocalHttpsServer implements Runnable, Closeable {
+
+        private final ServerSocket mServerSocket;
+
+        private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+
+        /**
+         * Identifiers of negotiated sessions, a resumed session keeps its identifier.
+         */
+        private final Set<String> mSessionIds = Collections.synchronizedSet(new HashSet<String>());
+
+        private final boolean mKeepAlive;
+
+        LocalHttpsServer(SSLServerSocketFactory serverSocketFactory, boolean keepAlive) throws IOException {
+            mServerSocket = serverSocketFactory.createServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+
+            /* TLS 1.3 doesn't expose resumption through session identifiers. */
+            ((SSLServerSocket) mServerSocket).setEnabledProtocols(new String[]{"TLSv1.2"});
+            mKeepAlive = keepAlive;
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return line.toString("UTF-8");
+        }
+
+        String getUrl(String path) {
+            return "https://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+        }
+
+        int getConnectionCount() {
+            return mConnectionCount.get();
+        }
+
+        int getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        int getHandshakeCount() {
+            return mSessionIds.size();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = mServerSocket.accept();
+                    mConnectionCount.incrementAndGet();
+                    Thread thread = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException ignored) {
+
+                /* Server closed. */
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                mSessionIds.add(toHex(((SSLSocket) socket).getSession().getId()));
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = readLine(in)) != null) {
+
+                    /* Skip headers and body. */
+                    int contentLength = 0;
+                    String header;
+                    while ((header = readLine(in)) != null && !header.isEmpty()) {
+                        if (header.toLowerCase(Locale.US).startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+                        }
+                    }
+                    for (int i = 0; i < contentLength; i++) {
+                        if (in.read() < 0) {
+                            return;
+                        }
+                    }
+                    mRequestCount.incrementAndGet();
+
+                    /* Send a response with a length so that the client can keep the connection. */
+                    boolean error = requestLine.contains(ERROR_PATH);
+                    String body = error ? "Busy" : "OK";
+                    String response = (error ? "HTTP/1.1 503 Service Unavailable" : "HTTP/1.1 200 OK") + "\r\n" +
+                            "Content-Type: text/plain\r\n" +
+                            "Content-Length: " + body.length() + "\r\n" +
+                            (mKeepAlive ? "" : "Connection: close\r\n") +
+                            "\r\n" + body;
+                    out.write(response.getBytes("UTF-8"));
+                    out.flush();
+                    if (!mKeepAlive) {
+                        return;
+                    }
+                }
+            } catch (IOException ignored) {
+
+                /* Client disconnected. */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private static String toHex(byte[] bytes) {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : bytes) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mServerSocket.close();
+        }
+    }
+}
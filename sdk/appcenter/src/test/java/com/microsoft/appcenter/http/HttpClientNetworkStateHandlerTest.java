@@ -26,9 +26,11 @@ import java.util.concurrent.CountDownLatch;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -290,4 +292,17 @@ public class HttpClientNetworkStateHandlerTest {
         thread.interrupt();
         TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
     }
+
+    @Test
+    public void preconnectOnlyWhenNetworkIsUp() throws IOException {
+        HttpClient.Preconnectable httpClient = mock(HttpClient.Preconnectable.class);
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
+        decorator.preconnect("https://mock/call");
+        verify(httpClient, never()).preconnect(anyString());
+        when(networkStateHelper.isNetworkConnected()).thenReturn(true);
+        decorator.preconnect("https://mock/call");
+        verify(httpClient).preconnect("https://mock/call");
+        decorator.close();
+    }
 }
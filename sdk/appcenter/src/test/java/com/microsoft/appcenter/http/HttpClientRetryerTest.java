@@ -8,18 +8,26 @@ package com.microsoft.appcenter.http;
 import android.os.Handler;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.net.SocketException;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
+import static com.microsoft.appcenter.http.DefaultHttpClient.DEFAULT_COMPRESSION_CODEC;
 import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS_HEADER;
+import static com.microsoft.appcenter.http.HttpClientRetryer.CIRCUIT_BREAKER_THRESHOLD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
@@ -28,8 +36,11 @@ import static org.mockito.Matchers.longThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 @SuppressWarnings("unused")
 public class HttpClientRetryerTest {
@@ -118,6 +129,50 @@ public class HttpClientRetryerTest {
         verifyNoMoreInteractions(callback);
     }
 
+    @Test
+    public void retriesReuseRequestBody() throws Exception {
+        final ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn("{a:1}");
+        final List<HttpClient.CallTemplate> callTemplates = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) throws Throwable {
+                HttpClient.CallTemplate callTemplate = (HttpClient.CallTemplate) invocationOnMock.getArguments()[3];
+                callTemplates.add(callTemplate);
+                payloads.add(PreparedBody.prepare(callTemplate, DEFAULT_COMPRESSION_CODEC).getBytes());
+                ServiceCallback serviceCallback = (ServiceCallback) invocationOnMock.getArguments()[4];
+                if (callTemplates.size() < 3) {
+                    serviceCallback.onCallFailed(new SocketException());
+                } else {
+                    serviceCallback.onCallSucceeded(new HttpResponse(200, "mockSuccessPayload"));
+                }
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        simulateRetryAfterDelay(handler);
+        retryer.callAsync(null, null, null, callTemplate, callback);
+        verify(callback).onCallSucceeded(eq(new HttpResponse(200, "mockSuccessPayload")));
+
+        /* Body was built only once and the same bytes were sent by every attempt. */
+        verify(callTemplate).buildRequestBody();
+        assertEquals(3, payloads.size());
+        assertSame(payloads.get(0), payloads.get(1));
+        assertSame(payloads.get(0), payloads.get(2));
+        assertEquals("{a:1}", new String(payloads.get(0), "UTF-8"));
+
+        /* Other callbacks are forwarded to the original template. */
+        URL url = new URL("https://mock");
+        Map<String, String> headers = new HashMap<>();
+        callTemplates.get(2).onBeforeCalling(url, headers);
+        verify(callTemplate).onBeforeCalling(url, headers);
+    }
+
     @Test
     public void retryOnceThenFail() {
         final HttpException expectedException = new HttpException(new HttpResponse(403));
@@ -216,6 +271,181 @@ public class HttpClientRetryerTest {
         verifyNoMoreInteractions(callback);
     }
 
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        final List<ServiceCallback> calls = new ArrayList<>();
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                calls.add((ServiceCallback) invocationOnMock.getArguments()[4]);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+
+        /* Parallel batches of several groups fail. */
+        ServiceCallback[] callbacks = new ServiceCallback[CIRCUIT_BREAKER_THRESHOLD];
+        for (int i = 0; i < CIRCUIT_BREAKER_THRESHOLD; i++) {
+            callbacks[i] = mock(ServiceCallback.class);
+            retryer.callAsync("https://mock/logs", null, null, null, callbacks[i]);
+        }
+        for (int i = 0; i < CIRCUIT_BREAKER_THRESHOLD; i++) {
+            calls.get(i).onCallFailed(new SocketException());
+        }
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler, times(CIRCUIT_BREAKER_THRESHOLD)).postDelayed(runnable.capture(), anyLong());
+
+        /* New calls to that endpoint wait, other endpoints are not affected. */
+        ServiceCallback callback = mock(ServiceCallback.class);
+        retryer.callAsync("https://mock/logs", null, null, null, callback);
+        retryer.callAsync("https://other/logs", null, null, null, mock(ServiceCallback.class));
+        assertEquals(CIRCUIT_BREAKER_THRESHOLD + 1, calls.size());
+
+        /* Retries scheduled before the opening wait too, only a single probe is sent. */
+        for (Runnable retry : runnable.getAllValues()) {
+            retry.run();
+        }
+        assertEquals(CIRCUIT_BREAKER_THRESHOLD + 2, calls.size());
+
+        /* Probe fails: the circuit opens again, still with a single probe afterwards. */
+        calls.get(CIRCUIT_BREAKER_THRESHOLD + 1).onCallFailed(new SocketException());
+        verify(handler, times(CIRCUIT_BREAKER_THRESHOLD + 1)).postDelayed(runnable.capture(), anyLong());
+        runnable.getValue().run();
+        assertEquals(CIRCUIT_BREAKER_THRESHOLD + 3, calls.size());
+
+        /* Probe succeeds: all waiting calls are sent. */
+        calls.get(CIRCUIT_BREAKER_THRESHOLD + 2).onCallSucceeded(new HttpResponse(200, "mockSuccessPayload"));
+        assertEquals(2 * CIRCUIT_BREAKER_THRESHOLD + 3, calls.size());
+        for (int i = CIRCUIT_BREAKER_THRESHOLD + 3; i < calls.size(); i++) {
+            calls.get(i).onCallSucceeded(new HttpResponse(200, "mockSuccessPayload"));
+        }
+        for (ServiceCallback serviceCallback : callbacks) {
+            verify(serviceCallback).onCallSucceeded(any(HttpResponse.class));
+        }
+        verify(callback).onCallSucceeded(any(HttpResponse.class));
+
+        /* Once closed, calls are sent right away. */
+        retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        assertEquals(2 * CIRCUIT_BREAKER_THRESHOLD + 4, calls.size());
+    }
+
+    @Test
+    public void concurrentFailuresOpenCircuitOnce() {
+        final List<ServiceCallback> calls = new ArrayList<>();
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                calls.add((ServiceCallback) invocationOnMock.getArguments()[4]);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+
+        /* More calls than the threshold were in flight when the endpoint went down. */
+        for (int i = 0; i < 2 * CIRCUIT_BREAKER_THRESHOLD; i++) {
+            retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        }
+        for (int i = 0; i < 2 * CIRCUIT_BREAKER_THRESHOLD; i++) {
+            calls.get(i).onCallFailed(new SocketException());
+        }
+
+        /* Failures after the opening don't reschedule the timer. */
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler, times(CIRCUIT_BREAKER_THRESHOLD)).postDelayed(runnable.capture(), anyLong());
+        verify(handler, never()).removeCallbacks(any(Runnable.class));
+
+        /* The probe failure only backs off to the second interval. */
+        runnable.getValue().run();
+        assertEquals(2 * CIRCUIT_BREAKER_THRESHOLD + 1, calls.size());
+        calls.get(2 * CIRCUIT_BREAKER_THRESHOLD).onCallFailed(new SocketException());
+        verifyDelay(handler, 1);
+        assertEquals(2 * CIRCUIT_BREAKER_THRESHOLD + 1, calls.size());
+    }
+
+    @Test
+    public void retryHeaderAppliesToAllCalls() {
+        Map<String, String> responseHeader = new HashMap<>();
+        responseHeader.put(X_MS_RETRY_AFTER_MS_HEADER, "1234");
+        final HttpException throttled = new HttpException(new HttpResponse(429, "", responseHeader));
+        final List<ServiceCallback> calls = new ArrayList<>();
+        HttpClient.Preconnectable httpClient = mock(HttpClient.Preconnectable.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                calls.add((ServiceCallback) invocationOnMock.getArguments()[4]);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClientRetryer retryer = new HttpClientRetryer(httpClient, handler);
+        retryer.preconnect("https://mock/logs");
+        verify(httpClient).preconnect("https://mock/logs");
+
+        /* A single throttled call is enough. */
+        retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        calls.get(0).onCallFailed(throttled);
+        verifyDelayFromHeader(handler, 1234);
+
+        /* Other callers wait for the server delay and don't pre-connect. */
+        ServiceCallback callback = mock(ServiceCallback.class);
+        ServiceCall waitingCall = retryer.callAsync("https://mock/logs", null, null, null, callback);
+        retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        retryer.preconnect("https://mock/logs");
+        assertEquals(1, calls.size());
+        verify(httpClient).preconnect(anyString());
+
+        /* A cancelled waiting call is not sent. */
+        waitingCall.cancel();
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), anyLong());
+        runnable.getValue().run();
+        assertEquals(2, calls.size());
+        calls.get(1).onCallSucceeded(new HttpResponse(200, "mockSuccessPayload"));
+        assertEquals(3, calls.size());
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void closeForgetsWaitingCalls() throws Exception {
+        final List<ServiceCallback> calls = new ArrayList<>();
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                calls.add((ServiceCallback) invocationOnMock.getArguments()[4]);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClientRetryer retryer = new HttpClientRetryer(httpClient, handler);
+        for (int i = 0; i < CIRCUIT_BREAKER_THRESHOLD; i++) {
+            retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+            calls.get(i).onCallFailed(new SocketException());
+        }
+        retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler, times(CIRCUIT_BREAKER_THRESHOLD)).postDelayed(runnable.capture(), anyLong());
+        retryer.close();
+        verify(httpClient).close();
+        verify(handler).removeCallbacks(runnable.getValue());
+
+        /* The circuit stays open after reopening. */
+        retryer.reopen();
+        retryer.callAsync("https://mock/logs", null, null, null, mock(ServiceCallback.class));
+        assertEquals(CIRCUIT_BREAKER_THRESHOLD, calls.size());
+        verify(handler, times(CIRCUIT_BREAKER_THRESHOLD + 1)).postDelayed(runnable.capture(), anyLong());
+        runnable.getValue().run();
+        assertEquals(CIRCUIT_BREAKER_THRESHOLD + 1, calls.size());
+    }
+
     @Test
     public void cancel() throws InterruptedException {
         final ServiceCall call = mock(ServiceCall.class);
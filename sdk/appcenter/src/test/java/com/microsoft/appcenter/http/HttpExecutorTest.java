@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.DependencyConfiguration;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_CRITICAL;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_DOWNLOAD;
+import static com.microsoft.appcenter.http.HttpExecutor.LANE_NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpExecutorTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @After
+    public void tearDown() {
+        DependencyConfiguration.setHttpExecutor(null);
+        HttpExecutor.unsetSharedInstance();
+    }
+
+    private static Runnable blockingTask(final CountDownLatch started, final CountDownLatch release) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static Runnable recordingTask(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void queuedTasksRunByLanePriority() throws Exception {
+        HttpExecutor executor = new HttpExecutor(1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(blockingTask(started, release));
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        /* Queue tasks in reverse priority order while the only thread is busy. */
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(4);
+        executor.execute(LANE_DOWNLOAD, recordingTask(order, "download", done));
+        executor.execute(LANE_NORMAL, recordingTask(order, "normal1", done));
+        executor.getLaneExecutor(LANE_CRITICAL).execute(recordingTask(order, "critical", done));
+        executor.execute(recordingTask(order, "normal2", done));
+        assertEquals(1, executor.getMetrics(LANE_CRITICAL).getQueuedCount());
+        assertEquals(2, executor.getMetrics(LANE_NORMAL).getQueuedCount());
+        assertEquals(1, executor.getMetrics(LANE_NORMAL).getActiveCount());
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("critical", "normal1", "normal2", "download"), order);
+        assertEquals(1, executor.getThreadCount());
+    }
+
+    @Test
+    public void downloadsDoNotUseAllThreads() throws Exception {
+        HttpExecutor executor = new HttpExecutor(2, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(LANE_DOWNLOAD, blockingTask(started, release));
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        /* Second download waits, logs still get the other thread. */
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch downloadDone = new CountDownLatch(1);
+        CountDownLatch logDone = new CountDownLatch(1);
+        executor.execute(LANE_DOWNLOAD, recordingTask(order, "download", downloadDone));
+        executor.execute(LANE_NORMAL, recordingTask(order, "normal", logDone));
+        assertTrue(logDone.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("normal"), order);
+        assertEquals(1, executor.getMetrics(LANE_DOWNLOAD).getQueuedCount());
+        assertEquals(1, executor.getMetrics(LANE_DOWNLOAD).getActiveCount());
+
+        /* Pending download starts when the first one completes. */
+        release.countDown();
+        assertTrue(downloadDone.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("normal", "download"), order);
+    }
+
+    @Test
+    public void rejectWhenLaneQueueIsFull() throws Exception {
+        HttpExecutor executor = new HttpExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(blockingTask(started, release));
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.execute(recordingTask(order, "queued", done));
+        try {
+            executor.execute(recordingTask(order, "rejected", done));
+            fail("Expected rejection");
+        } catch (RejectedExecutionException ignored) {
+        }
+
+        /* Other lanes have their own queue. */
+        executor.execute(LANE_CRITICAL, recordingTask(order, "critical", done));
+        HttpExecutor.LaneMetrics metrics = executor.getMetrics(LANE_NORMAL);
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(1, metrics.getQueuedCount());
+        assertEquals(0, executor.getMetrics(LANE_CRITICAL).getRejectedCount());
+        release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("critical", "queued"), order);
+    }
+
+    @Test
+    public void failingTaskDoesNotLeakThreads() throws Exception {
+        HttpExecutor executor = new HttpExecutor(1, 10);
+        final CountDownLatch failed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                failed.countDown();
+                throw new IllegalStateException("mock");
+            }
+        });
+        assertTrue(failed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        /* A new thread replaces the failed one. */
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(recordingTask(new ArrayList<String>(), "next", done));
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(executor.getThreadCount() <= 1);
+    }
+
+    @Test
+    public void getExecutorUsesSharedInstanceByDefault() {
+        Executor executor = HttpExecutor.getExecutor(LANE_DOWNLOAD);
+        assertSame(HttpExecutor.getSharedInstance().getLaneExecutor(LANE_DOWNLOAD), executor);
+        assertNotSame(executor, HttpExecutor.getExecutor(LANE_NORMAL));
+    }
+
+    @Test
+    public void getExecutorUsesConfiguredExecutor() {
+        HttpExecutor httpExecutor = new HttpExecutor(2, 4);
+        DependencyConfiguration.setHttpExecutor(httpExecutor);
+        assertSame(httpExecutor.getLaneExecutor(LANE_CRITICAL), HttpExecutor.getExecutor(LANE_CRITICAL));
+
+        /* Application executors run all lanes. */
+        Executor appExecutor = mock(Executor.class);
+        DependencyConfiguration.setHttpExecutor(appExecutor);
+        assertSame(appExecutor, HttpExecutor.getExecutor(LANE_CRITICAL));
+        assertSame(appExecutor, HttpExecutor.getExecutor(LANE_DOWNLOAD));
+    }
+
+    @Test
+    public void getLane() {
+        assertEquals(LANE_NORMAL, HttpExecutor.getLane(null));
+        assertEquals(LANE_NORMAL, HttpExecutor.getLane(mock(HttpClient.CallTemplate.class)));
+        HttpClient.PrioritizedCallTemplate callTemplate = mock(HttpClient.PrioritizedCallTemplate.class);
+        when(callTemplate.getLane()).thenReturn(LANE_CRITICAL);
+        assertEquals(LANE_CRITICAL, HttpExecutor.getLane(callTemplate));
+
+        /* Lane is kept when the body is prepared for retries. */
+        assertEquals(LANE_CRITICAL, HttpExecutor.getLane(new PreparedCallTemplate(callTemplate)));
+        assertEquals(LANE_NORMAL, new PreparedCallTemplate(mock(HttpClient.CallTemplate.class)).getLane());
+    }
+
+    @Test
+    public void metricsAreEmptyInitially() {
+        HttpExecutor.LaneMetrics metrics = new HttpExecutor().getMetrics(LANE_CRITICAL);
+        assertEquals(0, metrics.getQueuedCount());
+        assertEquals(0, metrics.getActiveCount());
+        assertEquals(0, metrics.getCompletedCount());
+        assertEquals(0, metrics.getRejectedCount());
+        assertEquals(0, metrics.getAverageWaitTime());
+        assertFalse(metrics.toString().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidThreadCount() {
+        new HttpExecutor(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQueueSize() {
+        new HttpExecutor(1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLane() {
+        new HttpExecutor().execute(HttpExecutor.LANE_COUNT, mock(Runnable.class));
+    }
+}
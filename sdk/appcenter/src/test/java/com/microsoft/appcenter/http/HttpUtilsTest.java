@@ -7,11 +7,17 @@ package com.microsoft.appcenter.http;
 
 import android.content.Context;
 
+import com.microsoft.appcenter.DependencyConfiguration;
+
 import org.junit.Test;
 
+import java.util.zip.Deflater;
+
 import static com.microsoft.appcenter.http.HttpUtils.MAX_CHARACTERS_DISPLAYED_FOR_SECRET;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -98,6 +104,23 @@ public class HttpUtilsTest {
         assertFalse(defaultHttpClient.isCompressionEnabled());
     }
 
+    @Test
+    public void configuredCompressionCodec() {
+        assertSame(DefaultHttpClient.DEFAULT_COMPRESSION_CODEC, getDefaultHttpClient((HttpClientDecorator) HttpUtils.createHttpClient(mock(Context.class))).getCompressionCodec());
+        CompressionCodec compressionCodec = new GzipCodec(Deflater.BEST_SPEED);
+        DependencyConfiguration.setHttpCompressionCodec(compressionCodec);
+        try {
+            HttpClient httpClient = HttpUtils.createHttpClient(mock(Context.class));
+            assertSame(compressionCodec, getDefaultHttpClient((HttpClientDecorator) httpClient).getCompressionCodec());
+
+            /* Disabling compression still wins. */
+            httpClient = HttpUtils.createHttpClient(mock(Context.class), false);
+            assertNull(getDefaultHttpClient((HttpClientDecorator) httpClient).getCompressionCodec());
+        } finally {
+            DependencyConfiguration.setHttpCompressionCodec(null);
+        }
+    }
+
     private DefaultHttpClient getDefaultHttpClient(HttpClientDecorator httpClientDecorator) {
         httpClientDecorator = (HttpClientDecorator) httpClientDecorator.getDecoratedApi();
         return (DefaultHttpClient) httpClientDecorator.getDecoratedApi();
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.util.Log;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.DEFAULT_COMPRESSION_CODEC;
+import static com.microsoft.appcenter.http.PreparedBody.MIN_COMPRESSION_LENGTH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedBodyTest {
+
+    private static String generateText(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; builder.length() < length; i++) {
+            builder.append("{\"name\":\"\u00e9v\u00e9nement ").append(i).append(" \uD83D\uDE00\"}");
+        }
+        return builder.toString();
+    }
+
+    private static byte[] decompress(PreparedBody preparedBody) throws Exception {
+        InputStream stream = new GZIPInputStream(new ByteArrayInputStream(preparedBody.getBytes(), 0, preparedBody.getLength()));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = stream.read(buffer)) > 0) {
+            output.write(buffer, 0, length);
+        }
+        return output.toByteArray();
+    }
+
+    @After
+    public void tearDown() {
+        AppCenterLog.setLogLevel(Log.ASSERT);
+    }
+
+    @Test
+    public void encodedLength() throws Exception {
+        for (String text : new String[]{"", "abc", "\u00e9\u0800\uD83D\uDE00", "\uD800", "a\uDC00b", "\uD83D"}) {
+            assertEquals(text.getBytes("UTF-8").length, PreparedBody.getEncodedLength(text));
+        }
+    }
+
+    @Test
+    public void smallBodyNotCompressed() throws Exception {
+        PreparedBody preparedBody = PreparedBody.encode("{a:1}", DEFAULT_COMPRESSION_CODEC);
+        assertNull(preparedBody.getContentEncoding());
+        assertEquals(5, preparedBody.getLength());
+        assertArrayEquals("{a:1}".getBytes("UTF-8"), preparedBody.getBytes());
+        assertNull(preparedBody.getText());
+    }
+
+    @Test
+    public void compressionDisabled() throws Exception {
+        String text = generateText(MIN_COMPRESSION_LENGTH * 10);
+        PreparedBody preparedBody = PreparedBody.encode(text, null);
+        assertNull(preparedBody.getContentEncoding());
+        assertArrayEquals(text.getBytes("UTF-8"), Arrays.copyOf(preparedBody.getBytes(), preparedBody.getLength()));
+    }
+
+    @Test
+    public void largeBodyCompressed() throws Exception {
+        for (int length : new int[]{MIN_COMPRESSION_LENGTH, 100 * 1024}) {
+            String text = generateText(length);
+            PreparedBody preparedBody = PreparedBody.encode(text, DEFAULT_COMPRESSION_CODEC);
+            assertEquals("gzip", preparedBody.getContentEncoding());
+            assertTrue(preparedBody.getLength() < text.length());
+            assertArrayEquals(text.getBytes("UTF-8"), decompress(preparedBody));
+        }
+    }
+
+    @Test
+    public void keepTextForVerboseLogging() throws Exception {
+        AppCenterLog.setLogLevel(Log.VERBOSE);
+        String text = generateText(MIN_COMPRESSION_LENGTH);
+        assertEquals(text, PreparedBody.encode(text, DEFAULT_COMPRESSION_CODEC).getText());
+        assertEquals("{a:1}", PreparedBody.encode("{a:1}", DEFAULT_COMPRESSION_CODEC).getText());
+    }
+}
@@ -20,12 +20,15 @@ import java.security.SecureRandom;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
@@ -115,4 +118,22 @@ public class Tls1_2SocketFactoryTest {
         assertArrayEquals(DEFAULT_CIPHER_SUITES, getFactory().getDefaultCipherSuites());
         assertArrayEquals(SUPPORTED_CIPHER_SUITES, getFactory().getSupportedCipherSuites());
     }
+
+    @Test
+    public void sessionsAreCachedForResumption() throws Exception {
+        SSLContext sslContext = mock(SSLContext.class);
+        when(sslContext.getSocketFactory()).thenReturn(mock(SSLSocketFactory.class));
+        SSLSessionContext sessionContext = mock(SSLSessionContext.class);
+        when(sslContext.getClientSessionContext()).thenReturn(sessionContext).thenReturn(null);
+        mockStatic(SSLContext.class);
+        when(SSLContext.getInstance("TLSv1.2")).thenReturn(sslContext);
+
+        /* All the sockets of the factory share the session cache. */
+        assertSame(sessionContext, new TLS1_2SocketFactory().getSessionContext());
+        verify(sessionContext).setSessionCacheSize(TLS1_2SocketFactory.SESSION_CACHE_SIZE);
+        verify(sessionContext).setSessionTimeout(TLS1_2SocketFactory.SESSION_TIMEOUT);
+
+        /* Session context can be unavailable. */
+        assertNull(new TLS1_2SocketFactory().getSessionContext());
+    }
 }
\ No newline at end of file
@@ -235,4 +235,16 @@ public class AppCenterIngestionTest {
         assertEquals(call, ingestion.sendAsync(appSecret, UUID.randomUUID(), mock(LogContainer.class), mock(ServiceCallback.class)));
         return callTemplate.get();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void preconnect() {
+        HttpClient.Preconnectable httpClient = mock(HttpClient.Preconnectable.class);
+        AppCenterIngestion ingestion = new AppCenterIngestion(httpClient, mock(LogSerializer.class));
+        ingestion.setLogUrl("http://mock");
+        ingestion.preconnect();
+        verify(httpClient).preconnect("http://mock" + AppCenterIngestion.API_PATH);
+
+        /* Clients that can't prepare connections are ignored. */
+        new AppCenterIngestion(mHttpClient, mock(LogSerializer.class)).preconnect();
+    }
+}
@@ -177,6 +177,32 @@ public class OneCollectorIngestionTest {
         verify(mHttpClient).reopen();
     }
 
+    @Test
+    public void sendAsyncWithSerializedLogs() throws Exception {
+
+        /* Build some payload with logs already serialized. */
+        Extensions ext = new Extensions() {{
+            setProtocol(new ProtocolExtension());
+        }};
+        final CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getExt()).thenReturn(ext);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton("token1"));
+        LogContainer container = new LogContainer();
+        container.setLogs(Collections.<Log>singletonList(log));
+        container.setSerializedLogs(Collections.singletonList("persistedPayload"));
+        LogSerializer serializer = mock(LogSerializer.class);
+
+        /* Configure mock HTTP. */
+        ArgumentCaptor<HttpClient.CallTemplate> callTemplate = ArgumentCaptor.forClass(HttpClient.CallTemplate.class);
+        when(mHttpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), callTemplate.capture(), any(ServiceCallback.class))).thenReturn(mock(ServiceCall.class));
+
+        /* Verify persisted payload is used as is. */
+        OneCollectorIngestion ingestion = new OneCollectorIngestion(mHttpClient, serializer);
+        ingestion.sendAsync(null, null, container, mock(ServiceCallback.class));
+        assertEquals("persistedPayload\n", callTemplate.getValue().buildRequestBody());
+        verify(serializer, never()).serializeLog(any(Log.class));
+    }
+
     @Test
     public void passTicketsDebug() {
         Constants.APPLICATION_DEBUGGABLE = true;
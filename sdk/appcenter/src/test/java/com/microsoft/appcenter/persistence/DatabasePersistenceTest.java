@@ -28,13 +28,17 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -44,6 +48,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNotNull;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -64,9 +69,10 @@ public class DatabasePersistenceTest {
         mockStatic(AppCenterLog.class);
         DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
-        Cursor mockCursor = mock(Cursor.class);
-        when(mockCursor.moveToNext()).thenThrow(new RuntimeException());
-        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        mockDictionary(mockDatabaseManager);
+
+        /* The database manager logs the error and returns -1. */
+        when(mockDatabaseManager.getRowCount(anyString(), any(String[].class))).thenReturn(-1L);
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs count. */
@@ -78,10 +84,6 @@ public class DatabasePersistenceTest {
             /* Close. */
             persistence.close();
         }
-
-        /* There is an error log. */
-        verifyStatic();
-        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
     @Test
@@ -107,12 +109,13 @@ public class DatabasePersistenceTest {
         /* Mock instances. */
         DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        mockDictionary(mockDatabaseManager);
         when(mockDatabaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
 
         for (int i = 0; i < groupCount; i++) {
             MockCursor mockCursor = new MockCursor(list.get(i));
             mockCursor.mockBuildValues(mockDatabaseManager);
-            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString()))
+            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(i)}), anyString(), anyString()))
                     .thenReturn(mockCursor);
         }
 
@@ -145,8 +148,9 @@ public class DatabasePersistenceTest {
         mockStatic(AppCenterLog.class);
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenThrow(new RuntimeException());
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenThrow(new RuntimeException());
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -166,10 +170,11 @@ public class DatabasePersistenceTest {
         mockStatic(AppCenterLog.class);
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
         Cursor mockCursor = mock(Cursor.class);
         when(mockCursor.moveToNext()).thenThrow(new RuntimeException());
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs. */
@@ -189,6 +194,7 @@ public class DatabasePersistenceTest {
         mockStatic(AppCenterLog.class);
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
 
         /* Make corrupted log. */
@@ -203,7 +209,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         Cursor failingCursor = mock(Cursor.class);
@@ -228,6 +234,7 @@ public class DatabasePersistenceTest {
         int logCount = 3;
         DatabaseManager databaseManager = mock(DatabaseManager.class);
         whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
         when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
 
         /* Make 3 logs, the second one will be corrupted. */
@@ -256,7 +263,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         List<ContentValues> idValues = new ArrayList<>(logCount);
@@ -345,7 +352,7 @@ public class DatabasePersistenceTest {
             }
         };
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         idValues = new ArrayList<>(4);
 
         /* Here the id cursor will also skip the new corrupted log which id would be 3. */
@@ -376,6 +383,86 @@ public class DatabasePersistenceTest {
         verify(databaseManager).delete(anyLong());
     }
 
+    @Test
+    public void getLogsQueriesAgainWhenLogCannotBeDeserialized() throws Exception {
+
+        /* Mock instances. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+
+        /* First query returns a log that cannot be deserialized and a valid one. */
+        List<ContentValues> firstValues = new ArrayList<>();
+        for (long i = 0; i < 2; i++) {
+            ContentValues contentValues = mock(ContentValues.class);
+            when(contentValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(contentValues.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(i == 0 ? "bad" : "good");
+            firstValues.add(contentValues);
+        }
+        MockCursor firstCursor = new MockCursor(firstValues);
+        firstCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), eq("2"))).thenReturn(firstCursor);
+
+        /* Second query only asks for the missing log. */
+        List<ContentValues> secondValues = new ArrayList<>();
+        ContentValues contentValues = mock(ContentValues.class);
+        when(contentValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(2L);
+        when(contentValues.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("good");
+        secondValues.add(contentValues);
+        MockCursor secondCursor = new MockCursor(secondValues);
+        secondCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), eq("1"))).thenReturn(secondCursor);
+
+        /* Mock serializer. */
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(eq("good"), anyString())).thenReturn(mock(Log.class));
+        when(logSerializer.deserializeLog(eq("bad"), anyString())).thenThrow(new JSONException("mock"));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get logs and verify the batch is full. */
+        ArrayList<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 2, outLogs);
+        assertEquals(2, outLogs.size());
+        verify(databaseManager).delete(0);
+    }
+
+    @Test
+    public void deleteLogsInSingleStatement() throws Exception {
+
+        /* Mock instances. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        mockDictionary(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        List<ContentValues> values = new ArrayList<>();
+        for (long i = 0; i < 3; i++) {
+            ContentValues contentValues = mock(ContentValues.class);
+            when(contentValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(contentValues.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("good");
+            values.add(contentValues);
+        }
+        MockCursor cursor = new MockCursor(values);
+        cursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(cursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(eq("good"), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get a batch and delete it. */
+        String batchId = persistence.getLogs("mock", Collections.<String>emptyList(), 3, new ArrayList<Log>());
+        assertNotNull(batchId);
+        persistence.deleteLogs("mock", batchId);
+
+        /* Verify the batch is deleted at once and is no longer pending. */
+        verify(databaseManager).delete(Arrays.asList(0L, 1L, 2L));
+        verify(databaseManager, never()).delete(anyLong());
+        assertTrue(persistence.mPendingDbIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingLargePayloadDbIdentifiers.isEmpty());
+    }
+
     @Test
     public void checkSetStorageSizeForwarding() throws Exception {
 
@@ -423,6 +510,29 @@ public class DatabasePersistenceTest {
         persistence.putLog(mock(Log.class), "test-p1", NORMAL);
     }
 
+    /**
+     * Mock dictionary to assign identifiers in the order values are first requested, starting at 0.
+     */
+    private static void mockDictionary(DatabaseManager databaseManager) {
+        final Map<String, Long> ids = new HashMap<>();
+        when(databaseManager.getCursor(eq(DatabasePersistence.DICTIONARY_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).then(new Answer<Cursor>() {
+
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                String value = ((String[]) invocation.getArguments()[3])[0];
+                Long id = ids.get(value);
+                if (id == null) {
+                    id = (long) ids.size();
+                    ids.put(value, id);
+                }
+                Cursor cursor = mock(Cursor.class);
+                when(cursor.moveToNext()).thenReturn(true);
+                when(cursor.getLong(0)).thenReturn(id);
+                return cursor;
+            }
+        });
+    }
+
     private static class MockCursor extends CursorWrapper {
 
         private final List<ContentValues> mList;
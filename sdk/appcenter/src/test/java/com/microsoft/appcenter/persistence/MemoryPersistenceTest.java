@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(AppCenterLog.class)
+public class MemoryPersistenceTest {
+
+    /**
+     * Size of each serialized mock log.
+     */
+    private static final int LOG_SIZE = 10;
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private LogSerializer mLogSerializer;
+
+    @Before
+    public void setUp() throws JSONException {
+        mockStatic(AppCenterLog.class);
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLog(any(Log.class))).thenReturn("0123456789");
+    }
+
+    @Test
+    public void putGetAndDeleteLogs() throws PersistenceException {
+        MemoryPersistence persistence = new MemoryPersistence(1024, null);
+        persistence.setLogSerializer(mLogSerializer);
+        Log normal = mock(Log.class);
+        Log critical = mock(Log.class);
+        CommonSchemaLog paused = mock(CommonSchemaLog.class);
+        when(paused.getTransmissionTargetTokens()).thenReturn(Collections.singleton("key-token"));
+        persistence.putLog(normal, "group", NORMAL);
+        persistence.putLog(paused, "group", NORMAL);
+        persistence.putLog(critical, "group", CRITICAL);
+        assertEquals(3, persistence.countLogs("group"));
+        assertEquals(0, persistence.countLogs("other"));
+
+        /* Critical first, paused key excluded. */
+        List<Log> outLogs = new ArrayList<>();
+        String batchId = persistence.getLogs("group", Collections.singletonList("key"), 10, outLogs);
+        assertNotNull(batchId);
+        assertEquals(Arrays.asList(critical, normal), outLogs);
+        assertEquals(Arrays.asList("0123456789", "0123456789"), persistence.takeSerializedLogs("group", batchId));
+        assertEquals(CRITICAL, persistence.getBatchPriority("group", batchId));
+
+        /* Pending logs are not returned again. */
+        outLogs.clear();
+        assertNull(persistence.getLogs("group", Collections.singletonList("key"), 10, outLogs));
+
+        /* Delete the batch. */
+        persistence.deleteLogs("group", batchId);
+        assertEquals(1, persistence.countLogs("group"));
+        batchId = persistence.getLogs("group", Collections.<String>emptyList(), 10, outLogs);
+        assertNotNull(batchId);
+        assertEquals(Collections.<Log>singletonList(paused), outLogs);
+        assertEquals(NORMAL, persistence.getBatchPriority("group", batchId));
+
+        /* Clear pending state and delete the group. */
+        persistence.clearPendingLogState();
+        persistence.deleteLogs("group");
+        assertEquals(0, persistence.countLogs("group"));
+        assertTrue(persistence.mPendingIdentifiers.isEmpty());
+        assertTrue(persistence.mPendingIdentifiersGroups.isEmpty());
+    }
+
+    @Test
+    public void discardLowerPriorityLogsWhenFull() throws PersistenceException {
+        MemoryPersistence persistence = new MemoryPersistence(3 * LOG_SIZE, null);
+        persistence.setLogSerializer(mLogSerializer);
+        Log critical = mock(Log.class);
+        Log normal1 = mock(Log.class);
+        Log normal2 = mock(Log.class);
+        Log normal3 = mock(Log.class);
+        persistence.putLog(critical, "group1", CRITICAL);
+        persistence.putLog(normal1, "group1", NORMAL);
+        persistence.putLog(normal2, "group2", NORMAL);
+        persistence.putLog(normal3, "group2", NORMAL);
+        assertEquals(1, persistence.getEvictedLogCount());
+        assertEquals(1, persistence.countLogs("group1"));
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("group2", Collections.<String>emptyList(), 10, outLogs);
+        assertEquals(Arrays.asList(normal2, normal3), outLogs);
+
+        /* Normal log cannot discard critical logs. */
+        persistence.putLog(mock(Log.class), "group1", CRITICAL);
+        persistence.putLog(mock(Log.class), "group1", CRITICAL);
+        try {
+            persistence.putLog(mock(Log.class), "group1", NORMAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+
+        /* Storage size also limits memory without spill. */
+        assertFalse(persistence.setMaxStorageSize(0));
+        assertTrue(persistence.setMaxStorageSize(LOG_SIZE - 1));
+        try {
+            persistence.putLog(mock(Log.class), "group1", CRITICAL);
+            fail();
+        } catch (PersistenceException ignore) {
+        }
+    }
+
+    @Test
+    public void tooLargeLogsAreSpilledWithDistinctIds() throws PersistenceException, JSONException {
+        Persistence spillPersistence = mock(Persistence.class);
+        when(spillPersistence.putLog(any(Log.class), anyString(), anyInt())).thenReturn(1L);
+        MemoryPersistence persistence = new MemoryPersistence(2 * LOG_SIZE, spillPersistence);
+        persistence.setLogSerializer(mLogSerializer);
+        Log large = mock(Log.class);
+        when(mLogSerializer.serializeLog(large)).thenReturn("012345678901234567890123456789");
+
+        /* The spill persistence numbers its logs on its own, ids returned stay unique. */
+        long id = persistence.putLog(mock(Log.class), "group", NORMAL);
+        long largeId = persistence.putLog(large, "group", NORMAL);
+        verify(spillPersistence).putLog(large, "group", NORMAL);
+        assertNotEquals(id, largeId);
+        assertNotEquals(largeId, persistence.putLog(mock(Log.class), "group", NORMAL));
+    }
+
+    @Test
+    public void spillWhenFullAndOnFlush() throws PersistenceException {
+        Persistence spillPersistence = mock(Persistence.class);
+        when(spillPersistence.putLogs(anyListOf(Log.class), anyString(), anyInt())).thenReturn(new long[]{1, 2}, new long[]{3});
+        MemoryPersistence persistence = new MemoryPersistence(2 * LOG_SIZE, spillPersistence);
+        persistence.setLogSerializer(mLogSerializer);
+        verify(spillPersistence).setLogSerializer(mLogSerializer);
+        persistence.setMaxStorageSize(4096);
+        verify(spillPersistence).setMaxStorageSize(4096);
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        Log log3 = mock(Log.class);
+        persistence.putLog(log1, "group", NORMAL);
+        persistence.putLog(log2, "group", NORMAL);
+        verify(spillPersistence, never()).putLogs(anyListOf(Log.class), anyString(), anyInt());
+
+        /* Memory full: logs are spilled in one call, nothing is discarded. */
+        persistence.putLog(log3, "group", NORMAL);
+        verify(spillPersistence).putLogs(Arrays.asList(log1, log2), "group", NORMAL);
+        assertEquals(0, persistence.getEvictedLogCount());
+
+        /* Spilled logs are sent first. */
+        when(spillPersistence.countLogs("group")).thenReturn(2);
+        assertEquals(3, persistence.countLogs("group"));
+        when(spillPersistence.getLogs(eq("group"), anyCollectionOf(String.class), anyInt(), anyListOf(Log.class))).thenReturn("spilled");
+        assertEquals("spilled", persistence.getLogs("group", Collections.<String>emptyList(), 10, new ArrayList<Log>()));
+        persistence.takeSerializedLogs("group", "spilled");
+        verify(spillPersistence).takeSerializedLogs("group", "spilled");
+        persistence.getBatchPriority("group", "spilled");
+        verify(spillPersistence).getBatchPriority("group", "spilled");
+        persistence.deleteLogs("group", "spilled");
+        verify(spillPersistence).deleteLogs("group", "spilled");
+
+        /* Then logs in memory once spill persistence is empty. */
+        when(spillPersistence.getLogs(eq("group"), anyCollectionOf(String.class), anyInt(), anyListOf(Log.class))).thenReturn(null);
+        when(spillPersistence.countLogs("group")).thenReturn(0);
+        List<Log> outLogs = new ArrayList<>();
+        String batchId = persistence.getLogs("group", Collections.<String>emptyList(), 10, outLogs);
+        assertNotNull(batchId);
+        assertEquals(Collections.singletonList(log3), outLogs);
+        assertEquals(1, persistence.countLogs("group"));
+
+        /* Pending logs are not spilled on flush. */
+        Log log4 = mock(Log.class);
+        persistence.putLog(log4, "group", CRITICAL);
+        persistence.flush();
+        verify(spillPersistence).putLogs(Collections.singletonList(log4), "group", CRITICAL);
+        verify(spillPersistence).flush();
+        persistence.deleteLogs("group", batchId);
+        verify(spillPersistence, never()).deleteLogs("group", batchId);
+    }
+}
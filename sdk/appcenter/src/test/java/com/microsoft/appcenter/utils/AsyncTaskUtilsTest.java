@@ -20,6 +20,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -46,6 +47,17 @@ public class AsyncTaskUtilsTest {
         verify(task).executeOnExecutor(any(Executor.class), eq(1), eq(2));
     }
 
+    @Test
+    public void executeOnExecutor() {
+
+        @SuppressWarnings("unchecked")
+        AsyncTask<Integer, Void, Void> task = mock(AsyncTask.class);
+        Executor executor = mock(Executor.class);
+        when(task.executeOnExecutor(any(Executor.class), anyInt(), anyInt())).thenReturn(task);
+        assertSame(task, AsyncTaskUtils.execute("", executor, task, 1, 2));
+        verify(task).executeOnExecutor(same(executor), eq(1), eq(2));
+    }
+
     @Test
     public void executeFallback() {
 
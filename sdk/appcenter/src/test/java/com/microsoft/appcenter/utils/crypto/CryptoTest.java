@@ -26,12 +26,14 @@ import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -48,6 +50,7 @@ import static com.microsoft.appcenter.utils.crypto.CryptoConstants.RSA_KEY_SIZE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -339,7 +342,7 @@ public class CryptoTest {
                 return data;
             }
         });
-        int expectedKeyStoreCalls = 3;
+        int expectedKeyStoreCalls = 2;
         verify(mKeyStore, times(expectedKeyStoreCalls)).getEntry(notNull(String.class), isNull(KeyStore.ProtectionParameter.class));
 
         /* Verify we can decrypt with retry on expired key. */
@@ -347,17 +350,16 @@ public class CryptoTest {
         assertEquals(data, decryptedData.getDecryptedData());
         assertNull(decryptedData.getNewEncryptedData());
 
-        /* Verify the second alias was picked for decryption. */
-        expectedKeyStoreCalls += 2;
+        /* Verify key store entries are loaded once per alias and reused for decryption. */
         ArgumentCaptor<String> aliasCaptor = ArgumentCaptor.forClass(String.class);
         verify(mKeyStore, times(expectedKeyStoreCalls)).getEntry(aliasCaptor.capture(), isNull(KeyStore.ProtectionParameter.class));
         List<String> aliases = aliasCaptor.getAllValues();
 
-        /* Check last calls: first we tried to read with the second alias (after rotation). */
-        assertTrue(aliases.get(3).startsWith("appcenter.1."));
+        /* First alias was loaded to encrypt data. */
+        assertTrue(aliases.get(0).startsWith("appcenter.0."));
 
-        /* Then we tried with the old one. */
-        assertTrue(aliases.get(4).startsWith("appcenter.0."));
+        /* Second alias was loaded after rotation. */
+        assertTrue(aliases.get(1).startsWith("appcenter.1."));
     }
 
     @Test
@@ -388,7 +390,7 @@ public class CryptoTest {
                 return (byte[]) invocation.getArguments()[0];
             }
         });
-        int expectedKeyStoreCalls = 3;
+        int expectedKeyStoreCalls = 2;
         verify(mKeyStore, times(expectedKeyStoreCalls)).getEntry(notNull(String.class), isNull(KeyStore.ProtectionParameter.class));
 
         /* Verify we can decrypt with retry on expired key. */
@@ -396,17 +398,16 @@ public class CryptoTest {
         assertEquals(data, decryptedData.getDecryptedData());
         assertNull(decryptedData.getNewEncryptedData());
 
-        /* Verify the second alias was picked for decryption. */
-        expectedKeyStoreCalls += 2;
+        /* Verify key store entries are loaded once per alias and reused for decryption. */
         ArgumentCaptor<String> aliasCaptor = ArgumentCaptor.forClass(String.class);
         verify(mKeyStore, times(expectedKeyStoreCalls)).getEntry(aliasCaptor.capture(), isNull(KeyStore.ProtectionParameter.class));
         List<String> aliases = aliasCaptor.getAllValues();
 
-        /* Check last calls: first we tried to read with the second alias (after rotation). */
-        assertTrue(aliases.get(3).startsWith("appcenter.1."));
+        /* First alias was loaded to encrypt data. */
+        assertTrue(aliases.get(0).startsWith("appcenter.0."));
 
-        /* Then we tried with the old one. */
-        assertTrue(aliases.get(4).startsWith("appcenter.0."));
+        /* Second alias was loaded after rotation. */
+        assertTrue(aliases.get(1).startsWith("appcenter.1."));
     }
 
     private void verifyRsaPreferred(int apiLevel) throws Exception {
@@ -486,7 +487,7 @@ public class CryptoTest {
         assertEquals(alias0, alias.getAllValues().get(2));
         verify(mKeyStore).deleteEntry(alias0);
         verify(mKeyStore, times(alias0count + 1)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
 
         /* Check that it will reload alias0 again after restart. */
         calendar.add(Calendar.YEAR, 1);
@@ -495,7 +496,7 @@ public class CryptoTest {
         encrypted = cryptoUtils.encrypt("anything");
         assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "anything", encrypted);
         verify(mKeyStore, times(alias0count + 2)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
     }
 
     @Test
@@ -538,5 +539,87 @@ public class CryptoTest {
         verify(mKeyStore).containsAlias(alias.capture());
         assertTrue(alias.getValue().contains(CIPHER_AES));
     }
-}
 
+    @Test
+    public void cipherReused() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        String encrypted = cryptoUtils.encrypt("anything");
+        cryptoUtils.encrypt("anything");
+        cryptoUtils.decrypt(encrypted);
+        cryptoUtils.decrypt(encrypted);
+
+        /* One cipher for AES, initialized before every operation. */
+        verify(mCryptoFactory).getCipher(anyString(), anyString());
+        verify(mCipher, times(2)).init(anyInt(), any(Key.class));
+        verify(mCipher, times(2)).init(anyInt(), any(Key.class), any(AlgorithmParameterSpec.class));
+    }
+
+    @Test
+    public void encryptAndDecryptCached() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        assertNull(cryptoUtils.encryptCached(null));
+        assertNull(cryptoUtils.decryptCached(null).getDecryptedData());
+
+        /* Encrypt each value once. */
+        String encrypted = cryptoUtils.encryptCached("token1");
+        assertEquals(CIPHER_AES + "/" + AES_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "IV" + "token1", encrypted);
+        assertSame(encrypted, cryptoUtils.encryptCached("token1"));
+        cryptoUtils.encryptCached("token2");
+        verify(mCipher, times(2)).doFinal(any(byte[].class));
+
+        /* Decrypt each value once. */
+        CryptoUtils.DecryptedData decryptedData = cryptoUtils.decryptCached(encrypted);
+        assertEquals("token1", decryptedData.getDecryptedData());
+        assertSame(decryptedData, cryptoUtils.decryptCached(encrypted));
+        verify(mCipher).doFinal(any(byte[].class), anyInt(), anyInt());
+
+        /* Least recently used values are forgotten. */
+        for (int i = 0; i < CryptoUtils.MAX_CACHED_VALUES; i++) {
+            cryptoUtils.encryptCached("other" + i);
+        }
+        cryptoUtils.encryptCached("token1");
+        verify(mCipher, times(CryptoUtils.MAX_CACHED_VALUES + 3)).doFinal(any(byte[].class));
+    }
+
+    @Test
+    public void failuresNotCached() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        String encrypted = cryptoUtils.encrypt("token");
+        when(mCipher.doFinal(any(byte[].class))).thenThrow(new BadPaddingException());
+        assertEquals("token", cryptoUtils.encryptCached("token"));
+        assertEquals("token", cryptoUtils.encryptCached("token"));
+        verify(mCipher, times(3)).doFinal(any(byte[].class));
+        when(mCipher.doFinal(any(byte[].class), anyInt(), anyInt())).thenThrow(new BadPaddingException());
+        assertEquals(encrypted, cryptoUtils.decryptCached(encrypted).getDecryptedData());
+        assertEquals(encrypted, cryptoUtils.decryptCached(encrypted).getDecryptedData());
+
+        /* Both aliases are tried each time. */
+        verify(mCipher, times(4)).doFinal(any(byte[].class), anyInt(), anyInt());
+    }
+
+    @Test
+    public void cachedValuesClearedOnKeyRotation() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        String encrypted = cryptoUtils.encryptCached("token");
+        cryptoUtils.decryptCached(encrypted);
+
+        /* Rotate key. */
+        when(mCipher.doFinal(any(byte[].class))).thenThrow(new KeyExpiredException()).thenAnswer(new Answer<byte[]>() {
+
+            @Override
+            public byte[] answer(InvocationOnMock invocation) {
+                return (byte[]) invocation.getArguments()[0];
+            }
+        });
+        cryptoUtils.encrypt("otherData");
+
+        /* Values are encrypted and decrypted again, with the new key. */
+        assertEquals(encrypted, cryptoUtils.encryptCached("token"));
+        verify(mCipher, times(4)).doFinal(any(byte[].class));
+        assertEquals("token", cryptoUtils.decryptCached(encrypted).getDecryptedData());
+        verify(mCipher, times(2)).doFinal(any(byte[].class), anyInt(), anyInt());
+        ArgumentCaptor<String> aliasCaptor = ArgumentCaptor.forClass(String.class);
+        verify(mKeyStore, times(2)).getEntry(aliasCaptor.capture(), isNull(KeyStore.ProtectionParameter.class));
+        assertTrue(aliasCaptor.getAllValues().get(1).startsWith("appcenter.1."));
+    }
+}
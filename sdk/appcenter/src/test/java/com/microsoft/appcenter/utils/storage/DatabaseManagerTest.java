@@ -8,11 +8,13 @@ package com.microsoft.appcenter.utils.storage;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDiskIOException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -24,15 +26,22 @@ import org.mockito.internal.stubbing.answers.Returns;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -40,7 +49,7 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 @SuppressWarnings("unused")
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({SQLiteUtils.class, AppCenterLog.class})
+@PrepareForTest({SQLiteUtils.class, AppCenterLog.class, DatabaseUtils.class})
 public class DatabaseManagerTest {
 
     private static DatabaseManager getDatabaseManagerMock() {
@@ -73,6 +82,14 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void deleteWithSelectionFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertEquals(0, databaseManagerMock.delete("table", "key = ?", new String[]{"value"}));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
     @Test
     public void clearFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();
@@ -100,6 +117,14 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void rowCountWithSelectionFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertEquals(-1, databaseManagerMock.getRowCount("key = ?", new String[]{"value"}));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
     @Test
     public void setMaxSizeFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();
@@ -195,7 +220,7 @@ public class DatabaseManagerTest {
         when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException());
 
         /* Instantiate real instance for DatabaseManager. */
-        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, mock(ContentValues.class), mock(DatabaseManager.Listener.class));
         databaseManager.setSQLiteOpenHelper(helperMock);
 
         /* When we put a log, it will fail to purge. */
@@ -224,11 +249,95 @@ public class DatabaseManagerTest {
         when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException()).thenReturn(1L);
 
         /* Instantiate real instance for DatabaseManager. */
-        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, null, null);
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, mock(ContentValues.class), mock(DatabaseManager.Listener.class));
         databaseManager.setSQLiteOpenHelper(helperMock);
 
         /* When we put a log, it succeeds even if a problem occurred while closing purge cursor. */
         long id = databaseManager.put(mock(ContentValues.class), "priority");
         assertEquals(1, id);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void evictsLogsInBulkWhenFull() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+
+        /* Mock the select cursor returning 3 candidates of 10 bytes each. */
+        mockStatic(SQLiteUtils.class);
+        Cursor cursor = mock(Cursor.class);
+        when(cursor.moveToNext()).thenReturn(true, true, true, false);
+        when(cursor.getLong(0)).thenReturn(1L, 2L, 3L);
+        when(cursor.getLong(1)).thenReturn(10L);
+        when(cursor.getString(2)).thenReturn("a", null, "c");
+        SQLiteQueryBuilder sqLiteQueryBuilder = mock(SQLiteQueryBuilder.class, new Returns(cursor));
+        when(SQLiteUtils.newSQLiteQueryBuilder()).thenReturn(sqLiteQueryBuilder);
+
+        /* Simulate that database is full only once and that we need to free more than 1 row. */
+        mockStatic(DatabaseUtils.class);
+        when(DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA page_count", null)).thenReturn(100L);
+        when(DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA freelist_count", null)).thenReturn(0L);
+        when(sqLiteDatabase.getPageSize()).thenReturn(1L);
+        when(sqLiteDatabase.getMaximumSize()).thenReturn(100L);
+        when(sqLiteDatabase.delete(anyString(), anyString(), any(String[].class))).thenReturn(2);
+        when(sqLiteDatabase.insertOrThrow(anyString(), anyString(), any(ContentValues.class))).thenThrow(new SQLiteFullException()).thenReturn(4L);
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, mock(ContentValues.class), mock(DatabaseManager.Listener.class));
+        databaseManager.setSQLiteOpenHelper(helperMock);
+
+        /* Put a log: the 2 oldest logs are deleted in a single statement to go under the low watermark. */
+        Map<Long, String> evictedEntries = new HashMap<>();
+        assertEquals(4, databaseManager.put(mock(ContentValues.class), "priority", null, "column", evictedEntries));
+        verify(sqLiteDatabase).delete("table", "oid IN (1,2)", null);
+
+        /* The evicted column is reported for each deleted entry. */
+        assertEquals(2, evictedEntries.size());
+        assertEquals("a", evictedEntries.get(1L));
+        assertTrue(evictedEntries.containsKey(2L));
+        assertNull(evictedEntries.get(2L));
+    }
+
+    @Test
+    public void compiledStatementsAreReused() {
+
+        /* Mocking instances. */
+        Context contextMock = mock(Context.class);
+        SQLiteOpenHelper helperMock = mock(SQLiteOpenHelper.class);
+        SQLiteDatabase sqLiteDatabase = mock(SQLiteDatabase.class);
+        when(helperMock.getWritableDatabase()).thenReturn(sqLiteDatabase);
+        SQLiteStatement statement = mock(SQLiteStatement.class);
+        when(sqLiteDatabase.compileStatement(anyString())).thenReturn(statement);
+        when(statement.executeInsert()).thenReturn(1L, 2L);
+        when(statement.simpleQueryForLong()).thenReturn(2L);
+        Map<String, Object> map = new HashMap<>();
+        map.put("key", "value");
+        ContentValues values = mock(ContentValues.class);
+        when(values.valueSet()).thenReturn(map.entrySet());
+
+        /* Instantiate real instance for DatabaseManager. */
+        DatabaseManager databaseManager = new DatabaseManager(contextMock, "database", "table", 1, mock(ContentValues.class), mock(DatabaseManager.Listener.class));
+        databaseManager.setSQLiteOpenHelper(helperMock);
+        databaseManager.setWriteAheadLoggingEnabled(true);
+        databaseManager.setCompiledStatementsEnabled(true);
+        verify(helperMock).setWriteAheadLoggingEnabled(true);
+
+        /* Insert twice, count and delete: statements are compiled only once. */
+        assertEquals(1, databaseManager.put(values, "priority"));
+        assertEquals(2, databaseManager.put(values, "priority"));
+        assertEquals(2, databaseManager.getRowCount("key = ?", new String[]{"value"}));
+        databaseManager.delete(1);
+        verify(sqLiteDatabase).compileStatement("INSERT INTO `table` (`key`) VALUES (?)");
+        verify(sqLiteDatabase).compileStatement("SELECT COUNT(*) FROM `table` WHERE key = ?");
+        verify(sqLiteDatabase).compileStatement("DELETE FROM `table` WHERE oid = ?");
+        verify(sqLiteDatabase, never()).insertOrThrow(anyString(), anyString(), any(ContentValues.class));
+        verify(statement).bindLong(1, 1);
+
+        /* Statements are closed with the database. */
+        databaseManager.close();
+        verify(statement, times(3)).close();
+    }
+}